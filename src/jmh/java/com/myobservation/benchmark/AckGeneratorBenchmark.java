@@ -0,0 +1,67 @@
+package com.myobservation.benchmark;
+
+import com.myobservation.listener.ack.HL7AckBuffer;
+import com.myobservation.listener.ack.HL7AckGenerator;
+import com.myobservation.listener.utils.MSHHeader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construcción del ACK a partir del mensaje recibido: como String (buildAckMessage) y enmarcado
+ * en un buffer reutilizado (writeAck, el camino que usan los motores MLLP). Con -prof gc se ve la asignación por ACK.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AckGeneratorBenchmark {
+
+    @Param({HL7Corpus.ADT_A01, HL7Corpus.ORU_R01_LARGE})
+    public String message;
+
+    private HL7AckGenerator ackGenerator;
+    private String hl7Message;
+    private HL7AckBuffer ackBuffer;
+
+    @Setup
+    public void setUp() {
+        ackGenerator = new HL7AckGenerator();
+        hl7Message = HL7Corpus.message(message);
+        ackBuffer = new HL7AckBuffer();
+    }
+
+    @Benchmark
+    public String acceptAck() {
+        return ackGenerator.buildAckMessage(hl7Message, "AA", "");
+    }
+
+    @Benchmark
+    public String errorAck() {
+        return ackGenerator.buildAckMessage(hl7Message, "AE", "MSH-10 (ID de Control de Mensaje) está vacío.");
+    }
+
+    @Benchmark
+    public int acceptAckFramed() {
+        ackGenerator.writeAck(MSHHeader.scan(hl7Message), "AA", "", ackBuffer);
+        return ackBuffer.length();
+    }
+
+    @Benchmark
+    public int errorAckFramed() {
+        ackGenerator.writeAck(MSHHeader.scan(hl7Message), "AE", "MSH-10 (ID de Control de Mensaje) está vacío.", ackBuffer);
+        return ackBuffer.length();
+    }
+}
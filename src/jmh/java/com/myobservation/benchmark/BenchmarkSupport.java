@@ -0,0 +1,71 @@
+package com.myobservation.benchmark;
+
+import ca.uhn.hl7v2.HapiContext;
+import com.myobservation.config.HL7NodeId;
+import com.myobservation.config.HapiConfig;
+import com.myobservation.listener.ack.HL7AckGenerator;
+import com.myobservation.listener.connection.MLLPMessageProcessor;
+import com.myobservation.metrics.HL7MessageLog;
+import com.myobservation.metrics.HL7Metrics;
+import com.myobservation.storage.handler.HL7HandlerRegistry;
+import com.myobservation.storage.service.HL7DuplicateDetector;
+import com.myobservation.storage.service.HL7MessageBatchWriter;
+import com.myobservation.storage.service.HL7OrderedDispatcher;
+import com.myobservation.storage.service.HL7ParserPool;
+import com.myobservation.storage.service.HL7ParserService;
+import com.myobservation.storage.repository.HL7MessageRepository;
+import com.myobservation.storage.wal.HL7WriteAheadLog;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Montaje de los componentes sin contexto Spring ni base de datos.
+ * El repositorio es un stub que devuelve la entidad recibida, de modo que se mide el parseo y el ACK
+ * sin el coste de la persistencia.
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    static HapiContext hapiContext() {
+        return new HapiConfig().hapiContext();
+    }
+
+    static HL7MessageRepository stubRepository() {
+        return (HL7MessageRepository) Proxy.newProxyInstance(HL7MessageRepository.class.getClassLoader(),
+                new Class<?>[]{HL7MessageRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "save", "saveAll" -> args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "StubHL7MessageRepository";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    static HL7ParserService parserService(Set<String> fullParseTypes) {
+        HapiContext hapiContext = hapiContext();
+        HL7ParserPool parserPool = new HL7ParserPool(hapiContext, List.of("ADT^A01", "ORU^R01"), 4);
+        parserPool.warmUp();
+        return new HL7ParserService(stubRepository(), parserPool, HL7Metrics.disabled(), fullParseTypes,
+                new HL7NodeId("bench"), HL7HandlerRegistry.disabled());
+    }
+
+    /**
+     * Procesador MLLP en modo sync con el repositorio stub. La detección de duplicados está desactivada
+     * porque los benchmarks reenvían siempre el mismo mensaje.
+     */
+    static MLLPMessageProcessor messageProcessor(int maxConcurrentProcessing) {
+        HL7MessageRepository repository = stubRepository();
+        HL7MessageBatchWriter batchWriter = new HL7MessageBatchWriter(repository, null, HL7Metrics.disabled(), 50, 5, 1000); // No se arranca en modo sync
+        return new MLLPMessageProcessor(new HL7AckGenerator(), parserService(Set.of("*")), batchWriter,
+                new StaticListableBeanFactory().getBeanProvider(HL7WriteAheadLog.class), HL7Metrics.disabled(),
+                new HL7DuplicateDetector(repository, HL7Metrics.disabled(), false, 0, 0, false, 0, 0,
+                        null, new HL7NodeId("bench"), false),
+                new HL7OrderedDispatcher(HL7Metrics.disabled(), false, 0, "sender", 0, Set.of()), HL7MessageLog.disabled(), "sync",
+                maxConcurrentProcessing);
+    }
+}
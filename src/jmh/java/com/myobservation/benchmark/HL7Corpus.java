@@ -0,0 +1,60 @@
+package com.myobservation.benchmark;
+
+/**
+ * Corpus de mensajes HL7 v2.5 para los benchmarks.
+ * Los mensajes se generan de forma determinista para que los resultados sean comparables entre ejecuciones:
+ * un ADT^A01 típico de admisión y ORU^R01 de laboratorio con distinto número de OBX.
+ */
+public final class HL7Corpus {
+
+    /**
+     * Nombres admitidos en los @Param de los benchmarks.
+     */
+    public static final String ADT_A01 = "ADT_A01";
+    public static final String ORU_R01_SMALL = "ORU_R01_SMALL";   // 5 OBX
+    public static final String ORU_R01_MEDIUM = "ORU_R01_MEDIUM"; // 50 OBX
+    public static final String ORU_R01_LARGE = "ORU_R01_LARGE";   // 500 OBX
+
+    private HL7Corpus() {
+    }
+
+    public static String message(String name) {
+        return switch (name) {
+            case ADT_A01 -> adtA01("ADT00001");
+            case ORU_R01_SMALL -> oruR01("ORU00005", 5);
+            case ORU_R01_MEDIUM -> oruR01("ORU00050", 50);
+            case ORU_R01_LARGE -> oruR01("ORU00500", 500);
+            default -> throw new IllegalArgumentException("Mensaje de corpus desconocido: " + name);
+        };
+    }
+
+    public static String adtA01(String controlId) {
+        return "MSH|^~\\&|HIS|HOSPITAL_CENTRAL|LAB|LAB_CENTRAL|20240315083000||ADT^A01^ADT_A01|" + controlId + "|P|2.5|||AL|NE|ESP\r"
+                + "EVN|A01|20240315083000|||USR123^GARCIA^ANA\r"
+                + "PID|1||12345678^^^HOSPITAL_CENTRAL^MR~87654321X^^^SNS^NI||FERNANDEZ^LOPEZ^MARIA^^^^L||19750412|F|||"
+                + "CALLE MAYOR 10^^MADRID^^28013^ESP^H||^PRN^PH^^34^91^5551234|||M|||87654321X\r"
+                + "PD1|||CENTRO SALUD CENTRO^^1234|45678^MARTIN^JUAN\r"
+                + "NK1|1|FERNANDEZ^PEDRO|SPO^Esposo^HL70063|CALLE MAYOR 10^^MADRID^^28013^ESP|^PRN^PH^^34^91^5551235\r"
+                + "PV1|1|I|MED^301^1^HOSPITAL_CENTRAL||||12345^RODRIGUEZ^LUIS^^^DR|||MED||||7|||12345^RODRIGUEZ^LUIS^^^DR|IN||SNS|||||||||||||||||||"
+                + "HOSPITAL_CENTRAL||ADM|||20240315082500\r"
+                + "AL1|1|DA|70618^PENICILINA^RXNORM|SV|URTICARIA\r"
+                + "DG1|1||J18.9^NEUMONIA NO ESPECIFICADA^I10||20240315|A\r";
+    }
+
+    public static String oruR01(String controlId, int observations) {
+        StringBuilder sb = new StringBuilder(256 + observations * 110);
+        sb.append("MSH|^~\\&|LAB|LAB_CENTRAL|HIS|HOSPITAL_CENTRAL|20240315101500||ORU^R01^ORU_R01|").append(controlId)
+                .append("|P|2.5|||AL|NE|ESP\r");
+        sb.append("PID|1||12345678^^^HOSPITAL_CENTRAL^MR||FERNANDEZ^LOPEZ^MARIA^^^^L||19750412|F\r");
+        sb.append("PV1|1|I|MED^301^1^HOSPITAL_CENTRAL\r");
+        sb.append("ORC|RE|PED123456|LAB987654||CM\r");
+        sb.append("OBR|1|PED123456|LAB987654|24323-8^PANEL METABOLICO COMPLETO^LN|||20240315090000|||||||||")
+                .append("12345^RODRIGUEZ^LUIS^^^DR||||||20240315101000|||F\r");
+        for (int i = 1; i <= observations; i++) {
+            sb.append("OBX|").append(i).append("|NM|").append(2000 + i).append("-").append(i % 10)
+                    .append("^ANALITO ").append(i).append("^LN||").append(10 + (i * 7) % 90).append('.').append(i % 10)
+                    .append("|mg/dL^mg/dL^UCUM|10-100|N|||F|||20240315100000\r");
+        }
+        return sb.toString();
+    }
+}
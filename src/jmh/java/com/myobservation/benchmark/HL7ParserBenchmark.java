@@ -0,0 +1,58 @@
+package com.myobservation.benchmark;
+
+import com.myobservation.storage.model.entity.HL7Message;
+import com.myobservation.storage.model.dto.HL7MessageDTO;
+import com.myobservation.storage.service.HL7ParserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parseo de HL7ParserService con la persistencia sustituida por un stub.
+ * fullParse=true usa HAPI para todos los tipos (hl7.parser.full-parse-types=*); false solo lee el MSH.
+ * Para medir contención entre hilos: -t 4 (o -t max).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HL7ParserBenchmark {
+
+    @Param({HL7Corpus.ADT_A01, HL7Corpus.ORU_R01_SMALL, HL7Corpus.ORU_R01_MEDIUM, HL7Corpus.ORU_R01_LARGE})
+    public String message;
+
+    @Param({"true", "false"})
+    public boolean fullParse;
+
+    private HL7ParserService parserService;
+    private String hl7Message;
+
+    @Setup
+    public void setUp() {
+        parserService = BenchmarkSupport.parserService(fullParse ? Set.of("*") : Set.of());
+        hl7Message = HL7Corpus.message(message);
+    }
+
+    @Benchmark
+    public HL7Message parseToEntity() {
+        return parserService.parseToEntity(hl7Message);
+    }
+
+    @Benchmark
+    public HL7MessageDTO parseAndSave() {
+        return parserService.parseHL7Message(hl7Message);
+    }
+}
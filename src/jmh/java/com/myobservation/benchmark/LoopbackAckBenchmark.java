@@ -0,0 +1,114 @@
+package com.myobservation.benchmark;
+
+import com.myobservation.listener.connection.MLLPConnectionHandler;
+import com.myobservation.listener.connection.MLLPFrame;
+import com.myobservation.listener.connection.MLLPFrameCodec;
+import com.myobservation.listener.connection.MLLPMessageProcessor;
+import com.myobservation.listener.connection.MLLPSessionSettings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencia extremo a extremo sobre loopback: envío de la trama, lectura y procesado en MLLPConnectionHandler
+ * (sesión persistente, parseo HAPI, persistencia stub) y recepción del ACK.
+ * Cada hilo de JMH mantiene su propia conexión; con -t N se simulan N emisores concurrentes.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackAckBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Server {
+
+        private ServerSocket serverSocket;
+        private ExecutorService executor;
+
+        @Setup
+        public void start() throws IOException {
+            MLLPMessageProcessor processor = BenchmarkSupport.messageProcessor(64);
+            MLLPSessionSettings settings = new MLLPSessionSettings(true, 0, 0, MLLPFrameCodec.DEFAULT_MAX_FRAME_BYTES);
+            serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+            executor = Executors.newCachedThreadPool();
+            executor.execute(() -> {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        socket.setTcpNoDelay(true);
+                        executor.execute(new MLLPConnectionHandler(socket, processor, settings));
+                    } catch (IOException e) {
+                        return; // Socket cerrado en tearDown
+                    }
+                }
+            });
+        }
+
+        @TearDown
+        public void stop() throws IOException {
+            serverSocket.close();
+            executor.shutdownNow();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        @Param({HL7Corpus.ADT_A01, HL7Corpus.ORU_R01_MEDIUM})
+        public String message;
+
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+        private MLLPFrameCodec codec;
+        private byte[] frame;
+
+        @Setup(Level.Trial)
+        public void connect(Server server) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), server.serverSocket.getLocalPort());
+            socket.setTcpNoDelay(true);
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+            codec = new MLLPFrameCodec();
+            frame = MLLPFrameCodec.encode(HL7Corpus.message(message));
+        }
+
+        @TearDown(Level.Trial)
+        public void disconnect() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public MLLPFrame sendAndAwaitAck(Client client) throws IOException {
+        client.out.write(client.frame);
+        client.out.flush();
+        MLLPFrame ack = client.codec.readFrame(client.in);
+        if (ack == null || !ack.message().contains("MSA|AA|")) {
+            throw new IllegalStateException("ACK inesperado: " + (ack == null ? "conexión cerrada" : ack.message()));
+        }
+        return ack;
+    }
+}
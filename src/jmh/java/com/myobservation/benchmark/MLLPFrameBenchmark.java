@@ -0,0 +1,78 @@
+package com.myobservation.benchmark;
+
+import com.myobservation.listener.connection.MLLPFrame;
+import com.myobservation.listener.connection.MLLPFrameCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lectura de tramas MLLP tal y como la hace MLLPConnectionHandler (InputStream) y MLLPNioServer (ByteBuffer).
+ * Cada invocación lee una sesión persistente de FRAMES_PER_SESSION mensajes con un codec nuevo, igual que
+ * una conexión real; el resultado se expresa por trama.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MLLPFrameBenchmark {
+
+    private static final int FRAMES_PER_SESSION = 16;
+
+    @Param({HL7Corpus.ADT_A01, HL7Corpus.ORU_R01_SMALL, HL7Corpus.ORU_R01_MEDIUM, HL7Corpus.ORU_R01_LARGE})
+    public String message;
+
+    private byte[] session;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] frame = MLLPFrameCodec.encode(HL7Corpus.message(message));
+        ByteArrayOutputStream out = new ByteArrayOutputStream(frame.length * FRAMES_PER_SESSION);
+        for (int i = 0; i < FRAMES_PER_SESSION; i++) {
+            out.write(frame);
+        }
+        session = out.toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES_PER_SESSION)
+    public void readFrameFromStream(Blackhole blackhole) throws IOException {
+        MLLPFrameCodec codec = new MLLPFrameCodec();
+        ByteArrayInputStream in = new ByteArrayInputStream(session);
+        MLLPFrame frame;
+        while ((frame = codec.readFrame(in)) != null) {
+            blackhole.consume(frame);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES_PER_SESSION)
+    public void decodeFromByteBuffer(Blackhole blackhole) {
+        MLLPFrameCodec codec = new MLLPFrameCodec();
+        ByteBuffer buffer = ByteBuffer.wrap(session);
+        // Lecturas de 16 KB, como el buffer del selector NIO
+        while (buffer.hasRemaining()) {
+            ByteBuffer chunk = buffer.slice(buffer.position(), Math.min(16 * 1024, buffer.remaining()));
+            codec.decode(chunk, blackhole::consume);
+            buffer.position(buffer.position() + chunk.capacity());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.myobservation.config;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.Version;
+import ca.uhn.hl7v2.model.Group;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.model.Segment;
+import ca.uhn.hl7v2.model.Type;
+import ca.uhn.hl7v2.parser.ModelClassFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * ModelClassFactory que memoriza las clases resueltas por otro factory.
+ * DefaultModelClassFactory hace un Class.forName por cada segmento, grupo y tipo de cada mensaje parseado;
+ * con esta caché cada estructura se resuelve una sola vez por versión. Solo se cachean resultados correctos
+ * (las excepciones se propagan sin cachear).
+ */
+public class CachingModelClassFactory implements ModelClassFactory {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ModelClassFactory delegate;
+
+    private final ConcurrentMap<String, Class<? extends Message>> messageClasses = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Class<? extends Group>> groupClasses = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Class<? extends Segment>> segmentClasses = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Class<? extends Type>> typeClasses = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> eventStructures = new ConcurrentHashMap<>();
+
+    public CachingModelClassFactory(ModelClassFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Class<? extends Message> getMessageClass(String name, String version, boolean isExplicit) throws HL7Exception {
+        String key = name + '|' + version + '|' + isExplicit;
+        Class<? extends Message> cached = messageClasses.get(key);
+        if (cached == null) {
+            cached = delegate.getMessageClass(name, version, isExplicit);
+            if (cached != null) {
+                messageClasses.put(key, cached);
+            }
+        }
+        return cached;
+    }
+
+    @Override
+    public Class<? extends Message> getMessageClassInASpecificPackage(String name, String version, boolean isExplicit,
+                                                                      String packageName) throws HL7Exception {
+        // Uso poco frecuente (paquetes personalizados): no se cachea
+        return delegate.getMessageClassInASpecificPackage(name, version, isExplicit, packageName);
+    }
+
+    @Override
+    public Class<? extends Group> getGroupClass(String name, String version) throws HL7Exception {
+        String key = name + '|' + version;
+        Class<? extends Group> cached = groupClasses.get(key);
+        if (cached == null) {
+            cached = delegate.getGroupClass(name, version);
+            if (cached != null) {
+                groupClasses.put(key, cached);
+            }
+        }
+        return cached;
+    }
+
+    @Override
+    public Class<? extends Segment> getSegmentClass(String name, String version) throws HL7Exception {
+        String key = name + '|' + version;
+        Class<? extends Segment> cached = segmentClasses.get(key);
+        if (cached == null) {
+            cached = delegate.getSegmentClass(name, version);
+            if (cached != null) {
+                segmentClasses.put(key, cached);
+            }
+        }
+        return cached;
+    }
+
+    @Override
+    public Class<? extends Type> getTypeClass(String name, String version) throws HL7Exception {
+        String key = name + '|' + version;
+        Class<? extends Type> cached = typeClasses.get(key);
+        if (cached == null) {
+            cached = delegate.getTypeClass(name, version);
+            if (cached != null) {
+                typeClasses.put(key, cached);
+            }
+        }
+        return cached;
+    }
+
+    @Override
+    public String getMessageStructureForEvent(String name, Version version) throws HL7Exception {
+        String key = name + '|' + version.getVersion();
+        String cached = eventStructures.get(key);
+        if (cached == null) {
+            cached = delegate.getMessageStructureForEvent(name, version);
+            if (cached != null) {
+                eventStructures.put(key, cached);
+            }
+        }
+        return cached;
+    }
+}
@@ -0,0 +1,47 @@
+package com.myobservation.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Identificador de esta instancia cuando varias comparten la BBDD de auditoría detrás de un balanceador TCP.
+ * Se guarda en cada fila de HL7_MESSAGE (node_id) y en los recibos de HL7_MESSAGE_RECEIPT, para saber qué nodo
+ * atendió cada mensaje. Se toma de hl7.node.id o, si no se indica, del nombre de la máquina (el del pod en Kubernetes).
+ */
+@Component
+public class HL7NodeId {
+
+    // Longitud de la columna node_id
+    private static final int MAX_LENGTH = 64;
+
+    private final String value;
+
+    public HL7NodeId(@Value("${hl7.node.id:}") String configured) {
+        String id = configured == null || configured.isBlank() ? hostName() : configured.trim();
+        this.value = id.length() > MAX_LENGTH ? id.substring(0, MAX_LENGTH) : id;
+    }
+
+    public String value() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+
+    private static String hostName() {
+        String env = System.getenv("HOSTNAME");
+        if (env != null && !env.isBlank()) {
+            return env;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.myobservation.config;
 
 import ca.uhn.hl7v2.DefaultHapiContext;
 import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.parser.DefaultModelClassFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -22,6 +23,8 @@ public class HapiConfig {
     public HapiContext hapiContext() {
         DefaultHapiContext context = new DefaultHapiContext();
         context.getParserConfiguration().setValidating(false);
+        // Las clases de segmentos, grupos y tipos se resuelven una vez y se reutilizan en todos los parseos
+        context.setModelClassFactory(new CachingModelClassFactory(new DefaultModelClassFactory()));
         return context;
     }
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+package com.myobservation.listener.ack;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static com.myobservation.listener.utils.ProtocolConstants.CARRIAGE_RETURN;
+import static com.myobservation.listener.utils.ProtocolConstants.END_BLOCK;
+import static com.myobservation.listener.utils.ProtocolConstants.START_BLOCK;
+
+/**
+ * Buffer de bytes reutilizable donde HL7AckGenerator escribe el ACK ya enmarcado en MLLP
+ * (0x0B ACK 0x1C 0x0D) y codificado en UTF-8, listo para una única escritura en el socket.
+ * Una instancia por conexión (no es thread-safe); crece si un ACK no cabe y conserva esa capacidad.
+ */
+public final class HL7AckBuffer {
+
+    private static final int INITIAL_CAPACITY = 512;
+
+    private byte[] bytes;
+    private int length;
+
+    public HL7AckBuffer() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public HL7AckBuffer(int initialCapacity) {
+        this.bytes = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    /**
+     * Trama completa (START_BLOCK ... END_BLOCK CR) en {@code array()[0, length())}.
+     */
+    public byte[] array() {
+        return bytes;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(bytes, 0, length);
+        outputStream.flush();
+    }
+
+    /**
+     * Copia de la trama, para cuando el ACK debe sobrevivir a la reutilización del buffer (motor NIO).
+     */
+    public byte[] toFrame() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * ACK sin el framing MLLP.
+     */
+    public String message() {
+        return length < 3 ? "" : new String(bytes, 1, length - 3, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return message();
+    }
+
+    void beginFrame() {
+        length = 0;
+        put((byte) START_BLOCK);
+    }
+
+    void endFrame() {
+        ensureCapacity(2);
+        bytes[length++] = END_BLOCK;
+        bytes[length++] = CARRIAGE_RETURN;
+    }
+
+    void put(byte b) {
+        ensureCapacity(1);
+        bytes[length++] = b;
+    }
+
+    void put(byte[] src) {
+        ensureCapacity(src.length);
+        System.arraycopy(src, 0, bytes, length, src.length);
+        length += src.length;
+    }
+
+    // Separadores HL7 y demás caracteres que se saben ASCII
+    void putAscii(char c) {
+        put((byte) c);
+    }
+
+    void putUtf8(String s) {
+        putUtf8(s, 0, s.length());
+    }
+
+    /**
+     * Codifica s[start, end) en UTF-8 sin crear un String ni un byte[] intermedio.
+     * Los caracteres ASCII (la gran mayoría en HL7) se copian directamente.
+     */
+    void putUtf8(String s, int start, int end) {
+        // Peor caso: 3 bytes por char (los pares suplentes ocupan 4 bytes para 2 chars)
+        ensureCapacity((end - start) * 3);
+        byte[] out = bytes;
+        int position = length;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out[position++] = (byte) c;
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xC0 | (c >> 6));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                out[position++] = (byte) (0xF0 | (codePoint >> 18));
+                out[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                out[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out[position++] = '?'; // Suplente huérfano: mismo reemplazo que String.getBytes(UTF_8)
+            } else {
+                out[position++] = (byte) (0xE0 | (c >> 12));
+                out[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        length = position;
+    }
+
+    private void ensureCapacity(int extra) {
+        int required = length + extra;
+        if (required > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(required, bytes.length * 2));
+        }
+    }
+}
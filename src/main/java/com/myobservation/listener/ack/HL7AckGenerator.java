@@ -2,7 +2,12 @@ package com.myobservation.listener.ack;
 
 import org.springframework.stereotype.Component; // O @Service, si lo vas a inyectar
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import com.myobservation.listener.utils.MSHHeader;
 
 import static com.myobservation.listener.utils.ProtocolConstants.CARRIAGE_RETURN;
 import static com.myobservation.listener.utils.ProtocolConstants.TIMESTAMP_FORMAT;
@@ -10,65 +15,176 @@ import static com.myobservation.listener.utils.ProtocolConstants.TIMESTAMP_FORMA
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Genera el ACK de un mensaje HL7 a partir de su cabecera MSH.
+ * El camino principal ({@link #writeAck}) escribe la trama MLLP directamente en un HL7AckBuffer reutilizable:
+ * las partes fijas del ACK están precodificadas, los campos del MSH se copian desde el mensaje original
+ * sin crear Strings y la fecha formateada se reutiliza mientras no cambie el segundo.
+ */
 @Component
 public class HL7AckGenerator {
 
     private static final Logger logger = LoggerFactory.getLogger(HL7AckGenerator.class);
 
+    // Partes fijas del ACK, codificadas una sola vez
+    private static final byte[] MSH = ascii("MSH");
+    private static final byte[] DEFAULT_MSH_PREFIX = ascii("MSH|^~\\&|"); // Separadores por defecto: caso habitual
+    private static final byte[] ACK = ascii("ACK");
+    private static final byte[] DEFAULT_TRIGGER = ascii("A01");
+    private static final byte[] VERSION = ascii("2.5");
+    private static final byte[] MSA = ascii("MSA");
+    private static final byte[] FALLBACK_MSH_START = ascii("MSH|^~\\&|ACK_SERVER|||");
+    private static final byte[] FALLBACK_MSH_END = ascii("||ACK^A01||P|2.5\r");
+    private static final byte[] FALLBACK_MSA_AR = utf8("MSA|AR||Mensaje recibido no es un HL7 MSH valido\r");
+    private static final byte[] FALLBACK_MSA_AE = utf8("MSA|AE||MSH incompleto para generar ACK\r");
+
+    // Fecha del ACK (yyyyMMddHHmmss) del segundo actual; se recalcula solo al cambiar de segundo
+    private volatile CachedTimestamp timestamp = new CachedTimestamp(Long.MIN_VALUE, new byte[0]);
+
     public String buildAckMessage(String hl7Message, String ackStatus, String ackErrorDetail) {
+        return buildAckMessage(MSHHeader.scan(hl7Message), ackStatus, ackErrorDetail);
+    }
+
+    /**
+     * Construye el ACK (sin framing MLLP) a partir de la cabecera MSH ya extraída.
+     * Para enviarlo por el socket es preferible {@link #writeAck}, que evita el String intermedio.
+     */
+    public String buildAckMessage(MSHHeader msh, String ackStatus, String ackErrorDetail) {
+        HL7AckBuffer buffer = new HL7AckBuffer();
+        writeAck(msh, ackStatus, ackErrorDetail, buffer);
+        return buffer.message();
+    }
+
+    /**
+     * Escribe el ACK enmarcado en MLLP en el buffer (que se vacía antes).
+     * El ACK usa los mismos separadores declarados por el emisor en MSH-1/MSH-2.
+     */
+    public void writeAck(MSHHeader msh, String ackStatus, String ackErrorDetail, HL7AckBuffer out) {
+        out.beginFrame();
         try {
-            String[] segments = hl7Message.split("\\r");
             // Asegura que el mensaje no esté vacío o sea muy corto antes de intentar parsear MSH
-            if (segments.length == 0 || !segments[0].startsWith("MSH")) {
+            if (msh == null) {
                 logger.warn("[WARNING] Mensaje HL7 recibido sin segmento MSH inicial. Generando ACK de error.");
                 // Fallback a un ACK de error si el mensaje es completamente irreconocible
-                return "MSH|^~\\&|ACK_SERVER|||" + LocalDateTime.now().format(TIMESTAMP_FORMAT) +
-                        "||ACK^A01||P|2.5" + CARRIAGE_RETURN +
-                        "MSA|AR||Mensaje recibido no es un HL7 MSH valido" + CARRIAGE_RETURN;
+                writeFallback(FALLBACK_MSA_AR, out);
+                return;
             }
 
-            String mshSegment = segments[0];
-            String[] mshFields = mshSegment.split("\\|");
-            // Algunas validaciones básicas del MSH para evitar IndexOutOfBoundsException
-            if (mshFields.length < 10) { // MSH-9 (Tipo de mensaje) e MSH-10 (ID de Control de Mensaje) son cruciales para el ACK
-                logger.warn("[WARNING] MSH segmento incompleto para ACK: {}. Campos insuficientes.", mshSegment);
+            // Algunas validaciones básicas del MSH
+            if (msh.fieldCount() < 10) { // MSH-9 (Tipo de mensaje) e MSH-10 (ID de Control de Mensaje) son cruciales para el ACK
+                logger.warn("[WARNING] MSH segmento incompleto para ACK: {} campos. Campos insuficientes.", msh.fieldCount());
                 // Fallback a un ACK de error si el MSH es muy incompleto
-                return "MSH|^~\\&|ACK_SERVER|||" + LocalDateTime.now().format(TIMESTAMP_FORMAT) +
-                        "||ACK^A01||P|2.5" + CARRIAGE_RETURN +
-                        "MSA|AE||MSH incompleto para generar ACK" + CARRIAGE_RETURN;
+                writeFallback(FALLBACK_MSA_AE, out);
+                return;
             }
 
-            String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
-
-            StringBuilder ackBuilder = new StringBuilder();
-            ackBuilder.append("MSH|^~\\&|")
-                    .append(mshFields.length > 4 ? mshFields[4] : "UNKNOWN_APP").append("|")  // Sending App (original Receiving App)
-                    .append(mshFields.length > 5 ? mshFields[5] : "UNKNOWN_FAC").append("|")  // Sending Facility (original Receiving Facility)
-                    .append(mshFields.length > 2 ? mshFields[2] : "ACK_SERVER").append("|")  // Receiving App (original Sending App)
-                    .append(mshFields.length > 3 ? mshFields[3] : "ACK_FAC").append("|")  // Receiving Facility (original Sending Facility)
-                    .append(timestamp).append("|")      // Fecha/Hora del ACK
-                    .append("|ACK^").append(mshFields.length > 8 ? mshFields[8] : "A01").append("|") // Tipo de mensaje ACK para el tipo de mensaje original (ej. ACK^A01 para ADT^A01)
-                    .append(mshFields.length > 9 ? mshFields[9] : "UNKNOWN_ID").append("|")  // ID del mensaje original
-                    .append("P|2.5").append(CARRIAGE_RETURN); // Tipo de procesamiento y versión HL7
+            char fs = msh.fieldSeparator();
+            if (fs == '|' && isDefaultEncoding(msh)) {
+                out.put(DEFAULT_MSH_PREFIX);
+            } else {
+                out.put(MSH);
+                out.putAscii(fs);
+                putField(msh, 2, out);
+                out.putAscii(fs);
+            }
+            putField(msh, 5, out);                // Sending App (original Receiving App)
+            out.putAscii(fs);
+            putField(msh, 6, out);                // Sending Facility (original Receiving Facility)
+            out.putAscii(fs);
+            putField(msh, 3, out);                // Receiving App (original Sending App)
+            out.putAscii(fs);
+            putField(msh, 4, out);                // Receiving Facility (original Sending Facility)
+            out.putAscii(fs);
+            out.put(currentTimestamp());          // Fecha/Hora del ACK
+            out.putAscii(fs);
+            out.putAscii(fs);
+            out.put(ACK);
+            out.putAscii(msh.componentSeparator());
+            int triggerStart = msh.componentStart(9, 2);
+            int triggerEnd = triggerStart < 0 ? -1 : msh.componentEnd(9, triggerStart);
+            if (triggerStart < 0 || triggerEnd == triggerStart) {
+                out.put(DEFAULT_TRIGGER);         // ACK^A01 si el mensaje original no trae evento
+            } else {
+                out.putUtf8(msh.message(), triggerStart, triggerEnd);
+            }
+            out.putAscii(fs);
+            putField(msh, 10, out);               // ID del mensaje original
+            out.putAscii(fs);
+            out.putAscii('P');                    // Tipo de procesamiento y versión HL7
+            out.putAscii(fs);
+            out.put(VERSION);
+            out.putAscii(CARRIAGE_RETURN);
 
             // Segmento MSA
-            ackBuilder.append("MSA|")
-                    .append(ackStatus).append("|")     // AA = Aceptación, AE = Error, AR = Rechazo
-                    .append(mshFields[9]);             // ID del mensaje original
+            out.put(MSA);
+            out.putAscii(fs);
+            out.putUtf8(ackStatus);               // AA = Aceptación, AE = Error, AR = Rechazo
+            out.putAscii(fs);
+            putField(msh, 10, out);               // ID del mensaje original
 
             if (ackErrorDetail != null && !ackErrorDetail.isEmpty()) {
-                ackBuilder.append("|").append(ackErrorDetail); // Detalle del error
+                out.putAscii(fs);
+                out.putUtf8(ackErrorDetail);      // Detalle del error
             }
-            ackBuilder.append(CARRIAGE_RETURN);
-
-            return ackBuilder.toString();
+            out.putAscii(CARRIAGE_RETURN);
 
         } catch (Exception e) {
             logger.error("[ACK GENERATOR FATAL ERROR] Error crítico al construir ACK: {}", e.getMessage(), e);
             // ACK genérico de error si falló la construcción del ACK mismo
-            return "MSH|^~\\&|ACK_SERVER|||" + LocalDateTime.now().format(TIMESTAMP_FORMAT) +
-                    "||ACK^A01||P|2.5" + CARRIAGE_RETURN +
-                    "MSA|AE||Error interno al generar ACK: " + (e.getMessage() != null ? e.getMessage().replace('\r', ' ').replace('\n', ' ') : "Desconocido") + CARRIAGE_RETURN;
+            out.beginFrame();
+            out.put(FALLBACK_MSH_START);
+            out.put(currentTimestamp());
+            out.put(FALLBACK_MSH_END);
+            out.putUtf8("MSA|AE||Error interno al generar ACK: "
+                    + (e.getMessage() != null ? e.getMessage().replace('\r', ' ').replace('\n', ' ') : "Desconocido"));
+            out.putAscii(CARRIAGE_RETURN);
+        } finally {
+            out.endFrame();
         }
     }
-}
\ No newline at end of file
+
+    private void writeFallback(byte[] msa, HL7AckBuffer out) {
+        out.put(FALLBACK_MSH_START);
+        out.put(currentTimestamp());
+        out.put(FALLBACK_MSH_END);
+        out.put(msa);
+    }
+
+    private static void putField(MSHHeader msh, int field, HL7AckBuffer out) {
+        int start = msh.fieldStart(field);
+        if (start >= 0) {
+            out.putUtf8(msh.message(), start, msh.fieldEnd(field));
+        }
+    }
+
+    private static boolean isDefaultEncoding(MSHHeader msh) {
+        String message = msh.message();
+        int start = msh.fieldStart(2);
+        return msh.fieldEnd(2) - start == 4 && message.startsWith("^~\\&", start);
+    }
+
+    // Los ACK de un mismo segundo comparten los bytes de la fecha; la carrera al cambiar de segundo solo
+    // provoca que dos hilos formateen la misma fecha
+    private byte[] currentTimestamp() {
+        long second = Math.floorDiv(System.currentTimeMillis(), 1000L);
+        CachedTimestamp cached = timestamp;
+        if (cached.epochSecond() != second) {
+            Instant instant = Instant.ofEpochSecond(second);
+            LocalDateTime now = LocalDateTime.ofInstant(instant, ZoneId.systemDefault());
+            cached = new CachedTimestamp(second, ascii(now.format(TIMESTAMP_FORMAT)));
+            timestamp = cached;
+        }
+        return cached.bytes();
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private record CachedTimestamp(long epochSecond, byte[] bytes) {
+    }
+}
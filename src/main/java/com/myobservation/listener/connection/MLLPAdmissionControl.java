@@ -0,0 +1,190 @@
+package com.myobservation.listener.connection;
+
+import java.net.InetAddress;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Control de admisión de conexiones MLLP, común a ambos motores.
+ * Limita las conexiones atendidas a la vez (en curso + en cola de espera de un hilo) y las de una misma
+ * dirección remota, para que un interfaz que inunda el listener no deje sin servicio a los demás emisores.
+ * Al alcanzar el límite global se aplica la política configurada:
+ * <ul>
+ *   <li>delay: se deja de aceptar; las conexiones nuevas esperan en el backlog TCP hasta que se libera un hueco</li>
+ *   <li>busy: se acepta, se responde al primer mensaje con un ACK AE de "servidor ocupado" y se cierra</li>
+ * </ul>
+ * Superar el límite por dirección remota siempre se responde como busy: retener el accept castigaría a todos.
+ */
+public class MLLPAdmissionControl {
+
+    public enum OverloadPolicy {
+        DELAY, BUSY;
+
+        public static OverloadPolicy from(String value) {
+            return OverloadPolicy.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Motivo de rechazo, también usado como etiqueta de mllp.admission.rejected.
+     */
+    public enum Rejection {
+        OVERLOADED("overloaded"), REMOTE_LIMIT("remote-limit");
+
+        private final String tag;
+
+        Rejection(String tag) {
+            this.tag = tag;
+        }
+
+        public String tag() {
+            return tag;
+        }
+    }
+
+    private final int maxConnections;
+    private final int maxConnectionsPerRemote;
+    private final OverloadPolicy overloadPolicy;
+    private final Semaphore slots; // null = sin límite global
+    // Conexiones abiertas por IP; la entrada desaparece al llegar a cero para que el mapa no crezca con cada IP vista
+    private final ConcurrentHashMap<InetAddress, Integer> connectionsPerRemote = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxConnections          conexiones atendidas o en cola a la vez (0 = sin límite)
+     * @param maxConnectionsPerRemote conexiones simultáneas desde una misma dirección IP (0 = sin límite)
+     * @param overloadPolicy          qué hacer al alcanzar maxConnections
+     */
+    public MLLPAdmissionControl(int maxConnections, int maxConnectionsPerRemote, OverloadPolicy overloadPolicy) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerRemote = maxConnectionsPerRemote;
+        this.overloadPolicy = overloadPolicy;
+        this.slots = maxConnections > 0 ? new Semaphore(maxConnections) : null;
+    }
+
+    /**
+     * Sin límites: comportamiento anterior, para componentes creados fuera de Spring.
+     */
+    public static MLLPAdmissionControl unlimited() {
+        return new MLLPAdmissionControl(0, 0, OverloadPolicy.DELAY);
+    }
+
+    public OverloadPolicy overloadPolicy() {
+        return overloadPolicy;
+    }
+
+    public int maxConnections() {
+        return maxConnections;
+    }
+
+    public int maxConnectionsPerRemote() {
+        return maxConnectionsPerRemote;
+    }
+
+    /**
+     * Huecos libres del límite global (-1 si no hay límite).
+     */
+    public int availableSlots() {
+        return slots == null ? -1 : slots.availablePermits();
+    }
+
+    /**
+     * Reserva un hueco del límite global antes de aceptar la conexión, sin esperar.
+     * @return false si no hay hueco
+     */
+    public boolean tryAcquireSlot() {
+        return slots == null || slots.tryAcquire();
+    }
+
+    /**
+     * Espera a que haya un hueco del límite global (política delay en el motor bloqueante).
+     */
+    public void awaitSlot() throws InterruptedException {
+        if (slots != null) {
+            slots.acquire();
+        }
+    }
+
+    public void releaseSlot() {
+        if (slots != null) {
+            slots.release();
+        }
+    }
+
+    /**
+     * Admite una conexión ya aceptada.
+     * @param slotAcquired si se reservó un hueco con {@link #tryAcquireSlot} o {@link #awaitSlot}; si es true, el hueco pasa a la admisión
+     * @param remote dirección del emisor
+     * @return la admisión, que se debe cerrar cuando termine la conexión; o una admisión rechazada
+     *         (sin huecos reservados) indicando el motivo
+     */
+    public Admission admit(boolean slotAcquired, InetAddress remote) {
+        if (!slotAcquired) {
+            return new Admission(this, Rejection.OVERLOADED, false, null);
+        }
+        if (maxConnectionsPerRemote > 0 && remote != null) {
+            boolean[] admitted = new boolean[1];
+            connectionsPerRemote.compute(remote, (key, count) -> {
+                int current = count == null ? 0 : count;
+                if (current >= maxConnectionsPerRemote) {
+                    return count;
+                }
+                admitted[0] = true;
+                return current + 1;
+            });
+            if (!admitted[0]) {
+                releaseSlot();
+                return new Admission(this, Rejection.REMOTE_LIMIT, false, null);
+            }
+            return new Admission(this, null, true, remote);
+        }
+        return new Admission(this, null, true, null);
+    }
+
+    private void release(Admission admission) {
+        if (admission.remote != null) {
+            connectionsPerRemote.computeIfPresent(admission.remote, (key, count) -> count <= 1 ? null : count - 1);
+        }
+        if (admission.holdsSlot) {
+            releaseSlot();
+        }
+    }
+
+    /**
+     * Resultado de la admisión de una conexión. {@link #close()} libera sus huecos una sola vez.
+     */
+    public static final class Admission implements AutoCloseable {
+
+        private final MLLPAdmissionControl control;
+        private final Rejection rejection;
+        private final boolean holdsSlot;
+        private final InetAddress remote;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Admission(MLLPAdmissionControl control, Rejection rejection, boolean holdsSlot, InetAddress remote) {
+            this.control = control;
+            this.rejection = rejection;
+            this.holdsSlot = holdsSlot;
+            this.remote = remote;
+        }
+
+        public boolean admitted() {
+            return rejection == null;
+        }
+
+        /**
+         * Motivo del rechazo, o null si se admitió.
+         */
+        public Rejection rejection() {
+            return rejection;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                control.release(this);
+            }
+        }
+    }
+}
@@ -1,18 +1,15 @@
 package com.myobservation.listener.connection;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import com.myobservation.listener.ack.HL7AckGenerator;
-import com.myobservation.storage.model.dto.HL7MessageDTO; // <-- Si quieres usar el DTO de retorno
-
-import static com.myobservation.listener.utils.ProtocolConstants.*;
-
-import com.myobservation.storage.service.HL7ParserService;
+import com.myobservation.listener.ack.HL7AckBuffer;
+import com.myobservation.metrics.HL7Metrics;
 import org.slf4j.Logger; // Importa Logger
 import org.slf4j.LoggerFactory; // Importa LoggerFactory
 
@@ -26,115 +23,176 @@ public class MLLPConnectionHandler implements Runnable {
 
     private static final Logger logger = LoggerFactory.getLogger(MLLPConnectionHandler.class);
 
+    // Estados para la parada ordenada (drain): esperando trama, procesando un mensaje,
+    // procesando con la parada pedida (cierra tras el ACK) y cerrada por la parada
+    private static final int IDLE = 0;
+    private static final int BUSY = 1;
+    private static final int DRAINING = 2;
+    private static final int CLOSED = 3;
+
     private final Socket socket;
-    private final HL7AckGenerator ackGenerator;
-    private final HL7ParserService parserService; // <-- Inyectar HL7ParserService
+    private final MLLPMessageProcessor messageProcessor; // Parseo, persistencia y construcción del ACK
+    private final MLLPSessionSettings sessionSettings;
+    private final HL7Metrics metrics;
+    // Admisión concedida por MLLPServer (se libera al cerrar); si viene rechazada, se responde "ocupado" y se cierra
+    private final MLLPAdmissionControl.Admission admission;
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+
+    public MLLPConnectionHandler(Socket socket, MLLPMessageProcessor messageProcessor) {
+        this(socket, messageProcessor, MLLPSessionSettings.singleMessage());
+    }
 
-    // Constructor actualizado para recibir parserService
-    public MLLPConnectionHandler(Socket socket, HL7AckGenerator ackGenerator, HL7ParserService parserService) {
+    // Constructor con sesión configurable (persistente o un mensaje por conexión)
+    public MLLPConnectionHandler(Socket socket, MLLPMessageProcessor messageProcessor, MLLPSessionSettings sessionSettings) {
+        this(socket, messageProcessor, sessionSettings, HL7Metrics.disabled());
+    }
+
+    public MLLPConnectionHandler(Socket socket, MLLPMessageProcessor messageProcessor, MLLPSessionSettings sessionSettings,
+                                 HL7Metrics metrics) {
+        this(socket, messageProcessor, sessionSettings, metrics, null);
+    }
+
+    public MLLPConnectionHandler(Socket socket, MLLPMessageProcessor messageProcessor, MLLPSessionSettings sessionSettings,
+                                 HL7Metrics metrics, MLLPAdmissionControl.Admission admission) {
         this.socket = socket;
-        this.ackGenerator = ackGenerator;
-        this.parserService = parserService; // Asignar el servicio
+        this.messageProcessor = messageProcessor;
+        this.sessionSettings = sessionSettings;
+        this.metrics = metrics;
+        this.admission = admission;
     }
 
     @Override
     public void run() {
         String hl7Message = null;
-        String ackStatus = "AE"; // Default a Error
-        String ackErrorDetail = "Error desconocido";
+        int processedMessages = 0;
+        MLLPFrameCodec codec = new MLLPFrameCodec(sessionSettings.maxFrameBytes()); // Buffers reutilizados durante toda la sesión
+        HL7AckBuffer ack = new HL7AckBuffer(); // El ACK se escribe ya enmarcado en este buffer, también reutilizado
+        boolean busy = admission != null && !admission.admitted();
+        int idleTimeoutMs = sessionSettings.persistent() ? sessionSettings.idleTimeoutMillis() : 0;
+        long maxFrameNanos = TimeUnit.MILLISECONDS.toNanos(sessionSettings.readTimeoutMillis());
+        metrics.connectionOpened();
 
         try (InputStream inputStream = socket.getInputStream();
              OutputStream outputStream = socket.getOutputStream()) {
 
             logger.info("[READING] Procesando conexión desde: {}", socket.getInetAddress());
 
-            // Procesar mensaje HL7
-            hl7Message = readHL7Message(inputStream); // Ahora readHL7Message lanza IOException
-            if (hl7Message == null || hl7Message.trim().isEmpty()) {
-                ackStatus = "AR"; // Mensaje rechazado (vacío o mal formado MLLP)
-                ackErrorDetail = "Mensaje HL7 vacío o mal formado en MLLP";
-                logger.warn("[WARNING] Mensaje HL7 recibido está vacío o es nulo después del framing.");
-                sendAck(outputStream, ackGenerator.buildAckMessage(hl7Message != null ? hl7Message : "", ackStatus, ackErrorDetail));
-                return;
-            }
-
-            logger.info("[MESSAGE RECEIVED] Mensaje HL7:\n{}", hl7Message);
-
-            // --- ¡Aquí está la integración con la persistencia! ---
-            try {
-                HL7MessageDTO processedDto = parserService.parseHL7Message(hl7Message);
-                ackStatus = processedDto.getAckStatus(); // Obtener el estado real del ACK del servicio de parser
-                ackErrorDetail = processedDto.getAckError(); // Obtener el detalle del error si lo hay
-                logger.info("[DB PERSISTENCE] Mensaje HL7 procesado y persistido. Status: {}", ackStatus);
-            } catch (Exception e) {
-                logger.error("[PERSISTENCE ERROR] Error al parsear o persistir el mensaje HL7: {}", e.getMessage(), e);
-                ackStatus = "AE"; // Indicar error en ACK por fallo de procesamiento/persistencia
-                ackErrorDetail = "Error interno de procesamiento: " + e.getMessage();
-                // Limpiar el detalle de error para el ACK (evitar caracteres especiales)
-                ackErrorDetail = ackErrorDetail.length() > 200 ? ackErrorDetail.substring(0, 200) + "..." : ackErrorDetail;
-                ackErrorDetail = ackErrorDetail.replace('\r', ' ').replace('\n', ' '); // Limpiar saltos de línea
+            // El timeout del socket es el menor entre el de lectura y el de inactividad: acota cada lectura,
+            // y entre tramas se sigue esperando mientras no se agote la inactividad de la sesión
+            socket.setSoTimeout(minPositive(sessionSettings.readTimeoutMillis(), idleTimeoutMs));
+
+            MLLPFrame frame;
+            long waitingSince = System.nanoTime();
+            do {
+                try {
+                    frame = codec.readFrame(inputStream, maxFrameNanos);
+                } catch (SocketTimeoutException e) {
+                    long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitingSince);
+                    if (!codec.isInFrame() && sessionSettings.persistent() && (idleTimeoutMs <= 0 || waitedMs < idleTimeoutMs)) {
+                        continue; // Sesión persistente sin datos, pero aún dentro del tiempo de inactividad
+                    }
+                    throw e;
+                }
+                if (frame == null) {
+                    if (state.get() == CLOSED) {
+                        break;
+                    }
+                    if (codec.isInFrame()) {
+                        logger.warn("[WARNING] Mensaje recibido sin terminador MLLP (0x1C) o bloque de inicio (0x0B).");
+                    }
+                    if (processedMessages > 0) {
+                        // El emisor cerró la sesión persistente de forma ordenada
+                        logger.info("[SESSION END] El emisor cerró la sesión tras {} mensajes", processedMessages);
+                        break;
+                    }
+                    messageProcessor.process((String) null, ack);
+                    sendAck(outputStream, ack);
+                    break;
+                }
+                metrics.frameRead(frame.startNanos());
+                hl7Message = frame.message();
+                if (!state.compareAndSet(IDLE, BUSY)) {
+                    // La parada llegó con la trama ya leída: sin ACK, el emisor la reenviará (a otro nodo)
+                    logger.info("[DRAIN] Conexión cerrada por la parada del nodo, trama sin procesar");
+                    break;
+                }
+                if (busy) {
+                    messageProcessor.rejectBusy(frame, admission.rejection(), ack);
+                } else {
+                    messageProcessor.process(frame, sessionSettings.maxFrameBytes(), ack);
+                }
+                sendAck(outputStream, ack);
+                metrics.ackSent(frame.startNanos());
+                processedMessages++;
+                waitingSince = System.nanoTime();
+                if (!state.compareAndSet(BUSY, IDLE)) {
+                    logger.info("[DRAIN] ACK enviado, conexión cerrada por la parada del nodo tras {} mensajes", processedMessages);
+                    break;
+                }
+            } while (!busy && sessionSettings.acceptsMore(processedMessages));
+
+        } catch (SocketTimeoutException e) {
+            if (codec.isInFrame() || !sessionSettings.persistent()) {
+                logger.warn("[READ TIMEOUT] Sin trama completa en {} ms, cerrando la conexión desde {}",
+                        sessionSettings.readTimeoutMillis(), socket.getInetAddress());
+            } else {
+                logger.info("[SESSION IDLE] Sesión inactiva durante {} ms, cerrando tras {} mensajes",
+                        sessionSettings.idleTimeoutMillis(), processedMessages);
             }
-            // --- Fin de la integración ---
-
-            // Enviar ACK con el estado y detalle obtenidos del procesamiento
-            String ackMessage = ackGenerator.buildAckMessage(hl7Message, ackStatus, ackErrorDetail);
-            sendAck(outputStream, ackMessage);
-
         } catch (IOException e) { // Atrapar IOException aquí para problemas de socket/stream
-            logger.error("[CONNECTION ERROR] Error de E/S en la conexión: {}", e.getMessage());
+            if (state.get() == CLOSED) {
+                logger.info("[DRAIN] Conexión inactiva cerrada por la parada del nodo");
+            } else {
+                logger.error("[CONNECTION ERROR] Error de E/S en la conexión: {}", e.getMessage());
+            }
         } catch (Exception e) { // Capturar cualquier otra excepción no esperada
             logger.error("[UNEXPECTED ERROR] Error inesperado en MLLPConnectionHandler: {}", e.getMessage(), e);
             // Intentar enviar un ACK de error genérico si es posible
             try {
                 if (socket != null && !socket.isClosed()) {
                     OutputStream os = socket.getOutputStream();
-                    String genericErrorAck = ackGenerator.buildAckMessage(hl7Message != null ? hl7Message : "", "AE", "Error inesperado del servidor.");
-                    sendAck(os, genericErrorAck);
+                    messageProcessor.buildErrorAck(hl7Message, "Error inesperado del servidor.", ack);
+                    sendAck(os, ack);
                 }
             } catch (IOException ioE) {
                 logger.error("Error al enviar ACK de error genérico: {}", ioE.getMessage());
             }
         } finally {
             closeSocket();
+            metrics.connectionClosed();
+            if (admission != null) {
+                admission.close();
+            }
         }
     }
 
-    private String readHL7Message(InputStream inputStream) throws IOException {
-        ByteArrayOutputStream messageBytes = new ByteArrayOutputStream();
-        boolean startBlockFound = false;
-        int bytesRead;
-
-        while ((bytesRead = inputStream.read()) != -1) {
-            char currentChar = (char) bytesRead;
-
-            if (!startBlockFound && currentChar == START_BLOCK) {
-                startBlockFound = true;
-                continue;
+    /**
+     * Parada ordenada: si la conexión está esperando una trama se cierra ya; si está procesando un mensaje,
+     * termina, envía su ACK y después se cierra. Se puede llamar desde cualquier hilo.
+     */
+    public void drain() {
+        while (true) {
+            if (state.compareAndSet(IDLE, CLOSED)) {
+                closeSocket(); // Desbloquea la lectura en curso
+                return;
             }
-
-            if (startBlockFound) {
-                if (currentChar == END_BLOCK) {
-                    // Consume any trailing Carriage Return after END_BLOCK (ETXCR)
-                    if (inputStream.available() > 0 && (char)inputStream.read() == CARRIAGE_RETURN) {
-                        // CR consumed
-                    }
-                    return messageBytes.toString(StandardCharsets.UTF_8.name());
-                }
-                messageBytes.write(bytesRead);
+            if (state.compareAndSet(BUSY, DRAINING) || state.get() >= DRAINING) {
+                return;
             }
         }
-        logger.warn("[WARNING] Mensaje recibido sin terminador MLLP (0x1C) o bloque de inicio (0x0B).");
-        return null; // O lanzar una excepción específica
     }
 
+    // Menor de dos timeouts ignorando los que valen 0 (sin límite)
+    private static int minPositive(int first, int second) {
+        if (first <= 0) {
+            return Math.max(second, 0);
+        }
+        return second <= 0 ? first : Math.min(first, second);
+    }
 
-    private void sendAck(OutputStream outputStream, String ackMessage) throws IOException {
-        outputStream.write(START_BLOCK);
-        outputStream.write(ackMessage.getBytes(StandardCharsets.UTF_8));
-        outputStream.write(END_BLOCK);
-        outputStream.write(CARRIAGE_RETURN);
-        outputStream.flush();
-        logger.info("[ACK SENT] ACK enviado correctamente");
+    private void sendAck(OutputStream outputStream, HL7AckBuffer ack) throws IOException {
+        ack.writeTo(outputStream); // Trama completa en una sola escritura
+        logger.debug("[ACK SENT] ACK enviado correctamente");
     }
 
     private void closeSocket() {
@@ -0,0 +1,12 @@
+package com.myobservation.listener.connection;
+
+/**
+ * Trama MLLP recibida.
+ *
+ * @param message   contenido de la trama sin los bytes MLLP; si la trama excede el máximo, solo la cabecera conservada
+ * @param length    tamaño real de la trama en bytes (incluidos los bytes descartados)
+ * @param oversized true si la trama superó el tamaño máximo configurado y debe rechazarse
+ * @param startNanos instante (System.nanoTime) en que se leyó el START_BLOCK; base de las métricas de lectura y latencia
+ */
+public record MLLPFrame(String message, int length, boolean oversized, long startNanos) {
+}
@@ -0,0 +1,230 @@
+package com.myobservation.listener.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import static com.myobservation.listener.utils.ProtocolConstants.*;
+
+/**
+ * Codificador/decodificador de tramas MLLP (0x0B mensaje 0x1C 0x0D).
+ * Lee en bloque, localiza START_BLOCK/END_BLOCK por índice y copia cada tramo de una vez
+ * a un buffer de trama que se reutiliza entre mensajes de la misma conexión.
+ * El decodificador es incremental: una trama puede llegar repartida en varias lecturas,
+ * y los bytes sobrantes de una lectura (mensajes encadenados) se conservan para la siguiente trama.
+ * Las tramas que superan el tamaño máximo no crecen sin límite: se conserva solo la cabecera
+ * (para poder construir el ACK AR) y el resto se descarta hasta el END_BLOCK.
+ * Una instancia por conexión (no es thread-safe).
+ */
+public class MLLPFrameCodec {
+
+    public static final int DEFAULT_MAX_FRAME_BYTES = 1024 * 1024;
+
+    private static final int INITIAL_FRAME_CAPACITY = 8 * 1024;
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    // Bytes que se conservan de una trama demasiado grande (suficiente para el MSH)
+    private static final int OVERSIZED_HEADER_BYTES = 1024;
+
+    private final int maxFrameBytes;
+
+    // Buffer de la trama en curso, reutilizado entre mensajes
+    private byte[] frameBuffer = new byte[INITIAL_FRAME_CAPACITY];
+    private int frameLength;     // bytes guardados en frameBuffer
+    private int frameTotalBytes; // bytes reales de la trama (incluye los descartados)
+    private boolean inFrame = false;
+    private boolean oversized = false;
+    private long frameStartNanos;
+    private MLLPFrame completedFrame;
+
+    // Buffer de lectura para el modo stream (motor bloqueante)
+    private byte[] readBuffer;
+    private int readPosition;
+    private int readLimit;
+
+    public MLLPFrameCodec() {
+        this(DEFAULT_MAX_FRAME_BYTES);
+    }
+
+    public MLLPFrameCodec(int maxFrameBytes) {
+        this.maxFrameBytes = maxFrameBytes > 0 ? maxFrameBytes : DEFAULT_MAX_FRAME_BYTES;
+    }
+
+    /**
+     * Lee la siguiente trama completa del stream (motor bloqueante).
+     * @return la trama, o null si el emisor cerró la conexión antes de completar una trama
+     */
+    public MLLPFrame readFrame(InputStream inputStream) throws IOException {
+        return readFrame(inputStream, 0);
+    }
+
+    /**
+     * Igual que {@link #readFrame(InputStream)}, pero falla si una trama empezada no se completa a tiempo.
+     * El timeout del socket solo acota cada lectura; este límite acota la trama entera, de modo que un emisor
+     * que envía byte a byte tampoco retiene la conexión indefinidamente.
+     * @param maxFrameNanos tiempo máximo desde el START_BLOCK (0 = sin límite)
+     * @throws SocketTimeoutException si la trama en curso supera el límite
+     */
+    public MLLPFrame readFrame(InputStream inputStream, long maxFrameNanos) throws IOException {
+        if (readBuffer == null) {
+            readBuffer = new byte[READ_BUFFER_SIZE];
+        }
+        while (true) {
+            if (readPosition < readLimit) {
+                readPosition = scan(readBuffer, readPosition, readLimit);
+                if (completedFrame != null) {
+                    return takeCompletedFrame();
+                }
+                continue;
+            }
+            if (maxFrameNanos > 0 && frameExpired(System.nanoTime(), maxFrameNanos)) {
+                throw new SocketTimeoutException("Trama MLLP incompleta tras " + maxFrameNanos / 1_000_000 + " ms");
+            }
+            int bytesRead = inputStream.read(readBuffer, 0, readBuffer.length);
+            if (bytesRead == -1) {
+                return null;
+            }
+            readPosition = 0;
+            readLimit = bytesRead;
+        }
+    }
+
+    /**
+     * Consume todos los bytes disponibles del buffer y entrega cada trama completa al consumidor (motor NIO).
+     * @param buffer datos leídos del socket (en modo lectura)
+     * @param frameConsumer recibe cada trama completa
+     */
+    public void decode(ByteBuffer buffer, Consumer<MLLPFrame> frameConsumer) {
+        byte[] data;
+        int position;
+        int end;
+        if (buffer.hasArray()) {
+            data = buffer.array();
+            position = buffer.arrayOffset() + buffer.position();
+            end = buffer.arrayOffset() + buffer.limit();
+        } else {
+            data = new byte[buffer.remaining()];
+            buffer.duplicate().get(data);
+            position = 0;
+            end = data.length;
+        }
+
+        while (position < end) {
+            position = scan(data, position, end);
+            if (completedFrame != null) {
+                frameConsumer.accept(takeCompletedFrame());
+            }
+        }
+        buffer.position(buffer.limit());
+    }
+
+    /**
+     * Indica si hay una trama a medio recibir.
+     */
+    public boolean isInFrame() {
+        return inFrame;
+    }
+
+    /**
+     * Indica si la trama a medio recibir empezó hace más de {@code maxFrameNanos}.
+     */
+    public boolean frameExpired(long nowNanos, long maxFrameNanos) {
+        return inFrame && nowNanos - frameStartNanos > maxFrameNanos;
+    }
+
+    /**
+     * Escribe un mensaje (normalmente un ACK) enmarcado en MLLP con una única escritura.
+     */
+    public static void writeFrame(OutputStream outputStream, String message) throws IOException {
+        outputStream.write(encode(message));
+        outputStream.flush();
+    }
+
+    /**
+     * Envuelve un mensaje (normalmente un ACK) en una trama MLLP completa.
+     */
+    public static byte[] encode(String message) {
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        byte[] framed = new byte[payload.length + 3];
+        framed[0] = START_BLOCK;
+        System.arraycopy(payload, 0, framed, 1, payload.length);
+        framed[payload.length + 1] = END_BLOCK;
+        framed[payload.length + 2] = CARRIAGE_RETURN;
+        return framed;
+    }
+
+    /**
+     * Avanza sobre data[position, end) hasta completar una trama o agotar los datos.
+     * @return la posición del primer byte no consumido
+     */
+    private int scan(byte[] data, int position, int end) {
+        if (!inFrame) {
+            // Todo lo que hay fuera de una trama (p. ej. el CR final) se descarta
+            int start = indexOf(data, position, end, (byte) START_BLOCK);
+            if (start < 0) {
+                return end;
+            }
+            inFrame = true;
+            frameStartNanos = System.nanoTime();
+            oversized = false;
+            frameLength = 0;
+            frameTotalBytes = 0;
+            position = start + 1;
+        }
+
+        int endBlock = indexOf(data, position, end, (byte) END_BLOCK);
+        int chunkEnd = endBlock < 0 ? end : endBlock;
+        append(data, position, chunkEnd - position);
+        if (endBlock < 0) {
+            return end;
+        }
+
+        inFrame = false;
+        completedFrame = new MLLPFrame(new String(frameBuffer, 0, frameLength, StandardCharsets.UTF_8),
+                frameTotalBytes, oversized, frameStartNanos);
+        return endBlock + 1;
+    }
+
+    private void append(byte[] data, int offset, int length) {
+        frameTotalBytes += length;
+        if (!oversized && frameTotalBytes > maxFrameBytes) {
+            oversized = true;
+            frameLength = Math.min(frameLength, OVERSIZED_HEADER_BYTES);
+        }
+        int limit = oversized ? OVERSIZED_HEADER_BYTES : maxFrameBytes;
+        int toCopy = Math.min(length, limit - frameLength);
+        if (toCopy <= 0) {
+            return;
+        }
+        ensureCapacity(frameLength + toCopy);
+        System.arraycopy(data, offset, frameBuffer, frameLength, toCopy);
+        frameLength += toCopy;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required > frameBuffer.length) {
+            int newCapacity = Math.max(required, Math.min(frameBuffer.length * 2, maxFrameBytes));
+            byte[] grown = new byte[newCapacity];
+            System.arraycopy(frameBuffer, 0, grown, 0, frameLength);
+            frameBuffer = grown;
+        }
+    }
+
+    private MLLPFrame takeCompletedFrame() {
+        MLLPFrame frame = completedFrame;
+        completedFrame = null;
+        return frame;
+    }
+
+    private static int indexOf(byte[] data, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
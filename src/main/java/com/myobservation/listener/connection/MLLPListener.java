@@ -0,0 +1,335 @@
+package com.myobservation.listener.connection;
+
+import com.myobservation.metrics.HL7Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Un listener MLLP en un puerto: su ServerSocket (o selector NIO), su executor de conexiones y su control
+ * de admisión. MLLPServer crea uno por cada entrada de mllp.listeners (o solo el "default") y gestiona su
+ * ciclo de vida. No es un bean: recibe ya resuelta su configuración y su procesador de mensajes.
+ * Al parar se drena: deja de aceptar, cierra las conexiones inactivas y espera a que los mensajes en curso
+ * reciban su ACK (ver drain() y awaitTermination()).
+ */
+public class MLLPListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(MLLPListener.class);
+
+    // Respuestas "ocupado" simultáneas en el motor bloqueante; por encima se cierra la conexión sin responder
+    private static final int MAX_BUSY_RESPONDERS = 64;
+    // Timeout de lectura de las conexiones rechazadas si el listener no fija read-timeout-ms
+    private static final int BUSY_READ_TIMEOUT_MS = 5000;
+
+    private final MLLPListenerSettings settings;
+    private final MLLPMessageProcessor messageProcessor; // Con la persistencia y el límite de concurrencia del listener
+    private final HL7Metrics metrics;
+    private final MLLPAdmissionControl admissionControl;
+    // Conexiones rechazadas (motor bloqueante): leen un mensaje y responden AE en un hilo virtual aparte
+    private final ExecutorService busyResponders;
+    private final Semaphore busyResponderPermits = new Semaphore(MAX_BUSY_RESPONDERS);
+
+    // Conexiones del motor bloqueante en el pool (en curso o en cola), para drenarlas al parar
+    private final Set<MLLPConnectionHandler> activeHandlers = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService executorService; // Ejecuta los MLLPConnectionHandler o las tramas NIO
+    private volatile boolean running = true;
+    private volatile ServerSocket serverSocket;
+    private Thread acceptorThread;
+    private MLLPNioServer nioServer;
+
+    public MLLPListener(MLLPListenerSettings settings, MLLPMessageProcessor messageProcessor, HL7Metrics metrics) {
+        this.settings = settings;
+        this.messageProcessor = messageProcessor;
+        this.metrics = metrics;
+        this.admissionControl = new MLLPAdmissionControl(settings.maxConnections(), settings.maxConnectionsPerRemote(),
+                MLLPAdmissionControl.OverloadPolicy.from(settings.overloadPolicy()));
+        this.busyResponders = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name(settings.threadPrefix() + "busy-", 0).factory());
+    }
+
+    public MLLPListenerSettings settings() {
+        return settings;
+    }
+
+    /**
+     * Abre el puerto, crea el executor y arranca el hilo de accept (blocking) o del selector (nio).
+     * El puerto se abre en el hilo que llama: si no se puede abrir (p. ej. ya está en uso) se lanza
+     * IllegalStateException y el arranque de la aplicación falla, en lugar de quedar sin listener.
+     */
+    public void start() {
+        if (settings.maxConnections() > 0) {
+            metrics.gauge("mllp.admission.available", "Huecos libres del control de admisión",
+                    admissionControl::availableSlots, "listener", settings.name());
+        }
+        logger.info("[SERVER CONFIG] Listener {} (puerto {}): admisión máx. {} conexiones, {} por dirección remota, política {}, persistencia {}",
+                settings.name(), settings.port(), settings.maxConnections(), settings.maxConnectionsPerRemote(),
+                admissionControl.overloadPolicy(), settings.persistenceMode());
+        if (settings.nio()) {
+            startNioServer();
+        } else {
+            serverSocket = bind();
+            executorService = createExecutor(settings.executorThreads());
+            // El bucle de accept tiene su propio hilo para no ocupar un hueco del pool de conexiones
+            acceptorThread = new Thread(this::startServer, settings.threadPrefix() + "acceptor");
+            acceptorThread.start();
+        }
+    }
+
+    /**
+     * Crea el executor según executor-mode. En modo virtual cada tarea corre en su propio
+     * hilo virtual; la concurrencia real contra la BBDD la limita MLLPMessageProcessor.
+     */
+    private ExecutorService createExecutor(int platformThreads) {
+        if ("virtual".equalsIgnoreCase(settings.executorMode())) {
+            logger.info("[SERVER CONFIG] Listener {}: ejecución en hilos virtuales", settings.name());
+            return metrics.monitor(Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name(settings.threadPrefix() + "virtual-", 0).factory()), settings.executorMetricName());
+        }
+        logger.info("[SERVER CONFIG] Listener {}: ejecución en pool fijo de {} hilos", settings.name(), platformThreads);
+        // Cola acotada: el control de admisión nunca deja más de max-connections tareas pendientes
+        BlockingQueue<Runnable> queue = settings.maxConnections() > 0
+                ? new ArrayBlockingQueue<>(settings.maxConnections()) : new LinkedBlockingQueue<>();
+        // executor.queued{name=mllp.server[.listener]}: conexiones/tramas esperando un hilo libre
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(platformThreads, platformThreads, 0L, TimeUnit.MILLISECONDS, queue,
+                Thread.ofPlatform().name(settings.threadPrefix() + "worker-", 0).factory());
+        return metrics.monitor(executor, settings.executorMetricName());
+    }
+
+    private ServerSocket bind() {
+        try {
+            return new ServerSocket(settings.port());
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo abrir el puerto " + settings.port() + " del listener MLLP "
+                    + settings.name() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Puerto en el que escucha (el real si se configuró el puerto 0), o -1 si aún no está abierto.
+     */
+    public int localPort() {
+        if (nioServer != null) {
+            return nioServer.localPort();
+        }
+        ServerSocket socket = serverSocket;
+        return socket != null ? socket.getLocalPort() : -1;
+    }
+
+    private void startNioServer() {
+        // El selector corre en su propio hilo; el pool solo procesa tramas completas
+        executorService = createExecutor(settings.nioWorkerThreads());
+        nioServer = new MLLPNioServer(settings.port(), messageProcessor, settings.session(), executorService,
+                metrics, admissionControl);
+        try {
+            nioServer.open();
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo abrir el puerto " + settings.port() + " del listener MLLP "
+                    + settings.name() + ": " + e.getMessage(), e);
+        }
+        Thread selectorThread = new Thread(nioServer, settings.threadPrefix() + "nio-selector");
+        selectorThread.start();
+        logger.info("[SERVER CONFIG] Listener {}: motor NIO iniciado", settings.name());
+    }
+
+    private void startServer() {
+        MLLPSessionSettings sessionSettings = settings.session();
+
+        try (ServerSocket serverSocket = this.serverSocket) {
+            logger.info("⚡ [SERVER START] Servidor MLLP {} iniciado en puerto: {} - {}", settings.name(),
+                    serverSocket.getLocalPort(), LocalDateTime.now());
+            logger.info("[SERVER CONFIG] Sesión persistente: {} (idle timeout: {} ms, máx. mensajes: {}, máx. trama: {} bytes)",
+                    sessionSettings.persistent(), sessionSettings.idleTimeoutMillis(), sessionSettings.maxMessages(),
+                    sessionSettings.maxFrameBytes());
+
+            boolean delayAccept = admissionControl.overloadPolicy() == MLLPAdmissionControl.OverloadPolicy.DELAY;
+            while (running) {
+                MLLPAdmissionControl.Admission admission = null;
+                Socket socket = null;
+                try {
+                    logger.debug("[LISTENING] Esperando conexiones en {}...", settings.name());
+                    // Política delay: no se llama a accept() hasta que hay hueco; las conexiones esperan en el backlog TCP
+                    boolean slot = true;
+                    if (delayAccept) {
+                        admissionControl.awaitSlot();
+                    } else {
+                        slot = admissionControl.tryAcquireSlot();
+                    }
+                    try {
+                        socket = serverSocket.accept();
+                    } catch (IOException e) {
+                        if (slot) {
+                            admissionControl.releaseSlot();
+                        }
+                        throw e;
+                    }
+                    logger.info("[CONNECTION] Nueva conexión en {} desde: {}:{}", settings.name(), socket.getInetAddress(),
+                            socket.getPort());
+
+                    admission = admissionControl.admit(slot, socket.getInetAddress());
+                    if (!admission.admitted()) {
+                        respondBusy(socket, admission, sessionSettings);
+                        continue;
+                    }
+
+                    // Crear un nuevo MLLPConnectionHandler y lo ejecuta en el pool de hilos del listener
+                    MLLPConnectionHandler handler = new MLLPConnectionHandler(socket, messageProcessor, sessionSettings, metrics, admission);
+                    activeHandlers.add(handler);
+                    if (!running) {
+                        handler.drain(); // Aceptada justo antes de la parada: drain() ya recorrió activeHandlers
+                    }
+                    try {
+                        executorService.execute(() -> {
+                            try {
+                                handler.run();
+                            } finally {
+                                activeHandlers.remove(handler);
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        activeHandlers.remove(handler);
+                        throw e;
+                    }
+
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logger.info("[SERVER STOP] Acceptor de {} interrumpido", settings.name());
+                    return;
+                } catch (RejectedExecutionException e) {
+                    logger.error("[SERVER ERROR] Executor de {} saturado, se cierra la conexión: {}", settings.name(), e.getMessage());
+                    admission.close();
+                    closeQuietly(socket);
+                } catch (Exception e) {
+                    if (!running) {
+                        logger.info("[SERVER STOP] Listener {} ya no acepta conexiones", settings.name());
+                        if (admission != null) {
+                            admission.close();
+                        }
+                        closeQuietly(socket);
+                        return;
+                    }
+                    logger.error("[SERVER ERROR] Error en el listener {}: {}", settings.name(), e.getMessage(), e);
+                    if (admission != null) {
+                        admission.close();
+                        closeQuietly(socket);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.error("[SERVER FATAL] El listener {} en el puerto {} se detuvo: {}", settings.name(),
+                    settings.port(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Inicia la parada ordenada: deja de aceptar conexiones (el puerto se cierra y el balanceador deja de enviar
+     * aquí), cierra las conexiones que esperan trama y marca las que procesan un mensaje para cerrarlas tras su ACK.
+     */
+    public void drain() {
+        running = false;
+        logger.info("[DRAIN] Listener {} (puerto {}): parada ordenada iniciada", settings.name(), settings.port());
+        if (nioServer != null) {
+            nioServer.drain();
+            return;
+        }
+        closeQuietly(serverSocket);
+        if (acceptorThread != null) {
+            acceptorThread.interrupt(); // Por si espera hueco en el control de admisión (política delay)
+        }
+        activeHandlers.forEach(MLLPConnectionHandler::drain);
+        busyResponders.shutdown();
+    }
+
+    /**
+     * Espera, como mucho hasta deadlineNanos (System.nanoTime()), a que terminen los mensajes en curso.
+     * Lo que siga en proceso al vencer el plazo se interrumpe y se cierra sin ACK; el emisor lo reenviará.
+     * @return true si todo terminó dentro del plazo
+     */
+    public boolean awaitTermination(long deadlineNanos) throws InterruptedException {
+        if (nioServer != null) {
+            // El selector sigue vivo hasta escribir el último ACK; después ya no llegan tramas al pool
+            while (!nioServer.isTerminated() && System.nanoTime() < deadlineNanos) {
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+        }
+        if (acceptorThread != null) {
+            // El hilo de accept termina en cuanto se cierra el puerto; no es daemon, así que se espera a que salga
+            acceptorThread.join(Duration.ofNanos(Math.max(1, deadlineNanos - System.nanoTime())));
+        }
+        boolean drained = (nioServer == null || nioServer.isTerminated());
+        if (executorService != null) {
+            executorService.shutdown();
+            drained = executorService.awaitTermination(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS)
+                    && drained;
+        }
+        if (!drained) {
+            logger.warn("[DRAIN] Listener {}: {} conexiones sin terminar al vencer el plazo, se cierran", settings.name(),
+                    activeHandlers.size());
+            if (nioServer != null) {
+                nioServer.stop();
+            }
+            if (executorService != null) {
+                executorService.shutdownNow();
+            }
+        } else {
+            logger.info("[DRAIN] Listener {} detenido, todos los mensajes en curso recibieron su ACK", settings.name());
+        }
+        return drained;
+    }
+
+    // La conexión no admitida se atiende en un hilo virtual aparte: lee un mensaje, responde AE y se cierra
+    private void respondBusy(Socket socket, MLLPAdmissionControl.Admission admission, MLLPSessionSettings sessionSettings) {
+        metrics.connectionRejected(admission.rejection().tag());
+        logger.warn("[ADMISSION] Conexión a {} desde {} no admitida ({}), se responde ocupado", settings.name(),
+                socket.getInetAddress(), admission.rejection().tag());
+        if (!running || !busyResponderPermits.tryAcquire()) {
+            admission.close();
+            closeQuietly(socket); // También hay que acotar el coste de rechazar
+            return;
+        }
+        int readTimeoutMs = sessionSettings.readTimeoutMillis() > 0 ? sessionSettings.readTimeoutMillis() : BUSY_READ_TIMEOUT_MS;
+        MLLPSessionSettings busySettings = MLLPSessionSettings.singleMessage(sessionSettings.maxFrameBytes(), readTimeoutMs);
+        MLLPConnectionHandler handler = new MLLPConnectionHandler(socket, messageProcessor, busySettings, metrics, admission);
+        try {
+            busyResponders.execute(() -> {
+                try {
+                    handler.run();
+                } finally {
+                    busyResponderPermits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // drain() ya cerró busyResponders entre la comprobación de running y execute
+            busyResponderPermits.release();
+            admission.close();
+            closeQuietly(socket);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException e) {
+            logger.error("[WARNING] Error al cerrar la conexión: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.myobservation.listener.connection;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.Map;
+
+/**
+ * Listeners MLLP adicionales definidos en mllp.listeners.&lt;nombre&gt;.*, por ejemplo:
+ * <pre>
+ * mllp.listeners.lab.port=6662
+ * mllp.listeners.lab.executor-threads=40
+ * mllp.listeners.lab.persistence-mode=batch
+ * mllp.listeners.adt.port=6663
+ * mllp.listeners.adt.session-persistent=true
+ * mllp.listeners.adt.ordering=true
+ * </pre>
+ * Lo que no se indique se toma de la configuración general (mllp.server.*, mllp.session.*, mllp.frame.*,
+ * mllp.admission.*, mllp.persistence.mode, mllp.processing.max-concurrent, hl7.ordering.enabled). Sin listeners definidos se
+ * arranca solo el listener "default" en mllp.server.port, como hasta ahora.
+ */
+@ConfigurationProperties(prefix = "mllp")
+public record MLLPListenerProperties(Map<String, Listener> listeners) {
+
+    public MLLPListenerProperties {
+        listeners = listeners == null ? Map.of() : listeners;
+    }
+
+    /**
+     * Valores de un listener; los null heredan la configuración general.
+     */
+    public record Listener(Integer port, String engine, String executor, Integer executorThreads,
+                           Integer nioWorkerThreads, Integer maxFrameBytes, Boolean sessionPersistent,
+                           Integer sessionIdleTimeoutMs, Integer sessionMaxMessages, Integer readTimeoutMs,
+                           Integer maxConnections, Integer maxConnectionsPerRemote, String overloadPolicy,
+                           String persistenceMode, Integer maxConcurrent, Boolean ordering) {
+
+        /**
+         * Combina este listener con la configuración general.
+         */
+        public MLLPListenerSettings resolve(String name, MLLPListenerSettings defaults) {
+            if (port == null) {
+                throw new IllegalStateException("mllp.listeners." + name + ".port es obligatorio");
+            }
+            MLLPSessionSettings baseSession = defaults.session();
+            boolean persistent = sessionPersistent != null ? sessionPersistent : baseSession.persistent();
+            int frameBytes = maxFrameBytes != null ? maxFrameBytes : baseSession.maxFrameBytes();
+            int readTimeout = readTimeoutMs != null ? readTimeoutMs : baseSession.readTimeoutMillis();
+            MLLPSessionSettings session = persistent
+                    ? new MLLPSessionSettings(true,
+                    sessionIdleTimeoutMs != null ? sessionIdleTimeoutMs : baseSession.idleTimeoutMillis(),
+                    sessionMaxMessages != null ? sessionMaxMessages : baseSession.maxMessages(),
+                    frameBytes, readTimeout)
+                    : MLLPSessionSettings.singleMessage(frameBytes, readTimeout);
+            return new MLLPListenerSettings(name, port,
+                    engine != null ? engine : defaults.engine(),
+                    executor != null ? executor : defaults.executorMode(),
+                    executorThreads != null ? executorThreads : defaults.executorThreads(),
+                    nioWorkerThreads != null ? nioWorkerThreads : defaults.nioWorkerThreads(),
+                    session,
+                    maxConnections != null ? maxConnections : defaults.maxConnections(),
+                    maxConnectionsPerRemote != null ? maxConnectionsPerRemote : defaults.maxConnectionsPerRemote(),
+                    overloadPolicy != null ? overloadPolicy : defaults.overloadPolicy(),
+                    persistenceMode != null ? persistenceMode : defaults.persistenceMode(),
+                    maxConcurrent != null ? maxConcurrent : defaults.maxConcurrentProcessing(),
+                    ordering != null ? ordering : defaults.ordering());
+        }
+    }
+}
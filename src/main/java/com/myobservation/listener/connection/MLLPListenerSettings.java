@@ -0,0 +1,48 @@
+package com.myobservation.listener.connection;
+
+/**
+ * Configuración resuelta de un listener MLLP: puerto, motor, ejecución, sesión, admisión y persistencia.
+ * Cada listener tiene su propio accept, executor y control de admisión, así que un feed no puede dejar
+ * sin hilos ni huecos de admisión a los demás.
+ *
+ * @param name                    nombre del listener (clave en mllp.listeners.*, o "default")
+ * @param port                    puerto TCP
+ * @param engine                  blocking (hilo por conexión) o nio (selector + workers)
+ * @param executorMode            fixed (pool de hilos de plataforma) o virtual
+ * @param executorThreads         hilos del pool en modo fixed con el motor blocking
+ * @param nioWorkerThreads        hilos de procesamiento de tramas con el motor nio
+ * @param session                 sesión MLLP y tamaño máximo de trama
+ * @param maxConnections          conexiones atendidas o en cola a la vez (0 = sin límite)
+ * @param maxConnectionsPerRemote conexiones simultáneas desde una misma IP (0 = sin límite)
+ * @param overloadPolicy          delay o busy al alcanzar maxConnections
+ * @param persistenceMode         sync, batch o wal (wal requiere mllp.persistence.mode=wal)
+ * @param maxConcurrentProcessing mensajes del listener parseándose/persistiéndose a la vez
+ * @param ordering                si los tipos de hl7.ordering.message-types se procesan en carriles ordenados
+ *                                por emisor (carriles propios del listener)
+ */
+public record MLLPListenerSettings(String name, int port, String engine, String executorMode, int executorThreads,
+                                   int nioWorkerThreads, MLLPSessionSettings session, int maxConnections,
+                                   int maxConnectionsPerRemote, String overloadPolicy, String persistenceMode,
+                                   int maxConcurrentProcessing, boolean ordering) {
+
+    public static final String DEFAULT_NAME = "default";
+
+    public boolean nio() {
+        return "nio".equalsIgnoreCase(engine);
+    }
+
+    /**
+     * Prefijo de los hilos del listener: "mllp-" para el listener por defecto (nombres de siempre)
+     * y "mllp-&lt;nombre&gt;-" para el resto.
+     */
+    public String threadPrefix() {
+        return DEFAULT_NAME.equals(name) ? "mllp-" : "mllp-" + name + "-";
+    }
+
+    /**
+     * Nombre del executor en las métricas executor.* (mllp.server para el listener por defecto).
+     */
+    public String executorMetricName() {
+        return DEFAULT_NAME.equals(name) ? "mllp.server" : "mllp.server." + name;
+    }
+}
@@ -0,0 +1,358 @@
+package com.myobservation.listener.connection;
+
+import com.myobservation.listener.ack.HL7AckBuffer;
+import com.myobservation.listener.ack.HL7AckGenerator;
+import com.myobservation.listener.utils.MSHHeader;
+import com.myobservation.metrics.HL7MessageLog;
+import com.myobservation.metrics.HL7Metrics;
+import com.myobservation.storage.model.dto.HL7AckOutcome;
+import com.myobservation.storage.model.dto.HL7MessageDTO;
+import com.myobservation.storage.model.entity.HL7Message;
+import com.myobservation.storage.service.HL7DuplicateDetector;
+import com.myobservation.storage.service.HL7MessageBatchWriter;
+import com.myobservation.storage.service.HL7OrderedDispatcher;
+import com.myobservation.storage.service.HL7ParserService;
+import com.myobservation.storage.wal.HL7WriteAheadLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Procesa un mensaje HL7 ya desenmarcado (sin los bytes MLLP) y escribe el ACK a enviar.
+ * Es independiente del transporte: lo usan tanto el motor bloqueante (MLLPConnectionHandler)
+ * como el motor NIO (MLLPNioServer). Los motores pasan un HL7AckBuffer por conexión, donde el ACK
+ * queda ya enmarcado y codificado; las variantes que devuelven String son para pruebas y benchmarks.
+ */
+@Component
+public class MLLPMessageProcessor {
+
+    private static final Logger logger = LoggerFactory.getLogger(MLLPMessageProcessor.class);
+
+    private final HL7AckGenerator ackGenerator;
+    private final HL7ParserService parserService;
+    private final HL7MessageBatchWriter batchWriter;
+    // sync: un INSERT/commit por mensaje; batch: commit agrupado en HL7MessageBatchWriter; wal: ver writeAheadLog
+    private final String persistenceMode;
+    // Limita cuántos mensajes se parsean/persisten a la vez para no saturar el pool de conexiones a Oracle
+    private final Semaphore processingPermits;
+    // Solo existe con mllp.persistence.mode=wal: el ACK se envía tras anexar al log, sin esperar a la BBDD
+    private final HL7WriteAheadLog writeAheadLog;
+    private final HL7Metrics metrics;
+    // Retransmisiones (mismo MSH-3 y MSH-10): se responden con el ACK original sin parsear ni guardar
+    private final HL7DuplicateDetector duplicateDetector;
+    // Con ordering, los tipos de hl7.ordering.message-types se parsean y guardan en el carril del emisor
+    // (orden de llegada por MSH-3), en carriles propios del listener
+    private final HL7OrderedDispatcher orderedDispatcher;
+    private final boolean ordering;
+    private final String listenerName;
+    // Línea de evento por mensaje y muestreo/redacción del contenido recibido
+    private final HL7MessageLog messageLog;
+
+    @Autowired
+    public MLLPMessageProcessor(HL7AckGenerator ackGenerator, HL7ParserService parserService,
+                                HL7MessageBatchWriter batchWriter, ObjectProvider<HL7WriteAheadLog> writeAheadLog,
+                                HL7Metrics metrics, HL7DuplicateDetector duplicateDetector,
+                                HL7OrderedDispatcher orderedDispatcher, HL7MessageLog messageLog,
+                                @Value("${mllp.persistence.mode:sync}") String persistenceMode,
+                                @Value("${mllp.processing.max-concurrent:10}") int maxConcurrentProcessing) {
+        this.ackGenerator = ackGenerator;
+        this.parserService = parserService;
+        this.batchWriter = batchWriter;
+        this.persistenceMode = persistenceMode;
+        this.writeAheadLog = writeAheadLog.getIfAvailable();
+        this.metrics = metrics;
+        this.duplicateDetector = duplicateDetector;
+        this.orderedDispatcher = orderedDispatcher;
+        this.ordering = orderedDispatcher.isEnabled();
+        this.listenerName = MLLPListenerSettings.DEFAULT_NAME;
+        this.messageLog = messageLog;
+        this.processingPermits = new Semaphore(maxConcurrentProcessing, true);
+    }
+
+    // Copia con la persistencia y el límite de concurrencia de un listener; comparte el resto de dependencias
+    private MLLPMessageProcessor(MLLPMessageProcessor base, MLLPListenerSettings listener) {
+        this.ackGenerator = base.ackGenerator;
+        this.parserService = base.parserService;
+        this.batchWriter = base.batchWriter;
+        this.metrics = base.metrics;
+        this.duplicateDetector = base.duplicateDetector;
+        this.orderedDispatcher = base.orderedDispatcher;
+        this.ordering = listener.ordering();
+        this.listenerName = listener.name();
+        this.messageLog = base.messageLog;
+        this.persistenceMode = listener.persistenceMode();
+        if ("wal".equalsIgnoreCase(listener.persistenceMode())) {
+            if (base.writeAheadLog == null) {
+                throw new IllegalStateException("El listener " + listener.name()
+                        + " usa persistencia wal, que requiere mllp.persistence.mode=wal");
+            }
+            this.writeAheadLog = base.writeAheadLog;
+        } else {
+            this.writeAheadLog = null;
+        }
+        this.processingPermits = new Semaphore(listener.maxConcurrentProcessing(), true);
+    }
+
+    /**
+     * Procesador para un listener: su modo de persistencia y su propio límite de mensajes en proceso,
+     * para que la carga de un listener no consuma los permisos de los demás.
+     */
+    public MLLPMessageProcessor forListener(MLLPListenerSettings listener) {
+        MLLPMessageProcessor processor = new MLLPMessageProcessor(this, listener);
+        // Mensajes esperando un permiso: si crece, el cuello de botella está en el parseo/BBDD y no en el listener
+        metrics.gauge("mllp.processing.waiting", "Mensajes esperando permiso de procesamiento",
+                processor.processingPermits::getQueueLength, "listener", listener.name());
+        return processor;
+    }
+
+    /**
+     * Parsea y persiste el mensaje, y construye el ACK correspondiente.
+     * @param hl7Message mensaje HL7 recibido (puede ser nulo o vacío si el framing falló)
+     * @return mensaje ACK (sin framing MLLP)
+     */
+    public String process(String hl7Message) {
+        HL7AckBuffer ack = new HL7AckBuffer();
+        process(hl7Message, ack);
+        return ack.message();
+    }
+
+    /**
+     * Parsea y persiste el mensaje, y escribe en {@code ack} la trama MLLP del ACK correspondiente.
+     * @param hl7Message mensaje HL7 recibido (puede ser nulo o vacío si el framing falló)
+     */
+    public void process(String hl7Message, HL7AckBuffer ack) {
+        String ackStatus;
+        String ackErrorDetail;
+
+        if (hl7Message == null || hl7Message.trim().isEmpty()) {
+            ackStatus = "AR"; // Mensaje rechazado (vacío o mal formado MLLP)
+            ackErrorDetail = "Mensaje HL7 vacío o mal formado en MLLP";
+            logger.warn("[WARNING] Mensaje HL7 recibido está vacío o es nulo después del framing.");
+            metrics.messageProcessed(null, ackStatus);
+            ackGenerator.writeAck(MSHHeader.scan(hl7Message), ackStatus, ackErrorDetail, ack);
+            return;
+        }
+
+        HL7MessageLog.Event event = messageLog.received(hl7Message, writeAheadLog != null ? "wal" : persistenceMode);
+
+        // Solo se recorre el MSH: sirve para la detección de duplicados y para construir el ACK
+        MSHHeader header = MSHHeader.scan(hl7Message);
+        HL7DuplicateDetector.Receipt receipt = duplicateDetector.register(header);
+        if (receipt.isDuplicate()) {
+            HL7AckOutcome original = receipt.original();
+            logger.info("[DUPLICATE] Retransmisión de {} (MSH-10={}), se responde con el ACK original: {}",
+                    header.sendingApplication(), header.messageControlId(), original.ackStatus());
+            metrics.messageProcessed(header, original.ackStatus());
+            messageLog.completed(event, header, original.ackStatus(), original.ackError());
+            ackGenerator.writeAck(header, original.ackStatus(), original.ackError(), ack);
+            return;
+        }
+
+        if (writeAheadLog != null) {
+            acceptToWriteAheadLog(hl7Message, header, receipt, event, ack);
+            return;
+        }
+
+        // --- ¡Aquí está la integración con la persistencia! ---
+        try {
+            HL7MessageDTO processedDto;
+            if (ordering && orderedDispatcher.appliesTo(header)) {
+                processedDto = parseAndSaveInLane(hl7Message, header, event);
+            } else {
+                processedDto = "batch".equalsIgnoreCase(persistenceMode)
+                        ? parseAndSaveInBatch(hl7Message, event)
+                        : parseWithPermit(hl7Message, event);
+            }
+            ackStatus = processedDto.getAckStatus(); // Obtener el estado real del ACK del servicio de parser
+            ackErrorDetail = processedDto.getAckError(); // Obtener el detalle del error si lo hay
+            logger.debug("[DB PERSISTENCE] Mensaje HL7 procesado y persistido. Status: {}", ackStatus);
+            receipt.complete(ackStatus, ackErrorDetail);
+        } catch (Exception e) {
+            // No se recuerda el resultado: la retransmisión debe volver a intentar el guardado
+            receipt.abandon();
+            logger.error("[PERSISTENCE ERROR] Error al parsear o persistir el mensaje HL7: {}", e.getMessage(), e);
+            ackStatus = "AE"; // Indicar error en ACK por fallo de procesamiento/persistencia
+            ackErrorDetail = "Error interno de procesamiento: " + e.getMessage();
+            // Limpiar el detalle de error para el ACK (evitar caracteres especiales)
+            ackErrorDetail = ackErrorDetail.length() > 200 ? ackErrorDetail.substring(0, 200) + "..." : ackErrorDetail;
+            ackErrorDetail = ackErrorDetail.replace('\r', ' ').replace('\n', ' '); // Limpiar saltos de línea
+        }
+        // --- Fin de la integración ---
+
+        // ACK con el estado y detalle obtenidos del procesamiento
+        metrics.messageProcessed(header, ackStatus);
+        messageLog.completed(event, header, ackStatus, ackErrorDetail);
+        ackGenerator.writeAck(header, ackStatus, ackErrorDetail, ack);
+    }
+
+    /**
+     * Modo "ACK-then-persist": el mensaje se anexa y sincroniza al write-ahead log y se confirma de inmediato.
+     * El parseo completo y el guardado en HL7_MESSAGE los hace HL7WalDrainer en segundo plano.
+     */
+    private void acceptToWriteAheadLog(String hl7Message, MSHHeader header, HL7DuplicateDetector.Receipt receipt,
+                                       HL7MessageLog.Event event, HL7AckBuffer ack) {
+        if (header == null) {
+            metrics.messageProcessed(null, "AR");
+            messageLog.completed(event, null, "AR", "Mensaje recibido no es un HL7 MSH valido");
+            ackGenerator.writeAck(header, "AR", "Mensaje recibido no es un HL7 MSH valido", ack);
+            return;
+        }
+        // El guardado es posterior al ACK: lo que no se podría guardar se rechaza ahora y no entra en el log
+        String headerError = parserService.validateBeforeLog(header, hl7Message);
+        if (headerError != null) {
+            receipt.abandon();
+            logger.warn("[WAL REJECT] Mensaje no anexado al write-ahead log: {}", headerError);
+            metrics.messageProcessed(header, "AE");
+            messageLog.completed(event, header, "AE", headerError);
+            ackGenerator.writeAck(header, "AE", headerError, ack);
+            return;
+        }
+        try {
+            event.begin();
+            writeAheadLog.append(hl7Message);
+            event.end(HL7MessageLog.Stage.SAVE);
+            logger.debug("[WAL APPEND] Mensaje HL7 registrado en el write-ahead log");
+            receipt.complete("AA", "");
+            metrics.messageProcessed(header, "AA");
+            messageLog.completed(event, header, "AA", "");
+            ackGenerator.writeAck(header, "AA", "", ack);
+        } catch (Exception e) {
+            receipt.abandon();
+            logger.error("[WAL ERROR] No se pudo registrar el mensaje en el write-ahead log: {}", e.getMessage(), e);
+            metrics.messageProcessed(header, "AE");
+            messageLog.completed(event, header, "AE", "Error interno al registrar el mensaje");
+            ackGenerator.writeAck(header, "AE", "Error interno al registrar el mensaje", ack);
+        }
+    }
+
+    /**
+     * Rechaza (AR) una trama que supera el tamaño máximo sin parsearla ni persistirla.
+     * @param frame trama recibida; solo contiene la cabecera del mensaje original
+     * @param maxFrameBytes límite configurado
+     */
+    public void rejectOversized(MLLPFrame frame, int maxFrameBytes, HL7AckBuffer ack) {
+        logger.warn("[FRAME REJECTED] Trama de {} bytes supera el máximo de {} bytes", frame.length(), maxFrameBytes);
+        MSHHeader header = MSHHeader.scan(frame.message());
+        metrics.messageProcessed(header, "AR");
+        ackGenerator.writeAck(header, "AR", "Mensaje excede el tamaño máximo permitido (" + maxFrameBytes + " bytes)", ack);
+    }
+
+    /**
+     * Responde AE "servidor ocupado" a un mensaje de una conexión no admitida, sin parsearlo ni persistirlo.
+     * No pasa por la detección de duplicados: el emisor debe reintentar y entonces se procesará normalmente.
+     */
+    public void rejectBusy(MLLPFrame frame, MLLPAdmissionControl.Rejection reason, HL7AckBuffer ack) {
+        MSHHeader header = MSHHeader.scan(frame.message());
+        logger.warn("[ADMISSION] Mensaje rechazado ({}): servidor ocupado", reason.tag());
+        metrics.messageProcessed(header, "AE");
+        ackGenerator.writeAck(header, "AE", "Servidor ocupado, reintente más tarde", ack);
+    }
+
+    /**
+     * Procesa una trama MLLP: rechaza las que superan el tamaño máximo y procesa el resto.
+     * @return mensaje ACK (sin framing MLLP)
+     */
+    public String process(MLLPFrame frame, int maxFrameBytes) {
+        HL7AckBuffer ack = new HL7AckBuffer();
+        process(frame, maxFrameBytes, ack);
+        return ack.message();
+    }
+
+    /**
+     * Procesa una trama MLLP y escribe en {@code ack} la trama del ACK.
+     */
+    public void process(MLLPFrame frame, int maxFrameBytes, HL7AckBuffer ack) {
+        if (frame.oversized()) {
+            rejectOversized(frame, maxFrameBytes, ack);
+            return;
+        }
+        process(frame.message(), ack);
+    }
+
+    // El parseo es local; la espera es solo por el commit del lote, que usa una única conexión a la BBDD
+    private HL7MessageDTO parseAndSaveInBatch(String hl7Message, HL7MessageLog.Event event) throws Exception {
+        event.begin();
+        HL7Message entity = parserService.parseToEntity(hl7Message);
+        event.end(HL7MessageLog.Stage.PARSE);
+        HL7Message saved = batchWriter.submit(entity).get();
+        event.end(HL7MessageLog.Stage.SAVE);
+        return parserService.toDto(saved);
+    }
+
+    /**
+     * Parseo y guardado en el carril del emisor: los mensajes de un mismo MSH-3 se procesan uno tras otro en orden
+     * de llegada. En modo sync el carril toma un permiso del listener antes de guardar, así
+     * mllp.processing.max-concurrent sigue limitando la concurrencia contra la BBDD también con carriles.
+     * En modo batch el carril solo parsea y encola en el escritor por lotes (que escribe en orden FIFO), y la espera
+     * del commit se hace fuera del carril para que este siga alimentando el lote.
+     */
+    private HL7MessageDTO parseAndSaveInLane(String hl7Message, MSHHeader header, HL7MessageLog.Event event) throws Exception {
+        event.begin();
+        try {
+            HL7Message saved;
+            if ("batch".equalsIgnoreCase(persistenceMode)) {
+                Future<HL7Message> pending = orderedDispatcher.submit(listenerName, header, () -> {
+                    event.end(HL7MessageLog.Stage.WAIT);
+                    HL7Message entity = parserService.parseToEntity(hl7Message);
+                    event.end(HL7MessageLog.Stage.PARSE);
+                    return batchWriter.submit(entity);
+                }).get();
+                saved = pending.get();
+            } else {
+                saved = orderedDispatcher.submit(listenerName, header, () -> {
+                    processingPermits.acquire();
+                    try {
+                        event.end(HL7MessageLog.Stage.WAIT);
+                        HL7Message entity = parserService.parseToEntity(hl7Message);
+                        event.end(HL7MessageLog.Stage.PARSE);
+                        return metrics.recordSave("sync", () -> parserService.save(entity));
+                    } finally {
+                        processingPermits.release();
+                    }
+                }).get();
+            }
+            event.end(HL7MessageLog.Stage.SAVE);
+            return parserService.toDto(saved);
+        } catch (ExecutionException e) {
+            // La excepción original es la que interesa en el log y en el detalle del ACK
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    private HL7MessageDTO parseWithPermit(String hl7Message, HL7MessageLog.Event event) throws InterruptedException {
+        event.begin();
+        processingPermits.acquire();
+        try {
+            event.end(HL7MessageLog.Stage.WAIT);
+            HL7Message entity = parserService.parseToEntity(hl7Message);
+            event.end(HL7MessageLog.Stage.PARSE);
+            HL7Message saved = metrics.recordSave("sync", () -> parserService.save(entity));
+            event.end(HL7MessageLog.Stage.SAVE);
+            return parserService.toDto(saved);
+        } finally {
+            processingPermits.release();
+        }
+    }
+
+    /**
+     * ACK de error genérico para fallos inesperados del servidor.
+     */
+    public String buildErrorAck(String hl7Message, String ackErrorDetail) {
+        HL7AckBuffer ack = new HL7AckBuffer();
+        buildErrorAck(hl7Message, ackErrorDetail, ack);
+        return ack.message();
+    }
+
+    public void buildErrorAck(String hl7Message, String ackErrorDetail, HL7AckBuffer ack) {
+        MSHHeader header = MSHHeader.scan(hl7Message);
+        metrics.messageProcessed(header, "AE");
+        ackGenerator.writeAck(header, "AE", ackErrorDetail, ack);
+    }
+}
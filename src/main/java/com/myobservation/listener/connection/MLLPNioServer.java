@@ -0,0 +1,470 @@
+package com.myobservation.listener.connection;
+
+import com.myobservation.listener.ack.HL7AckBuffer;
+import com.myobservation.metrics.HL7Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Motor MLLP no bloqueante basado en Selector.
+ * Un único hilo atiende todas las conexiones (accept, lectura y escritura) y decodifica las tramas
+ * de forma incremental; las tramas completas se procesan en el pool de workers y el ACK se devuelve
+ * al hilo del selector para escribirlo. Así no se necesita un hilo por conexión.
+ * Los mensajes de una misma conexión se procesan en orden, uno detrás de otro. Mientras una conexión tiene un
+ * mensaje en proceso o ACK sin escribir no se lee de ella (se quita OP_READ): como en el motor blocking, un emisor
+ * que encadena tramas sin leer sus ACK queda frenado por TCP en lugar de acumular tramas en memoria.
+ * Con el control de admisión lleno y la política delay se deja de escuchar OP_ACCEPT hasta que se cierra
+ * una conexión; con la política busy (o si se supera el límite por dirección remota) la conexión se acepta
+ * y su primer mensaje se responde con AE "servidor ocupado" sin pasar por el pool de workers.
+ */
+public class MLLPNioServer implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MLLPNioServer.class);
+
+    // Intervalo máximo de espera del selector; también marca la frecuencia de revisión de sesiones inactivas
+    private static final long SELECT_TIMEOUT_MS = 1000;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final int port;
+    private final MLLPMessageProcessor messageProcessor;
+    private final MLLPSessionSettings sessionSettings;
+    private final ExecutorService workerExecutor;
+    private final HL7Metrics metrics;
+    private final MLLPAdmissionControl admissionControl;
+
+    // Tareas que los workers encolan para que las ejecute el hilo del selector
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final List<Connection> connections = new ArrayList<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    private volatile Selector selector;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = true;
+    private volatile boolean terminated;
+    private boolean draining; // Parada ordenada: sin accept, se cierra cada conexión tras su último ACK
+    private SelectionKey acceptKey;
+    private boolean acceptPaused; // Política delay con el límite de admisión alcanzado
+
+    public MLLPNioServer(int port, MLLPMessageProcessor messageProcessor, MLLPSessionSettings sessionSettings,
+                         ExecutorService workerExecutor, HL7Metrics metrics) {
+        this(port, messageProcessor, sessionSettings, workerExecutor, metrics, MLLPAdmissionControl.unlimited());
+    }
+
+    public MLLPNioServer(int port, MLLPMessageProcessor messageProcessor, MLLPSessionSettings sessionSettings,
+                         ExecutorService workerExecutor, HL7Metrics metrics, MLLPAdmissionControl admissionControl) {
+        this.port = port;
+        this.messageProcessor = messageProcessor;
+        this.sessionSettings = sessionSettings;
+        this.workerExecutor = workerExecutor;
+        this.metrics = metrics;
+        this.admissionControl = admissionControl;
+    }
+
+    /**
+     * Abre el selector y el puerto en el hilo que llama, de modo que un puerto ocupado se detecta al arrancar.
+     * Si no se llama, lo hace run().
+     */
+    public synchronized void open() throws IOException {
+        if (serverChannel != null) {
+            return;
+        }
+        Selector sel = Selector.open();
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+            acceptKey = channel.register(sel, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            channel.close();
+            sel.close();
+            throw e;
+        }
+        this.serverChannel = channel;
+        this.selector = sel;
+    }
+
+    /**
+     * Puerto en el que escucha (el real si se configuró el puerto 0), o -1 si aún no está abierto.
+     */
+    public int localPort() {
+        ServerSocketChannel channel = serverChannel;
+        return channel != null ? channel.socket().getLocalPort() : -1;
+    }
+
+    @Override
+    public void run() {
+        try {
+            open();
+        } catch (IOException e) {
+            logger.error("[SERVER FATAL] No se pudo iniciar el servidor NIO: {}", e.getMessage(), e);
+            terminated = true;
+            return;
+        }
+        try (Selector sel = selector;
+             ServerSocketChannel serverChannel = this.serverChannel) {
+            logger.info("⚡ [SERVER START] Servidor MLLP (NIO) iniciado en puerto: {} - {}", localPort(), LocalDateTime.now());
+
+            while (running) {
+                sel.select(SELECT_TIMEOUT_MS);
+                runSelectorTasks();
+
+                Iterator<SelectionKey> keys = sel.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept(serverChannel);
+                        } else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isReadable()) {
+                                read(connection);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(connection);
+                            }
+                        }
+                    } catch (IOException e) {
+                        logger.error("[CONNECTION ERROR] Error de E/S en la conexión: {}", e.getMessage());
+                        if (key.attachment() instanceof Connection connection) {
+                            close(connection);
+                        }
+                    }
+                }
+                closeTimedOutConnections();
+                if (draining && connections.isEmpty()) {
+                    running = false;
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            logger.info("[SERVER STOP] Selector cerrado, servidor MLLP (NIO) detenido");
+        } catch (Exception e) {
+            logger.error("[SERVER FATAL] El servidor NIO se detuvo: {}", e.getMessage(), e);
+        } finally {
+            new ArrayList<>(connections).forEach(this::close);
+            terminated = true;
+        }
+    }
+
+    /**
+     * Parada ordenada: deja de aceptar conexiones, cierra las que esperan trama y deja que las que están
+     * procesando un mensaje envíen su ACK antes de cerrarse. Las tramas ya leídas y aún no procesadas se
+     * descartan sin ACK (el emisor las reenviará). El selector termina al cerrarse la última conexión.
+     */
+    public void drain() {
+        selectorTasks.add(() -> {
+            draining = true;
+            if (acceptKey != null) {
+                acceptKey.cancel();
+                closeQuietly(acceptKey.channel());
+            }
+            for (Connection connection : new ArrayList<>(connections)) {
+                connection.pendingFrames.clear();
+                if (connection.processing || !connection.pendingWrites.isEmpty()) {
+                    connection.closeAfterWrite = true;
+                } else {
+                    close(connection);
+                }
+            }
+            logger.info("[DRAIN] Servidor MLLP (NIO) en el puerto {}: {} conexiones terminando su mensaje", port,
+                    connections.size());
+        });
+        Selector sel = selector;
+        if (sel != null) {
+            sel.wakeup();
+        }
+    }
+
+    /**
+     * true cuando el bucle del selector ha terminado y todas sus conexiones están cerradas.
+     */
+    public boolean isTerminated() {
+        return terminated;
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.error("[WARNING] Error al cerrar el puerto: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Detiene el bucle del selector. Las conexiones abiertas se cierran al salir del bucle.
+     */
+    public void stop() {
+        running = false;
+        Selector sel = selector;
+        if (sel != null) {
+            sel.wakeup();
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        while (true) {
+            boolean slot = admissionControl.tryAcquireSlot();
+            if (!slot && admissionControl.overloadPolicy() == MLLPAdmissionControl.OverloadPolicy.DELAY) {
+                // Las conexiones nuevas esperan en el backlog TCP; se reanuda al cerrar una conexión
+                acceptKey.interestOps(0);
+                acceptPaused = true;
+                logger.warn("[ADMISSION] Límite de {} conexiones alcanzado, accept en pausa", admissionControl.maxConnections());
+                return;
+            }
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) {
+                if (slot) {
+                    admissionControl.releaseSlot();
+                }
+                return;
+            }
+            channel.configureBlocking(false);
+            InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+            MLLPAdmissionControl.Admission admission = admissionControl.admit(slot, remote.getAddress());
+            Connection connection = new Connection(channel, sessionSettings.maxFrameBytes(), admission);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.add(connection);
+            metrics.connectionOpened();
+            if (admission.admitted()) {
+                logger.info("[CONNECTION] Nueva conexión desde: {}", remote);
+            } else {
+                metrics.connectionRejected(admission.rejection().tag());
+                logger.warn("[ADMISSION] Conexión desde {} no admitida ({}), se responderá ocupado", remote,
+                        admission.rejection().tag());
+            }
+        }
+    }
+
+    private void read(Connection connection) throws IOException {
+        readBuffer.clear();
+        int bytesRead = connection.channel.read(readBuffer);
+        if (bytesRead == -1) {
+            if (connection.codec.isInFrame()) {
+                logger.warn("[WARNING] Mensaje recibido sin terminador MLLP (0x1C) o bloque de inicio (0x0B).");
+            }
+            close(connection);
+            return;
+        }
+        connection.lastActivity = System.currentTimeMillis();
+        readBuffer.flip();
+        connection.codec.decode(readBuffer, frame -> enqueueFrame(connection, frame));
+        updateReadInterest(connection);
+    }
+
+    // Contrapresión: OP_READ solo con la conexión ociosa (sin mensaje en proceso ni ACK pendiente). Las tramas que
+    // quedan en pendingFrames son las de una sola lectura, así que su tamaño está acotado por READ_BUFFER_SIZE
+    private void updateReadInterest(Connection connection) {
+        SelectionKey key = connection.key;
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        int ops = key.interestOps();
+        if (connection.processing || !connection.pendingWrites.isEmpty()) {
+            key.interestOps(ops & ~SelectionKey.OP_READ);
+        } else {
+            key.interestOps(ops | SelectionKey.OP_READ);
+        }
+    }
+
+    private void enqueueFrame(Connection connection, MLLPFrame frame) {
+        if (connection.closeAfterWrite) { // También durante la parada ordenada
+            return; // La sesión ya alcanzó su límite de mensajes
+        }
+        metrics.frameRead(frame.startNanos());
+        if (!connection.admission.admitted()) {
+            // Conexión no admitida: ACK de ocupado desde el hilo del selector (no se parsea ni persiste) y cierre
+            messageProcessor.rejectBusy(frame, connection.admission.rejection(), connection.ackBuffer);
+            connection.pendingWrites.add(new PendingAck(ByteBuffer.wrap(connection.ackBuffer.toFrame()), frame.startNanos()));
+            connection.closeAfterWrite = true;
+            try {
+                write(connection);
+            } catch (IOException e) {
+                logger.error("[CONNECTION ERROR] Error al enviar ACK de ocupado: {}", e.getMessage());
+                close(connection);
+            }
+            return;
+        }
+        connection.pendingFrames.add(frame);
+        if (!connection.processing) {
+            connection.processing = true;
+            submitNext(connection);
+        }
+    }
+
+    private void submitNext(Connection connection) {
+        MLLPFrame frame = connection.pendingFrames.poll();
+        workerExecutor.execute(() -> {
+            // Los mensajes de una conexión se procesan de uno en uno, así que su buffer de ACK no se comparte
+            HL7AckBuffer ack = connection.ackBuffer;
+            try {
+                messageProcessor.process(frame, sessionSettings.maxFrameBytes(), ack);
+            } catch (Exception e) {
+                logger.error("[UNEXPECTED ERROR] Error inesperado procesando trama NIO: {}", e.getMessage(), e);
+                messageProcessor.buildErrorAck(frame.message(), "Error inesperado del servidor.", ack);
+            }
+            // Copia exacta: el buffer se reutiliza para el siguiente mensaje antes de que este ACK termine de escribirse
+            PendingAck response = new PendingAck(ByteBuffer.wrap(ack.toFrame()), frame.startNanos());
+            selectorTasks.add(() -> onProcessed(connection, response));
+            selector.wakeup();
+        });
+    }
+
+    // Ejecutado en el hilo del selector cuando un worker termina un mensaje
+    private void onProcessed(Connection connection, PendingAck ack) {
+        if (!connection.channel.isOpen()) {
+            return;
+        }
+        connection.pendingWrites.add(ack);
+        connection.processed++;
+        connection.lastActivity = System.currentTimeMillis();
+
+        if (!sessionSettings.acceptsMore(connection.processed)) {
+            connection.closeAfterWrite = true;
+            connection.pendingFrames.clear();
+        }
+        if (connection.pendingFrames.isEmpty()) {
+            connection.processing = false;
+        } else {
+            submitNext(connection);
+        }
+
+        try {
+            write(connection);
+        } catch (IOException e) {
+            logger.error("[CONNECTION ERROR] Error al enviar ACK: {}", e.getMessage());
+            close(connection);
+        }
+    }
+
+    private void write(Connection connection) throws IOException {
+        while (!connection.pendingWrites.isEmpty()) {
+            PendingAck head = connection.pendingWrites.peek();
+            connection.channel.write(head.buffer());
+            if (head.buffer().hasRemaining()) {
+                // Buffer del socket lleno: se reintenta cuando el canal vuelva a ser escribible
+                connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+                updateReadInterest(connection);
+                return;
+            }
+            connection.pendingWrites.poll();
+            metrics.ackSent(head.frameStartNanos());
+            logger.debug("[ACK SENT] ACK enviado correctamente");
+        }
+        connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_WRITE);
+        if (connection.closeAfterWrite) {
+            close(connection);
+        } else {
+            updateReadInterest(connection);
+        }
+    }
+
+    private void runSelectorTasks() {
+        Runnable task;
+        while ((task = selectorTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    // Cierra las conexiones con una trama a medias o sin primer mensaje más allá del timeout de lectura,
+    // y las sesiones inactivas más allá del timeout de inactividad
+    private void closeTimedOutConnections() {
+        int readTimeoutMs = sessionSettings.readTimeoutMillis();
+        int idleTimeoutMs = sessionSettings.idleTimeoutMillis();
+        if (readTimeoutMs <= 0 && idleTimeoutMs <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long nowNanos = System.nanoTime();
+        long readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(readTimeoutMs);
+        for (Connection connection : new ArrayList<>(connections)) {
+            if (connection.processing) {
+                continue;
+            }
+            boolean waitingFirstMessage = (!sessionSettings.persistent() || !connection.admission.admitted())
+                    && connection.processed == 0;
+            if (readTimeoutMs > 0 && (connection.codec.frameExpired(nowNanos, readTimeoutNanos)
+                    || (waitingFirstMessage && now - connection.lastActivity > readTimeoutMs))) {
+                logger.warn("[READ TIMEOUT] Sin trama completa en {} ms, cerrando la conexión", readTimeoutMs);
+                close(connection);
+            } else if (idleTimeoutMs > 0 && now - connection.lastActivity > idleTimeoutMs) {
+                logger.info("[SESSION IDLE] Sesión inactiva durante {} ms, cerrando tras {} mensajes",
+                        idleTimeoutMs, connection.processed);
+                close(connection);
+            }
+        }
+    }
+
+    private void close(Connection connection) {
+        if (connections.remove(connection)) {
+            metrics.connectionClosed();
+            connection.admission.close();
+            if (acceptPaused && acceptKey.isValid()) {
+                // Se ha liberado un hueco: se vuelve a aceptar (si sigue lleno, accept() pausa otra vez)
+                acceptPaused = false;
+                acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+            }
+        }
+        try {
+            if (connection.key != null) {
+                connection.key.cancel();
+            }
+            if (connection.channel.isOpen()) {
+                connection.channel.close();
+                logger.info("[CONNECTION CLOSED] Conexión cerrada");
+            }
+        } catch (IOException e) {
+            logger.error("[WARNING] Error al cerrar la conexión: {}", e.getMessage());
+        }
+    }
+
+    // ACK enmarcado pendiente de escribir y el instante de recepción de su trama (para mllp.ack.latency)
+    private record PendingAck(ByteBuffer buffer, long frameStartNanos) {
+    }
+
+    /**
+     * Estado de una conexión. Solo se accede desde el hilo del selector, salvo ackBuffer,
+     * que lo usa el worker que procesa el mensaje en curso de la conexión.
+     */
+    private static final class Connection {
+        private final SocketChannel channel;
+        private final MLLPFrameCodec codec;
+        private final Deque<MLLPFrame> pendingFrames = new ArrayDeque<>();
+        private final Deque<PendingAck> pendingWrites = new ArrayDeque<>();
+        private final HL7AckBuffer ackBuffer = new HL7AckBuffer();
+        private final MLLPAdmissionControl.Admission admission;
+        private SelectionKey key;
+        private boolean processing;
+        private boolean closeAfterWrite;
+        private int processed;
+        private long lastActivity = System.currentTimeMillis();
+
+        private Connection(SocketChannel channel, int maxFrameBytes, MLLPAdmissionControl.Admission admission) {
+            this.channel = channel;
+            this.codec = new MLLPFrameCodec(maxFrameBytes);
+            this.admission = admission;
+        }
+    }
+}
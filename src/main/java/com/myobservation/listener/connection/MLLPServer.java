@@ -1,75 +1,208 @@
 package com.myobservation.listener.connection;
 
-import com.myobservation.listener.ack.HL7AckGenerator;
-import com.myobservation.storage.service.HL7ParserService;
+import com.myobservation.metrics.HL7Metrics;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.stereotype.Component;
 
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.lang.management.ManagementFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-// Importa las constantes de tu clase ProtocolConstants
-
-
 /**
  * Es la clase principal y orquestadora
- * Su responsabilidad es la gestión del ciclo de vida del servidor MLLP (iniciar, parar) y
- * la aperta del ServerSocket y aceptación de nuevas conexiones
+ * Su responsabilidad es la gestión del ciclo de vida de los listeners MLLP (iniciar, parar).
+ * Sin mllp.listeners.* se arranca un único listener "default" con la configuración general (mllp.server.port, ...);
+ * con listeners definidos se arranca uno por entrada, cada uno con su puerto, executor, admisión, sesión y
+ * persistencia (ver MLLPListenerProperties), de modo que un feed de alto volumen no deja sin servicio a los demás.
+ * Con mllp.server.enabled=false no se arranca (p. ej. en la ingesta de ficheros por línea de comandos).
+ *
+ * Es un SmartLifecycle de la última fase: arranca cuando todo el contexto está listo (JPA, HAPI, lote, WAL) y,
+ * antes de abrir ningún puerto, calienta el pool de BBDD y el camino de los mensajes (MLLPWarmup), de modo que
+ * el primer emisor que reconecta tras un despliegue no paga el arranque en frío. Al parar es lo primero que se
+ * detiene: drena todos los listeners a la vez con un plazo común (mllp.shutdown.drain-timeout-ms) mientras el
+ * lote de persistencia, el WAL y el pool de BBDD siguen disponibles, así los mensajes en curso reciben su ACK.
  */
 @Component
-public class MLLPServer implements CommandLineRunner {
+@ConditionalOnProperty(name = "mllp.server.enabled", havingValue = "true", matchIfMissing = true)
+@EnableConfigurationProperties(MLLPListenerProperties.class)
+public class MLLPServer implements SmartLifecycle {
 
     private static final Logger logger = LoggerFactory.getLogger(MLLPServer.class);
 
-    private final ExecutorService executorService = Executors.newFixedThreadPool(10); // Maneja hasta 10 conexiones
-
-    private final HL7AckGenerator hl7AckGenerator;
-    private final HL7ParserService hl7ParserService; // <-- Inyecta el servicio de parser aquí también
+    private final MLLPMessageProcessor messageProcessor; // Parseo, persistencia y ACK compartidos por todos los listeners
+    private final HL7Metrics metrics;
+    private final MLLPListenerProperties listenerProperties;
+    private final MLLPWarmup warmup;
+    private final List<MLLPListener> listeners = new ArrayList<>();
+    private volatile boolean running;
 
     // Llave del puerto en properties
     @Value("${mllp.server.port}")
     private int mllpPort;
 
-    // Constructor actualizado para inyectar HL7ParserService
-    public MLLPServer(HL7AckGenerator hl7AckGenerator, HL7ParserService hl7ParserService) {
-        this.hl7AckGenerator = hl7AckGenerator;
-        this.hl7ParserService = hl7ParserService; // Asigna el servicio
+    // Motor de red: "blocking" (un hilo por conexión) o "nio" (selector + pool de workers)
+    @Value("${mllp.server.engine:blocking}")
+    private String serverEngine;
+
+    @Value("${mllp.server.nio.worker-threads:10}")
+    private int nioWorkerThreads;
+
+    // Modo de ejecución: "fixed" (pool de hilos de plataforma) o "virtual" (un hilo virtual por tarea)
+    @Value("${mllp.server.executor:fixed}")
+    private String executorMode;
+
+    @Value("${mllp.server.executor.threads:10}")
+    private int executorThreads;
+
+    // Sesiones persistentes: varios mensajes por conexión TCP
+    @Value("${mllp.session.persistent:false}")
+    private boolean persistentSession;
+
+    @Value("${mllp.session.idle-timeout-ms:30000}")
+    private int sessionIdleTimeoutMs;
+
+    @Value("${mllp.session.max-messages:0}")
+    private int sessionMaxMessages;
+
+    // Tamaño máximo de trama MLLP; las mayores se rechazan con AR
+    @Value("${mllp.frame.max-bytes:1048576}")
+    private int maxFrameBytes;
+
+    // Tiempo máximo para completar una trama (y para el primer mensaje en sesiones no persistentes)
+    @Value("${mllp.session.read-timeout-ms:0}")
+    private int sessionReadTimeoutMs;
+
+    // Control de admisión: conexiones atendidas o en cola a la vez y por dirección remota (0 = sin límite)
+    @Value("${mllp.admission.max-connections:0}")
+    private int admissionMaxConnections;
+
+    @Value("${mllp.admission.max-connections-per-remote:0}")
+    private int admissionMaxConnectionsPerRemote;
+
+    // Al alcanzar max-connections: "delay" (deja de aceptar) o "busy" (acepta y responde AE de ocupado)
+    @Value("${mllp.admission.overload-policy:delay}")
+    private String admissionOverloadPolicy;
+
+    @Value("${mllp.persistence.mode:sync}")
+    private String persistenceMode;
+
+    @Value("${mllp.processing.max-concurrent:10}")
+    private int maxConcurrentProcessing;
+
+    // Carriles ordenados por emisor para hl7.ordering.message-types (valor por defecto de los listeners)
+    @Value("${hl7.ordering.enabled:false}")
+    private boolean ordering;
+
+    // Plazo de la parada ordenada para que los mensajes en curso terminen y reciban su ACK
+    @Value("${mllp.shutdown.drain-timeout-ms:10000}")
+    private long drainTimeoutMs;
+
+    public MLLPServer(MLLPMessageProcessor messageProcessor, HL7Metrics metrics, MLLPListenerProperties listenerProperties,
+                      MLLPWarmup warmup) {
+        this.messageProcessor = messageProcessor;
+        this.metrics = metrics;
+        this.listenerProperties = listenerProperties;
+        this.warmup = warmup;
     }
 
+    /**
+     * Calienta y después abre los puertos. Si un puerto no se puede abrir, se cierran los listeners ya abiertos y el
+     * arranque de la aplicación falla.
+     */
     @Override
-    public void run(String... args) throws Exception {
-        executorService.submit(this::startServer); // Enviar la tarea al pool
+    public void start() {
+        List<MLLPListenerSettings> allSettings = listenerSettings();
+        long warmupMs = warmup.run();
+        try {
+            for (MLLPListenerSettings settings : allSettings) {
+                MLLPListener listener = new MLLPListener(settings, messageProcessor.forListener(settings), metrics);
+                listener.start();
+                listeners.add(listener);
+            }
+        } catch (RuntimeException e) {
+            // Spring no llama a stop() si start() falla: se cierran aquí los listeners ya abiertos, cuyos hilos
+            // de accept (no daemon) mantendrían viva la JVM con el contexto ya cerrado
+            logger.error("[SERVER START] Fallo al abrir los listeners MLLP; se cierran los {} ya abiertos", listeners.size());
+            stop();
+            throw e;
+        }
+        running = true;
+        logger.info("[SERVER READY] {} listeners MLLP aceptando mensajes a los {} ms del arranque de la JVM (calentamiento: {} ms)",
+                listeners.size(), ManagementFactory.getRuntimeMXBean().getUptime(), warmupMs);
     }
 
-    private void startServer() {
-        try (ServerSocket serverSocket = new ServerSocket(mllpPort)) { // Usa la variable inyectada
-            logger.info("⚡ [SERVER START] Servidor MLLP iniciado en puerto: {} - {}", mllpPort, LocalDateTime.now());
+    /**
+     * Parada ordenada de todos los listeners con un plazo común: dejan de aceptar a la vez y se espera a que los
+     * mensajes en curso reciban su ACK. Lo que no termine en el plazo se cierra sin ACK (el emisor lo reenviará).
+     */
+    @Override
+    public void stop() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMs);
+        listeners.forEach(MLLPListener::drain);
+        try {
+            for (MLLPListener listener : listeners) {
+                listener.awaitTermination(deadline);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            listeners.clear();
+            running = false;
+        }
+    }
 
-            while (true) {
-                try {
-                    logger.info("[LISTENING] Esperando conexiones...");
-                    Socket socket = serverSocket.accept();
-                    logger.info("[CONNECTION] Nueva conexión desde: {}:{}", socket.getInetAddress(), socket.getPort());
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
 
-                    // Crear un nuevo MLLPConnectionHandler y lo ejecuta en el pool de hilos
-                    // Pasar las dependencias (ackGenerator, parserService) al handler
-                    executorService.submit(new MLLPConnectionHandler(socket, hl7AckGenerator, hl7ParserService));
+    /**
+     * Puerto real de cada listener (útil con el puerto 0 en pruebas), por nombre.
+     */
+    public Map<String, Integer> localPorts() {
+        Map<String, Integer> ports = new HashMap<>();
+        listeners.forEach(listener -> ports.put(listener.settings().name(), listener.localPort()));
+        return ports;
+    }
 
-                } catch (Exception e) {
-                    logger.error("[SERVER ERROR] Error en el servidor: {}", e.getMessage(), e);
-                    // No es necesario e.printStackTrace(); si usas logger.error con el Throwable
-                }
-            }
-        } catch (Exception e) {
-            logger.error("[SERVER FATAL] No se pudo iniciar el servidor: {}", e.getMessage(), e);
-            // No es necesario e.printStackTrace();
+    /**
+     * Configuración de cada listener: la general si no hay mllp.listeners.*, o cada entrada combinada con ella.
+     */
+    List<MLLPListenerSettings> listenerSettings() {
+        MLLPListenerSettings defaults = defaultSettings();
+        if (listenerProperties.listeners().isEmpty()) {
+            return List.of(defaults);
         }
+        List<MLLPListenerSettings> resolved = new ArrayList<>();
+        Map<Integer, String> ports = new HashMap<>();
+        listenerProperties.listeners().forEach((name, listener) -> {
+            MLLPListenerSettings settings = listener.resolve(name, defaults);
+            String previous = ports.putIfAbsent(settings.port(), name);
+            if (previous != null) {
+                throw new IllegalStateException("Los listeners MLLP " + previous + " y " + name
+                        + " usan el mismo puerto " + settings.port());
+            }
+            resolved.add(settings);
+        });
+        return resolved;
+    }
+
+    private MLLPListenerSettings defaultSettings() {
+        MLLPSessionSettings session = persistentSession
+                ? new MLLPSessionSettings(true, sessionIdleTimeoutMs, sessionMaxMessages, maxFrameBytes, sessionReadTimeoutMs)
+                : MLLPSessionSettings.singleMessage(maxFrameBytes, sessionReadTimeoutMs);
+        return new MLLPListenerSettings(MLLPListenerSettings.DEFAULT_NAME, mllpPort, serverEngine, executorMode,
+                executorThreads, nioWorkerThreads, session, admissionMaxConnections, admissionMaxConnectionsPerRemote,
+                admissionOverloadPolicy, persistenceMode, maxConcurrentProcessing, ordering);
     }
-}
\ No newline at end of file
+}
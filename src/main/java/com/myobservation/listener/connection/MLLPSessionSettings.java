@@ -0,0 +1,45 @@
+package com.myobservation.listener.connection;
+
+/**
+ * Parámetros de sesión MLLP aplicados a cada conexión aceptada.
+ *
+ * @param persistent          si es true, la conexión se mantiene abierta y se procesan varios mensajes sobre el mismo socket
+ * @param idleTimeoutMillis   tiempo máximo sin recibir datos antes de cerrar la sesión (0 = sin límite)
+ * @param maxMessages         número máximo de mensajes por sesión antes de cerrar la conexión (0 = sin límite)
+ * @param maxFrameBytes       tamaño máximo de una trama MLLP; las tramas mayores se rechazan con AR
+ * @param readTimeoutMillis   tiempo máximo para recibir una trama completa desde su primer byte, y para recibir
+ *                            el primer mensaje en sesiones no persistentes (0 = sin límite). Evita que un emisor
+ *                            bloqueado a mitad de trama retenga un hilo o un hueco de admisión
+ */
+public record MLLPSessionSettings(boolean persistent, int idleTimeoutMillis, int maxMessages, int maxFrameBytes,
+                                  int readTimeoutMillis) {
+
+    public MLLPSessionSettings(boolean persistent, int idleTimeoutMillis, int maxMessages, int maxFrameBytes) {
+        this(persistent, idleTimeoutMillis, maxMessages, maxFrameBytes, 0);
+    }
+
+    /**
+     * Comportamiento original: un único mensaje por conexión.
+     */
+    public static MLLPSessionSettings singleMessage() {
+        return singleMessage(MLLPFrameCodec.DEFAULT_MAX_FRAME_BYTES);
+    }
+
+    public static MLLPSessionSettings singleMessage(int maxFrameBytes) {
+        return singleMessage(maxFrameBytes, 0);
+    }
+
+    public static MLLPSessionSettings singleMessage(int maxFrameBytes, int readTimeoutMillis) {
+        return new MLLPSessionSettings(false, 0, 1, maxFrameBytes, readTimeoutMillis);
+    }
+
+    /**
+     * Indica si se debe seguir leyendo mensajes tras haber procesado {@code processed} mensajes.
+     */
+    public boolean acceptsMore(int processed) {
+        if (!persistent) {
+            return false;
+        }
+        return maxMessages <= 0 || processed < maxMessages;
+    }
+}
@@ -0,0 +1,145 @@
+package com.myobservation.listener.connection;
+
+import com.myobservation.listener.ack.HL7AckBuffer;
+import com.myobservation.listener.ack.HL7AckGenerator;
+import com.myobservation.listener.utils.MSHHeader;
+import com.myobservation.storage.model.entity.HL7Message;
+import com.myobservation.storage.repository.HL7MessageRepository;
+import com.myobservation.storage.service.HL7ParserService;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Calentamiento previo a abrir los puertos MLLP (lo llama MLLPServer.start()).
+ * Sin él, el primer mensaje tras un despliegue tarda cientos de ms más que los siguientes (primeras consultas
+ * de Hibernate, clases de HAPI, código aún interpretado) y los emisores que reconectan a la vez acumulan
+ * timeouts y reintentos. Se hace:
+ * <ul>
+ *   <li>pool de BBDD: se abren a la vez hasta mllp.startup.warmup-connections conexiones (como mucho el tamaño
+ *       del pool), para que los primeros mensajes concurrentes no esperen a crear conexiones físicas</li>
+ *   <li>camino de cada mensaje: parseo, consulta de duplicados, INSERT (en una transacción que se deshace, no
+ *       queda nada en la auditoría) y ACK, mllp.startup.warmup-messages veces con un ADT^A01 y un ORU^R01</li>
+ * </ul>
+ * Los errores no impiden el arranque: solo se registran.
+ */
+@Component
+@ConditionalOnProperty(name = "mllp.server.enabled", havingValue = "true", matchIfMissing = true)
+public class MLLPWarmup {
+
+    private static final Logger logger = LoggerFactory.getLogger(MLLPWarmup.class);
+
+    private static final String SENDER = "WARMUP";
+    private static final List<String> SAMPLES = List.of(
+            "MSH|^~\\&|" + SENDER + "|HOSP|HIS|HOSP|20240101120000||ADT^A01|WARMUP-ADT|P|2.5\r"
+                    + "EVN|A01|20240101120000\r"
+                    + "PID|1||000000^^^HOSP^MR||PRUEBA^PACIENTE||19800101|U\r"
+                    + "PV1|1|I|PLANTA^101^1\r",
+            "MSH|^~\\&|" + SENDER + "|HOSP|HIS|HOSP|20240101120000||ORU^R01|WARMUP-ORU|P|2.5\r"
+                    + "PID|1||000000^^^HOSP^MR||PRUEBA^PACIENTE\r"
+                    + "OBR|1||000000|GLU^Glucosa\r"
+                    + "OBX|1|NM|GLU^Glucosa||5.5|mmol/L|||||F\r");
+
+    private final HL7ParserService parserService;
+    private final HL7AckGenerator ackGenerator;
+    private final HL7MessageRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final DataSource dataSource;
+    private final int warmupMessages;
+    private final int warmupConnections;
+    private final boolean warmupPersistence;
+
+    public MLLPWarmup(HL7ParserService parserService, HL7AckGenerator ackGenerator, HL7MessageRepository repository,
+                      TransactionTemplate transactionTemplate, DataSource dataSource,
+                      @Value("${mllp.startup.warmup-messages:10}") int warmupMessages,
+                      @Value("${mllp.startup.warmup-connections:10}") int warmupConnections,
+                      @Value("${mllp.startup.warmup-persistence:true}") boolean warmupPersistence) {
+        this.parserService = parserService;
+        this.ackGenerator = ackGenerator;
+        this.repository = repository;
+        this.transactionTemplate = transactionTemplate;
+        this.dataSource = dataSource;
+        this.warmupMessages = warmupMessages;
+        this.warmupConnections = warmupConnections;
+        this.warmupPersistence = warmupPersistence;
+    }
+
+    /**
+     * Calienta el pool de BBDD y el camino de los mensajes. Devuelve el tiempo empleado en ms.
+     */
+    public long run() {
+        long start = System.nanoTime();
+        int connections = warmConnectionPool();
+        int messages = warmMessagePath();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        logger.info("[WARMUP] {} conexiones de BBDD y {} mensajes de prueba en {} ms", connections, messages, elapsedMs);
+        return elapsedMs;
+    }
+
+    private int warmConnectionPool() {
+        int target = warmupConnections;
+        try {
+            if (dataSource.isWrapperFor(HikariDataSource.class)) {
+                // Pedir más conexiones que el tamaño del pool bloquearía hasta el connection-timeout
+                target = Math.min(target, dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize());
+            }
+        } catch (Exception e) {
+            logger.debug("[WARMUP] No se pudo consultar el tamaño del pool: {}", e.getMessage());
+        }
+        List<Connection> opened = new ArrayList<>(Math.max(target, 0));
+        try {
+            for (int i = 0; i < target; i++) {
+                Connection connection = dataSource.getConnection(); // Se retienen todas para forzar conexiones físicas
+                opened.add(connection);
+                connection.isValid(5);
+            }
+        } catch (Exception e) {
+            logger.warn("[WARMUP] Pool de BBDD calentado solo con {} conexiones: {}", opened.size(), e.getMessage());
+        } finally {
+            for (Connection connection : opened) {
+                try {
+                    connection.close();
+                } catch (Exception e) {
+                    logger.debug("[WARMUP] Error al devolver una conexión: {}", e.getMessage());
+                }
+            }
+        }
+        return opened.size();
+    }
+
+    private int warmMessagePath() {
+        HL7AckBuffer ack = new HL7AckBuffer();
+        LocalDateTime lookback = LocalDateTime.now().minusDays(1);
+        int processed = 0;
+        try {
+            for (int i = 0; i < warmupMessages; i++) {
+                for (String sample : SAMPLES) {
+                    HL7Message entity = parserService.parseToEntity(sample);
+                    if (warmupPersistence) {
+                        transactionTemplate.executeWithoutResult(status -> {
+                            repository.findFirstByMessageControlIdAndSenderAndCreatedAtGreaterThanEqualOrderByCreatedAtDesc(
+                                    entity.getMessageControlId(), SENDER, lookback);
+                            repository.saveAndFlush(entity);
+                            status.setRollbackOnly(); // El INSERT se ejecuta pero no se confirma
+                        });
+                    }
+                    ackGenerator.writeAck(MSHHeader.scan(sample), entity.getAckStatus(), entity.getAckError(), ack);
+                    processed++;
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("[WARMUP] Calentamiento interrumpido tras {} mensajes: {}", processed, e.getMessage());
+        }
+        return processed;
+    }
+}
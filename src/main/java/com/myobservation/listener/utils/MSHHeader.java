@@ -0,0 +1,216 @@
+package com.myobservation.listener.utils;
+
+/**
+ * Lectura rápida del segmento MSH sin parsear el mensaje completo con HAPI.
+ * Un único recorrido del MSH guarda la posición de inicio y fin de cada campo dentro del mensaje original;
+ * los valores solo se materializan como String cuando se piden. Respeta los separadores declarados
+ * en MSH-1 (campo) y MSH-2 (componente), y se detiene en el primer fin de segmento.
+ *
+ * La numeración de campos sigue el estándar: MSH-1 es el separador de campo, MSH-2 los caracteres
+ * de codificación, MSH-3 la aplicación emisora, etc.
+ */
+public final class MSHHeader {
+
+    // Hasta MSH-21; los campos posteriores no se necesitan para enrutar ni para el ACK
+    private static final int MAX_FIELDS = 21;
+
+    private final String message;
+    private final char fieldSeparator;
+    private final char componentSeparator;
+    private final int[] fieldStart = new int[MAX_FIELDS + 1];
+    private final int[] fieldEnd = new int[MAX_FIELDS + 1];
+    private final int fieldCount;
+
+    /**
+     * Recorre el MSH del mensaje.
+     * @return la cabecera, o null si el mensaje no empieza por un segmento MSH
+     */
+    public static MSHHeader scan(String message) {
+        if (message == null || message.length() < 8 || !message.startsWith("MSH")) {
+            return null;
+        }
+        return new MSHHeader(message);
+    }
+
+    private MSHHeader(String message) {
+        this.message = message;
+        this.fieldSeparator = message.charAt(3);
+        this.componentSeparator = message.charAt(4);
+
+        // MSH-1 es el propio separador; MSH-2 empieza justo después
+        fieldStart[1] = 3;
+        fieldEnd[1] = 4;
+        int field = 2;
+        fieldStart[field] = 4;
+
+        int length = message.length();
+        int i = 4;
+        for (; i < length; i++) {
+            char c = message.charAt(i);
+            if (c == '\r' || c == '\n') {
+                break;
+            }
+            if (c == fieldSeparator) {
+                fieldEnd[field] = i;
+                if (field == MAX_FIELDS) {
+                    break;
+                }
+                field++;
+                fieldStart[field] = i + 1;
+            }
+        }
+        if (i >= length || message.charAt(i) != fieldSeparator) {
+            fieldEnd[field] = i;
+        }
+        this.fieldCount = field;
+    }
+
+    /**
+     * Número del último campo presente en el MSH (p. ej. 12 si llega hasta MSH-12).
+     */
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    public boolean hasField(int field) {
+        return field >= 1 && field <= fieldCount;
+    }
+
+    /**
+     * Valor completo del campo (con sus componentes), o "" si no existe.
+     */
+    public String field(int field) {
+        if (!hasField(field)) {
+            return "";
+        }
+        return message.substring(fieldStart[field], fieldEnd[field]);
+    }
+
+    /**
+     * Componente (empezando en 1) de un campo, o "" si no existe.
+     */
+    public String component(int field, int component) {
+        int start = componentStart(field, component);
+        if (start < 0) {
+            return "";
+        }
+        return message.substring(start, componentEnd(field, start));
+    }
+
+    /**
+     * Mensaje original sobre el que se calculan las posiciones de {@link #fieldStart} y {@link #componentStart}.
+     * Permite copiar un campo (p. ej. al ACK) sin crear un String intermedio.
+     */
+    public String message() {
+        return message;
+    }
+
+    /**
+     * Posición en el mensaje donde empieza el campo, o -1 si no existe.
+     */
+    public int fieldStart(int field) {
+        return hasField(field) ? fieldStart[field] : -1;
+    }
+
+    /**
+     * Posición en el mensaje inmediatamente posterior al campo, o -1 si no existe.
+     */
+    public int fieldEnd(int field) {
+        return hasField(field) ? fieldEnd[field] : -1;
+    }
+
+    /**
+     * Posición en el mensaje donde empieza el componente (empezando en 1) de un campo, o -1 si no existe.
+     */
+    public int componentStart(int field, int component) {
+        if (!hasField(field)) {
+            return -1;
+        }
+        int start = fieldStart[field];
+        int end = fieldEnd[field];
+        for (int current = 1; current < component; current++) {
+            int separator = indexOf(componentSeparator, start, end);
+            if (separator < 0) {
+                return -1;
+            }
+            start = separator + 1;
+        }
+        return start;
+    }
+
+    /**
+     * Fin del componente que empieza en {@code componentStart} (siguiente separador de componente o fin del campo).
+     */
+    public int componentEnd(int field, int componentStart) {
+        int end = fieldEnd[field];
+        int separator = indexOf(componentSeparator, componentStart, end);
+        return separator < 0 ? end : separator;
+    }
+
+    public char fieldSeparator() {
+        return fieldSeparator;
+    }
+
+    public char componentSeparator() {
+        return componentSeparator;
+    }
+
+    /**
+     * MSH-2: caracteres de codificación declarados (normalmente ^~\&).
+     */
+    public String encodingCharacters() {
+        return field(2);
+    }
+
+    public String sendingApplication() {
+        return component(3, 1);
+    }
+
+    public String sendingFacility() {
+        return component(4, 1);
+    }
+
+    public String receivingApplication() {
+        return component(5, 1);
+    }
+
+    public String receivingFacility() {
+        return component(6, 1);
+    }
+
+    public String messageCode() {
+        return component(9, 1);
+    }
+
+    public String triggerEvent() {
+        return component(9, 2);
+    }
+
+    /**
+     * Tipo de mensaje normalizado como código^evento (p. ej. ADT^A01), igual que se guarda en HL7_MESSAGE.
+     */
+    public String messageType() {
+        return messageCode() + "^" + triggerEvent();
+    }
+
+    public String messageControlId() {
+        return field(10);
+    }
+
+    public String processingId() {
+        return field(11);
+    }
+
+    public String versionId() {
+        return component(12, 1);
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (message.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
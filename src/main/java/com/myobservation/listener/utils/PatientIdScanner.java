@@ -0,0 +1,80 @@
+package com.myobservation.listener.utils;
+
+/**
+ * Localiza el identificador de paciente (PID-3, primer componente de la primera repetición) sin parsear
+ * el mensaje con HAPI. Usa los separadores ya leídos del MSH.
+ */
+public final class PatientIdScanner {
+
+    private static final char DEFAULT_REPETITION_SEPARATOR = '~';
+
+    private PatientIdScanner() {
+    }
+
+    /**
+     * @return PID-3.1, o "" si el mensaje no tiene segmento PID o el campo está vacío
+     */
+    public static String patientId(MSHHeader header) {
+        if (header == null) {
+            return "";
+        }
+        String message = header.message();
+        char fs = header.fieldSeparator();
+        char cs = header.componentSeparator();
+        String encoding = header.encodingCharacters(); // MSH-2: componente, repetición, escape, subcomponente
+        char rs = encoding.length() > 1 ? encoding.charAt(1) : DEFAULT_REPETITION_SEPARATOR;
+
+        int segmentStart = findPidSegment(message, fs);
+        if (segmentStart < 0) {
+            return "";
+        }
+        // Avanza hasta el inicio de PID-3 (tras el tercer separador de campo del segmento)
+        int position = segmentStart;
+        for (int separators = 0; separators < 3; separators++) {
+            position = nextFieldSeparator(message, position, fs);
+            if (position < 0) {
+                return "";
+            }
+            position++;
+        }
+        int end = position;
+        while (end < message.length()) {
+            char c = message.charAt(end);
+            if (c == fs || c == cs || c == rs || c == '\r' || c == '\n') {
+                break;
+            }
+            end++;
+        }
+        return message.substring(position, end);
+    }
+
+    // Inicio de un segmento "PID" + separador, siempre al principio de línea
+    private static int findPidSegment(String message, char fs) {
+        int from = 0;
+        while (true) {
+            int index = message.indexOf("PID", from);
+            if (index < 0) {
+                return -1;
+            }
+            boolean lineStart = index > 0 && (message.charAt(index - 1) == '\r' || message.charAt(index - 1) == '\n');
+            if (lineStart && index + 3 < message.length() && message.charAt(index + 3) == fs) {
+                return index;
+            }
+            from = index + 3;
+        }
+    }
+
+    // Separador de campo siguiente dentro del segmento, o -1 si el segmento termina antes
+    private static int nextFieldSeparator(String message, int from, char fs) {
+        for (int i = from; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c == fs) {
+                return i;
+            }
+            if (c == '\r' || c == '\n') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+}
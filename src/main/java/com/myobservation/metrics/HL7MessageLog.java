@@ -0,0 +1,195 @@
+package com.myobservation.metrics;
+
+import com.myobservation.listener.utils.MSHHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.spi.LoggingEventBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Log por mensaje del flujo MLLP, con coste acotado aunque crezca el tamaño del mensaje:
+ * <ul>
+ *   <li>com.myobservation.hl7.events: una línea por mensaje (INFO) con ID de control, emisor, tipo, ACK y la
+ *   duración de cada etapa, en texto clave=valor y como pares clave-valor SLF4J (campos propios en el log
+ *   estructurado del perfil prod). Nunca incluye el contenido del mensaje.</li>
+ *   <li>com.myobservation.hl7.payload: el mensaje recibido, solo para una muestra (hl7.logging.payload.sample-rate),
+ *   recortado a hl7.logging.payload.max-chars y, en modo redacted, sin el contenido de los segmentos salvo MSH/EVN
+ *   para no volcar datos de pacientes.</li>
+ * </ul>
+ */
+@Component
+public class HL7MessageLog {
+
+    private static final Logger eventLogger = LoggerFactory.getLogger("com.myobservation.hl7.events");
+    private static final Logger payloadLogger = LoggerFactory.getLogger("com.myobservation.hl7.payload");
+
+    /**
+     * Contenido del mensaje en el log de payload.
+     */
+    public enum PayloadMode {
+        NONE, REDACTED, FULL
+    }
+
+    /**
+     * Etapas cronometradas de un mensaje.
+     */
+    public enum Stage {
+        WAIT, PARSE, SAVE
+    }
+
+    private final boolean eventsEnabled;
+    private final PayloadMode payloadMode;
+    private final double sampleRate;
+    private final int maxChars;
+
+    public HL7MessageLog(@Value("${hl7.logging.events:true}") boolean eventsEnabled,
+                         @Value("${hl7.logging.payload.mode:redacted}") String payloadMode,
+                         @Value("${hl7.logging.payload.sample-rate:0.01}") double sampleRate,
+                         @Value("${hl7.logging.payload.max-chars:1024}") int maxChars) {
+        this.eventsEnabled = eventsEnabled;
+        this.payloadMode = PayloadMode.valueOf(payloadMode.trim().toUpperCase(Locale.ROOT));
+        this.sampleRate = sampleRate;
+        this.maxChars = Math.max(maxChars, 0);
+    }
+
+    /**
+     * Log desactivado, para componentes creados fuera de Spring.
+     */
+    public static HL7MessageLog disabled() {
+        return new HL7MessageLog(false, "none", 0, 0);
+    }
+
+    /**
+     * Registra el mensaje recibido si entra en la muestra y empieza a cronometrar sus etapas.
+     * @param persistenceMode modo de persistencia (sync, batch, wal), se incluye en el evento
+     */
+    public Event received(String hl7Message, String persistenceMode) {
+        if (payloadMode != PayloadMode.NONE && payloadLogger.isInfoEnabled()
+                && (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate)) {
+            payloadLogger.info("[MESSAGE RECEIVED] Mensaje HL7 ({} caracteres):\n{}", hl7Message.length(),
+                    payloadMode == PayloadMode.FULL ? truncate(hl7Message, maxChars) : redact(hl7Message, maxChars));
+        }
+        return new Event(hl7Message.length(), persistenceMode);
+    }
+
+    /**
+     * Emite la línea del evento con el resultado del mensaje.
+     * @param header cabecera MSH (null si el mensaje no tenía MSH)
+     */
+    public void completed(Event event, MSHHeader header, String ackStatus, String ackError) {
+        if (!eventsEnabled || !eventLogger.isInfoEnabled()) {
+            return;
+        }
+        double totalMs = millis(System.nanoTime() - event.start);
+        String controlId = header == null ? "" : header.messageControlId();
+        String sender = header == null ? "" : header.sendingApplication();
+        String type = header == null ? "" : header.messageType();
+        LoggingEventBuilder line = eventLogger.atInfo()
+                .addKeyValue("hl7.controlId", controlId)
+                .addKeyValue("hl7.sender", sender)
+                .addKeyValue("hl7.type", type)
+                .addKeyValue("hl7.ack", ackStatus)
+                .addKeyValue("hl7.chars", event.chars)
+                .addKeyValue("hl7.mode", event.mode)
+                .addKeyValue("hl7.waitMs", millis(event.stageNanos[Stage.WAIT.ordinal()]))
+                .addKeyValue("hl7.parseMs", millis(event.stageNanos[Stage.PARSE.ordinal()]))
+                .addKeyValue("hl7.saveMs", millis(event.stageNanos[Stage.SAVE.ordinal()]))
+                .addKeyValue("hl7.totalMs", totalMs);
+        StringBuilder text = new StringBuilder(160).append("[HL7 EVENT] controlId=").append(controlId)
+                .append(" sender=").append(sender).append(" type=").append(type).append(" ack=").append(ackStatus)
+                .append(" chars=").append(event.chars).append(" mode=").append(event.mode);
+        for (Stage stage : Stage.values()) {
+            text.append(' ').append(stage.name().toLowerCase(Locale.ROOT)).append("Ms=")
+                    .append(millis(event.stageNanos[stage.ordinal()]));
+        }
+        text.append(" totalMs=").append(totalMs);
+        if (ackError != null && !ackError.isEmpty()) {
+            String error = truncate(ackError, 200);
+            line = line.addKeyValue("hl7.error", error);
+            text.append(" error=\"").append(error).append('"');
+        }
+        line.log(text.toString());
+    }
+
+    /**
+     * Mensaje recortado a {@code maxChars} con el contenido de cada campo sustituido por '*', salvo en MSH y EVN.
+     * Se conservan los identificadores de segmento y los separadores, que bastan para diagnosticar la estructura.
+     */
+    static String redact(String hl7Message, int maxChars) {
+        int end = Math.min(hl7Message.length(), maxChars);
+        StringBuilder redacted = new StringBuilder(end + 32);
+        int segmentStart = 0;
+        boolean keep = false;
+        boolean masking = false;
+        for (int i = 0; i < end; i++) {
+            char c = hl7Message.charAt(i);
+            if (c == '\r' || c == '\n') {
+                redacted.append('\n');
+                segmentStart = i + 1;
+                masking = false;
+                continue;
+            }
+            if (i - segmentStart < 3) {
+                // Identificador de segmento: decide si el resto se conserva
+                redacted.append(c);
+                if (i - segmentStart == 2) {
+                    String segment = hl7Message.substring(segmentStart, i + 1);
+                    keep = segment.equals("MSH") || segment.equals("EVN");
+                }
+                continue;
+            }
+            if (keep || c == '|' || c == '^' || c == '~' || c == '&' || c == '\\') {
+                redacted.append(c);
+                masking = false;
+            } else if (!masking) {
+                redacted.append('*'); // Un solo '*' por valor: no se revela ni la longitud
+                masking = true;
+            }
+        }
+        return end < hl7Message.length() ? redacted.append("...").toString() : redacted.toString();
+    }
+
+    private static String truncate(String value, int maxChars) {
+        return value.length() > maxChars ? value.substring(0, maxChars) + "..." : value;
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 10_000.0) / 100.0;
+    }
+
+    /**
+     * Tiempos de un mensaje en curso. Cada llamada a {@link #end(Stage)} asigna a la etapa el tiempo desde la
+     * anterior marca; puede llamarse desde otro hilo (carril ordenado) siempre que haya happens-before con
+     * quien emite el evento, como ocurre al esperar un Future.
+     */
+    public static final class Event {
+
+        private final long start = System.nanoTime();
+        private final long[] stageNanos = new long[Stage.values().length];
+        private final int chars;
+        private final String mode;
+        private long mark = start;
+
+        private Event(int chars, String mode) {
+            this.chars = chars;
+            this.mode = mode;
+        }
+
+        /**
+         * Empieza a contar la siguiente etapa desde ahora (el tiempo previo solo cuenta en el total).
+         */
+        public void begin() {
+            mark = System.nanoTime();
+        }
+
+        public void end(Stage stage) {
+            long now = System.nanoTime();
+            stageNanos[stage.ordinal()] += now - mark;
+            mark = now;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.myobservation.metrics;
+
+import com.myobservation.listener.utils.MSHHeader;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Métricas Micrometer de cada etapa del flujo MLLP → parseo → BBDD → ACK, publicadas en /actuator/prometheus.
+ * Los componentes llaman a estos métodos en lugar de usar el MeterRegistry directamente, así los nombres
+ * y etiquetas están en un solo sitio:
+ * <ul>
+ *   <li>mllp.connections.active / mllp.connections.accepted: conexiones abiertas y aceptadas</li>
+ *   <li>mllp.admission.rejected{reason=overloaded|remote-limit}: conexiones respondidas con "servidor ocupado"</li>
+ *   <li>mllp.frame.read: desde el START_BLOCK hasta la trama completa</li>
+ *   <li>hl7.parse{mode=full|header}: parseo HAPI o solo MSH</li>
+ *   <li>hl7.db.save{mode=sync|batch|wal}: guardado en HL7_MESSAGE incluido el commit</li>
+ *   <li>mllp.ack.latency: desde el START_BLOCK hasta que el ACK está escrito en el socket (con histograma)</li>
+ *   <li>hl7.messages{ack,type}: mensajes por código de ACK y tipo MSH-9</li>
+ *   <li>hl7.duplicates{source=cache|in-flight|database}: retransmisiones respondidas con el ACK original</li>
+ *   <li>hl7.lane.queue{listener,lane} / hl7.lane.wait{listener,lane}: cola y espera de cada carril ordenado por emisor</li>
+ *   <li>hl7.handler.queue{handler} / hl7.handler.batch{handler}: cola y duración de cada lote de un manejador por
+ *   tipo de mensaje; hl7.handler.messages{handler,outcome=ok|failed|deferred|replayed|dropped}: mensajes tratados
+ *   por el manejador, anotados como pendientes o reencolados desde HL7_HANDLER_PENDING</li>
+ *   <li>mllp.processing.waiting{listener} / mllp.admission.available{listener}: espera de permisos y huecos de
+ *   admisión de cada listener</li>
+ *   <li>executor.* {name=mllp.server[.listener]}: cola y ocupación del executor de conexiones de cada listener</li>
+ * </ul>
+ */
+@Component
+public class HL7Metrics {
+
+    // Los tipos que no siguen el formato código^evento se agrupan para no crear series ilimitadas
+    private static final Pattern MESSAGE_TYPE = Pattern.compile("[A-Z0-9]{3}\\^[A-Z0-9]{2,3}");
+    private static final String OTHER_TYPE = "OTHER";
+
+    private final MeterRegistry registry;
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final Counter acceptedConnections;
+    private final Timer frameRead;
+    private final Timer fullParse;
+    private final Timer headerParse;
+    private final Timer ackLatency;
+    private final ConcurrentMap<String, Timer> saveTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> messageCounters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> duplicateCounters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> rejectionCounters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> handlerCounters = new ConcurrentHashMap<>();
+
+    public HL7Metrics(MeterRegistry registry) {
+        this.registry = registry;
+        registry.gauge("mllp.connections.active", activeConnections);
+        this.acceptedConnections = Counter.builder("mllp.connections.accepted")
+                .description("Conexiones MLLP aceptadas").register(registry);
+        this.frameRead = Timer.builder("mllp.frame.read")
+                .description("Lectura de una trama MLLP desde el START_BLOCK hasta el END_BLOCK").register(registry);
+        this.fullParse = buildParseTimer("full");
+        this.headerParse = buildParseTimer("header");
+        this.ackLatency = Timer.builder("mllp.ack.latency")
+                .description("Desde la recepción de la trama hasta el envío del ACK")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(registry);
+    }
+
+    /**
+     * Métricas desactivadas (registro sin backends), para componentes creados fuera de Spring.
+     */
+    public static HL7Metrics disabled() {
+        return new HL7Metrics(new CompositeMeterRegistry());
+    }
+
+    public void connectionOpened() {
+        acceptedConnections.increment();
+        activeConnections.incrementAndGet();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    /**
+     * Cuenta una conexión no admitida por el control de admisión.
+     * @param reason overloaded (límite global) o remote-limit (límite por dirección remota)
+     */
+    public void connectionRejected(String reason) {
+        rejectionCounters.computeIfAbsent(reason, key -> Counter.builder("mllp.admission.rejected")
+                .description("Conexiones MLLP rechazadas por el control de admisión")
+                .tag("reason", key)
+                .register(registry)).increment();
+    }
+
+    public void frameRead(long frameStartNanos) {
+        frameRead.record(System.nanoTime() - frameStartNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void ackSent(long frameStartNanos) {
+        ackLatency.record(System.nanoTime() - frameStartNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public Timer parseTimer(boolean fullParse) {
+        return fullParse ? this.fullParse : headerParse;
+    }
+
+    /**
+     * Ejecuta el guardado midiendo su duración.
+     * @param mode modo de persistencia (sync, batch, wal)
+     */
+    public <T> T recordSave(String mode, Supplier<T> save) {
+        return saveTimers.computeIfAbsent(mode, key -> Timer.builder("hl7.db.save")
+                .description("Guardado en HL7_MESSAGE incluido el commit")
+                .tag("mode", key)
+                .register(registry)).record(save);
+    }
+
+    /**
+     * Cuenta un mensaje procesado por código de ACK y tipo de mensaje (MSH-9).
+     */
+    public void messageProcessed(MSHHeader header, String ackStatus) {
+        String type = header == null ? OTHER_TYPE : header.messageType();
+        if (!MESSAGE_TYPE.matcher(type).matches()) {
+            type = OTHER_TYPE;
+        }
+        String key = ackStatus + '|' + type;
+        Counter counter = messageCounters.get(key);
+        if (counter == null) {
+            String messageType = type;
+            counter = messageCounters.computeIfAbsent(key, k -> Counter.builder("hl7.messages")
+                    .description("Mensajes HL7 procesados por código de ACK y tipo MSH-9")
+                    .tag("ack", ackStatus)
+                    .tag("type", messageType)
+                    .register(registry));
+        }
+        counter.increment();
+    }
+
+    /**
+     * Cuenta una retransmisión detectada.
+     * @param source dónde se encontró el original: cache, in-flight (aún procesándose) o database
+     */
+    public void duplicateReceived(String source) {
+        duplicateCounters.computeIfAbsent(source, key -> Counter.builder("hl7.duplicates")
+                .description("Retransmisiones respondidas con el ACK del mensaje original")
+                .tag("source", key)
+                .register(registry)).increment();
+    }
+
+    /**
+     * Registra una cola o espera interna como gauge (p. ej. mensajes pendientes del escritor por lotes).
+     * @param tags pares clave, valor
+     */
+    public void gauge(String name, String description, Supplier<Number> value, String... tags) {
+        Gauge.builder(name, value).description(description).tags(tags).register(registry);
+    }
+
+    /**
+     * Registra las métricas de un carril de HL7OrderedDispatcher (cada listener tiene sus carriles).
+     * @param queueSize mensajes en cola del carril
+     * @return timer de la espera en cola (desde que se encola hasta que el carril empieza a procesarlo)
+     */
+    public Timer lane(String listener, int lane, Supplier<Number> queueSize) {
+        String tag = Integer.toString(lane);
+        Gauge.builder("hl7.lane.queue", queueSize)
+                .description("Mensajes en cola de un carril ordenado")
+                .tag("listener", listener)
+                .tag("lane", tag)
+                .register(registry);
+        return Timer.builder("hl7.lane.wait")
+                .description("Espera en la cola de un carril ordenado")
+                .tag("listener", listener)
+                .tag("lane", tag)
+                .register(registry);
+    }
+
+    /**
+     * Registra las métricas de la etapa de un manejador por tipo de mensaje (HL7HandlerStage).
+     * @param queueSize mensajes pendientes de la etapa
+     * @return timer de cada lote (decodificación y manejo)
+     */
+    public Timer handlerStage(String handler, Supplier<Number> queueSize) {
+        Gauge.builder("hl7.handler.queue", queueSize)
+                .description("Mensajes pendientes de un manejador por tipo")
+                .tag("handler", handler)
+                .register(registry);
+        return Timer.builder("hl7.handler.batch")
+                .description("Lote de mensajes tratado por un manejador por tipo")
+                .tag("handler", handler)
+                .register(registry);
+    }
+
+    /**
+     * Cuenta mensajes tratados por un manejador.
+     * @param outcome ok, failed (el manejador lanzó una excepción) o dropped (cola llena)
+     */
+    public void handlerMessages(String handler, String outcome, int count) {
+        handlerCounters.computeIfAbsent(handler + '|' + outcome, key -> Counter.builder("hl7.handler.messages")
+                .description("Mensajes tratados por un manejador por tipo")
+                .tag("handler", handler)
+                .tag("outcome", outcome)
+                .register(registry)).increment(count);
+    }
+
+    /**
+     * Instrumenta el executor de conexiones (cola, hilos activos, tiempos de espera y ejecución).
+     */
+    public ExecutorService monitor(ExecutorService executor, String name) {
+        return ExecutorServiceMetrics.monitor(registry, executor, name);
+    }
+
+    private Timer buildParseTimer(String mode) {
+        return Timer.builder("hl7.parse")
+                .description("Parseo de un mensaje HL7")
+                .tag("mode", mode)
+                .register(registry);
+    }
+}
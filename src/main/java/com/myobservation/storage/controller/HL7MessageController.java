@@ -1,24 +1,56 @@
 package com.myobservation.storage.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.myobservation.storage.ingest.HL7BatchIngestionService;
+import com.myobservation.storage.model.dto.HL7BatchIngestionSummary;
 import com.myobservation.storage.model.dto.HL7MessageDTO;
+import com.myobservation.storage.model.dto.HL7MessageFilter;
+import com.myobservation.storage.model.dto.HL7MessagePage;
+import com.myobservation.storage.model.dto.HL7MessageView;
 import com.myobservation.storage.model.entity.HL7Message;
 import com.myobservation.storage.repository.HL7MessageRepository;
+import com.myobservation.storage.service.HL7MessageQueryService;
 import com.myobservation.storage.service.HL7ParserService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/hl7messages")
 public class HL7MessageController {
 
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
     private final HL7MessageRepository repository;
     private final HL7ParserService parserService;
+    private final HL7MessageQueryService queryService;
+    private final HL7BatchIngestionService batchIngestionService;
+    private final ObjectWriter ndjsonWriter;
 
-    public HL7MessageController(HL7MessageRepository repository, HL7ParserService parserService) {
+    public HL7MessageController(HL7MessageRepository repository, HL7ParserService parserService,
+                                HL7MessageQueryService queryService, HL7BatchIngestionService batchIngestionService,
+                                ObjectMapper objectMapper) {
         this.repository = repository;
         this.parserService = parserService;
+        this.queryService = queryService;
+        this.batchIngestionService = batchIngestionService;
+        this.ndjsonWriter = objectMapper.writer();
     }
 
     // Mensaje de prueba
@@ -34,10 +66,13 @@ public class HL7MessageController {
         return repository.save(testMessage);
     }
 
-    // Obtener fallos en la transmisión de mensajes
+    // Obtener fallos en la transmisión de mensajes de los últimos "days" días (los más recientes, como máximo
+    // hl7.query.max-page-size); acotar por fecha evita recorrer todas las particiones mensuales
     @GetMapping("/failed")
-    public List<HL7Message> getFailedMessages() {
-        return repository.findByAckStatusIn(List.of("AE", "AR"));
+    public List<HL7Message> getFailedMessages(@RequestParam(defaultValue = "100") int limit,
+                                              @RequestParam(defaultValue = "30") int days) {
+        return repository.findByAckStatusInAndCreatedAtGreaterThanEqual(List.of("AE", "AR"),
+                LocalDateTime.now().minusDays(days), newestFirst(limit));
     }
 
     // Endpoint para persistencia en BBDD usa concepto transaccional para garantizar la atomicidad de la transacción
@@ -47,11 +82,114 @@ public class HL7MessageController {
         return parserService.parseHL7Message(hl7Raw);
     }
 
-    // Extraer los mensajes
+    /**
+     * Ingesta de un fichero batch HL7 (FHS/BHS/BTS/FTS o mensajes seguidos) enviado como cuerpo de la petición.
+     * El cuerpo se lee en streaming mientras se responde en NDJSON: una línea por mensaje con su ACK (con
+     * errorsOnly=true solo los que no son AA) y una última línea {"summary": {...}} con los totales.
+     * Ejemplo: curl -T backfill.hl7 -H 'Content-Type: text/plain' http://localhost:8081/hl7messages/batch
+     */
+    @PostMapping(value = "/batch", consumes = {MediaType.TEXT_PLAIN_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE, "application/hl7-v2"})
+    public ResponseEntity<StreamingResponseBody> ingestBatch(HttpServletRequest request,
+                                                             @RequestParam(defaultValue = "false") boolean errorsOnly) {
+        Charset charset = request.getCharacterEncoding() != null
+                ? Charset.forName(request.getCharacterEncoding()) : StandardCharsets.UTF_8;
+        StreamingResponseBody body = out -> {
+            HL7BatchIngestionSummary summary = batchIngestionService.ingest(
+                    new InputStreamReader(request.getInputStream(), charset), result -> {
+                        if (errorsOnly && "AA".equals(result.ackStatus())) {
+                            return;
+                        }
+                        try {
+                            out.write(ndjsonWriter.writeValueAsBytes(result));
+                            out.write('\n');
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e); // El cliente cerró la conexión
+                        }
+                    });
+            out.write(ndjsonWriter.writeValueAsBytes(Map.of("summary", summary)));
+            out.write('\n');
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    // Extraer los mensajes (los más recientes, como máximo hl7.query.max-page-size; para recorrer todo usar /page o /stream)
     @GetMapping
-    public List<HL7Message> getAllMessages() {
-        return repository.findAll();
+    public List<HL7Message> getAllMessages(@RequestParam(defaultValue = "100") int limit) {
+        return repository.findAll(newestFirst(limit)).getContent();
+    }
+
+    /**
+     * Paginación por clave: la respuesta incluye nextCursor, que se envía como "after" para la página siguiente.
+     * Sin includeRaw=true no se lee HL7_MESSAGE_PAYLOAD.
+     */
+    @GetMapping("/page")
+    public HL7MessagePage getPage(@RequestParam(required = false) String sender,
+                                  @RequestParam(required = false) String messageType,
+                                  @RequestParam(required = false) List<String> ackStatus,
+                                  @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                  @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                  @RequestParam(required = false) Long after,
+                                  @RequestParam(defaultValue = "100") int limit,
+                                  @RequestParam(defaultValue = "false") boolean includeRaw) {
+        return queryService.findPage(new HL7MessageFilter(sender, messageType, ackStatus, from, to), after, limit, includeRaw);
+    }
+
+    /**
+     * Volcado NDJSON (un mensaje JSON por línea) de todas las filas que cumplen los filtros, con memoria constante.
+     */
+    @GetMapping("/stream")
+    public ResponseEntity<StreamingResponseBody> stream(@RequestParam(required = false) String sender,
+                                                        @RequestParam(required = false) String messageType,
+                                                        @RequestParam(required = false) List<String> ackStatus,
+                                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                        @RequestParam(defaultValue = "0") int maxRows,
+                                                        @RequestParam(defaultValue = "false") boolean includeRaw) {
+        HL7MessageFilter filter = new HL7MessageFilter(sender, messageType, ackStatus, from, to);
+        StreamingResponseBody body = out -> queryService.streamNdjson(filter, maxRows, includeRaw, out);
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    /**
+     * Trazabilidad de un mensaje: ¿llegó el MSH-10 indicado (opcionalmente de un emisor) y qué ACK se devolvió?
+     * Con "from" solo se buscan los meses desde esa fecha; sin él se consultan todas las particiones.
+     */
+    @GetMapping("/control-id/{messageControlId}")
+    public List<HL7Message> getByControlId(@PathVariable String messageControlId,
+                                           @RequestParam(required = false) String sender,
+                                           @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from) {
+        if (from != null) {
+            return sender == null
+                    ? repository.findByMessageControlIdAndCreatedAtGreaterThanEqualOrderByCreatedAtDesc(messageControlId, from)
+                    : repository.findByMessageControlIdAndSenderAndCreatedAtGreaterThanEqualOrderByCreatedAtDesc(
+                            messageControlId, sender, from);
+        }
+        return sender == null
+                ? repository.findByMessageControlIdOrderByCreatedAtDesc(messageControlId)
+                : repository.findByMessageControlIdAndSenderOrderByCreatedAtDesc(messageControlId, sender);
+    }
+
+    // Mensajes más recientes de un emisor, opcionalmente en un intervalo de fechas
+    @GetMapping("/sender/{sender}")
+    public List<HL7MessageView> getBySender(@PathVariable String sender,
+                                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                            @RequestParam(defaultValue = "100") int limit) {
+        return queryService.findLatest(new HL7MessageFilter(sender, null, null, from, to), limit, false);
+    }
+
+    // Mensajes más recientes con un código de ACK (AA, AE, AR), opcionalmente en un intervalo de fechas
+    @GetMapping("/status/{ackStatus}")
+    public List<HL7MessageView> getByAckStatus(@PathVariable String ackStatus,
+                                               @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                               @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                               @RequestParam(defaultValue = "100") int limit) {
+        return queryService.findLatest(new HL7MessageFilter(null, null, List.of(ackStatus), from, to), limit, false);
     }
 
     // Definir más endpoints para extraer por ID y Delete(softDelete)
+
+    private PageRequest newestFirst(int limit) {
+        return PageRequest.of(0, queryService.boundedLimit(limit), Sort.by(Sort.Direction.DESC, "id"));
+    }
 }
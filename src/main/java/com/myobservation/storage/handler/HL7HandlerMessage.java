@@ -0,0 +1,18 @@
+package com.myobservation.storage.handler;
+
+import ca.uhn.hl7v2.model.Message;
+
+import java.time.LocalDateTime;
+
+/**
+ * Mensaje guardado que recibe un HL7MessageHandler, ya parseado por HAPI en el pool del manejador.
+ *
+ * @param messageId   id_internal de HL7_MESSAGE
+ * @param messageType MSH-9 código^evento
+ * @param sender      MSH-3
+ * @param createdAt   fecha de recepción
+ * @param message     mensaje parseado
+ */
+public record HL7HandlerMessage(long messageId, String messageType, String sender, LocalDateTime createdAt,
+                                Message message) {
+}
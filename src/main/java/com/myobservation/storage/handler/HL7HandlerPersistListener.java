@@ -0,0 +1,29 @@
+package com.myobservation.storage.handler;
+
+import com.myobservation.storage.model.entity.HL7Message;
+import jakarta.persistence.PostPersist;
+import org.springframework.beans.factory.ObjectProvider;
+
+/**
+ * Listener JPA de HL7Message: avisa a HL7HandlerRegistry de cada fila insertada, sea cual sea el camino de
+ * persistencia (sync, lote, carril, WAL, API REST o ingesta de ficheros).
+ * Lo instancia Hibernate a través del contenedor de beans de Spring mientras construye el EntityManagerFactory,
+ * antes de que existan los repositorios de los que dependen los manejadores: por eso el registro se obtiene
+ * con ObjectProvider en cada inserción.
+ */
+public class HL7HandlerPersistListener {
+
+    private final ObjectProvider<HL7HandlerRegistry> registry;
+
+    public HL7HandlerPersistListener(ObjectProvider<HL7HandlerRegistry> registry) {
+        this.registry = registry;
+    }
+
+    @PostPersist
+    public void postPersist(HL7Message hl7Message) {
+        HL7HandlerRegistry handlers = registry.getIfAvailable();
+        if (handlers != null) {
+            handlers.persisted(hl7Message);
+        }
+    }
+}
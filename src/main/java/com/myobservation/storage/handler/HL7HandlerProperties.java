@@ -0,0 +1,56 @@
+package com.myobservation.storage.handler;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.Map;
+
+/**
+ * Configuración de la etapa de cada manejador en hl7.handlers.&lt;nombre&gt;.*, por ejemplo:
+ * <pre>
+ * hl7.handlers.oru-results.enabled=true
+ * hl7.handlers.oru-results.threads=4
+ * hl7.handlers.oru-results.batch-size=100
+ * hl7.handlers.oru-results.offer-timeout-ms=50
+ * </pre>
+ * Los manejadores están desactivados salvo que se indique hl7.handlers.&lt;nombre&gt;.enabled=true: un bean
+ * HL7MessageHandler nuevo no valida en el camino del ACK ni arranca hilos hasta que se configura.
+ */
+@ConfigurationProperties(prefix = "hl7")
+public record HL7HandlerProperties(Map<String, Stage> handlers) {
+
+    public HL7HandlerProperties {
+        handlers = handlers == null ? Map.of() : handlers;
+    }
+
+    /**
+     * Etapa de un manejador, con los valores por defecto (desactivado) si no se indica nada.
+     */
+    public Stage stage(String name) {
+        return handlers.getOrDefault(name, Stage.DEFAULTS);
+    }
+
+    /**
+     * @param enabled       si el manejador valida y recibe mensajes (por defecto no)
+     * @param threads       hilos del pool del manejador (cada uno trata un lote a la vez)
+     * @param batchSize     mensajes como máximo por lote
+     * @param lingerMs      espera máxima para completar un lote desde su primer mensaje
+     * @param queueCapacity mensajes en cola como máximo
+     * @param offerTimeoutMs espera máxima por un hueco en la cola llena antes del ACK; después el mensaje queda
+     *                       en HL7_HANDLER_PENDING (hl7.handler.messages con outcome=deferred) y lo reencola
+     *                       HL7HandlerReplay, en lugar de frenar más la persistencia y el ACK
+     */
+    public record Stage(Boolean enabled, Integer threads, Integer batchSize, Long lingerMs, Integer queueCapacity,
+                        Long offerTimeoutMs) {
+
+        static final Stage DEFAULTS = new Stage(false, 1, 50, 20L, 10_000, 50L);
+
+        public Stage {
+            enabled = enabled != null ? enabled : false;
+            threads = threads != null ? threads : 1;
+            batchSize = batchSize != null ? batchSize : 50;
+            lingerMs = lingerMs != null ? lingerMs : 20L;
+            queueCapacity = queueCapacity != null ? queueCapacity : 10_000;
+            offerTimeoutMs = offerTimeoutMs != null ? offerTimeoutMs : 50L;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.myobservation.storage.handler;
+
+import ca.uhn.hl7v2.model.Message;
+import com.myobservation.metrics.HL7Metrics;
+import com.myobservation.storage.model.entity.HL7Message;
+import com.myobservation.storage.repository.HL7HandlerPendingRepository;
+import com.myobservation.storage.service.HL7ParserPool;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enrutado por tipo de mensaje (MSH-9): reúne los beans HL7MessageHandler activos y, para cada tipo, elige el
+ * manejador exacto ("ORU^R01") o, si no hay, el del código ("ORU^*"). Dos manejadores para el mismo tipo son un
+ * error de configuración y hacen fallar el arranque.
+ * El flujo de un mensaje queda en etapas:
+ * <ol>
+ *   <li>decode y validate: en el hilo de la conexión (HL7ParserService.parseToEntity llama a validate)</li>
+ *   <li>persist: sync, batch, carril o WAL, como hasta ahora; HL7HandlerPersistListener avisa de cada fila</li>
+ *   <li>ACK al emisor</li>
+ *   <li>transform: tras el commit, en la etapa propia del manejador (HL7HandlerStage), por lotes</li>
+ * </ol>
+ * Solo se entregan a los manejadores los mensajes aceptados (AA) y de transacciones confirmadas. Los que una etapa
+ * no puede tratar (cola llena, fallo, parada) quedan en HL7_HANDLER_PENDING y los reencola HL7HandlerReplay.
+ */
+@Component
+@EnableConfigurationProperties(HL7HandlerProperties.class)
+public class HL7HandlerRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(HL7HandlerRegistry.class);
+
+    private final Map<String, HL7HandlerStage> byType = new HashMap<>();
+    private final Map<String, HL7HandlerStage> byCode = new HashMap<>();
+    private final List<HL7HandlerStage> stages;
+    private final long stopTimeoutMs;
+
+    public HL7HandlerRegistry(List<HL7MessageHandler> handlers, HL7HandlerProperties properties, HL7ParserPool parserPool,
+                              HL7Metrics metrics, HL7HandlerPendingRepository pendingRepository,
+                              @Value("${hl7.handler.stop-timeout-ms:10000}") long stopTimeoutMs,
+                              @Value("${hl7.handler.replay-max-attempts:5}") int maxAttempts) {
+        this.stages = handlers.stream()
+                .filter(handler -> properties.stage(handler.name()).enabled())
+                .map(handler -> new HL7HandlerStage(handler, properties.stage(handler.name()), parserPool, metrics,
+                        pendingRepository, maxAttempts))
+                .toList();
+        this.stopTimeoutMs = stopTimeoutMs;
+        for (HL7HandlerStage stage : stages) {
+            for (String type : stage.handler().messageTypes()) {
+                Map<String, HL7HandlerStage> target = byType;
+                String key = type;
+                if (type.endsWith("^*")) {
+                    target = byCode;
+                    key = type.substring(0, type.length() - 2);
+                }
+                HL7HandlerStage previous = target.putIfAbsent(key, stage);
+                if (previous != null) {
+                    throw new IllegalStateException("Los manejadores " + previous.handler().name() + " y "
+                            + stage.handler().name() + " tratan el mismo tipo " + type);
+                }
+            }
+        }
+    }
+
+    /**
+     * Registro sin manejadores, para componentes creados fuera de Spring.
+     */
+    public static HL7HandlerRegistry disabled() {
+        return new HL7HandlerRegistry(List.of(), new HL7HandlerProperties(null), null, HL7Metrics.disabled(), null, 0, 0);
+    }
+
+    @PostConstruct
+    public void start() {
+        stages.forEach(HL7HandlerStage::start);
+        stages.forEach(stage -> logger.info("[HANDLER {}] Activo para {}", stage.handler().name(),
+                stage.handler().messageTypes()));
+    }
+
+    /**
+     * Espera a que las etapas terminen los mensajes ya encolados (hl7.handler.stop-timeout-ms en total).
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(stopTimeoutMs);
+        for (HL7HandlerStage stage : stages) {
+            stage.stop(deadline);
+        }
+    }
+
+    /**
+     * Indica si el tipo tiene un manejador con validación propia. Esos tipos se parsean siempre con HAPI, también
+     * fuera de hl7.parser.full-parse-types y antes del ACK en modo wal.
+     */
+    public boolean validates(String messageType) {
+        HL7HandlerStage stage = find(messageType);
+        return stage != null && stage.validates();
+    }
+
+    List<HL7HandlerStage> stages() {
+        return stages;
+    }
+
+    /**
+     * Validación del manejador del tipo, si lo hay.
+     * @return detalle del error o null si el mensaje es válido o el tipo no tiene manejador
+     */
+    public String validate(String messageType, Message message) {
+        HL7HandlerStage stage = find(messageType);
+        return stage == null ? null : stage.handler().validate(message);
+    }
+
+    /**
+     * Entrega un mensaje recién insertado a la etapa de su manejador cuando la transacción haga commit;
+     * si se deshace, el manejador no llega a verlo.
+     */
+    public void persisted(HL7Message hl7Message) {
+        if (stages.isEmpty() || !"AA".equals(hl7Message.getAckStatus())) {
+            return;
+        }
+        HL7HandlerStage stage = find(hl7Message.getMessageType());
+        if (stage == null) {
+            return;
+        }
+        long messageId = hl7Message.getId();
+        String messageType = hl7Message.getMessageType();
+        String sender = hl7Message.getSender();
+        LocalDateTime createdAt = hl7Message.getCreatedAt();
+        String raw = hl7Message.getMessageRaw();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            stage.offer(messageId, messageType, sender, createdAt, raw);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                stage.offer(messageId, messageType, sender, createdAt, raw);
+            }
+        });
+    }
+
+    private HL7HandlerStage find(String messageType) {
+        if (messageType == null) {
+            return null;
+        }
+        HL7HandlerStage stage = byType.get(messageType);
+        if (stage == null) {
+            int separator = messageType.indexOf('^');
+            if (separator > 0) {
+                stage = byCode.get(messageType.substring(0, separator));
+            }
+        }
+        return stage;
+    }
+}
@@ -0,0 +1,94 @@
+package com.myobservation.storage.handler;
+
+import com.myobservation.metrics.HL7Metrics;
+import com.myobservation.storage.model.entity.HL7HandlerPending;
+import com.myobservation.storage.repository.HL7HandlerPendingRepository;
+import com.myobservation.storage.repository.HL7MessageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * Recuperación de los mensajes que las etapas de los manejadores no trataron (HL7_HANDLER_PENDING): cada
+ * hl7.handler.replay-interval-ms relee el mensaje de HL7_MESSAGE y lo vuelve a encolar en su etapa, hasta
+ * hl7.handler.replay-max-attempts intentos. Solo ocupa la mitad del hueco libre de cada cola, así los mensajes
+ * nuevos siguen entrando. Cada pendiente se toma borrándolo, así con varios nodos solo uno lo reencola; si el nodo
+ * cae con el mensaje ya tomado y sin tratar, ese mensaje se pierde para el manejador (sigue en la auditoría).
+ */
+@Component
+public class HL7HandlerReplay {
+
+    private static final Logger logger = LoggerFactory.getLogger(HL7HandlerReplay.class);
+
+    private final HL7HandlerRegistry registry;
+    private final HL7HandlerPendingRepository pendingRepository;
+    private final HL7MessageRepository messageRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final HL7Metrics metrics;
+    private final int maxAttempts;
+
+    public HL7HandlerReplay(HL7HandlerRegistry registry, HL7HandlerPendingRepository pendingRepository,
+                            HL7MessageRepository messageRepository, TransactionTemplate transactionTemplate,
+                            HL7Metrics metrics, @Value("${hl7.handler.replay-max-attempts:5}") int maxAttempts) {
+        this.registry = registry;
+        this.pendingRepository = pendingRepository;
+        this.messageRepository = messageRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.metrics = metrics;
+        this.maxAttempts = maxAttempts;
+    }
+
+    @Scheduled(fixedDelayString = "${hl7.handler.replay-interval-ms:30000}")
+    public void replay() {
+        for (HL7HandlerStage stage : registry.stages()) {
+            int capacity = stage.remainingCapacity() / 2;
+            if (capacity > 0) {
+                replay(stage, capacity);
+            }
+        }
+    }
+
+    private void replay(HL7HandlerStage stage, int capacity) {
+        String name = stage.handler().name();
+        int replayed = 0;
+        for (HL7HandlerPending pending : pendingRepository.findReplayable(name, maxAttempts, capacity)) {
+            long messageId = pending.getKey().getMessageId();
+            if (pendingRepository.claim(name, messageId) == 0) {
+                continue; // Lo tomó otro nodo
+            }
+            Optional<Stored> stored = load(messageId);
+            if (stored.isEmpty()) {
+                logger.warn("[HANDLER {}] Mensaje pendiente {} ya no está en HL7_MESSAGE (retención), se descarta", name,
+                        messageId);
+                continue;
+            }
+            Stored message = stored.get();
+            if (!stage.replay(messageId, message.messageType(), message.sender(), message.createdAt(), message.raw(),
+                    pending.getAttempts())) {
+                pendingRepository.mark(name, messageId, pending.getAttempts(), pending.getLastError(), LocalDateTime.now());
+                break;
+            }
+            replayed++;
+        }
+        if (replayed > 0) {
+            metrics.handlerMessages(name, "replayed", replayed);
+            logger.info("[HANDLER {}] {} mensajes pendientes reencolados", name, replayed);
+        }
+    }
+
+    // El contenido está en HL7_MESSAGE_PAYLOAD con carga perezosa: se lee dentro de la transacción
+    private Optional<Stored> load(long messageId) {
+        return transactionTemplate.execute(status -> messageRepository.findById(messageId)
+                .map(message -> new Stored(message.getMessageType(), message.getSender(), message.getCreatedAt(),
+                        message.getMessageRaw())));
+    }
+
+    private record Stored(String messageType, String sender, LocalDateTime createdAt, String raw) {
+    }
+}
@@ -0,0 +1,238 @@
+package com.myobservation.storage.handler;
+
+import ca.uhn.hl7v2.model.Message;
+import com.myobservation.metrics.HL7Metrics;
+import com.myobservation.storage.repository.HL7HandlerPendingRepository;
+import com.myobservation.storage.service.HL7ParserPool;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Etapa de un manejador: cola acotada de mensajes ya guardados y hilos propios que los agrupan en lotes
+ * (batch-size / linger-ms, como HL7MessageBatchWriter), los parsean con el pool de HAPI y llaman a
+ * HL7MessageHandler.handle. Cada manejador tiene su cola y sus hilos, así un tipo costoso no quita
+ * capacidad a otro ni al camino del ACK.
+ * offer() lo llama el hilo que acaba de hacer commit, que todavía tiene que enviar el ACK: con la cola llena espera
+ * como mucho offer-timeout-ms y después anota el mensaje en HL7_HANDLER_PENDING. También se anotan los mensajes con
+ * los que el manejador falla y los que siguen en cola al parar; HL7HandlerReplay los vuelve a encolar.
+ */
+class HL7HandlerStage {
+
+    private static final Logger logger = LoggerFactory.getLogger(HL7HandlerStage.class);
+
+    private final HL7MessageHandler handler;
+    private final HL7HandlerProperties.Stage settings;
+    private final HL7ParserPool parserPool;
+    private final HL7Metrics metrics;
+    private final HL7HandlerPendingRepository pendingRepository;
+    private final int maxAttempts;
+    private final boolean validates;
+    private final BlockingQueue<Pending> queue;
+    private final Timer batchTimer;
+    private final List<Thread> workers = new ArrayList<>();
+
+    private volatile boolean running = true;
+
+    HL7HandlerStage(HL7MessageHandler handler, HL7HandlerProperties.Stage settings, HL7ParserPool parserPool,
+                    HL7Metrics metrics, HL7HandlerPendingRepository pendingRepository, int maxAttempts) {
+        this.handler = handler;
+        this.settings = settings;
+        this.parserPool = parserPool;
+        this.metrics = metrics;
+        this.pendingRepository = pendingRepository;
+        this.maxAttempts = maxAttempts;
+        this.validates = overridesValidate(handler);
+        this.queue = new ArrayBlockingQueue<>(settings.queueCapacity());
+        this.batchTimer = metrics.handlerStage(handler.name(), queue::size);
+    }
+
+    HL7MessageHandler handler() {
+        return handler;
+    }
+
+    /**
+     * Si el manejador tiene validación propia (sobrescribe validate), que necesita el mensaje parseado por HAPI.
+     */
+    boolean validates() {
+        return validates;
+    }
+
+    private static boolean overridesValidate(HL7MessageHandler handler) {
+        try {
+            return handler.getClass().getMethod("validate", Message.class).getDeclaringClass() != HL7MessageHandler.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    void start() {
+        for (int i = 0; i < settings.threads(); i++) {
+            Thread worker = new Thread(this::runWorker, "hl7-handler-" + handler.name() + "-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Encola un mensaje guardado. Con la cola llena espera como mucho offer-timeout-ms; si sigue llena, el mensaje
+     * queda pendiente en HL7_HANDLER_PENDING (hl7.handler.messages con outcome=deferred).
+     */
+    void offer(long messageId, String messageType, String sender, LocalDateTime createdAt, String raw) {
+        Pending pending = new Pending(messageId, messageType, sender, createdAt, raw, 0);
+        boolean queued;
+        try {
+            queued = queue.offer(pending, settings.offerTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+        if (!queued) {
+            metrics.handlerMessages(handler.name(), "deferred", 1);
+            logger.warn("[HANDLER {}] Cola llena ({} mensajes), mensaje {} anotado como pendiente", handler.name(),
+                    settings.queueCapacity(), messageId);
+            markPending(pending, 0, "Cola del manejador llena");
+        }
+    }
+
+    /**
+     * Vuelve a encolar un mensaje pendiente, sin esperar.
+     * @return false si la cola está llena
+     */
+    boolean replay(long messageId, String messageType, String sender, LocalDateTime createdAt, String raw, int attempts) {
+        return queue.offer(new Pending(messageId, messageType, sender, createdAt, raw, attempts));
+    }
+
+    int remainingCapacity() {
+        return queue.remainingCapacity();
+    }
+
+    /**
+     * Deja de recibir y espera a que se traten los mensajes ya encolados, como máximo hasta el plazo indicado.
+     */
+    void stop(long deadlineNanos) throws InterruptedException {
+        running = false;
+        for (Thread worker : workers) {
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining > 0) {
+                worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+            }
+        }
+        List<Pending> unhandled = new ArrayList<>();
+        queue.drainTo(unhandled);
+        if (!unhandled.isEmpty()) {
+            logger.warn("[HANDLER {}] {} mensajes sin tratar al parar, se anotan como pendientes", handler.name(),
+                    unhandled.size());
+            unhandled.forEach(pending -> markPending(pending, pending.attempts(), "Aplicación parada"));
+        }
+    }
+
+    private void runWorker() {
+        List<Pending> batch = new ArrayList<>(settings.batchSize());
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.lingerMs());
+                while (batch.size() < settings.batchSize()) {
+                    queue.drainTo(batch, settings.batchSize() - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= settings.batchSize() || remaining <= 0) {
+                        break;
+                    }
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                batchTimer.record(() -> handle(batch));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("[HANDLER {}] Error inesperado en la etapa: {}", handler.name(), e.getMessage(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void handle(List<Pending> batch) {
+        List<Pending> parsed = new ArrayList<>(batch.size());
+        List<HL7HandlerMessage> messages = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            try {
+                messages.add(new HL7HandlerMessage(pending.messageId(), pending.messageType(), pending.sender(),
+                        pending.createdAt(), parserPool.parseAnyEncoding(pending.raw())));
+                parsed.add(pending);
+            } catch (Exception e) {
+                failed(pending, "Mensaje no parseable: " + e.getMessage());
+            }
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+        try {
+            handler.handle(messages);
+            metrics.handlerMessages(handler.name(), "ok", messages.size());
+            logger.debug("[HANDLER {}] Lote de {} mensajes tratado", handler.name(), messages.size());
+        } catch (Exception e) {
+            if (messages.size() == 1) {
+                failed(parsed.get(0), e.getMessage());
+                return;
+            }
+            // Un mensaje que el manejador no acepta no debe arrastrar al resto del lote
+            logger.warn("[HANDLER {}] Fallo al tratar un lote de {} mensajes (ids {}..{}), se reintenta mensaje a mensaje: {}",
+                    handler.name(), messages.size(), messages.get(0).messageId(),
+                    messages.get(messages.size() - 1).messageId(), e.getMessage());
+            for (int i = 0; i < messages.size(); i++) {
+                try {
+                    handler.handle(List.of(messages.get(i)));
+                    metrics.handlerMessages(handler.name(), "ok", 1);
+                } catch (Exception single) {
+                    failed(parsed.get(i), single.getMessage());
+                }
+            }
+        }
+    }
+
+    // El mensaje queda pendiente con un intento más; al agotar replay-max-attempts ya no se reintenta
+    private void failed(Pending pending, String error) {
+        int attempts = pending.attempts() + 1;
+        metrics.handlerMessages(handler.name(), "failed", 1);
+        if (attempts >= maxAttempts) {
+            logger.error("[HANDLER {}] Mensaje {} sin tratar tras {} intentos, queda en HL7_HANDLER_PENDING: {}",
+                    handler.name(), pending.messageId(), attempts, error);
+        } else {
+            logger.warn("[HANDLER {}] Fallo al tratar el mensaje {} (intento {}), se reintentará: {}", handler.name(),
+                    pending.messageId(), attempts, error);
+        }
+        markPending(pending, attempts, error);
+    }
+
+    private void markPending(Pending pending, int attempts, String error) {
+        try {
+            pendingRepository.mark(handler.name(), pending.messageId(), attempts, error, LocalDateTime.now());
+        } catch (Exception e) {
+            metrics.handlerMessages(handler.name(), "dropped", 1);
+            logger.error("[HANDLER {}] No se pudo anotar el mensaje {} como pendiente, no se tratará: {}",
+                    handler.name(), pending.messageId(), e.getMessage(), e);
+        }
+    }
+
+    private record Pending(long messageId, String messageType, String sender, LocalDateTime createdAt, String raw,
+                           int attempts) {
+    }
+}
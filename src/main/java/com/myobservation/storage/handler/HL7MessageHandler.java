@@ -0,0 +1,48 @@
+package com.myobservation.storage.handler;
+
+import ca.uhn.hl7v2.model.Message;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Manejador de un tipo de mensaje HL7 (MSH-9 código^evento). Añadir un tipo es añadir un bean que implemente esta
+ * interfaz; HL7HandlerRegistry lo registra sin tocar HL7ParserService.
+ * Cada manejador participa en dos etapas del flujo:
+ * <ul>
+ *   <li>validate: en el camino del ACK, después del parseo HAPI y antes de persistir. Debe ser barata; un error
+ *   devuelve AE al emisor y queda en ackError.</li>
+ *   <li>handle: después del commit, en el pool de hilos propio del manejador y por lotes
+ *   (hl7.handlers.&lt;nombre&gt;.*). El ACK ya se envió, así que un manejador lento no retrasa a ningún emisor.</li>
+ * </ul>
+ */
+public interface HL7MessageHandler {
+
+    /**
+     * Nombre del manejador: clave de su configuración (hl7.handlers.&lt;nombre&gt;.*), de sus hilos y de sus métricas.
+     */
+    String name();
+
+    /**
+     * Tipos que trata: exactos ("ORU^R01") o todos los eventos de un código ("ORU^*").
+     */
+    Set<String> messageTypes();
+
+    /**
+     * Validación específica del tipo, sobre el mensaje ya parseado por HAPI, con el MSH válido. Los tipos de un
+     * manejador que sobrescribe este método se parsean siempre con HAPI (aunque no estén en
+     * hl7.parser.full-parse-types), y en modo wal se validan antes de anexarlos al log.
+     * @return detalle del error (ACK AE) o null si el mensaje es válido
+     */
+    default String validate(Message message) {
+        return null;
+    }
+
+    /**
+     * Trata un lote de mensajes ya guardados en HL7_MESSAGE. Si lanza una excepción, el lote se reintenta mensaje
+     * a mensaje; los que vuelven a fallar quedan en HL7_HANDLER_PENDING y HL7HandlerReplay los reintenta más tarde
+     * (hl7.handler.replay-max-attempts). Un mensaje puede llegar más de una vez, así que el lote debería tratarse
+     * en una transacción (como ORUResultHandler) para no dejar resultados a medias.
+     */
+    void handle(List<HL7HandlerMessage> batch) throws Exception;
+}
@@ -0,0 +1,108 @@
+package com.myobservation.storage.handler;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Group;
+import ca.uhn.hl7v2.model.Segment;
+import ca.uhn.hl7v2.model.Structure;
+import ca.uhn.hl7v2.model.Type;
+import ca.uhn.hl7v2.util.Terser;
+import com.myobservation.storage.model.entity.HL7Observation;
+import com.myobservation.storage.repository.HL7ObservationRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Extrae los resultados (OBX) de los ORU^R01 a HL7_OBSERVATION, un lote de mensajes por transacción.
+ * Recorre la estructura del mensaje en lugar de castear a la clase de una versión concreta, así trata igual
+ * ORU de 2.3, 2.4 o 2.5. Se activa con hl7.handlers.oru-results.enabled=true.
+ */
+@Component
+public class ORUResultHandler implements HL7MessageHandler {
+
+    private final HL7ObservationRepository repository;
+    private final TransactionTemplate transactionTemplate;
+
+    public ORUResultHandler(HL7ObservationRepository repository, TransactionTemplate transactionTemplate) {
+        this.repository = repository;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @Override
+    public String name() {
+        return "oru-results";
+    }
+
+    @Override
+    public Set<String> messageTypes() {
+        return Set.of("ORU^R01");
+    }
+
+    @Override
+    public void handle(List<HL7HandlerMessage> batch) throws HL7Exception {
+        List<HL7Observation> observations = new ArrayList<>();
+        for (HL7HandlerMessage message : batch) {
+            extract(message.message(), message.messageId(), new String[1], observations);
+        }
+        if (!observations.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> repository.saveAll(observations));
+        }
+    }
+
+    // Recorrido en profundidad: cada OBX hereda el PID más cercano que le precede (un ORU puede traer varios pacientes)
+    private static void extract(Group group, long messageId, String[] patientId, List<HL7Observation> observations)
+            throws HL7Exception {
+        for (String name : group.getNames()) {
+            for (Structure structure : group.getAll(name)) {
+                if (structure instanceof Group child) {
+                    extract(child, messageId, patientId, observations);
+                } else if (structure instanceof Segment segment) {
+                    if ("PID".equals(segment.getName())) {
+                        patientId[0] = value(Terser.get(segment, 3, 0, 1, 1), 50);
+                    } else if ("OBX".equals(segment.getName()) && !segment.isEmpty()) {
+                        observations.add(toObservation(segment, messageId, patientId[0]));
+                    }
+                }
+            }
+        }
+    }
+
+    private static HL7Observation toObservation(Segment obx, long messageId, String patientId) throws HL7Exception {
+        HL7Observation observation = new HL7Observation();
+        observation.setMessageId(messageId);
+        observation.setPatientId(patientId);
+        observation.setSetId(value(Terser.get(obx, 1, 0, 1, 1), 10));
+        observation.setValueType(value(Terser.get(obx, 2, 0, 1, 1), 3));
+        observation.setObservationId(value(Terser.get(obx, 3, 0, 1, 1), 50));
+        observation.setObservationText(value(Terser.get(obx, 3, 0, 2, 1), 255));
+        observation.setObservationValue(value(encodeRepetitions(obx.getField(5)), 4000));
+        observation.setUnits(value(Terser.get(obx, 6, 0, 1, 1), 50));
+        observation.setReferenceRange(value(Terser.get(obx, 7, 0, 1, 1), 100));
+        observation.setAbnormalFlag(value(Terser.get(obx, 8, 0, 1, 1), 10));
+        observation.setResultStatus(value(Terser.get(obx, 11, 0, 1, 1), 2));
+        observation.setObservationTime(value(Terser.get(obx, 14, 0, 1, 1), 26));
+        return observation;
+    }
+
+    // OBX-5 puede ser de cualquier tipo (NM, CE, ED, ...) y repetirse: se guarda codificado en ER7
+    private static String encodeRepetitions(Type[] repetitions) throws HL7Exception {
+        StringBuilder encoded = new StringBuilder();
+        for (Type repetition : repetitions) {
+            if (!encoded.isEmpty()) {
+                encoded.append('~');
+            }
+            encoded.append(repetition.encode());
+        }
+        return encoded.toString();
+    }
+
+    private static String value(String value, int maxLength) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        return value.length() > maxLength ? value.substring(0, maxLength) : value;
+    }
+}
@@ -0,0 +1,125 @@
+package com.myobservation.storage.ingest;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+import static com.myobservation.listener.utils.ProtocolConstants.END_BLOCK;
+import static com.myobservation.listener.utils.ProtocolConstants.START_BLOCK;
+
+/**
+ * Lee un fichero batch HL7 (FHS/BHS ... MSH ... BTS/FTS) mensaje a mensaje, sin cargarlo entero en memoria.
+ * Solo retiene el mensaje en curso: cada segmento MSH abre un mensaje nuevo y los segmentos de envoltorio
+ * (FHS, BHS, BTS, FTS) cierran el anterior sin formar parte de ningún mensaje. Acepta segmentos terminados en
+ * CR, LF o CRLF y descarta los caracteres de framing MLLP que dejan algunos volcados.
+ */
+public class HL7BatchFileReader implements Closeable {
+
+    /**
+     * Mensaje leído del fichero.
+     * @param index posición del mensaje en el fichero (desde 1)
+     * @param message segmentos separados por CR, o el inicio del mensaje si {@code oversized}
+     * @param oversized si el mensaje supera el tamaño máximo (no se debe procesar)
+     */
+    public record BatchMessage(long index, String message, boolean oversized) {
+    }
+
+    private final BufferedReader reader;
+    private final int maxMessageChars;
+    private final StringBuilder current = new StringBuilder(4096);
+    private boolean inMessage;
+    private boolean oversized;
+    private long messageCount;
+    private long skippedSegments;
+    private String pendingLine; // Segmento MSH leído que ya pertenece al mensaje siguiente
+
+    /**
+     * @param maxMessageChars tamaño máximo de un mensaje; los mayores se devuelven truncados y marcados como oversized
+     */
+    public HL7BatchFileReader(Reader reader, int maxMessageChars) {
+        this.reader = reader instanceof BufferedReader buffered ? buffered : new BufferedReader(reader, 64 * 1024);
+        this.maxMessageChars = maxMessageChars;
+    }
+
+    /**
+     * @return el mensaje siguiente, o null al final del fichero
+     */
+    public BatchMessage next() throws IOException {
+        String line = pendingLine != null ? pendingLine : reader.readLine();
+        pendingLine = null;
+        while (line != null) {
+            String segment = stripFraming(line);
+            if (segment.startsWith("MSH")) {
+                if (inMessage) {
+                    pendingLine = segment;
+                    return finishMessage();
+                }
+                startMessage(segment);
+            } else if (isEnvelope(segment)) {
+                if (inMessage) {
+                    return finishMessage();
+                }
+            } else if (!segment.isEmpty()) {
+                if (inMessage) {
+                    append(segment);
+                } else {
+                    skippedSegments++; // Texto fuera de un mensaje: se ignora
+                }
+            }
+            line = reader.readLine();
+        }
+        return inMessage ? finishMessage() : null;
+    }
+
+    /**
+     * Segmentos ignorados por no pertenecer a ningún mensaje (sin contar FHS/BHS/BTS/FTS).
+     */
+    public long skippedSegments() {
+        return skippedSegments;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void startMessage(String segment) {
+        current.setLength(0);
+        inMessage = true;
+        oversized = false;
+        append(segment);
+    }
+
+    private void append(String segment) {
+        if (oversized) {
+            return;
+        }
+        if (current.length() + segment.length() + 1 > maxMessageChars) {
+            oversized = true; // Se conserva solo el principio (incluido el MSH) para poder identificarlo
+            return;
+        }
+        current.append(segment).append('\r');
+    }
+
+    private BatchMessage finishMessage() {
+        inMessage = false;
+        return new BatchMessage(++messageCount, current.toString(), oversized);
+    }
+
+    private static boolean isEnvelope(String segment) {
+        return segment.startsWith("FHS") || segment.startsWith("BHS") || segment.startsWith("BTS") || segment.startsWith("FTS");
+    }
+
+    private static String stripFraming(String line) {
+        int start = 0;
+        int end = line.length();
+        while (start < end && (line.charAt(start) == START_BLOCK || line.charAt(start) == END_BLOCK)) {
+            start++;
+        }
+        while (end > start && (line.charAt(end - 1) == START_BLOCK || line.charAt(end - 1) == END_BLOCK)) {
+            end--;
+        }
+        return start == 0 && end == line.length() ? line : line.substring(start, end);
+    }
+}
@@ -0,0 +1,84 @@
+package com.myobservation.storage.ingest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.myobservation.ProcesarApplication;
+import com.myobservation.storage.model.dto.HL7BatchIngestionSummary;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ingesta de un fichero batch HL7 desde la línea de comandos, sin listener MLLP ni servidor HTTP.
+ * Arranca el contexto de la aplicación con la misma configuración de BBDD (admite cualquier propiedad
+ * de Spring como argumento), ingiere el fichero con HL7BatchIngestionService y termina.
+ * <pre>
+ * mvn compile exec:java -Dexec.mainClass=com.myobservation.storage.ingest.HL7BatchIngestCommand \
+ *     -Dexec.args="backfill.hl7 --report=acks.ndjson --errors-only"
+ * </pre>
+ * Opciones: --report=ruta (ACK de cada mensaje en NDJSON), --errors-only (solo los que no son AA en el informe),
+ * --charset=ISO-8859-1 (codificación del fichero, UTF-8 por defecto).
+ * El proceso termina con código 1 si algún mensaje no obtuvo AA.
+ */
+public final class HL7BatchIngestCommand {
+
+    private HL7BatchIngestCommand() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path file = null;
+        Path report = null;
+        boolean errorsOnly = false;
+        Charset charset = StandardCharsets.UTF_8;
+        List<String> springArgs = new ArrayList<>(List.of("--mllp.server.enabled=false", "--spring.main.web-application-type=none"));
+        for (String arg : args) {
+            if (arg.startsWith("--report=")) {
+                report = Path.of(arg.substring("--report=".length()));
+            } else if (arg.equals("--errors-only")) {
+                errorsOnly = true;
+            } else if (arg.startsWith("--charset=")) {
+                charset = Charset.forName(arg.substring("--charset=".length()));
+            } else if (arg.startsWith("--")) {
+                springArgs.add(arg);
+            } else {
+                file = Path.of(arg);
+            }
+        }
+        if (file == null) {
+            System.err.println("Uso: HL7BatchIngestCommand <fichero> [--report=ruta] [--errors-only] [--charset=UTF-8] [--propiedad=valor ...]");
+            System.exit(2);
+            return;
+        }
+
+        HL7BatchIngestionSummary summary;
+        try (ConfigurableApplicationContext context = SpringApplication.run(ProcesarApplication.class, springArgs.toArray(String[]::new));
+             Writer reportWriter = report != null ? Files.newBufferedWriter(report) : Writer.nullWriter()) {
+            ObjectWriter json = context.getBean(ObjectMapper.class).writer();
+            boolean onlyErrors = errorsOnly;
+            summary = context.getBean(HL7BatchIngestionService.class).ingest(Files.newBufferedReader(file, charset), result -> {
+                if (onlyErrors && "AA".equals(result.ackStatus())) {
+                    return;
+                }
+                try {
+                    reportWriter.write(json.writeValueAsString(result));
+                    reportWriter.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        System.out.printf("[BATCH INGEST] %s: %d mensajes en %.1f s (%.0f msg/s) AA=%d AE=%d AR=%d, %d segmentos ignorados%n",
+                file, summary.messages(), summary.elapsedMillis() / 1000.0, summary.messagesPerSecond(),
+                summary.accepted(), summary.errors(), summary.rejected(), summary.skippedSegments());
+        System.exit(summary.accepted() == summary.messages() ? 0 : 1);
+    }
+}
@@ -0,0 +1,183 @@
+package com.myobservation.storage.ingest;
+
+import com.myobservation.listener.utils.MSHHeader;
+import com.myobservation.metrics.HL7Metrics;
+import com.myobservation.storage.model.dto.HL7BatchIngestionSummary;
+import com.myobservation.storage.model.dto.HL7BatchMessageResult;
+import com.myobservation.storage.model.entity.HL7Message;
+import com.myobservation.storage.repository.HL7MessageRepository;
+import com.myobservation.storage.service.HL7ParserService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Ingesta masiva de ficheros batch HL7 (cargas nocturnas y migraciones desde sistemas antiguos).
+ * El fichero se lee mensaje a mensaje con HL7BatchFileReader, cada mensaje se parsea en un pool de
+ * hl7.ingest.parser-threads hilos y las entidades se guardan en orden en transacciones de hl7.ingest.batch-size
+ * mensajes (INSERT agrupados en batches JDBC). En memoria solo hay una ventana de dos lotes, así que el tamaño
+ * del fichero no importa. Cada mensaje obtiene el mismo código de ACK que habría recibido por MLLP.
+ */
+@Service
+public class HL7BatchIngestionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HL7BatchIngestionService.class);
+
+    private final HL7ParserService parserService;
+    private final HL7MessageRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final HL7Metrics metrics;
+    private final int parserThreads;
+    private final int batchSize;
+    private final int maxMessageChars;
+
+    public HL7BatchIngestionService(HL7ParserService parserService, HL7MessageRepository repository,
+                                    TransactionTemplate transactionTemplate, HL7Metrics metrics,
+                                    @Value("${hl7.ingest.parser-threads:0}") int parserThreads,
+                                    @Value("${hl7.ingest.batch-size:500}") int batchSize,
+                                    @Value("${mllp.frame.max-bytes:1048576}") int maxMessageChars) {
+        this.parserService = parserService;
+        this.repository = repository;
+        this.transactionTemplate = transactionTemplate;
+        this.metrics = metrics;
+        this.parserThreads = parserThreads > 0 ? parserThreads : Runtime.getRuntime().availableProcessors();
+        this.batchSize = Math.max(batchSize, 1);
+        this.maxMessageChars = maxMessageChars;
+    }
+
+    private record PendingMessage(HL7BatchFileReader.BatchMessage source, Future<HL7Message> parsed) {
+    }
+
+    /**
+     * Ingresa todos los mensajes del fichero.
+     * @param input contenido del fichero batch (se cierra al terminar)
+     * @param results recibe el resultado de cada mensaje, en el orden del fichero
+     */
+    public HL7BatchIngestionSummary ingest(Reader input, Consumer<HL7BatchMessageResult> results) throws IOException {
+        long start = System.nanoTime();
+        Counts counts = new Counts(results);
+        long skippedSegments;
+        try (HL7BatchFileReader reader = new HL7BatchFileReader(input, maxMessageChars);
+             ExecutorService parsers = Executors.newFixedThreadPool(parserThreads, Thread.ofPlatform().name("hl7-ingest-", 0).factory())) {
+            Deque<PendingMessage> window = new ArrayDeque<>(batchSize * 2);
+            HL7BatchFileReader.BatchMessage message;
+            while ((message = reader.next()) != null) {
+                String raw = message.message();
+                Future<HL7Message> parsed = message.oversized() ? null : parsers.submit(() -> parserService.parseToEntity(raw));
+                window.add(new PendingMessage(message, parsed));
+                // Mientras se guarda un lote, el pool ya está parseando el siguiente
+                if (window.size() >= batchSize * 2) {
+                    saveBatch(window, counts);
+                }
+            }
+            while (!window.isEmpty()) {
+                saveBatch(window, counts);
+            }
+            skippedSegments = reader.skippedSegments();
+        }
+        long elapsedMillis = Math.max((System.nanoTime() - start) / 1_000_000, 1);
+        HL7BatchIngestionSummary summary = new HL7BatchIngestionSummary(counts.messages, counts.accepted, counts.errors,
+                counts.rejected, skippedSegments, elapsedMillis, counts.messages * 1000.0 / elapsedMillis);
+        logger.info("[BATCH INGEST] {} mensajes en {} ms ({} msg/s): AA={} AE={} AR={}, {} segmentos ignorados",
+                summary.messages(), elapsedMillis, Math.round(summary.messagesPerSecond()), summary.accepted(),
+                summary.errors(), summary.rejected(), skippedSegments);
+        return summary;
+    }
+
+    // Guarda los primeros batchSize mensajes de la ventana en una transacción y publica sus resultados
+    private void saveBatch(Deque<PendingMessage> window, Counts counts) {
+        List<HL7BatchMessageResult> results = new ArrayList<>(batchSize);
+        List<HL7Message> entities = new ArrayList<>(batchSize);
+        List<Integer> entityPositions = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize && !window.isEmpty(); i++) {
+            PendingMessage pending = window.poll();
+            long index = pending.source().index();
+            if (pending.parsed() == null) {
+                results.add(new HL7BatchMessageResult(index, controlId(pending.source().message()), "AR",
+                        "Mensaje excede el tamaño máximo permitido (" + maxMessageChars + " caracteres)"));
+                continue;
+            }
+            try {
+                HL7Message entity = pending.parsed().get();
+                entityPositions.add(results.size());
+                entities.add(entity);
+                results.add(new HL7BatchMessageResult(index, entity.getMessageControlId(), entity.getAckStatus(), entity.getAckError()));
+            } catch (ExecutionException e) {
+                results.add(new HL7BatchMessageResult(index, controlId(pending.source().message()), "AE",
+                        "Error interno de procesamiento: " + e.getCause().getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Ingesta interrumpida", e);
+            }
+        }
+        if (!entities.isEmpty()) {
+            try {
+                metrics.recordSave("bulk", () -> transactionTemplate.execute(status -> repository.saveAll(entities)));
+            } catch (Exception e) {
+                // Un mensaje que no se puede guardar no debe marcar como AE al resto del lote: se reintenta uno a uno
+                logger.warn("[BATCH INGEST] Fallo al guardar un lote de {} mensajes, reintentando uno a uno: {}",
+                        entities.size(), e.getMessage());
+                saveOneByOne(entities, entityPositions, results);
+            }
+        }
+        results.forEach(counts::add);
+    }
+
+    private void saveOneByOne(List<HL7Message> entities, List<Integer> entityPositions, List<HL7BatchMessageResult> results) {
+        for (int i = 0; i < entities.size(); i++) {
+            HL7Message entity = entities.get(i).copyForRetry();
+            try {
+                transactionTemplate.execute(status -> repository.save(entity));
+            } catch (Exception e) {
+                logger.error("[BATCH INGEST ERROR] No se pudo guardar el mensaje {}: {}", entity.getMessageControlId(),
+                        e.getMessage(), e);
+                int position = entityPositions.get(i);
+                HL7BatchMessageResult failed = results.get(position);
+                results.set(position, new HL7BatchMessageResult(failed.index(), failed.messageControlId(), "AE",
+                        "Error al guardar el mensaje: " + e.getMessage()));
+            }
+        }
+    }
+
+    private static String controlId(String message) {
+        MSHHeader header = MSHHeader.scan(message);
+        return header == null ? "" : header.messageControlId();
+    }
+
+    private static final class Counts {
+
+        private final Consumer<HL7BatchMessageResult> listener;
+        private long messages;
+        private long accepted;
+        private long errors;
+        private long rejected;
+
+        private Counts(Consumer<HL7BatchMessageResult> listener) {
+            this.listener = listener;
+        }
+
+        private void add(HL7BatchMessageResult result) {
+            messages++;
+            switch (result.ackStatus()) {
+                case "AA" -> accepted++;
+                case "AR" -> rejected++;
+                default -> errors++;
+            }
+            listener.accept(result);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.myobservation.storage.model.dto;
+
+/**
+ * Resultado del ACK de un mensaje ya recibido (MSA-1 y detalle del error), usado para responder
+ * a las retransmisiones con el mismo ACK que el original.
+ */
+public record HL7AckOutcome(String ackStatus, String ackError) {
+}
@@ -0,0 +1,16 @@
+package com.myobservation.storage.model.dto;
+
+/**
+ * Resumen de la ingesta de un fichero batch HL7.
+ *
+ * @param messages          mensajes leídos del fichero
+ * @param accepted          mensajes con ACK AA
+ * @param errors            mensajes con ACK AE (incluidos los que no se pudieron guardar)
+ * @param rejected          mensajes con ACK AR
+ * @param skippedSegments   segmentos fuera de cualquier mensaje, ignorados
+ * @param elapsedMillis     duración de la ingesta
+ * @param messagesPerSecond mensajes leídos por segundo
+ */
+public record HL7BatchIngestionSummary(long messages, long accepted, long errors, long rejected, long skippedSegments,
+                                       long elapsedMillis, double messagesPerSecond) {
+}
@@ -0,0 +1,12 @@
+package com.myobservation.storage.model.dto;
+
+/**
+ * Resultado de un mensaje de un fichero batch: el ACK que habría recibido por MLLP.
+ *
+ * @param index            posición del mensaje en el fichero (desde 1)
+ * @param messageControlId MSH-10 del mensaje
+ * @param ackStatus        AA, AE o AR
+ * @param ackError         detalle del error (vacío si AA)
+ */
+public record HL7BatchMessageResult(long index, String messageControlId, String ackStatus, String ackError) {
+}
@@ -10,8 +10,10 @@ public class HL7MessageDTO {
     private String sender;
     private String receiver;
     private String messageType;
+    private String messageControlId;
     private String ackStatus;
     private String ackError;
+    private String nodeId;
 
     // GETTER & SETTER
     public String getMessage() {
@@ -46,6 +48,14 @@ public class HL7MessageDTO {
         this.messageType = messageType;
     }
 
+    public String getMessageControlId() {
+        return messageControlId;
+    }
+
+    public void setMessageControlId(String messageControlId) {
+        this.messageControlId = messageControlId;
+    }
+
     public String getAckStatus() {
         return ackStatus;
     }
@@ -61,4 +71,12 @@ public class HL7MessageDTO {
     public void setAckError(String ackError) {
         this.ackError = ackError;
     }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
 }
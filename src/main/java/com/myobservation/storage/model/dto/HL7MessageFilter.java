@@ -0,0 +1,21 @@
+package com.myobservation.storage.model.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Filtros de consulta de HL7_MESSAGE. Los campos nulos (o la lista vacía) no filtran.
+ *
+ * @param sender      emisor exacto (MSH-3)
+ * @param messageType tipo exacto, p. ej. ADT^A01
+ * @param ackStatus   códigos de ACK admitidos (AA, AE, AR)
+ * @param from        createdAt desde (incluido)
+ * @param to          createdAt hasta (excluido)
+ */
+public record HL7MessageFilter(String sender, String messageType, List<String> ackStatus,
+                               LocalDateTime from, LocalDateTime to) {
+
+    public HL7MessageFilter {
+        ackStatus = ackStatus == null ? List.of() : List.copyOf(ackStatus);
+    }
+}
@@ -0,0 +1,12 @@
+package com.myobservation.storage.model.dto;
+
+import java.util.List;
+
+/**
+ * Página de resultados con paginación por clave (keyset).
+ *
+ * @param items      filas de la página, de la más reciente a la más antigua
+ * @param nextCursor valor a enviar como {@code after} para pedir la página siguiente; null si no hay más
+ */
+public record HL7MessagePage(List<HL7MessageView> items, Long nextCursor) {
+}
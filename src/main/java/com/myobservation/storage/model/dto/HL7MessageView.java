@@ -0,0 +1,15 @@
+package com.myobservation.storage.model.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.LocalDateTime;
+
+/**
+ * Fila de HL7_MESSAGE devuelta por la API de consulta.
+ * Se construye directamente en la consulta JPQL (sin entidades gestionadas), de modo que recorrer millones de
+ * filas no llena el contexto de persistencia. messageRaw solo se lee si se pide; si no, es null y no se serializa.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record HL7MessageView(long id, String sender, String receiver, String messageType, String messageControlId,
+                             String ackStatus, String ackError, LocalDateTime createdAt, String nodeId, String messageRaw) {
+}
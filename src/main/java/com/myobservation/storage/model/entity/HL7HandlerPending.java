@@ -0,0 +1,100 @@
+package com.myobservation.storage.model.entity;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * Mensaje guardado que un manejador por tipo (HL7MessageHandler) todavía no ha tratado: su cola estaba llena,
+ * el manejador falló con él o la aplicación paró con él en cola. HL7HandlerReplay lo vuelve a encolar hasta
+ * hl7.handler.replay-max-attempts intentos; los que los agotan se quedan en la tabla para revisarlos.
+ * Lo gestiona HL7HandlerPendingRepository; la entidad define la tabla para Hibernate.
+ */
+@Entity
+@Table(name = "HL7_HANDLER_PENDING")
+public class HL7HandlerPending {
+
+    @EmbeddedId
+    private Key key;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts; // Veces que el manejador lo intentó y falló (0 si no llegó a intentarlo)
+
+    @Column(name = "last_error")
+    private String lastError;
+
+    @Column(name = "pending_since", nullable = false)
+    private LocalDateTime pendingSince;
+
+    protected HL7HandlerPending() {
+    }
+
+    public HL7HandlerPending(String handlerName, long messageId, int attempts, String lastError, LocalDateTime pendingSince) {
+        this.key = new Key(handlerName, messageId);
+        this.attempts = attempts;
+        this.lastError = lastError;
+        this.pendingSince = pendingSince;
+    }
+
+    public Key getKey() {
+        return key;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public LocalDateTime getPendingSince() {
+        return pendingSince;
+    }
+
+    @Embeddable
+    public static class Key implements Serializable {
+
+        @Column(name = "handler_name", length = 50)
+        private String handlerName;
+
+        @Column(name = "message_id")
+        private long messageId; // id_internal del mensaje en HL7_MESSAGE
+
+        protected Key() {
+        }
+
+        public Key(String handlerName, long messageId) {
+            this.handlerName = handlerName;
+            this.messageId = messageId;
+        }
+
+        public String getHandlerName() {
+            return handlerName;
+        }
+
+        public long getMessageId() {
+            return messageId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && Objects.equals(handlerName, other.handlerName) && messageId == other.messageId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(handlerName, messageId);
+        }
+    }
+}
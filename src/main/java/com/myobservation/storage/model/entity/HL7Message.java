@@ -1,6 +1,8 @@
 package com.myobservation.storage.model.entity;
 
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.myobservation.storage.handler.HL7HandlerPersistListener;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
@@ -9,21 +11,39 @@ import java.time.LocalDateTime;
 
 /**
  * Entidad de la base de datos y definición de sus campos DDL
+ * Índices para las consultas de trazabilidad (todas acotan por la columna inicial y ordenan/filtran por fecha):
+ * estado + fecha (mensajes fallidos de un periodo), emisor + fecha (tráfico de un sistema) y
+ * ID de control + emisor ("¿llegó el mensaje X del emisor Y y qué ACK se devolvió?").
+ * El mensaje bruto está en HL7_MESSAGE_PAYLOAD (comprimido, carga perezosa): leer o serializar la entidad no lo
+ * trae de la BBDD salvo que se llame a getMessageRaw().
+ * En Oracle el esquema lo crea db/oracle/schema.sql (tabla particionada por mes de created_at, índices locales);
+ * las anotaciones de índices solo se usan al generar el esquema en H2.
+ * Cada inserción se notifica a los manejadores por tipo de mensaje (HL7HandlerPersistListener).
  */
 @Entity
-@Table(name = "HL7_MESSAGE")
+@EntityListeners(HL7HandlerPersistListener.class)
+@Table(name = "HL7_MESSAGE", indexes = {
+        @Index(name = "IDX_HL7_MESSAGE_STATUS_CREATED", columnList = "ack_status, created_at"),
+        @Index(name = "IDX_HL7_MESSAGE_SENDER_CREATED", columnList = "his_sender, created_at"),
+        @Index(name = "IDX_HL7_MESSAGE_CONTROL_ID", columnList = "message_control_id, his_sender, created_at"),
+        @Index(name = "IDX_HL7_MESSAGE_SENDER_ID", columnList = "his_sender, id_internal"),
+        @Index(name = "IDX_HL7_MESSAGE_STATUS_ID", columnList = "ack_status, id_internal")
+})
 public class HL7Message {
 
-    // Id lógico de la tabla tipo incremental
+    // Id lógico de la tabla: secuencia con optimizador pooled (un acceso a la secuencia cada 50 ids),
+    // a diferencia de IDENTITY permite a Hibernate agrupar los INSERT en batches JDBC
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "hl7_message_seq")
+    @SequenceGenerator(name = "hl7_message_seq", sequenceName = "HL7_MESSAGE_SEQ", allocationSize = 50)
 
     @Column(name = "id_internal")
     private long id;
 
-    @NotBlank
-    @Column(name = "message_raw", length = 10000)
-    private String messageRaw;
+    // optional=false: con la clave compartida Hibernate puede crear el proxy sin consultar HL7_MESSAGE_PAYLOAD
+    @OneToOne(mappedBy = "message", fetch = FetchType.LAZY, optional = false, cascade = CascadeType.ALL)
+    @JsonIgnore
+    private HL7MessagePayload payload;
 
     @Column(name = "his_sender", nullable = false, length = 100)
     private String sender; // Entidad que envía HIS
@@ -34,6 +54,9 @@ public class HL7Message {
     @NotBlank
     private String messageType; // Según el tipo de evento ej; ADT^A01
 
+    @Column(name = "message_control_id", length = 50)
+    private String messageControlId; // MSH-10, identificador del mensaje asignado por el emisor
+
     @NotBlank
     @Column(name = "ack_status", nullable = false, length = 2)
     private String ackStatus; // AA,AE,AR
@@ -41,6 +64,11 @@ public class HL7Message {
     @Column(name = "ack_error", nullable = true)
     private String ackError;  // Descripción de error en caso de fallo
 
+    @Column(name = "node_id", length = 64)
+    private String nodeId; // Instancia que recibió el mensaje (hl7.node.id), con varios nodos tras un balanceador
+
+    // Clave de partición: las consultas que acotan por created_at solo recorren los meses afectados
+    @Column(name = "created_at", nullable = false)
     private LocalDateTime createdAt = LocalDateTime.now(); // Auditoria de fecha/hora
 
     // GETTERS & SETTERS
@@ -49,12 +77,13 @@ public class HL7Message {
         return id;
     }
 
+    @JsonIgnore
     public String getMessage() {
-        return messageRaw;
+        return getMessageRaw();
     }
 
     public void setMessage(String messageRaw) {
-        this.messageRaw = messageRaw;
+        setMessageRaw(messageRaw);
     }
 
     public String getSender() {
@@ -81,12 +110,28 @@ public class HL7Message {
         this.messageType = messageType;
     }
 
+    public String getMessageControlId() {
+        return messageControlId;
+    }
+
+    public void setMessageControlId(String messageControlId) {
+        this.messageControlId = messageControlId;
+    }
+
+    /**
+     * Mensaje bruto; si la entidad se leyó de la BBDD, la primera llamada carga HL7_MESSAGE_PAYLOAD.
+     */
+    @JsonIgnore
     public String getMessageRaw() {
-        return messageRaw;
+        return payload == null ? null : payload.getContent();
     }
 
     public void setMessageRaw(String messageRaw) {
-        this.messageRaw = messageRaw;
+        if (payload == null) {
+            payload = new HL7MessagePayload(this, messageRaw);
+        } else {
+            payload.setContent(messageRaw);
+        }
     }
 
     public LocalDateTime getCreatedAt() {
@@ -101,6 +146,24 @@ public class HL7Message {
         this.id = id;
     }
 
+    /**
+     * Copia sin id para reintentar el guardado: tras un INSERT fallido la entidad y su payload conservan el id
+     * asignado en ese intento y Hibernate ya no puede insertarlas como nuevas.
+     */
+    public HL7Message copyForRetry() {
+        HL7Message copy = new HL7Message();
+        copy.setSender(sender);
+        copy.setReceiver(receiver);
+        copy.setMessageType(messageType);
+        copy.setMessageControlId(messageControlId);
+        copy.setAckStatus(ackStatus);
+        copy.setAckError(ackError);
+        copy.setNodeId(nodeId);
+        copy.setCreatedAt(createdAt);
+        copy.setMessageRaw(getMessageRaw());
+        return copy;
+    }
+
     public String getAckStatus() {
         return ackStatus;
     }
@@ -116,4 +179,12 @@ public class HL7Message {
     public void setAckError(String ackError) {
         this.ackError = ackError;
     }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
 }
@@ -0,0 +1,60 @@
+package com.myobservation.storage.model.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * Contenido bruto de un mensaje HL7, separado de HL7_MESSAGE.
+ * Comparte la clave primaria con el mensaje (id_internal) y guarda el texto comprimido en un LOB, de modo que
+ * las consultas de trazabilidad sobre HL7_MESSAGE recorren filas pequeñas y no hay límite de tamaño para
+ * resultados ORU con informes incrustados. Solo se lee cuando se pide el mensaje bruto.
+ */
+@Entity
+@Table(name = "HL7_MESSAGE_PAYLOAD")
+public class HL7MessagePayload {
+
+    @Id
+    @Column(name = "id_internal")
+    private long id;
+
+    @MapsId
+    @OneToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "id_internal")
+    private HL7Message message;
+
+    @Lob
+    @Convert(converter = CompressedTextConverter.class)
+    @Column(name = "payload", nullable = false)
+    private String content;
+
+    @Column(name = "raw_length", nullable = false)
+    private int rawLength; // Caracteres del mensaje sin comprimir
+
+    protected HL7MessagePayload() {
+    }
+
+    HL7MessagePayload(HL7Message message, String content) {
+        this.message = message;
+        setContent(content);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public HL7Message getMessage() {
+        return message;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    void setContent(String content) {
+        this.content = content;
+        this.rawLength = content == null ? 0 : content.length();
+    }
+
+    public int getRawLength() {
+        return rawLength;
+    }
+}
@@ -0,0 +1,97 @@
+package com.myobservation.storage.model.entity;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * Recibo de un ID de control (MSH-3 + MSH-10) compartido por todos los nodos.
+ * La clave primaria hace que solo un nodo pueda reclamar un mensaje: el INSERT del segundo falla y ese nodo
+ * responde con el ACK del original en lugar de guardarlo otra vez. Mientras el original se procesa, ack_status
+ * es null. HL7_MESSAGE no puede llevar esta restricción porque está particionada por created_at y una
+ * retransmisión llega con otra fecha. Las filas más antiguas que hl7.dedupe.database-lookback-days se purgan.
+ * Lo gestiona HL7MessageReceiptRepository con SQL nativo; la entidad define la tabla para Hibernate.
+ */
+@Entity
+@Table(name = "HL7_MESSAGE_RECEIPT", indexes = {
+        @Index(name = "IDX_HL7_RECEIPT_RECEIVED", columnList = "received_at")
+})
+public class HL7MessageReceipt {
+
+    @EmbeddedId
+    private Key key;
+
+    @Column(name = "node_id", nullable = false, length = 64)
+    private String nodeId; // Nodo que reclamó (y procesa o procesó) el mensaje
+
+    @Column(name = "received_at", nullable = false)
+    private LocalDateTime receivedAt;
+
+    @Column(name = "ack_status", length = 2)
+    private String ackStatus; // null mientras el original está en proceso
+
+    @Column(name = "ack_error")
+    private String ackError;
+
+    protected HL7MessageReceipt() {
+    }
+
+    public Key getKey() {
+        return key;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public LocalDateTime getReceivedAt() {
+        return receivedAt;
+    }
+
+    public String getAckStatus() {
+        return ackStatus;
+    }
+
+    public String getAckError() {
+        return ackError;
+    }
+
+    @Embeddable
+    public static class Key implements Serializable {
+
+        @Column(name = "his_sender", length = 100)
+        private String sender;
+
+        @Column(name = "message_control_id", length = 50)
+        private String messageControlId;
+
+        protected Key() {
+        }
+
+        public Key(String sender, String messageControlId) {
+            this.sender = sender;
+            this.messageControlId = messageControlId;
+        }
+
+        public String getSender() {
+            return sender;
+        }
+
+        public String getMessageControlId() {
+            return messageControlId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && Objects.equals(sender, other.sender)
+                    && Objects.equals(messageControlId, other.messageControlId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sender, messageControlId);
+        }
+    }
+}
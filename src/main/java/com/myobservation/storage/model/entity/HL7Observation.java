@@ -0,0 +1,161 @@
+package com.myobservation.storage.model.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * Resultado de laboratorio (segmento OBX) extraído de un ORU^R01 por ORUResultHandler.
+ * Una fila por OBX, enlazada con su mensaje por message_id; permite consultar resultados por paciente y prueba
+ * sin parsear los mensajes brutos. En Oracle la tabla se particiona por referencia a HL7_MESSAGE
+ * (db/oracle/schema.sql), así la retención elimina los resultados de cada mes junto con sus mensajes.
+ */
+@Entity
+@Table(name = "HL7_OBSERVATION", indexes = {
+        @Index(name = "IDX_HL7_OBS_MESSAGE", columnList = "message_id"),
+        @Index(name = "IDX_HL7_OBS_PATIENT", columnList = "patient_id, observation_id")
+})
+public class HL7Observation {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "hl7_observation_seq")
+    @SequenceGenerator(name = "hl7_observation_seq", sequenceName = "HL7_OBSERVATION_SEQ", allocationSize = 50)
+    @Column(name = "id_observation")
+    private long id;
+
+    @Column(name = "message_id", nullable = false)
+    private long messageId; // id_internal del mensaje en HL7_MESSAGE
+
+    @Column(name = "patient_id", length = 50)
+    private String patientId; // PID-3.1
+
+    @Column(name = "set_id", length = 10)
+    private String setId; // OBX-1
+
+    @Column(name = "value_type", length = 3)
+    private String valueType; // OBX-2 (NM, ST, CE, ...)
+
+    @Column(name = "observation_id", length = 50)
+    private String observationId; // OBX-3.1, código de la prueba
+
+    @Column(name = "observation_text")
+    private String observationText; // OBX-3.2
+
+    @Column(name = "observation_value", length = 4000)
+    private String observationValue; // OBX-5 codificado en ER7 (repeticiones separadas por ~)
+
+    @Column(name = "units", length = 50)
+    private String units; // OBX-6.1
+
+    @Column(name = "reference_range", length = 100)
+    private String referenceRange; // OBX-7
+
+    @Column(name = "abnormal_flag", length = 10)
+    private String abnormalFlag; // OBX-8
+
+    @Column(name = "result_status", length = 2)
+    private String resultStatus; // OBX-11 (F, P, C, ...)
+
+    @Column(name = "observation_time", length = 26)
+    private String observationTime; // OBX-14 tal como llega (TS de HL7)
+
+    // GETTERS & SETTERS
+
+    public long getId() {
+        return id;
+    }
+
+    public long getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(long messageId) {
+        this.messageId = messageId;
+    }
+
+    public String getPatientId() {
+        return patientId;
+    }
+
+    public void setPatientId(String patientId) {
+        this.patientId = patientId;
+    }
+
+    public String getSetId() {
+        return setId;
+    }
+
+    public void setSetId(String setId) {
+        this.setId = setId;
+    }
+
+    public String getValueType() {
+        return valueType;
+    }
+
+    public void setValueType(String valueType) {
+        this.valueType = valueType;
+    }
+
+    public String getObservationId() {
+        return observationId;
+    }
+
+    public void setObservationId(String observationId) {
+        this.observationId = observationId;
+    }
+
+    public String getObservationText() {
+        return observationText;
+    }
+
+    public void setObservationText(String observationText) {
+        this.observationText = observationText;
+    }
+
+    public String getObservationValue() {
+        return observationValue;
+    }
+
+    public void setObservationValue(String observationValue) {
+        this.observationValue = observationValue;
+    }
+
+    public String getUnits() {
+        return units;
+    }
+
+    public void setUnits(String units) {
+        this.units = units;
+    }
+
+    public String getReferenceRange() {
+        return referenceRange;
+    }
+
+    public void setReferenceRange(String referenceRange) {
+        this.referenceRange = referenceRange;
+    }
+
+    public String getAbnormalFlag() {
+        return abnormalFlag;
+    }
+
+    public void setAbnormalFlag(String abnormalFlag) {
+        this.abnormalFlag = abnormalFlag;
+    }
+
+    public String getResultStatus() {
+        return resultStatus;
+    }
+
+    public void setResultStatus(String resultStatus) {
+        this.resultStatus = resultStatus;
+    }
+
+    public String getObservationTime() {
+        return observationTime;
+    }
+
+    public void setObservationTime(String observationTime) {
+        this.observationTime = observationTime;
+    }
+}
@@ -0,0 +1,64 @@
+package com.myobservation.storage.repository;
+
+import com.myobservation.storage.model.entity.HL7HandlerPending;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Mensajes pendientes de los manejadores por tipo (ver HL7HandlerPending).
+ * mark() va en su propia transacción: se llama tras el commit del mensaje (con la transacción original todavía
+ * enlazada al hilo) y desde los hilos de los manejadores.
+ */
+@Repository
+public class HL7HandlerPendingRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Anota el mensaje como pendiente para el manejador, o actualiza intentos y error si ya lo estaba.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void mark(String handlerName, long messageId, int attempts, String lastError, LocalDateTime now) {
+        String error = lastError != null && lastError.length() > 255 ? lastError.substring(0, 255) : lastError;
+        HL7HandlerPending pending = entityManager.find(HL7HandlerPending.class, new HL7HandlerPending.Key(handlerName, messageId));
+        if (pending == null) {
+            entityManager.persist(new HL7HandlerPending(handlerName, messageId, attempts, error, now));
+        } else {
+            pending.setAttempts(attempts);
+            pending.setLastError(error);
+        }
+    }
+
+    /**
+     * Pendientes del manejador con menos de maxAttempts intentos, los más antiguos primero.
+     */
+    @Transactional(readOnly = true)
+    public List<HL7HandlerPending> findReplayable(String handlerName, int maxAttempts, int limit) {
+        return entityManager.createQuery("SELECT p FROM HL7HandlerPending p WHERE p.key.handlerName = :handlerName "
+                        + "AND p.attempts < :maxAttempts ORDER BY p.key.messageId", HL7HandlerPending.class)
+                .setParameter("handlerName", handlerName)
+                .setParameter("maxAttempts", maxAttempts)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    /**
+     * Toma un pendiente para volver a encolarlo. Si varios nodos lo intentan a la vez, solo uno lo borra.
+     * @return 1 si este nodo lo tomó
+     */
+    @Transactional
+    public int claim(String handlerName, long messageId) {
+        return entityManager.createNativeQuery("DELETE FROM HL7_HANDLER_PENDING "
+                        + "WHERE handler_name = :handlerName AND message_id = :messageId")
+                .setParameter("handlerName", handlerName)
+                .setParameter("messageId", messageId)
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,72 @@
+package com.myobservation.storage.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Particiones mensuales de HL7_MESSAGE en Oracle (ver db/oracle/schema.sql).
+ * Solo se listan las particiones creadas por intervalo: P_INITIAL es la partición de rango que fija el inicio
+ * de los intervalos, está vacía y Oracle no permite eliminarla.
+ */
+@Repository
+public class HL7MessagePartitionRepository {
+
+    // HIGH_VALUE es una expresión SQL guardada como LONG, p. ej. TIMESTAMP' 2024-03-01 00:00:00'
+    private static final Pattern HIGH_VALUE = Pattern.compile("(\\d{4})-(\\d{2})-(\\d{2})");
+
+    /**
+     * Partición de un mes: contiene las filas con created_at anterior a {@code highValue}
+     * (y posterior o igual al mes anterior).
+     */
+    public record MonthlyPartition(String name, LocalDateTime highValue) {
+
+        public LocalDateTime lowValue() {
+            return highValue.minusMonths(1);
+        }
+    }
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Particiones por intervalo de HL7_MESSAGE, de la más antigua a la más reciente.
+     */
+    @Transactional(readOnly = true)
+    public List<MonthlyPartition> findIntervalPartitions() {
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = entityManager.createNativeQuery(
+                "SELECT partition_name, high_value FROM user_tab_partitions "
+                        + "WHERE table_name = 'HL7_MESSAGE' AND interval = 'YES' ORDER BY partition_position")
+                .getResultList();
+        List<MonthlyPartition> partitions = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            Matcher matcher = HIGH_VALUE.matcher(String.valueOf(row[1]));
+            if (matcher.find()) {
+                partitions.add(new MonthlyPartition((String) row[0], LocalDateTime.of(Integer.parseInt(matcher.group(1)),
+                        Integer.parseInt(matcher.group(2)), Integer.parseInt(matcher.group(3)), 0, 0)));
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Elimina la partición de HL7_MESSAGE y, por la partición por referencia, las de HL7_MESSAGE_PAYLOAD y HL7_OBSERVATION.
+     * Es una operación de diccionario (no genera undo por fila); UPDATE GLOBAL INDEXES mantiene válida la PK.
+     */
+    @Transactional
+    public void dropPartition(String partitionName) {
+        if (!partitionName.matches("[A-Z0-9_$#]+")) {
+            throw new IllegalArgumentException("Nombre de partición no válido: " + partitionName);
+        }
+        entityManager.createNativeQuery("ALTER TABLE HL7_MESSAGE DROP PARTITION " + partitionName + " UPDATE GLOBAL INDEXES")
+                .executeUpdate();
+    }
+}
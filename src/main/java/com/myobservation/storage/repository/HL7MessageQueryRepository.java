@@ -0,0 +1,34 @@
+package com.myobservation.storage.repository;
+
+import com.myobservation.storage.model.dto.HL7MessageFilter;
+import com.myobservation.storage.model.dto.HL7MessageView;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Consultas de HL7_MESSAGE con filtros dinámicos y paginación por clave (id descendente).
+ * Se usa {@code id < after} en lugar de OFFSET, así el coste de cada página no depende de lo lejos que se esté
+ * del principio.
+ */
+public interface HL7MessageQueryRepository {
+
+    /**
+     * Devuelve hasta {@code limit} filas con id menor que {@code afterId} (null = desde la más reciente).
+     * Con filtro por emisor o por estado la página sale de los índices (his_sender, id_internal) y
+     * (ack_status, id_internal), ya en orden de id.
+     */
+    List<HL7MessageView> findPage(HL7MessageFilter filter, Long afterId, int limit, boolean includeRaw);
+
+    /**
+     * Devuelve las {@code limit} filas más recientes por createdAt. Con filtro por emisor o por estado el orden
+     * coincide con los índices (his_sender, created_at) y (ack_status, created_at), sin ordenación adicional.
+     */
+    List<HL7MessageView> findLatest(HL7MessageFilter filter, int limit, boolean includeRaw);
+
+    /**
+     * Recorre todas las filas que cumplen el filtro sin cargarlas en memoria.
+     * Debe consumirse (y cerrarse) dentro de una transacción.
+     */
+    Stream<HL7MessageView> stream(HL7MessageFilter filter, int maxRows, boolean includeRaw);
+}
@@ -0,0 +1,101 @@
+package com.myobservation.storage.repository;
+
+import com.myobservation.storage.model.dto.HL7MessageFilter;
+import com.myobservation.storage.model.dto.HL7MessageView;
+import com.myobservation.storage.model.entity.HL7Message;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.JoinType;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Implementación de {@link HL7MessageQueryRepository} con Criteria API.
+ * Solo se añaden al WHERE los filtros informados, para que Oracle pueda usar los índices correspondientes.
+ */
+public class HL7MessageQueryRepositoryImpl implements HL7MessageQueryRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // Filas por viaje de red en las consultas en streaming (el driver de Oracle trae 10 por defecto)
+    @Value("${hl7.query.fetch-size:500}")
+    private int fetchSize;
+
+    @Override
+    public List<HL7MessageView> findPage(HL7MessageFilter filter, Long afterId, int limit, boolean includeRaw) {
+        return buildQuery(filter, afterId, includeRaw, "id")
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public List<HL7MessageView> findLatest(HL7MessageFilter filter, int limit, boolean includeRaw) {
+        return buildQuery(filter, null, includeRaw, "createdAt")
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public Stream<HL7MessageView> stream(HL7MessageFilter filter, int maxRows, boolean includeRaw) {
+        TypedQuery<HL7MessageView> query = buildQuery(filter, null, includeRaw, "id")
+                .setHint(HibernateHints.HINT_FETCH_SIZE, fetchSize)
+                .setHint(HibernateHints.HINT_READ_ONLY, true);
+        if (maxRows > 0) {
+            query.setMaxResults(maxRows);
+        }
+        return query.getResultStream();
+    }
+
+    // orderBy: atributo por el que se ordena de forma descendente
+    private TypedQuery<HL7MessageView> buildQuery(HL7MessageFilter filter, Long afterId, boolean includeRaw, String orderBy) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<HL7MessageView> query = cb.createQuery(HL7MessageView.class);
+        Root<HL7Message> message = query.from(HL7Message.class);
+
+        query.select(cb.construct(HL7MessageView.class,
+                message.get("id"),
+                message.get("sender"),
+                message.get("receiver"),
+                message.get("messageType"),
+                message.get("messageControlId"),
+                message.get("ackStatus"),
+                message.get("ackError"),
+                message.get("createdAt"),
+                message.get("nodeId"),
+                // Solo se une HL7_MESSAGE_PAYLOAD (y se descomprime) si se pide el mensaje bruto
+                includeRaw ? message.join("payload", JoinType.LEFT).get("content") : cb.nullLiteral(String.class)));
+
+        List<Predicate> predicates = new ArrayList<>();
+        if (afterId != null) {
+            predicates.add(cb.lessThan(message.get("id"), afterId));
+        }
+        if (filter.sender() != null) {
+            predicates.add(cb.equal(message.get("sender"), filter.sender()));
+        }
+        if (filter.messageType() != null) {
+            predicates.add(cb.equal(message.get("messageType"), filter.messageType()));
+        }
+        if (!filter.ackStatus().isEmpty()) {
+            predicates.add(message.get("ackStatus").in(filter.ackStatus()));
+        }
+        if (filter.from() != null) {
+            predicates.add(cb.greaterThanOrEqualTo(message.get("createdAt"), filter.from()));
+        }
+        if (filter.to() != null) {
+            predicates.add(cb.lessThan(message.get("createdAt"), filter.to()));
+        }
+        query.where(predicates.toArray(new Predicate[0]));
+        query.orderBy(cb.desc(message.get(orderBy)));
+        return entityManager.createQuery(query);
+    }
+}
@@ -0,0 +1,95 @@
+package com.myobservation.storage.repository;
+
+import com.myobservation.storage.model.entity.HL7MessageReceipt;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * Recibos de HL7_MESSAGE_RECEIPT compartidos entre nodos (ver HL7MessageReceipt).
+ * Cada operación es una transacción corta e independiente de la del guardado del mensaje. Las actualizaciones
+ * van condicionadas al nodo o al estado leído, así dos nodos nunca pisan el recibo del otro.
+ */
+@Repository
+public class HL7MessageReceiptRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Reclama el ID de control para este nodo.
+     * @throws org.springframework.dao.DataIntegrityViolationException si otro nodo ya lo reclamó
+     */
+    @Transactional
+    public void claim(String sender, String messageControlId, String nodeId, LocalDateTime receivedAt) {
+        entityManager.createNativeQuery("INSERT INTO HL7_MESSAGE_RECEIPT (his_sender, message_control_id, node_id, received_at) "
+                        + "VALUES (:sender, :controlId, :nodeId, :receivedAt)")
+                .setParameter("sender", sender)
+                .setParameter("controlId", messageControlId)
+                .setParameter("nodeId", nodeId)
+                .setParameter("receivedAt", receivedAt)
+                .executeUpdate();
+    }
+
+    @Transactional(readOnly = true)
+    public Optional<HL7MessageReceipt> find(String sender, String messageControlId) {
+        return Optional.ofNullable(entityManager.find(HL7MessageReceipt.class, new HL7MessageReceipt.Key(sender, messageControlId)));
+    }
+
+    /**
+     * Guarda el ACK del original; solo si el recibo sigue siendo de este nodo.
+     */
+    @Transactional
+    public int complete(String sender, String messageControlId, String nodeId, String ackStatus, String ackError) {
+        return entityManager.createNativeQuery("UPDATE HL7_MESSAGE_RECEIPT SET ack_status = :ackStatus, ack_error = :ackError "
+                        + "WHERE his_sender = :sender AND message_control_id = :controlId AND node_id = :nodeId")
+                .setParameter("ackStatus", ackStatus)
+                .setParameter("ackError", ackError)
+                .setParameter("sender", sender)
+                .setParameter("controlId", messageControlId)
+                .setParameter("nodeId", nodeId)
+                .executeUpdate();
+    }
+
+    /**
+     * Libera un recibo sin terminar (el procesamiento falló) para que la retransmisión se procese de nuevo.
+     */
+    @Transactional
+    public int release(String sender, String messageControlId, String nodeId) {
+        return entityManager.createNativeQuery("DELETE FROM HL7_MESSAGE_RECEIPT "
+                        + "WHERE his_sender = :sender AND message_control_id = :controlId AND node_id = :nodeId AND ack_status IS NULL")
+                .setParameter("sender", sender)
+                .setParameter("controlId", messageControlId)
+                .setParameter("nodeId", nodeId)
+                .executeUpdate();
+    }
+
+    /**
+     * Toma un recibo que otro nodo no terminó (nodo caído o bloqueado). Solo tiene efecto si el recibo sigue
+     * sin ACK y con el received_at leído: si dos nodos lo intentan a la vez, solo uno lo consigue.
+     * @return 1 si este nodo pasa a ser el dueño
+     */
+    @Transactional
+    public int takeOver(String sender, String messageControlId, String nodeId, LocalDateTime claimedAt, LocalDateTime now) {
+        return entityManager.createNativeQuery("UPDATE HL7_MESSAGE_RECEIPT SET node_id = :nodeId, received_at = :now "
+                        + "WHERE his_sender = :sender AND message_control_id = :controlId AND ack_status IS NULL "
+                        + "AND received_at = :claimedAt")
+                .setParameter("nodeId", nodeId)
+                .setParameter("now", now)
+                .setParameter("sender", sender)
+                .setParameter("controlId", messageControlId)
+                .setParameter("claimedAt", claimedAt)
+                .executeUpdate();
+    }
+
+    @Transactional
+    public int purgeReceivedBefore(LocalDateTime before) {
+        return entityManager.createNativeQuery("DELETE FROM HL7_MESSAGE_RECEIPT WHERE received_at < :before")
+                .setParameter("before", before)
+                .executeUpdate();
+    }
+}
@@ -1,17 +1,89 @@
 package com.myobservation.storage.repository;
 
+import com.myobservation.storage.model.dto.HL7AckOutcome;
 import com.myobservation.storage.model.entity.HL7Message;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
+/**
+ * HL7_MESSAGE está particionada por mes de created_at (Oracle): las consultas que reciben un límite inferior
+ * de createdAt solo recorren las particiones desde esa fecha, y su coste no depende de los años acumulados.
+ */
 @Repository
-public interface HL7MessageRepository extends JpaRepository<HL7Message, Long> {
+public interface HL7MessageRepository extends JpaRepository<HL7Message, Long>, HL7MessageQueryRepository {
     /**
      * Buscar por el código de estado ACK
      * @param ackStatus AA AE AR
-     * @return código de estado
+     * @param pageable límite y orden de los resultados (la tabla puede tener millones de filas)
+     * @return mensajes con alguno de los códigos indicados
      */
-    List<HL7Message> findByAckStatusIn(List<String> ackStatus);
-}
\ No newline at end of file
+    List<HL7Message> findByAckStatusIn(List<String> ackStatus, Pageable pageable);
+
+    /**
+     * Igual que {@link #findByAckStatusIn} pero solo desde {@code since} (poda de particiones).
+     */
+    List<HL7Message> findByAckStatusInAndCreatedAtGreaterThanEqual(List<String> ackStatus, LocalDateTime since,
+                                                                   Pageable pageable);
+
+    /**
+     * Mensajes con un ID de control (MSH-10), de cualquier emisor. Usa IDX_HL7_MESSAGE_CONTROL_ID.
+     */
+    List<HL7Message> findByMessageControlIdOrderByCreatedAtDesc(String messageControlId);
+
+    /**
+     * Mensaje de un emisor con un ID de control (normalmente uno; varios si el emisor lo reenvió).
+     */
+    List<HL7Message> findByMessageControlIdAndSenderOrderByCreatedAtDesc(String messageControlId, String sender);
+
+    /**
+     * Mensajes con un ID de control recibidos desde {@code since}, de cualquier emisor (poda de particiones).
+     */
+    List<HL7Message> findByMessageControlIdAndCreatedAtGreaterThanEqualOrderByCreatedAtDesc(String messageControlId,
+                                                                                           LocalDateTime since);
+
+    /**
+     * Mensaje de un emisor con un ID de control recibido desde {@code since} (poda de particiones).
+     */
+    List<HL7Message> findByMessageControlIdAndSenderAndCreatedAtGreaterThanEqualOrderByCreatedAtDesc(
+            String messageControlId, String sender, LocalDateTime since);
+
+    /**
+     * ACK del último mensaje guardado de un emisor con un ID de control desde {@code since}. Solo lee ack_status y
+     * ack_error (sin el mensaje bruto) por IDX_HL7_MESSAGE_CONTROL_ID y solo en las particiones desde esa fecha;
+     * lo usa la detección de duplicados.
+     */
+    Optional<HL7AckOutcome> findFirstByMessageControlIdAndSenderAndCreatedAtGreaterThanEqualOrderByCreatedAtDesc(
+            String messageControlId, String sender, LocalDateTime since);
+
+    /**
+     * Fecha del mensaje más antiguo (null si la tabla está vacía); la usa la retención por DELETE.
+     */
+    @Query("select min(m.createdAt) from HL7Message m")
+    LocalDateTime findOldestCreatedAt();
+
+    /**
+     * Borrado masivo de un intervalo [from, to) sin cargar entidades: primero el contenido bruto y después los
+     * mensajes. Solo para BBDD sin particiones (H2); en Oracle la retención elimina particiones completas.
+     */
+    @Modifying
+    @Query(value = "DELETE FROM HL7_OBSERVATION WHERE message_id IN "
+            + "(SELECT id_internal FROM HL7_MESSAGE WHERE created_at >= :from AND created_at < :to)", nativeQuery = true)
+    int deleteObservationsCreatedBetween(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+    @Modifying
+    @Query(value = "DELETE FROM HL7_MESSAGE_PAYLOAD WHERE id_internal IN "
+            + "(SELECT id_internal FROM HL7_MESSAGE WHERE created_at >= :from AND created_at < :to)", nativeQuery = true)
+    int deletePayloadsCreatedBetween(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+    @Modifying
+    @Query(value = "DELETE FROM HL7_MESSAGE WHERE created_at >= :from AND created_at < :to", nativeQuery = true)
+    int deleteMessagesCreatedBetween(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+}
@@ -0,0 +1,16 @@
+package com.myobservation.storage.repository;
+
+import com.myobservation.storage.model.entity.HL7Observation;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Resultados OBX extraídos de los ORU^R01 (ORUResultHandler).
+ */
+@Repository
+public interface HL7ObservationRepository extends JpaRepository<HL7Observation, Long> {
+
+    List<HL7Observation> findByMessageIdOrderById(long messageId);
+}
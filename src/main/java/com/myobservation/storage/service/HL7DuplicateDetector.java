@@ -0,0 +1,346 @@
+package com.myobservation.storage.service;
+
+import com.myobservation.config.HL7NodeId;
+import com.myobservation.listener.utils.MSHHeader;
+import com.myobservation.metrics.HL7Metrics;
+import com.myobservation.storage.model.dto.HL7AckOutcome;
+import com.myobservation.storage.model.entity.HL7MessageReceipt;
+import com.myobservation.storage.repository.HL7MessageReceiptRepository;
+import com.myobservation.storage.repository.HL7MessageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Detección de retransmisiones por (emisor MSH-3, ID de control MSH-10).
+ * Los emisores reenvían el mensaje cuando el ACK tarda; en lugar de parsearlo y guardarlo otra vez,
+ * se responde con el mismo código de ACK que recibió el original.
+ *
+ * Se consulta antes de parsear:
+ * <ul>
+ *   <li>caché en memoria acotada (hl7.dedupe.max-entries) y con caducidad (hl7.dedupe.ttl-seconds) desde la inserción;
+ *       cada entrada es un future que se completa al terminar el original, así una retransmisión que llega mientras
+ *       el original se procesa espera su resultado en lugar de crear otra fila</li>
+ *   <li>si la caché no lo tiene (reinicio o entrada caducada), consulta a HL7_MESSAGE por IDX_HL7_MESSAGE_CONTROL_ID,
+ *       solo en los últimos hl7.dedupe.database-lookback-days días para no recorrer todas las particiones</li>
+ *   <li>con hl7.dedupe.shared-receipts (varios nodos sobre la misma BBDD), en lugar de esa consulta se reclama el ID
+ *       de control en HL7_MESSAGE_RECEIPT: la clave primaria garantiza que solo un nodo lo procesa aunque el
+ *       balanceador reparta el original y la retransmisión entre nodos distintos. El nodo que pierde espera el ACK
+ *       del original como con un original en proceso en este nodo; si no llega en hl7.dedupe.in-flight-wait-ms
+ *       (nodo caído), toma el recibo y procesa el mensaje</li>
+ * </ul>
+ * Solo se recuerdan los mensajes procesados: si el guardado falla, la entrada se libera y la retransmisión
+ * se procesa de nuevo. Los mensajes sin MSH-10 no se controlan.
+ */
+@Component
+public class HL7DuplicateDetector {
+
+    private static final Logger logger = LoggerFactory.getLogger(HL7DuplicateDetector.class);
+
+    // Límite de la columna message_control_id: la consulta a la BBDD usa el valor tal como se guardó
+    private static final int CONTROL_ID_COLUMN_LENGTH = 50;
+    private static final int SENDER_COLUMN_LENGTH = 100;
+    private static final int ACK_ERROR_COLUMN_LENGTH = 255;
+    // Intervalo de consulta del recibo de otro nodo mientras su original sigue en proceso
+    private static final long IN_FLIGHT_POLL_MS = 50;
+
+    private final HL7MessageRepository repository;
+    private final HL7Metrics metrics;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final boolean databaseCheck;
+    private final int databaseLookbackDays;
+    private final long inFlightWaitMs;
+    private final HL7MessageReceiptRepository receiptRepository;
+    private final HL7NodeId nodeId;
+    private final boolean sharedReceipts;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // Orden de inserción: con caducidad desde la inserción, la cabeza es siempre la entrada más antigua
+    private final Queue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    public HL7DuplicateDetector(HL7MessageRepository repository, HL7Metrics metrics,
+                                @Value("${hl7.dedupe.enabled:true}") boolean enabled,
+                                @Value("${hl7.dedupe.max-entries:100000}") int maxEntries,
+                                @Value("${hl7.dedupe.ttl-seconds:3600}") long ttlSeconds,
+                                @Value("${hl7.dedupe.database-check:true}") boolean databaseCheck,
+                                @Value("${hl7.dedupe.database-lookback-days:7}") int databaseLookbackDays,
+                                @Value("${hl7.dedupe.in-flight-wait-ms:30000}") long inFlightWaitMs,
+                                HL7MessageReceiptRepository receiptRepository, HL7NodeId nodeId,
+                                @Value("${hl7.dedupe.shared-receipts:false}") boolean sharedReceipts) {
+        this.repository = repository;
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.databaseCheck = databaseCheck;
+        this.databaseLookbackDays = databaseLookbackDays;
+        this.inFlightWaitMs = inFlightWaitMs;
+        this.receiptRepository = receiptRepository;
+        this.nodeId = nodeId;
+        this.sharedReceipts = sharedReceipts;
+        metrics.gauge("hl7.dedupe.entries", "IDs de control recordados por la detección de duplicados", entries::size);
+    }
+
+    /**
+     * Registra la recepción de un mensaje.
+     * @param header MSH del mensaje (puede ser nulo)
+     * @return recibo: o bien indica que es un duplicado y trae el ACK original, o bien debe completarse
+     *         con {@link Receipt#complete} o liberarse con {@link Receipt#abandon} al terminar el procesamiento
+     */
+    public Receipt register(MSHHeader header) {
+        if (!enabled || header == null || header.messageControlId().isEmpty()) {
+            return Receipt.UNTRACKED;
+        }
+        String sender = header.sendingApplication();
+        String controlId = header.messageControlId();
+        String key = sender + '|' + controlId;
+        evictExpired();
+
+        // Un reintento como máximo: si el original se libera por un error mientras esperamos, este mensaje lo sustituye
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Entry claim = new Entry(key, new CompletableFuture<>(), System.nanoTime());
+            Entry existing = entries.putIfAbsent(key, claim);
+            if (existing == null) {
+                insertionOrder.add(claim);
+                return sharedReceipts ? claimShared(claim, sender, controlId) : checkDatabase(claim, sender, controlId);
+            }
+            if (existing.outcome().isDone() && !existing.outcome().isCompletedExceptionally()) {
+                metrics.duplicateReceived("cache");
+                return Receipt.duplicate(existing.outcome().join());
+            }
+            try {
+                HL7AckOutcome original = existing.outcome().get(inFlightWaitMs, TimeUnit.MILLISECONDS);
+                metrics.duplicateReceived("in-flight");
+                return Receipt.duplicate(original);
+            } catch (ExecutionException e) {
+                logger.debug("[DEDUPE] El original de {} no se completó; se procesa la retransmisión", key);
+            } catch (TimeoutException e) {
+                logger.warn("[DEDUPE] El original de {} sigue en proceso tras {} ms; se procesa la retransmisión", key, inFlightWaitMs);
+                return Receipt.UNTRACKED;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Receipt.UNTRACKED;
+            }
+        }
+        return Receipt.UNTRACKED;
+    }
+
+    // Fallo de caché: la fila puede existir de antes de un reinicio o de una entrada ya expulsada
+    private Receipt checkDatabase(Entry claim, String sender, String controlId) {
+        if (!databaseCheck) {
+            return new Receipt(this, claim, null, null);
+        }
+        try {
+            String storedControlId = controlId.length() > CONTROL_ID_COLUMN_LENGTH
+                    ? controlId.substring(0, CONTROL_ID_COLUMN_LENGTH) : controlId;
+            LocalDateTime since = LocalDateTime.now().minusDays(databaseLookbackDays);
+            Optional<HL7AckOutcome> stored = repository
+                    .findFirstByMessageControlIdAndSenderAndCreatedAtGreaterThanEqualOrderByCreatedAtDesc(storedControlId, sender, since);
+            if (stored.isPresent()) {
+                claim.outcome().complete(stored.get());
+                metrics.duplicateReceived("database");
+                return Receipt.duplicate(stored.get());
+            }
+        } catch (Exception e) {
+            // Sin BBDD el guardado fallará igualmente; no se bloquea el mensaje por la comprobación
+            logger.warn("[DEDUPE] No se pudo comprobar el ID de control {} en la BBDD: {}", claim.key(), e.getMessage());
+        }
+        return new Receipt(this, claim, null, null);
+    }
+
+    // Fallo de caché con varios nodos: se reclama el ID de control en HL7_MESSAGE_RECEIPT
+    private Receipt claimShared(Entry claim, String sender, String controlId) {
+        HL7MessageReceipt.Key key = new HL7MessageReceipt.Key(truncate(sender, SENDER_COLUMN_LENGTH),
+                truncate(controlId, CONTROL_ID_COLUMN_LENGTH));
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(inFlightWaitMs);
+        boolean waited = false;
+        try {
+            while (true) {
+                if (tryClaim(key)) {
+                    return new Receipt(this, claim, null, key);
+                }
+                Optional<HL7MessageReceipt> existing = receiptRepository.find(key.getSender(), key.getMessageControlId());
+                if (existing.isEmpty()) {
+                    if (System.nanoTime() >= deadline) {
+                        break;
+                    }
+                    continue; // El otro nodo lo liberó (su procesamiento falló) entre el INSERT y la lectura
+                }
+                HL7MessageReceipt receipt = existing.get();
+                if (receipt.getAckStatus() != null) {
+                    HL7AckOutcome original = new HL7AckOutcome(receipt.getAckStatus(),
+                            receipt.getAckError() == null ? "" : receipt.getAckError());
+                    claim.outcome().complete(original);
+                    metrics.duplicateReceived(waited ? "in-flight" : "database");
+                    return Receipt.duplicate(original);
+                }
+                if (System.nanoTime() >= deadline) {
+                    if (receiptRepository.takeOver(key.getSender(), key.getMessageControlId(), nodeId.value(),
+                            receipt.getReceivedAt(), now()) == 1) {
+                        logger.warn("[DEDUPE] El nodo {} no terminó {} en {} ms; lo procesa este nodo", receipt.getNodeId(),
+                                claim.key(), inFlightWaitMs);
+                        return new Receipt(this, claim, null, key);
+                    }
+                    logger.warn("[DEDUPE] El original de {} sigue en proceso en otro nodo tras {} ms; se procesa la retransmisión",
+                            claim.key(), inFlightWaitMs);
+                    return new Receipt(this, claim, null, null);
+                }
+                waited = true;
+                Thread.sleep(IN_FLIGHT_POLL_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // Sin BBDD el guardado fallará igualmente; no se bloquea el mensaje por la comprobación
+            logger.warn("[DEDUPE] No se pudo reclamar el ID de control {} en la BBDD: {}", claim.key(), e.getMessage());
+        }
+        return new Receipt(this, claim, null, null);
+    }
+
+    private boolean tryClaim(HL7MessageReceipt.Key key) {
+        try {
+            receiptRepository.claim(key.getSender(), key.getMessageControlId(), nodeId.value(), now());
+            return true;
+        } catch (DataIntegrityViolationException e) {
+            return false; // Ya reclamado por otro nodo (o por este antes de un reinicio)
+        }
+    }
+
+    /**
+     * Purga los recibos compartidos más antiguos que la ventana de búsqueda de retransmisiones.
+     * Cada nodo la ejecuta; los borrados son idempotentes.
+     */
+    @Scheduled(cron = "${hl7.dedupe.receipt-purge-cron:0 20 * * * *}")
+    public void purgeReceipts() {
+        if (!sharedReceipts) {
+            return;
+        }
+        int purged = receiptRepository.purgeReceivedBefore(LocalDateTime.now().minusDays(databaseLookbackDays));
+        logger.info("[DEDUPE] {} recibos de más de {} días purgados", purged, databaseLookbackDays);
+    }
+
+    // received_at se compara en takeOver: se guarda con la precisión de la columna (TIMESTAMP(6))
+    private static LocalDateTime now() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+    }
+
+    private static String truncate(String value, int maxLength) {
+        return value.length() > maxLength ? value.substring(0, maxLength) : value;
+    }
+
+    // Recibo compartido: el resultado se publica para los demás nodos; si falla, se libera para que reintenten
+    private void releaseShared(HL7MessageReceipt.Key key, HL7AckOutcome outcome) {
+        try {
+            if (outcome != null) {
+                String ackError = outcome.ackError() == null ? "" : truncate(outcome.ackError(), ACK_ERROR_COLUMN_LENGTH);
+                receiptRepository.complete(key.getSender(), key.getMessageControlId(), nodeId.value(), outcome.ackStatus(), ackError);
+            } else {
+                receiptRepository.release(key.getSender(), key.getMessageControlId(), nodeId.value());
+            }
+        } catch (Exception e) {
+            logger.warn("[DEDUPE] No se pudo actualizar el recibo de {}|{}: {}", key.getSender(), key.getMessageControlId(),
+                    e.getMessage());
+        }
+    }
+
+    private void release(Entry claim, HL7MessageReceipt.Key sharedKey, HL7AckOutcome outcome) {
+        if (sharedKey != null) {
+            releaseShared(sharedKey, outcome);
+        }
+        if (outcome != null) {
+            claim.outcome().complete(outcome);
+        } else {
+            entries.remove(claim.key(), claim);
+            claim.outcome().completeExceptionally(new IllegalStateException("Procesamiento del original fallido"));
+        }
+        evictExpired();
+    }
+
+    // Expulsa por antigüedad las entradas caducadas o que exceden el tamaño máximo. Si otro hilo ya está
+    // expulsando no se espera: la siguiente llamada continuará
+    private void evictExpired() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            long now = System.nanoTime();
+            Entry oldest;
+            while ((oldest = insertionOrder.peek()) != null
+                    && (entries.size() > maxEntries || now - oldest.insertedNanos() > ttlNanos)) {
+                insertionOrder.poll();
+                entries.remove(oldest.key(), oldest);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private record Entry(String key, CompletableFuture<HL7AckOutcome> outcome, long insertedNanos) {
+    }
+
+    /**
+     * Resultado de {@link #register}. Si no es un duplicado, el llamante debe llamar a {@link #complete}
+     * cuando el mensaje esté procesado, o a {@link #abandon} si falló, para no dejar esperando a sus retransmisiones.
+     */
+    public static final class Receipt {
+
+        private static final Receipt UNTRACKED = new Receipt(null, null, null, null);
+
+        private final HL7DuplicateDetector detector;
+        private final Entry claim;
+        private final HL7AckOutcome original;
+        private final HL7MessageReceipt.Key sharedKey; // Recibo reclamado en HL7_MESSAGE_RECEIPT, o null
+
+        private Receipt(HL7DuplicateDetector detector, Entry claim, HL7AckOutcome original, HL7MessageReceipt.Key sharedKey) {
+            this.detector = detector;
+            this.claim = claim;
+            this.original = original;
+            this.sharedKey = sharedKey;
+        }
+
+        private static Receipt duplicate(HL7AckOutcome original) {
+            return new Receipt(null, null, original, null);
+        }
+
+        public boolean isDuplicate() {
+            return original != null;
+        }
+
+        /**
+         * ACK del mensaje original, o null si no es un duplicado.
+         */
+        public HL7AckOutcome original() {
+            return original;
+        }
+
+        public void complete(String ackStatus, String ackError) {
+            if (claim != null) {
+                detector.release(claim, sharedKey, new HL7AckOutcome(ackStatus, ackError));
+            }
+        }
+
+        public void abandon() {
+            if (claim != null) {
+                detector.release(claim, sharedKey, null);
+            }
+        }
+    }
+}
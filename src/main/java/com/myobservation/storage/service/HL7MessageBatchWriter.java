@@ -0,0 +1,156 @@
+package com.myobservation.storage.service;
+
+import com.myobservation.metrics.HL7Metrics;
+import com.myobservation.storage.model.entity.HL7Message;
+import com.myobservation.storage.repository.HL7MessageRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Escritor por lotes de HL7_MESSAGE (commit agrupado).
+ * Los hilos de conexión encolan entidades ya parseadas y esperan su CompletableFuture; un único hilo escritor
+ * agrupa lo encolado en un batch JDBC dentro de una sola transacción. Un lote se cierra al alcanzar
+ * hl7.batch.size o al pasar hl7.batch.linger-ms desde el primer mensaje, así el coste del commit se reparte
+ * entre todos los mensajes del lote y el ACK sigue enviándose solo después de que el mensaje está guardado.
+ */
+@Service
+public class HL7MessageBatchWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(HL7MessageBatchWriter.class);
+
+    private final HL7MessageRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final long lingerMs;
+    private final BlockingQueue<PendingWrite> queue;
+    private final HL7Metrics metrics;
+
+    private volatile boolean running = true;
+    private Thread writerThread;
+
+    public HL7MessageBatchWriter(HL7MessageRepository repository, TransactionTemplate transactionTemplate, HL7Metrics metrics,
+                                 @Value("${hl7.batch.size:50}") int batchSize,
+                                 @Value("${hl7.batch.linger-ms:5}") long lingerMs,
+                                 @Value("${hl7.batch.queue-capacity:10000}") int queueCapacity) {
+        this.repository = repository;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.lingerMs = lingerMs;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.metrics = metrics;
+        metrics.gauge("hl7.batch.queue", "Mensajes pendientes del escritor por lotes", queue::size);
+    }
+
+    @PostConstruct
+    public void start() {
+        writerThread = new Thread(this::runWriter, "hl7-batch-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Encola una entidad para el siguiente lote. Bloquea si la cola está llena (contrapresión).
+     * @return future que se completa con la entidad guardada, o con la excepción si el guardado falla
+     * @throws IllegalStateException si el escritor ya está parado (nadie completaría el future)
+     */
+    public CompletableFuture<HL7Message> submit(HL7Message hl7Message) throws InterruptedException {
+        if (!running) {
+            throw new IllegalStateException("El escritor por lotes está parado");
+        }
+        PendingWrite pending = new PendingWrite(hl7Message, new CompletableFuture<>());
+        queue.put(pending);
+        return pending.result();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (writerThread != null) {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10)); // Deja terminar los lotes ya encolados
+        }
+        // Lo que no se guardó en el plazo (o llegó durante la parada) se falla: el ACK será AE y el emisor reenviará
+        List<PendingWrite> unsaved = new ArrayList<>();
+        queue.drainTo(unsaved);
+        if (!unsaved.isEmpty()) {
+            logger.warn("[BATCH WRITER] {} mensajes sin guardar al parar", unsaved.size());
+            unsaved.forEach(pending -> pending.result().completeExceptionally(
+                    new IllegalStateException("El escritor por lotes se paró antes de guardar el mensaje")));
+        }
+    }
+
+    private void runWriter() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("[BATCH WRITER ERROR] Error inesperado en el escritor por lotes: {}", e.getMessage(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<PendingWrite> batch) {
+        List<HL7Message> entities = new ArrayList<>(batch.size());
+        for (PendingWrite pending : batch) {
+            entities.add(pending.entity());
+        }
+        try {
+            List<HL7Message> saved = metrics.recordSave("batch",
+                    () -> transactionTemplate.execute(status -> repository.saveAll(entities)));
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result().complete(saved.get(i));
+            }
+            logger.debug("[DB SAVE SUCCESS] Lote de {} mensajes guardado", batch.size());
+        } catch (Exception e) {
+            // Un mensaje inválido no debe hacer fallar al resto del lote: se reintenta uno a uno
+            logger.warn("[BATCH WRITER] Fallo al guardar lote de {} mensajes, reintentando uno a uno: {}", batch.size(), e.getMessage());
+            for (PendingWrite pending : batch) {
+                // El intento del lote dejó en la entidad un id que no llegó a confirmarse
+                HL7Message entity = pending.entity().copyForRetry();
+                try {
+                    pending.result().complete(transactionTemplate.execute(status -> repository.save(entity)));
+                } catch (Exception single) {
+                    pending.result().completeExceptionally(single);
+                }
+            }
+        }
+    }
+
+    private record PendingWrite(HL7Message entity, CompletableFuture<HL7Message> result) {
+    }
+}
@@ -0,0 +1,111 @@
+package com.myobservation.storage.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.myobservation.storage.model.dto.HL7MessageFilter;
+import com.myobservation.storage.model.dto.HL7MessagePage;
+import com.myobservation.storage.model.dto.HL7MessageView;
+import com.myobservation.storage.repository.HL7MessageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Consulta de mensajes guardados con memoria constante: páginas por clave acotadas a hl7.query.max-page-size
+ * y volcado NDJSON (una fila JSON por línea) que se escribe en la respuesta a medida que se lee de la BBDD.
+ */
+@Service
+public class HL7MessageQueryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HL7MessageQueryService.class);
+
+    // Filas entre cada flush de la respuesta en streaming
+    private static final int FLUSH_EVERY_ROWS = 500;
+
+    private final HL7MessageRepository repository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ObjectWriter rowWriter;
+    private final ObjectMapper objectMapper;
+    private final int maxPageSize;
+
+    public HL7MessageQueryService(HL7MessageRepository repository, PlatformTransactionManager transactionManager,
+                                  ObjectMapper objectMapper,
+                                  @Value("${hl7.query.max-page-size:1000}") int maxPageSize) {
+        this.repository = repository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.objectMapper = objectMapper;
+        this.rowWriter = objectMapper.writerFor(HL7MessageView.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.maxPageSize = maxPageSize;
+    }
+
+    /**
+     * Límite de filas efectivo: entre 1 y hl7.query.max-page-size.
+     */
+    public int boundedLimit(int requested) {
+        return Math.max(1, Math.min(requested, maxPageSize));
+    }
+
+    /**
+     * Página de hasta {@code limit} filas anteriores al cursor {@code afterId} (null = primera página).
+     */
+    public HL7MessagePage findPage(HL7MessageFilter filter, Long afterId, int limit, boolean includeRaw) {
+        int pageSize = boundedLimit(limit);
+        // Se pide una fila de más para saber si hay página siguiente sin hacer un COUNT
+        List<HL7MessageView> rows = readOnlyTransaction.execute(
+                status -> repository.findPage(filter, afterId, pageSize + 1, includeRaw));
+        if (rows.size() <= pageSize) {
+            return new HL7MessagePage(rows, null);
+        }
+        List<HL7MessageView> items = rows.subList(0, pageSize);
+        return new HL7MessagePage(List.copyOf(items), items.get(pageSize - 1).id());
+    }
+
+    /**
+     * Filas más recientes (por createdAt) que cumplen el filtro, acotadas a hl7.query.max-page-size.
+     */
+    public List<HL7MessageView> findLatest(HL7MessageFilter filter, int limit, boolean includeRaw) {
+        int rows = boundedLimit(limit);
+        return readOnlyTransaction.execute(status -> repository.findLatest(filter, rows, includeRaw));
+    }
+
+    /**
+     * Escribe en {@code out} todas las filas que cumplen el filtro en formato NDJSON.
+     * @param maxRows máximo de filas (0 = sin límite)
+     * @return filas escritas
+     */
+    public long streamNdjson(HL7MessageFilter filter, int maxRows, boolean includeRaw, OutputStream out) {
+        Long written = readOnlyTransaction.execute(status -> {
+            long rows = 0;
+            try (Stream<HL7MessageView> stream = repository.stream(filter, maxRows, includeRaw);
+                 JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.setRootValueSeparator(null);
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET); // La respuesta la cierra Spring
+                for (HL7MessageView view : (Iterable<HL7MessageView>) stream::iterator) {
+                    rowWriter.writeValue(generator, view);
+                    generator.writeRaw('\n');
+                    if (++rows % FLUSH_EVERY_ROWS == 0) {
+                        generator.flush();
+                    }
+                }
+            } catch (IOException e) {
+                // Normalmente el cliente cerró la conexión: se cancela la consulta
+                throw new UncheckedIOException(e);
+            }
+            return rows;
+        });
+        logger.debug("[QUERY STREAM] {} filas enviadas", written);
+        return written;
+    }
+}
@@ -0,0 +1,169 @@
+package com.myobservation.storage.service;
+
+import com.myobservation.listener.connection.MLLPListenerSettings;
+import com.myobservation.listener.utils.MSHHeader;
+import com.myobservation.listener.utils.PatientIdScanner;
+import com.myobservation.metrics.HL7Metrics;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reparto de mensajes en carriles ordenados entre el listener y HL7ParserService.
+ * Cada mensaje se asigna a un carril según el emisor (MSH-3), o emisor y paciente (PID-3) con
+ * hl7.ordering.key=sender-patient; cada carril es un único hilo con su cola, de modo que los mensajes de un mismo
+ * emisor se parsean y persisten en el orden de llegada aunque entren por conexiones distintas, y los de emisores
+ * distintos se procesan en paralelo.
+ * Solo pasan por los carriles los tipos de hl7.ordering.message-types (por defecto ADT^*, donde el orden importa:
+ * un A08 no debe aplicarse antes que el A01 del mismo paciente); el resto se procesa como siempre. Cada listener
+ * tiene sus propios carriles, así una ráfaga de un feed no llena la cola de un carril que comparte con otro.
+ *
+ * Métricas por carril: hl7.lane.queue{listener,lane} (mensajes en cola) y hl7.lane.wait{listener,lane} (espera).
+ */
+@Service
+public class HL7OrderedDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(HL7OrderedDispatcher.class);
+
+    private final HL7Metrics metrics;
+    private final boolean enabled;
+    private final boolean byPatient;
+    private final int laneCount;
+    private final int queueCapacity;
+    private final Set<String> messageTypes;
+    private final Map<String, Lane[]> lanesByListener = new ConcurrentHashMap<>();
+
+    public HL7OrderedDispatcher(HL7Metrics metrics,
+                                @Value("${hl7.ordering.enabled:false}") boolean enabled,
+                                @Value("${hl7.ordering.lanes:10}") int laneCount,
+                                @Value("${hl7.ordering.key:sender}") String key,
+                                @Value("${hl7.ordering.queue-capacity:1000}") int queueCapacity,
+                                @Value("${hl7.ordering.message-types:ADT^*}") Set<String> messageTypes) {
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.byPatient = "sender-patient".equalsIgnoreCase(key);
+        this.laneCount = Math.max(laneCount, 1);
+        this.queueCapacity = queueCapacity;
+        this.messageTypes = messageTypes;
+    }
+
+    /**
+     * Valor por defecto de los listeners (hl7.ordering.enabled); cada uno puede cambiarlo con
+     * mllp.listeners.&lt;nombre&gt;.ordering.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Indica si el mensaje se procesa en un carril: su MSH-9 está en hl7.ordering.message-types, exacto
+     * ("ADT^A08"), por código ("ADT^*") o "*" para todos.
+     */
+    public boolean appliesTo(MSHHeader header) {
+        if (header == null) {
+            return false;
+        }
+        return messageTypes.contains("*") || messageTypes.contains(header.messageType())
+                || messageTypes.contains(header.messageCode() + "^*");
+    }
+
+    /**
+     * Encola la tarea en el carril del mensaje dentro de los carriles del listener (se crean con su primer mensaje).
+     * Bloquea si la cola del carril está llena (contrapresión sobre ese listener).
+     * @param header MSH del mensaje (puede ser nulo: se usa el carril de la clave vacía)
+     * @return future con el resultado de la tarea, que se ejecuta después de las anteriores del mismo carril
+     */
+    public <T> Future<T> submit(String listener, MSHHeader header, Callable<T> task) throws InterruptedException {
+        Lane[] lanes = lanesByListener.computeIfAbsent(listener, this::startLanes);
+        Lane lane = lanes[Math.floorMod(partitionKey(header).hashCode(), lanes.length)];
+        FutureTask<T> future = new FutureTask<>(task);
+        lane.queue.put(new LaneTask(future, System.nanoTime()));
+        return future;
+    }
+
+    private Lane[] startLanes(String listener) {
+        String prefix = MLLPListenerSettings.DEFAULT_NAME.equals(listener) ? "hl7-lane-" : "hl7-lane-" + listener + "-";
+        Lane[] lanes = new Lane[laneCount];
+        for (int i = 0; i < lanes.length; i++) {
+            BlockingQueue<LaneTask> queue = new ArrayBlockingQueue<>(queueCapacity);
+            lanes[i] = new Lane(queue, metrics.lane(listener, i, queue::size));
+            lanes[i].thread = new Thread(lanes[i], prefix + i);
+            lanes[i].thread.setDaemon(true);
+            lanes[i].thread.start();
+        }
+        logger.info("[ORDERING] Listener {}: {} carriles ordenados por {} para {}", listener, lanes.length,
+                byPatient ? "emisor y paciente" : "emisor", messageTypes);
+        return lanes;
+    }
+
+    /**
+     * Clave de partición: MSH-3, o MSH-3 y PID-3 si el orden solo debe respetarse por paciente.
+     */
+    String partitionKey(MSHHeader header) {
+        if (header == null) {
+            return "";
+        }
+        String sender = header.sendingApplication();
+        return byPatient ? sender + '|' + PatientIdScanner.patientId(header) : sender;
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        for (Lane[] lanes : lanesByListener.values()) {
+            for (Lane lane : lanes) {
+                lane.running = false;
+            }
+        }
+        for (Lane[] lanes : lanesByListener.values()) {
+            for (Lane lane : lanes) {
+                lane.thread.join(TimeUnit.SECONDS.toMillis(10)); // Deja terminar lo ya encolado
+            }
+        }
+    }
+
+    private record LaneTask(FutureTask<?> future, long enqueuedNanos) {
+    }
+
+    private static final class Lane implements Runnable {
+
+        private final BlockingQueue<LaneTask> queue;
+        private final Timer waitTimer;
+        private volatile boolean running = true;
+        private Thread thread;
+
+        private Lane(BlockingQueue<LaneTask> queue, Timer waitTimer) {
+            this.queue = queue;
+            this.waitTimer = waitTimer;
+        }
+
+        @Override
+        public void run() {
+            while (running || !queue.isEmpty()) {
+                try {
+                    LaneTask task = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (task == null) {
+                        continue;
+                    }
+                    waitTimer.record(System.nanoTime() - task.enqueuedNanos(), TimeUnit.NANOSECONDS);
+                    task.future().run(); // Las excepciones de la tarea quedan en su future
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
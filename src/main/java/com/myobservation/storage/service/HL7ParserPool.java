@@ -0,0 +1,102 @@
+package com.myobservation.storage.service;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.Version;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.PipeParser;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Pool de PipeParser de HAPI.
+ * El GenericParser del HapiContext es una única instancia compartida (getGenericParser() está sincronizado) y
+ * además detecta la codificación (ER7/XML) en cada mensaje. Por MLLP solo llega ER7, así que cada hilo toma
+ * un PipeParser propio del pool, lo usa en exclusiva y lo devuelve; si el pool está vacío se crea uno nuevo.
+ * Funciona igual con hilos de plataforma y virtuales (no depende de ThreadLocal); el pool crece como máximo
+ * hasta el número de parseos simultáneos, que ya limita mllp.processing.max-concurrent.
+ *
+ * Al arrancar se calientan los tipos de hl7.parser.warmup-types: se construye, codifica y parsea un mensaje
+ * de cada tipo para cargar las clases del modelo y llenar la caché de CachingModelClassFactory antes de
+ * recibir tráfico.
+ */
+@Component
+public class HL7ParserPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(HL7ParserPool.class);
+
+    private final HapiContext hapiContext;
+    private final List<String> warmupTypes;
+    private final int warmupParsers;
+    private final Queue<PipeParser> idleParsers = new ConcurrentLinkedQueue<>();
+
+    public HL7ParserPool(HapiContext hapiContext,
+                         @Value("${hl7.parser.warmup-types:ADT^A01,ORU^R01}") List<String> warmupTypes,
+                         @Value("${hl7.parser.warmup-parsers:4}") int warmupParsers) {
+        this.hapiContext = hapiContext;
+        this.warmupTypes = warmupTypes;
+        this.warmupParsers = warmupParsers;
+    }
+
+    @PostConstruct
+    public void warmUp() {
+        long start = System.nanoTime();
+        List<PipeParser> parsers = new ArrayList<>(warmupParsers);
+        for (int i = 0; i < warmupParsers; i++) {
+            parsers.add(new PipeParser(hapiContext));
+        }
+        for (String type : warmupTypes) {
+            String[] codeAndTrigger = type.trim().split("\\^");
+            if (codeAndTrigger.length != 2) {
+                logger.warn("[PARSER WARMUP] Tipo ignorado, se esperaba código^evento: {}", type);
+                continue;
+            }
+            try {
+                Message sample = hapiContext.newMessage(codeAndTrigger[0], codeAndTrigger[1], Version.V25);
+                String encoded = sample.encode();
+                for (PipeParser parser : parsers) {
+                    parser.parse(encoded);
+                }
+            } catch (Exception e) {
+                logger.warn("[PARSER WARMUP] No se pudo calentar el tipo {}: {}", type, e.getMessage());
+            }
+        }
+        idleParsers.addAll(parsers);
+        logger.info("[PARSER WARMUP] {} parsers listos para {} en {} ms", parsers.size(), warmupTypes,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Parsea un mensaje ER7 con un parser del pool.
+     */
+    public Message parse(String hl7Message) throws HL7Exception {
+        PipeParser parser = idleParsers.poll();
+        if (parser == null) {
+            parser = new PipeParser(hapiContext);
+        }
+        try {
+            return parser.parse(hl7Message);
+        } finally {
+            idleParsers.offer(parser);
+        }
+    }
+
+    /**
+     * Parsea un mensaje ER7 con el pool o, si es HL7 XML (solo puede llegar por la API REST), con el
+     * GenericParser del contexto, que detecta la codificación.
+     */
+    public Message parseAnyEncoding(String hl7Message) throws HL7Exception {
+        if (hl7Message.startsWith("<")) {
+            return hapiContext.getGenericParser().parse(hl7Message);
+        }
+        return parse(hl7Message);
+    }
+}
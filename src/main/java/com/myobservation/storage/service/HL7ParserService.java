@@ -1,23 +1,27 @@
 package com.myobservation.storage.service;
 
 import ca.uhn.hl7v2.HL7Exception;
-import ca.uhn.hl7v2.HapiContext;
 import ca.uhn.hl7v2.model.Message;
 import ca.uhn.hl7v2.model.v25.segment.MSH;
-import ca.uhn.hl7v2.parser.Parser;
-
-import ca.uhn.hl7v2.model.v25.message.ORU_R01; // Para ORU^R01
-import ca.uhn.hl7v2.model.v25.message.ADT_A01; // Para ADT^A01
-
 
+import com.myobservation.config.HL7NodeId;
+import com.myobservation.listener.utils.MSHHeader;
+import com.myobservation.metrics.HL7Metrics;
+import com.myobservation.storage.handler.HL7HandlerRegistry;
 import com.myobservation.storage.model.dto.HL7MessageDTO;
 import com.myobservation.storage.model.entity.HL7Message;
 import com.myobservation.storage.repository.HL7MessageRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
 
 @Service("HL7ParserService")
 public class HL7ParserService {
@@ -25,26 +29,84 @@ public class HL7ParserService {
     private static final Logger logger = LoggerFactory.getLogger(HL7ParserService.class);
 
     private final HL7MessageRepository repository;
-    private final HapiContext hapiContext;
+    private final HL7ParserPool parserPool;
+    private final HL7Metrics metrics;
+    // Tipos (MSH-9 código^evento) que pasan por el parseo completo de HAPI; "*" = todos.
+    // El resto se procesa solo con la lectura rápida del MSH.
+    private final Set<String> fullParseTypes;
+    private final HL7NodeId nodeId;
+    // Manejadores por tipo de mensaje: validación en el camino del ACK y procesamiento tras el commit
+    private final HL7HandlerRegistry handlers;
 
-    public HL7ParserService(HL7MessageRepository repository, HapiContext hapiContext) {
+    public HL7ParserService(HL7MessageRepository repository, HL7ParserPool parserPool,
+                            HL7Metrics metrics,
+                            @Value("${hl7.parser.full-parse-types:*}") Set<String> fullParseTypes, HL7NodeId nodeId,
+                            HL7HandlerRegistry handlers) {
         this.repository = repository;
-        this.hapiContext = hapiContext;
+        this.parserPool = parserPool;
+        this.metrics = metrics;
+        this.fullParseTypes = fullParseTypes;
+        this.nodeId = nodeId;
+        this.handlers = handlers;
     }
 
     @Transactional
     public HL7MessageDTO parseHL7Message(String hl7Raw) {
-        logger.debug("[PARSER] Texto plano (Raw del mensaje) input del mensaje para parsear: \n{}", hl7Raw);
+        HL7Message hl7MessageEntity = parseToEntity(hl7Raw);
 
+        return toDto(save(hl7MessageEntity));
+    }
+
+    /**
+     * Guarda una entidad ya parseada. Al ser transaccional, quien lo llame desde fuera del servicio
+     * mide también el commit.
+     */
+    @Transactional
+    public HL7Message save(HL7Message hl7MessageEntity) {
+        HL7Message savedMessage = repository.save(hl7MessageEntity);
+        logger.debug("[DB SAVE SUCCESS] Mensaje Guardado con ID: {} Status: {}", savedMessage.getId(), savedMessage.getAckStatus());
+        return savedMessage;
+    }
+
+    /**
+     * Parsea y persiste un lote de mensajes en una única transacción.
+     * Lo usa el drenado del write-ahead log, donde el ACK ya se envió al emisor.
+     * @param hl7Raws mensajes HL7 en texto plano
+     * @return entidades guardadas, en el mismo orden
+     */
+    @Transactional
+    public List<HL7Message> parseAndSaveAll(List<String> hl7Raws) {
+        List<HL7Message> entities = new ArrayList<>(hl7Raws.size());
+        for (String hl7Raw : hl7Raws) {
+            entities.add(parseToEntity(hl7Raw));
+        }
+        List<HL7Message> savedMessages = repository.saveAll(entities);
+        logger.info("[DB SAVE SUCCESS] Lote de {} mensajes guardado", savedMessages.size());
+        return savedMessages;
+    }
+
+    /**
+     * Parsea el mensaje y construye la entidad de auditoría (sin guardarla).
+     * Los tipos configurados en hl7.parser.full-parse-types se parsean con HAPI; el resto solo con la
+     * lectura rápida del MSH. Los errores de parseo no se propagan: quedan reflejados en ackStatus/ackError.
+     */
+    public HL7Message parseToEntity(String hl7Raw) {
+        long parseStart = System.nanoTime();
+        // El contenido del mensaje no se vuelca aquí: lo registra HL7MessageLog con muestreo y redacción
         String cleanedMessage = hl7Raw.trim();
-        logger.info("[PARSER] Processando mensaje (Limpiando posibles espacios en blanco):\n{}", cleanedMessage);
+        logger.debug("[PARSER] Procesando mensaje de {} caracteres", cleanedMessage.length());
 
-        HL7MessageDTO dto = new HL7MessageDTO();
-        dto.setMessage(cleanedMessage);
+        MSHHeader header = MSHHeader.scan(cleanedMessage);
+        if (header != null && !requiresFullParse(header.messageType())) {
+            HL7Message headerOnlyEntity = parseHeaderOnly(cleanedMessage, header);
+            metrics.parseTimer(false).record(System.nanoTime() - parseStart, TimeUnit.NANOSECONDS);
+            return headerOnlyEntity;
+        }
 
         String sender = "UNKNOWN";
         String receiver = "UNKNOWN";
         String messageType = "UNKNOWN";
+        String messageControlId = null;
         String ackStatus = "AA";
         String ackErrorDetail = "";
 
@@ -52,9 +114,11 @@ public class HL7ParserService {
         MSH msh = null;
 
         try {
-            Parser parser = hapiContext.getGenericParser();
-            hl7ParsedMessage = parser.parse(cleanedMessage);
-            logger.debug("[PARSER] Mensaje HL7 parseado por HAPI: {}", hl7ParsedMessage.printStructure());
+            hl7ParsedMessage = parserPool.parseAnyEncoding(cleanedMessage);
+            if (logger.isTraceEnabled()) {
+                // printStructure() recorre todo el mensaje e incluye datos de paciente: solo en TRACE
+                logger.trace("[PARSER] Mensaje HL7 parseado por HAPI: {}", hl7ParsedMessage.printStructure());
+            }
 
             // Se castea a la clase MSH específica de la versión la version 25
             msh = (MSH) hl7ParsedMessage.get("MSH");
@@ -66,73 +130,145 @@ public class HL7ParserService {
             String triggerEvent = msh.getMessageType().getTriggerEvent().getValue();
             messageType = messageCode + "^" + triggerEvent;
 
-            String messageControlId = msh.getMessageControlID().getValue();
+            messageControlId = msh.getMessageControlID().getValue();
 
             logger.debug("[PARSER] Extracted (via HAPI): Sender='{}', Receiver='{}', MessageType='{}', ControlID='{}'",
                     sender, receiver, messageType, messageControlId);
 
             // Validaciones HL7 del mensaje recibido
-            if (messageCode == null || messageCode.isEmpty() || "UNKNOWN".equals(messageCode)) {
+            String headerError = validateHeader(messageCode, triggerEvent, messageControlId);
+            if (headerError != null) {
                 ackStatus = "AE";
-                ackErrorDetail = "MSH-9 (Tipo de mensaje - MessageCode) está vacío o es desconocido.";
-            } else if (triggerEvent == null || triggerEvent.isEmpty()) {
-                ackStatus = "AE";
-                ackErrorDetail = "MSH-9 (Tipo de mensaje - TriggerEvent) está vacío o es desconocido.";
-            } else if (messageControlId == null || messageControlId.isEmpty()) {
-                ackStatus = "AE";
-                ackErrorDetail = "MSH-10 (ID de Control de Mensaje) está vacío.";
+                ackErrorDetail = headerError;
             }
 
-            // Ahora puede castear hl7ParsedMessage a ADT_A01 si se necesita acceder
-            // a segmentos específicos de esos mensajes, que no están en el MSH
-            if ("ORU^R01".equals(messageType)) {
-                ORU_R01 oruR01Message = (ORU_R01) hl7ParsedMessage; // <-- Casteo a tipo de mensaje específico
-                logger.debug("[PARSER] Procesando mensaje de tipo ORU^R01");
-            } else if ("ADT^A01".equals(messageType)) {
-                ADT_A01 adtA01Message = (ADT_A01) hl7ParsedMessage; // Casteo a tipo de mensaje específico
-                logger.debug("[PARSER] Procesando mensaje de tipo ADT^A01");
+            // Validación específica del tipo (HL7MessageHandler); el resto de su trabajo va después del commit
+            if (headerError == null) {
+                String handlerError = handlers.validate(messageType, hl7ParsedMessage);
+                if (handlerError != null) {
+                    ackStatus = "AE";
+                    ackErrorDetail = handlerError;
+                }
             }
-            // Puedes añadir más else if para otros tipos de mensajes
-            // else {
-            //     ackStatus = "AR"; // O manejar como un tipo no soportado
-            //     ackErrorDetail = "Tipo de mensaje HL7 no soportado: " + messageType;
-            // }
 
         } catch (HL7Exception e) {
             ackStatus = "AR"; // Application Reject - Fallo en el parsing HL7v2
             ackErrorDetail = "Mensaje HL7 mal formado o no válido para el parser: " + e.getMessage();
             logger.error("[PARSER ERROR] HL7Exception durante parseo: {}", e.getMessage(), e);
-        } catch (ClassCastException e) {
-            // Este catch es para cuando se castea a ADT_A01 y no lo es.
-            ackStatus = "AE";
-            ackErrorDetail = "Error de casteo: El mensaje HL7 no es del tipo o segmento esperado para un acceso específico. " + e.getMessage();
-            logger.error("[PARSER ERROR] ClassCastException durante procesamiento: {}", e.getMessage(), e);
         } catch (Exception e) {
             ackStatus = "AE"; // Application Error
             ackErrorDetail = "Error interno del parser: " + e.getMessage();
             logger.error("[PARSER ERROR] Excepción inesperada durante parseo: {}", e.getMessage(), e);
         }
 
-        // Asignar los valores finales al DTO
-        dto.setSender(sender);
-        dto.setReceiver(receiver);
-        dto.setMessageType(messageType);
-        dto.setAckStatus(ackStatus);
-        dto.setAckError(ackErrorDetail);
-        logger.debug("[PARSER] Final DTO status antes del guardado: AckStatus='{}', AckErrorDetail='{}'", ackStatus, ackErrorDetail);
+        logger.debug("[PARSER] Final status antes del guardado: AckStatus='{}', AckErrorDetail='{}'", ackStatus, ackErrorDetail);
+        metrics.parseTimer(true).record(System.nanoTime() - parseStart, TimeUnit.NANOSECONDS);
+
+        if (messageControlId == null && header != null) {
+            // El parseo HAPI falló: el ID de control se toma del MSH para que el rechazo siga siendo trazable
+            messageControlId = header.messageControlId();
+        }
+        return buildEntity(cleanedMessage, sender, receiver, messageType, messageControlId, ackStatus, ackErrorDetail);
+    }
+
+    /**
+     * Indica si el tipo de mensaje necesita el parseo completo de HAPI: está en hl7.parser.full-parse-types o su
+     * manejador tiene validación propia, que sin el parseo no se ejecutaría.
+     */
+    public boolean requiresFullParse(String messageType) {
+        return fullParseTypes.contains("*") || fullParseTypes.contains(messageType) || handlers.validates(messageType);
+    }
+
+    // Camino rápido: solo se leen los campos del MSH necesarios para la auditoría y el ACK
+    private HL7Message parseHeaderOnly(String cleanedMessage, MSHHeader header) {
+        String messageType = header.messageType();
+        logger.debug("[PARSER] Extracted (via MSH): Sender='{}', Receiver='{}', MessageType='{}', ControlID='{}'",
+                header.sendingApplication(), header.receivingApplication(), messageType, header.messageControlId());
 
-        // Crear y guardar la entidad HL7 en bbdd para auditoria interna
+        String ackStatus = "AA";
+        String ackErrorDetail = validateHeader(header.messageCode(), header.triggerEvent(), header.messageControlId());
+        if (ackErrorDetail != null) {
+            ackStatus = "AE";
+        } else {
+            ackErrorDetail = "";
+        }
+        return buildEntity(cleanedMessage, header.sendingApplication(), header.receivingApplication(), messageType,
+                header.messageControlId(), ackStatus, ackErrorDetail);
+    }
+
+    /**
+     * Comprobación previa al ACK en modo wal, donde el mensaje se guarda después de confirmarlo: las validaciones
+     * del MSH, que MSH-3 y MSH-9 quepan en HL7_MESSAGE y, si el tipo tiene un manejador con validación propia,
+     * esa validación sobre el mensaje parseado. Un mensaje que no la pasa se responde con AE y no se anexa al log,
+     * igual que en sync/batch, donde tampoco llegaría a guardarse con AA.
+     * @return detalle del error o null si el mensaje se puede confirmar
+     */
+    public String validateBeforeLog(MSHHeader header, String hl7Raw) {
+        String sender = header.sendingApplication();
+        if (sender == null || sender.isEmpty()) {
+            return "MSH-3 (Aplicación emisora) está vacío.";
+        } else if (sender.length() > 100) {
+            return "MSH-3 (Aplicación emisora) supera los 100 caracteres.";
+        }
+        String headerError = validateHeader(header.messageCode(), header.triggerEvent(), header.messageControlId());
+        if (headerError != null) {
+            return headerError;
+        } else if (header.messageType().length() > 7) {
+            return "MSH-9 (Tipo de mensaje) supera los 7 caracteres.";
+        } else if (handlers.validates(header.messageType())) {
+            try {
+                return handlers.validate(header.messageType(), parserPool.parseAnyEncoding(hl7Raw.trim()));
+            } catch (Exception e) {
+                return "Mensaje HL7 mal formado o no válido para el parser: " + e.getMessage();
+            }
+        }
+        return null;
+    }
+
+    // Validaciones HL7 comunes a ambos caminos; devuelve el detalle del error o null si el MSH es válido
+    private String validateHeader(String messageCode, String triggerEvent, String messageControlId) {
+        if (messageCode == null || messageCode.isEmpty() || "UNKNOWN".equals(messageCode)) {
+            return "MSH-9 (Tipo de mensaje - MessageCode) está vacío o es desconocido.";
+        } else if (triggerEvent == null || triggerEvent.isEmpty()) {
+            return "MSH-9 (Tipo de mensaje - TriggerEvent) está vacío o es desconocido.";
+        } else if (messageControlId == null || messageControlId.isEmpty()) {
+            return "MSH-10 (ID de Control de Mensaje) está vacío.";
+        }
+        return null;
+    }
+
+    // Crear la entidad HL7 para auditoria interna
+    private HL7Message buildEntity(String cleanedMessage, String sender, String receiver, String messageType,
+                                   String messageControlId, String ackStatus, String ackErrorDetail) {
         HL7Message hl7MessageEntity = new HL7Message();
         hl7MessageEntity.setMessageRaw(cleanedMessage);
         hl7MessageEntity.setSender(sender);
         hl7MessageEntity.setReceiver(receiver);
         hl7MessageEntity.setMessageType(messageType);
+        hl7MessageEntity.setMessageControlId(truncate(messageControlId, 50));
         hl7MessageEntity.setAckStatus(ackStatus);
         hl7MessageEntity.setAckError(ackErrorDetail);
+        hl7MessageEntity.setNodeId(nodeId.value());
+        return hl7MessageEntity;
+    }
 
-        HL7Message savedMessage = repository.save(hl7MessageEntity);
-        logger.info("[DB SAVE SUCCESS] Mensaje Guardado con ID: {} Status: {}", savedMessage.getId(), ackStatus);
+    private static String truncate(String value, int maxLength) {
+        return value != null && value.length() > maxLength ? value.substring(0, maxLength) : value;
+    }
 
+    /**
+     * Convierte la entidad en el DTO devuelto al listener y a la API REST.
+     */
+    public HL7MessageDTO toDto(HL7Message hl7Message) {
+        HL7MessageDTO dto = new HL7MessageDTO();
+        dto.setMessage(hl7Message.getMessageRaw());
+        dto.setSender(hl7Message.getSender());
+        dto.setReceiver(hl7Message.getReceiver());
+        dto.setMessageType(hl7Message.getMessageType());
+        dto.setMessageControlId(hl7Message.getMessageControlId());
+        dto.setAckStatus(hl7Message.getAckStatus());
+        dto.setAckError(hl7Message.getAckError());
+        dto.setNodeId(hl7Message.getNodeId());
         return dto;
     }
 }
\ No newline at end of file
@@ -0,0 +1,146 @@
+package com.myobservation.storage.service;
+
+import com.myobservation.storage.model.dto.HL7MessageFilter;
+import com.myobservation.storage.repository.HL7MessagePartitionRepository;
+import com.myobservation.storage.repository.HL7MessageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAdjusters;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Retención de la auditoría HL7 por meses completos.
+ * Cada noche (hl7.retention.cron) se tratan los meses anteriores a los últimos hl7.retention.months:
+ * opcionalmente se archivan en hl7.retention.archive-directory como NDJSON comprimido con gzip
+ * (HL7_MESSAGE_yyyy-MM.ndjson.gz, una fila por línea con el mensaje bruto) y después se eliminan.
+ * <ul>
+ *   <li>partition (Oracle): se elimina la partición mensual de HL7_MESSAGE y con ella las de HL7_MESSAGE_PAYLOAD y
+ *       HL7_OBSERVATION, sin borrar fila a fila; el coste no depende del volumen del mes</li>
+ *   <li>delete (H2 y BBDD sin particiones): borrado masivo por intervalo de created_at</li>
+ * </ul>
+ * Si el archivado de un mes falla, ese mes no se elimina y se reintenta en la siguiente ejecución.
+ */
+@Service
+@ConditionalOnProperty(name = "hl7.retention.enabled", havingValue = "true")
+public class HL7RetentionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HL7RetentionService.class);
+
+    private static final DateTimeFormatter ARCHIVE_MONTH = DateTimeFormatter.ofPattern("yyyy-MM");
+
+    private final HL7MessageRepository repository;
+    private final HL7MessagePartitionRepository partitionRepository;
+    private final HL7MessageQueryService queryService;
+    private final TransactionTemplate transactionTemplate;
+    private final int retentionMonths;
+    private final boolean dropPartitions;
+    private final boolean archive;
+    private final Path archiveDirectory;
+
+    public HL7RetentionService(HL7MessageRepository repository, HL7MessagePartitionRepository partitionRepository,
+                               HL7MessageQueryService queryService, TransactionTemplate transactionTemplate,
+                               @Value("${hl7.retention.months:84}") int retentionMonths,
+                               @Value("${hl7.retention.strategy:partition}") String strategy,
+                               @Value("${hl7.retention.archive:true}") boolean archive,
+                               @Value("${hl7.retention.archive-directory:./data/archive}") String archiveDirectory) {
+        this.repository = repository;
+        this.partitionRepository = partitionRepository;
+        this.queryService = queryService;
+        this.transactionTemplate = transactionTemplate;
+        this.retentionMonths = retentionMonths;
+        this.dropPartitions = "partition".equalsIgnoreCase(strategy);
+        this.archive = archive;
+        this.archiveDirectory = Path.of(archiveDirectory);
+    }
+
+    @Scheduled(cron = "${hl7.retention.cron:0 30 2 * * *}")
+    public void purgeExpired() {
+        try {
+            int months = applyRetention(LocalDateTime.now());
+            if (months > 0) {
+                logger.info("[RETENTION] {} meses eliminados (retención de {} meses)", months, retentionMonths);
+            }
+        } catch (Exception e) {
+            logger.error("[RETENTION ERROR] No se pudo aplicar la retención: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Archiva y elimina los meses completos anteriores al límite de retención.
+     * @param now fecha de referencia; se conservan el mes en curso y los hl7.retention.months anteriores
+     * @return meses eliminados
+     */
+    public int applyRetention(LocalDateTime now) {
+        LocalDateTime cutoff = now.with(TemporalAdjusters.firstDayOfMonth()).toLocalDate().atStartOfDay()
+                .minusMonths(retentionMonths);
+        int months = 0;
+        if (dropPartitions) {
+            for (HL7MessagePartitionRepository.MonthlyPartition partition : partitionRepository.findIntervalPartitions()) {
+                if (partition.highValue().isAfter(cutoff)) {
+                    break; // Ordenadas por antigüedad: las siguientes también están dentro de la retención
+                }
+                archiveMonth(partition.lowValue(), partition.highValue());
+                partitionRepository.dropPartition(partition.name());
+                logger.info("[RETENTION] Partición {} ({}) eliminada", partition.name(), ARCHIVE_MONTH.format(partition.lowValue()));
+                months++;
+            }
+            return months;
+        }
+        LocalDateTime oldest = repository.findOldestCreatedAt();
+        if (oldest == null) {
+            return 0;
+        }
+        for (LocalDateTime month = oldest.with(TemporalAdjusters.firstDayOfMonth()).toLocalDate().atStartOfDay();
+             month.isBefore(cutoff); month = month.plusMonths(1)) {
+            LocalDateTime from = month;
+            LocalDateTime to = month.plusMonths(1);
+            archiveMonth(from, to);
+            Integer deleted = transactionTemplate.execute(status -> {
+                repository.deleteObservationsCreatedBetween(from, to);
+                repository.deletePayloadsCreatedBetween(from, to);
+                return repository.deleteMessagesCreatedBetween(from, to);
+            });
+            logger.info("[RETENTION] {} mensajes de {} eliminados", deleted, ARCHIVE_MONTH.format(from));
+            months++;
+        }
+        return months;
+    }
+
+    // Vuelca [from, to) a un fichero temporal y lo renombra al terminar: un fichero final siempre está completo
+    private void archiveMonth(LocalDateTime from, LocalDateTime to) {
+        if (!archive) {
+            return;
+        }
+        Path target = archiveDirectory.resolve("HL7_MESSAGE_" + ARCHIVE_MONTH.format(from) + ".ndjson.gz");
+        Path temporary = archiveDirectory.resolve(target.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(archiveDirectory);
+            long rows;
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temporary), 64 * 1024)) {
+                rows = queryService.streamNdjson(new HL7MessageFilter(null, null, null, from, to), 0, true, out);
+            }
+            if (rows == 0) {
+                Files.delete(temporary);
+                return;
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("[RETENTION] {} mensajes de {} archivados en {} ({} bytes)", rows, ARCHIVE_MONTH.format(from),
+                    target, Files.size(target));
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo archivar " + ARCHIVE_MONTH.format(from) + " en " + target, e);
+        }
+    }
+}
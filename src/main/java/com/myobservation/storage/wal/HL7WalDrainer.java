@@ -0,0 +1,128 @@
+package com.myobservation.storage.wal;
+
+import com.myobservation.metrics.HL7Metrics;
+import com.myobservation.storage.service.HL7ParserService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.io.IOException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Vuelca periódicamente el write-ahead log a HL7_MESSAGE por lotes.
+ * Tras un reinicio continúa desde el último checkpoint, por lo que los mensajes ya confirmados al emisor
+ * pero aún no guardados se reprocesan. Si la BBDD no está disponible, el lote se reintenta en la siguiente
+ * ejecución y los mensajes siguen acumulándose en el log.
+ * La entrega es "al menos una vez": una caída entre el commit de la BBDD y el checkpoint repite el último lote.
+ * Si un lote falla por algo que no es un fallo de conexión, se vuelca mensaje a mensaje y el que sigue fallando
+ * (o un registro corrupto) se aparta con HL7WriteAheadLog.quarantine y el checkpoint avanza: un mensaje que no se
+ * puede guardar no bloquea a los que ya se confirmaron al emisor.
+ */
+@Component
+@ConditionalOnProperty(name = "mllp.persistence.mode", havingValue = "wal")
+public class HL7WalDrainer {
+
+    private static final Logger logger = LoggerFactory.getLogger(HL7WalDrainer.class);
+
+    private final HL7WriteAheadLog writeAheadLog;
+    private final HL7ParserService parserService;
+    private final int batchSize;
+    private final HL7Metrics metrics;
+
+    public HL7WalDrainer(HL7WriteAheadLog writeAheadLog, HL7ParserService parserService, HL7Metrics metrics,
+                         @Value("${hl7.wal.batch-size:500}") int batchSize) {
+        this.writeAheadLog = writeAheadLog;
+        this.parserService = parserService;
+        this.batchSize = batchSize;
+        this.metrics = metrics;
+        metrics.gauge("hl7.wal.pending.bytes", "Bytes del write-ahead log pendientes de volcar a la BBDD",
+                writeAheadLog::pendingBytes);
+        metrics.gauge("hl7.wal.quarantined", "Registros del write-ahead log apartados por no poder volcarse",
+                writeAheadLog::quarantinedRecords);
+    }
+
+    @Scheduled(fixedDelayString = "${hl7.wal.drain-interval-ms:200}")
+    public void drain() {
+        try {
+            List<HL7WriteAheadLog.WalRecord> batch;
+            while (!(batch = writeAheadLog.readPending(batchSize)).isEmpty()) {
+                drainBatch(batch);
+                logger.debug("[WAL DRAIN] Volcados {} mensajes; {} bytes pendientes", batch.size(), writeAheadLog.pendingBytes());
+            }
+        } catch (Exception e) {
+            logger.error("[WAL DRAIN ERROR] No se pudo volcar el write-ahead log ({} bytes pendientes): {}",
+                    writeAheadLog.pendingBytes(), e.getMessage(), e);
+        }
+    }
+
+    // readPending termina en el primer registro corrupto, así que solo puede ser el último del lote
+    private void drainBatch(List<HL7WriteAheadLog.WalRecord> batch) throws IOException {
+        HL7WriteAheadLog.WalRecord last = batch.get(batch.size() - 1);
+        List<HL7WriteAheadLog.WalRecord> messages = last.corrupt() ? batch.subList(0, batch.size() - 1) : batch;
+        if (!messages.isEmpty()) {
+            try {
+                save(messages);
+                writeAheadLog.commit(messages.get(messages.size() - 1).nextPosition());
+            } catch (RuntimeException e) {
+                if (isTransient(e)) {
+                    throw e; // BBDD no disponible: el lote se reintenta en la siguiente ejecución
+                }
+                // Un mensaje que no se puede guardar no debe bloquear el log: se reintenta uno a uno
+                logger.warn("[WAL DRAIN] Fallo al volcar un lote de {} mensajes, reintentando uno a uno: {}",
+                        messages.size(), e.getMessage());
+                saveOneByOne(messages);
+            }
+        }
+        if (last.corrupt()) {
+            writeAheadLog.quarantine(last, "registro corrupto (CRC o longitud incorrectos)");
+            writeAheadLog.commit(last.nextPosition());
+        }
+    }
+
+    private void saveOneByOne(List<HL7WriteAheadLog.WalRecord> messages) throws IOException {
+        for (HL7WriteAheadLog.WalRecord walRecord : messages) {
+            try {
+                save(List.of(walRecord));
+            } catch (RuntimeException e) {
+                if (isTransient(e)) {
+                    throw e;
+                }
+                writeAheadLog.quarantine(walRecord, e.getMessage());
+            }
+            writeAheadLog.commit(walRecord.nextPosition());
+        }
+    }
+
+    private void save(List<HL7WriteAheadLog.WalRecord> walRecords) {
+        List<String> messages = new ArrayList<>(walRecords.size());
+        for (HL7WriteAheadLog.WalRecord walRecord : walRecords) {
+            messages.add(walRecord.message());
+        }
+        // En modo wal el tiempo de guardado incluye el parseo del lote (medido también en hl7.parse)
+        metrics.recordSave("wal", () -> parserService.parseAndSaveAll(messages));
+    }
+
+    // Fallos de conexión o de la BBDD que se resuelven reintentando más tarde: no son culpa del mensaje
+    private static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TransientDataAccessException || cause instanceof RecoverableDataAccessException
+                    || cause instanceof DataAccessResourceFailureException
+                    || cause instanceof CannotCreateTransactionException
+                    || cause instanceof SQLTransientException || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,316 @@
+package com.myobservation.storage.wal;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log local de solo anexado para el modo "ACK-then-persist".
+ * Cada mensaje se anexa y se sincroniza a disco (fsync) antes de enviar el ACK; un proceso en segundo plano
+ * (HL7WalDrainer) lo vuelca después a HL7_MESSAGE por lotes. La posición ya volcada se guarda en un fichero
+ * de checkpoint, de modo que tras un reinicio se reprocesa todo lo pendiente.
+ *
+ * Formato de cada registro: [longitud int][crc32 int][bytes UTF-8 del mensaje].
+ * Un registro incompleto o con CRC incorrecto al final del fichero (caída a mitad de escritura) se ignora.
+ * Un registro corrupto seguido de registros válidos no se descarta: readPending lo devuelve marcado como corrupto
+ * y el drenado lo aparta con quarantine() al fichero de mensajes no volcables (hl7-messages.dead.hl7), igual que
+ * los mensajes que la BBDD rechaza. Ese fichero es un batch HL7 (un mensaje por línea, segmentos separados por CR)
+ * que se puede corregir y reinyectar con la ingesta de ficheros (POST /hl7messages/batch).
+ */
+@Component
+@ConditionalOnProperty(name = "mllp.persistence.mode", havingValue = "wal")
+public class HL7WriteAheadLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(HL7WriteAheadLog.class);
+
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    private final Path logFile;
+    private final Path checkpointFile;
+    private final Path deadLetterFile;
+    private final long compactThresholdBytes;
+    private final FileChannel channel;
+
+    private final Object appendLock = new Object();
+    private final Object syncLock = new Object();
+    private final Object deadLetterLock = new Object();
+    private long writePosition;     // Fin de los datos anexados
+    private volatile long syncedPosition; // Datos ya sincronizados a disco
+    private volatile long checkpoint;     // Datos ya volcados a la BBDD
+    private final AtomicLong quarantined = new AtomicLong(); // Registros apartados desde el arranque
+
+    public HL7WriteAheadLog(@Value("${hl7.wal.directory:./data/wal}") String directory,
+                            @Value("${hl7.wal.compact-threshold-bytes:67108864}") long compactThresholdBytes) throws IOException {
+        Path walDirectory = Paths.get(directory);
+        Files.createDirectories(walDirectory);
+        this.logFile = walDirectory.resolve("hl7-messages.wal");
+        this.checkpointFile = walDirectory.resolve("hl7-messages.checkpoint");
+        this.deadLetterFile = walDirectory.resolve("hl7-messages.dead.hl7");
+        this.compactThresholdBytes = compactThresholdBytes;
+        this.channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        this.checkpoint = readCheckpoint();
+        this.writePosition = findEndOfValidData(checkpoint);
+        if (writePosition < channel.size()) {
+            logger.warn("[WAL] Descartando {} bytes de un registro incompleto al final del log", channel.size() - writePosition);
+            channel.truncate(writePosition);
+        }
+        this.syncedPosition = writePosition;
+        logger.info("[WAL] Write-ahead log abierto en {} ({} bytes pendientes de volcar)", logFile, writePosition - checkpoint);
+    }
+
+    /**
+     * Anexa un mensaje al log y no retorna hasta que está sincronizado a disco.
+     * Si varios hilos anexan a la vez, un único fsync cubre todos sus registros.
+     */
+    public void append(String hl7Message) throws IOException {
+        byte[] payload = hl7Message.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+
+        long recordEnd;
+        synchronized (appendLock) {
+            long position = writePosition;
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+            writePosition = position;
+            recordEnd = position;
+        }
+        syncUpTo(recordEnd);
+    }
+
+    private void syncUpTo(long position) throws IOException {
+        if (syncedPosition >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedPosition >= position) {
+                return; // Otro hilo ya sincronizó nuestro registro
+            }
+            long target;
+            synchronized (appendLock) {
+                target = writePosition;
+            }
+            channel.force(false);
+            syncedPosition = target;
+        }
+    }
+
+    /**
+     * Lee hasta {@code maxRecords} registros sincronizados a partir del último checkpoint.
+     * Un registro con CRC incorrecto se devuelve como corrupto (message null) y termina la lectura; si su longitud
+     * tampoco es válida no se puede saber dónde empieza el siguiente, y el registro corrupto abarca hasta el final
+     * de lo sincronizado.
+     */
+    public List<WalRecord> readPending(int maxRecords) throws IOException {
+        List<WalRecord> records = new ArrayList<>();
+        long position = checkpoint;
+        long limit = syncedPosition;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+
+        while (records.size() < maxRecords && position + RECORD_HEADER_BYTES <= limit) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            int length = header.getInt();
+            int expectedCrc = header.getInt();
+            if (length < 0 || position + RECORD_HEADER_BYTES + length > limit) {
+                records.add(new WalRecord(position, limit, null));
+                break;
+            }
+
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + RECORD_HEADER_BYTES);
+            CRC32 crc = new CRC32();
+            crc.update(payload.array());
+            long next = position + RECORD_HEADER_BYTES + length;
+            if ((int) crc.getValue() != expectedCrc) {
+                records.add(new WalRecord(position, next, null));
+                break;
+            }
+            records.add(new WalRecord(position, next, new String(payload.array(), StandardCharsets.UTF_8)));
+            position = next;
+        }
+        return records;
+    }
+
+    /**
+     * Aparta un registro que no se puede volcar al fichero de mensajes no volcables, sincronizado a disco.
+     * No avanza el checkpoint: lo hace el drenado con commit(), como con cualquier registro volcado.
+     */
+    public void quarantine(WalRecord walRecord, String reason) throws IOException {
+        byte[] content;
+        if (walRecord.corrupt()) {
+            // Se conservan los bytes tal cual (sin la cabecera si es legible) por si se pueden recuperar a mano
+            long from = Math.min(walRecord.position() + RECORD_HEADER_BYTES, walRecord.nextPosition());
+            ByteBuffer raw = ByteBuffer.allocate((int) (walRecord.nextPosition() - from));
+            readFully(raw, from);
+            content = raw.array();
+        } else {
+            content = walRecord.message().getBytes(StandardCharsets.UTF_8);
+        }
+        synchronized (deadLetterLock) {
+            try (FileChannel out = FileChannel.open(deadLetterFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                ByteBuffer buffer = ByteBuffer.allocate(content.length + 1).put(content).put((byte) '\n').flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                out.force(false);
+            }
+        }
+        quarantined.incrementAndGet();
+        logger.error("[WAL QUARANTINE] Registro en la posición {} ({} bytes) apartado a {}: {}", walRecord.position(),
+                content.length, deadLetterFile, reason);
+    }
+
+    /**
+     * Registros apartados al fichero de mensajes no volcables desde el arranque.
+     */
+    public long quarantinedRecords() {
+        return quarantined.get();
+    }
+
+    public Path deadLetterFile() {
+        return deadLetterFile;
+    }
+
+    /**
+     * Marca como volcado todo el log hasta {@code position} y compacta el fichero si ya no queda nada pendiente.
+     */
+    public void commit(long position) throws IOException {
+        writeCheckpoint(position);
+        checkpoint = position;
+
+        // Mismo orden de bloqueo que syncUpTo, para que ningún fsync en curso restaure una posición antigua
+        synchronized (syncLock) {
+            synchronized (appendLock) {
+                if (checkpoint == writePosition && writePosition >= compactThresholdBytes) {
+                    channel.truncate(0);
+                    channel.force(true);
+                    writePosition = 0;
+                    syncedPosition = 0;
+                    writeCheckpoint(0);
+                    checkpoint = 0;
+                    logger.info("[WAL] Log compactado tras volcar todos los mensajes");
+                }
+            }
+        }
+    }
+
+    /**
+     * Bytes anexados que aún no se han volcado a la BBDD.
+     */
+    public long pendingBytes() {
+        return syncedPosition - checkpoint;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Fin inesperado del write-ahead log en la posición " + position);
+            }
+            position += read;
+        }
+    }
+
+    // Recorre los registros desde el checkpoint y devuelve el final del último registro completo y válido.
+    // Un registro completo con CRC incorrecto seguido de un registro válido no es una escritura a medias sino un
+    // registro dañado: se conserva (readPending lo devolverá como corrupto) en lugar de truncar lo que le sigue.
+    private long findEndOfValidData(long from) throws IOException {
+        long size = channel.size();
+        long position = from;
+        while (true) {
+            long end = validRecordEnd(position, size);
+            if (end > 0) {
+                position = end;
+            } else if (end < 0 && validRecordEnd(-end, size) > 0) {
+                logger.warn("[WAL] Registro dañado en la posición {}: se apartará al volcar el log", position);
+                position = -end;
+            } else {
+                return position;
+            }
+        }
+    }
+
+    // Final del registro que empieza en position si es válido; si está completo pero con CRC incorrecto, su final
+    // en negativo; 0 si no hay un registro completo
+    private long validRecordEnd(long position, long size) throws IOException {
+        if (position + RECORD_HEADER_BYTES > size) {
+            return 0;
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        readFully(header, position);
+        header.flip();
+        int length = header.getInt();
+        int expectedCrc = header.getInt();
+        long end = position + RECORD_HEADER_BYTES + length;
+        if (length < 0 || end > size) {
+            return 0;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(payload, position + RECORD_HEADER_BYTES);
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+        return (int) crc.getValue() == expectedCrc ? end : -end;
+    }
+
+    private long readCheckpoint() throws IOException {
+        if (!Files.exists(checkpointFile)) {
+            return 0;
+        }
+        long value = Long.parseLong(Files.readString(checkpointFile).trim());
+        return Math.min(value, channel.size());
+    }
+
+    // Escritura atómica del checkpoint: fichero temporal + move
+    private void writeCheckpoint(long position) throws IOException {
+        Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(ByteBuffer.wrap(Long.toString(position).getBytes(StandardCharsets.US_ASCII)));
+            out.force(true);
+        }
+        Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Registro leído del log.
+     * @param position posición del registro en el log
+     * @param nextPosition posición inmediatamente posterior al registro (valor a pasar a commit)
+     * @param message mensaje HL7, o null si el registro está corrupto
+     */
+    public record WalRecord(long position, long nextPosition, String message) {
+
+        public boolean corrupt() {
+            return message == null;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+-- Esquema de auditoría HL7 en Oracle (spring.sql.init, separador "/").
+-- Idempotente: se ejecuta en cada arranque y solo crea lo que falta; Hibernate valida después el mapeo
+-- (spring.jpa.hibernate.ddl-auto=validate). Los cambios posteriores se añaden al final como bloques nuevos.
+--
+-- HL7_MESSAGE se particiona por mes de created_at (partición por intervalo: Oracle crea la partición de cada mes
+-- al insertar la primera fila). HL7_MESSAGE_PAYLOAD se particiona por referencia a través de su FK, así cada mes de
+-- mensajes y su contenido bruto viven en particiones hermanas que se eliminan juntas (HL7RetentionService).
+-- Los índices secundarios son locales: una consulta acotada por created_at solo recorre las particiones del
+-- intervalo, y el tamaño de cada índice no crece con la antigüedad de la tabla.
+
+DECLARE
+    already_exists EXCEPTION;
+    PRAGMA EXCEPTION_INIT(already_exists, -955);
+BEGIN
+    EXECUTE IMMEDIATE 'CREATE SEQUENCE HL7_MESSAGE_SEQ START WITH 1 INCREMENT BY 50 CACHE 500';
+EXCEPTION
+    WHEN already_exists THEN NULL;
+END;
+/
+
+DECLARE
+    already_exists EXCEPTION;
+    PRAGMA EXCEPTION_INIT(already_exists, -955);
+BEGIN
+    EXECUTE IMMEDIATE q'[
+        CREATE TABLE HL7_MESSAGE (
+            id_internal        NUMBER(19)        NOT NULL,
+            his_sender         VARCHAR2(100 CHAR) NOT NULL,
+            receiver           VARCHAR2(255 CHAR),
+            message_type       VARCHAR2(7 CHAR)   NOT NULL,
+            message_control_id VARCHAR2(50 CHAR),
+            ack_status         VARCHAR2(2 CHAR)   NOT NULL,
+            ack_error          VARCHAR2(255 CHAR),
+            created_at         TIMESTAMP(6)       NOT NULL,
+            CONSTRAINT PK_HL7_MESSAGE PRIMARY KEY (id_internal)
+        )
+        PARTITION BY RANGE (created_at) INTERVAL (NUMTOYMINTERVAL(1, 'MONTH'))
+        (PARTITION P_INITIAL VALUES LESS THAN (TIMESTAMP '2024-01-01 00:00:00'))]';
+EXCEPTION
+    WHEN already_exists THEN NULL;
+END;
+/
+
+DECLARE
+    already_exists EXCEPTION;
+    PRAGMA EXCEPTION_INIT(already_exists, -955);
+BEGIN
+    EXECUTE IMMEDIATE q'[
+        CREATE TABLE HL7_MESSAGE_PAYLOAD (
+            id_internal NUMBER(19) NOT NULL,
+            payload     BLOB       NOT NULL,
+            raw_length  NUMBER(10) NOT NULL,
+            CONSTRAINT PK_HL7_MESSAGE_PAYLOAD PRIMARY KEY (id_internal),
+            CONSTRAINT FK_HL7_MESSAGE_PAYLOAD_MESSAGE FOREIGN KEY (id_internal) REFERENCES HL7_MESSAGE (id_internal)
+        )
+        LOB (payload) STORE AS SECUREFILE (ENABLE STORAGE IN ROW)
+        PARTITION BY REFERENCE (FK_HL7_MESSAGE_PAYLOAD_MESSAGE)]';
+EXCEPTION
+    WHEN already_exists THEN NULL;
+END;
+/
+
+DECLARE
+    already_exists EXCEPTION;
+    PRAGMA EXCEPTION_INIT(already_exists, -955);
+BEGIN
+    EXECUTE IMMEDIATE 'CREATE INDEX IDX_HL7_MESSAGE_STATUS_CREATED ON HL7_MESSAGE (ack_status, created_at) LOCAL';
+EXCEPTION
+    WHEN already_exists THEN NULL;
+END;
+/
+
+DECLARE
+    already_exists EXCEPTION;
+    PRAGMA EXCEPTION_INIT(already_exists, -955);
+BEGIN
+    EXECUTE IMMEDIATE 'CREATE INDEX IDX_HL7_MESSAGE_SENDER_CREATED ON HL7_MESSAGE (his_sender, created_at) LOCAL';
+EXCEPTION
+    WHEN already_exists THEN NULL;
+END;
+/
+
+DECLARE
+    already_exists EXCEPTION;
+    PRAGMA EXCEPTION_INIT(already_exists, -955);
+BEGIN
+    EXECUTE IMMEDIATE 'CREATE INDEX IDX_HL7_MESSAGE_CONTROL_ID ON HL7_MESSAGE (message_control_id, his_sender, created_at) LOCAL';
+EXCEPTION
+    WHEN already_exists THEN NULL;
+END;
+/
+
+-- Varios nodos tras un balanceador (hl7.node.id): nodo que recibió cada mensaje
+DECLARE
+    already_exists EXCEPTION;
+    PRAGMA EXCEPTION_INIT(already_exists, -1430);
+BEGIN
+    EXECUTE IMMEDIATE 'ALTER TABLE HL7_MESSAGE ADD (node_id VARCHAR2(64 CHAR))';
+EXCEPTION
+    WHEN already_exists THEN NULL;
+END;
+/
+
+-- Recibos de ID de control compartidos entre nodos (hl7.dedupe.shared-receipts). Sin particionar: solo guarda la
+-- ventana de hl7.dedupe.database-lookback-days y la purga HL7DuplicateDetector.purgeReceipts().
+DECLARE
+    already_exists EXCEPTION;
+    PRAGMA EXCEPTION_INIT(already_exists, -955);
+BEGIN
+    EXECUTE IMMEDIATE q'[
+        CREATE TABLE HL7_MESSAGE_RECEIPT (
+            his_sender         VARCHAR2(100 CHAR) NOT NULL,
+            message_control_id VARCHAR2(50 CHAR)  NOT NULL,
+            node_id            VARCHAR2(64 CHAR)  NOT NULL,
+            received_at        TIMESTAMP(6)       NOT NULL,
+            ack_status         VARCHAR2(2 CHAR),
+            ack_error          VARCHAR2(255 CHAR),
+            CONSTRAINT PK_HL7_MESSAGE_RECEIPT PRIMARY KEY (his_sender, message_control_id)
+        )]';
+EXCEPTION
+    WHEN already_exists THEN NULL;
+END;
+/
+
+DECLARE
+    already_exists EXCEPTION;
+    PRAGMA EXCEPTION_INIT(already_exists, -955);
+BEGIN
+    EXECUTE IMMEDIATE 'CREATE INDEX IDX_HL7_RECEIPT_RECEIVED ON HL7_MESSAGE_RECEIPT (received_at)';
+EXCEPTION
+    WHEN already_exists THEN NULL;
+END;
+/
+
+-- Resultados OBX de los ORU^R01 (hl7.handlers.oru-results). Particionada por referencia a HL7_MESSAGE como
+-- HL7_MESSAGE_PAYLOAD: la retención elimina los resultados de cada mes junto con la partición de sus mensajes.
+DECLARE
+    already_exists EXCEPTION;
+    PRAGMA EXCEPTION_INIT(already_exists, -955);
+BEGIN
+    EXECUTE IMMEDIATE 'CREATE SEQUENCE HL7_OBSERVATION_SEQ START WITH 1 INCREMENT BY 50 CACHE 500';
+EXCEPTION
+    WHEN already_exists THEN NULL;
+END;
+/
+
+DECLARE
+    already_exists EXCEPTION;
+    PRAGMA EXCEPTION_INIT(already_exists, -955);
+BEGIN
+    EXECUTE IMMEDIATE q'[
+        CREATE TABLE HL7_OBSERVATION (
+            id_observation    NUMBER(19)          NOT NULL,
+            message_id        NUMBER(19)          NOT NULL,
+            patient_id        VARCHAR2(50 CHAR),
+            set_id            VARCHAR2(10 CHAR),
+            value_type        VARCHAR2(3 CHAR),
+            observation_id    VARCHAR2(50 CHAR),
+            observation_text  VARCHAR2(255 CHAR),
+            observation_value VARCHAR2(4000 CHAR),
+            units             VARCHAR2(50 CHAR),
+            reference_range   VARCHAR2(100 CHAR),
+            abnormal_flag     VARCHAR2(10 CHAR),
+            result_status     VARCHAR2(2 CHAR),
+            observation_time  VARCHAR2(26 CHAR),
+            CONSTRAINT PK_HL7_OBSERVATION PRIMARY KEY (id_observation),
+            CONSTRAINT FK_HL7_OBSERVATION_MESSAGE FOREIGN KEY (message_id) REFERENCES HL7_MESSAGE (id_internal)
+        )
+        PARTITION BY REFERENCE (FK_HL7_OBSERVATION_MESSAGE)]';
+EXCEPTION
+    WHEN already_exists THEN NULL;
+END;
+/
+
+DECLARE
+    already_exists EXCEPTION;
+    PRAGMA EXCEPTION_INIT(already_exists, -955);
+BEGIN
+    EXECUTE IMMEDIATE 'CREATE INDEX IDX_HL7_OBS_MESSAGE ON HL7_OBSERVATION (message_id) LOCAL';
+EXCEPTION
+    WHEN already_exists THEN NULL;
+END;
+/
+
+DECLARE
+    already_exists EXCEPTION;
+    PRAGMA EXCEPTION_INIT(already_exists, -955);
+BEGIN
+    EXECUTE IMMEDIATE 'CREATE INDEX IDX_HL7_OBS_PATIENT ON HL7_OBSERVATION (patient_id, observation_id) LOCAL';
+EXCEPTION
+    WHEN already_exists THEN NULL;
+END;
+/
+
+-- Mensajes pendientes de los manejadores por tipo (cola llena, fallo del manejador o parada con cola).
+-- Sin particionar: HL7HandlerReplay borra cada fila al volver a encolar su mensaje.
+DECLARE
+    already_exists EXCEPTION;
+    PRAGMA EXCEPTION_INIT(already_exists, -955);
+BEGIN
+    EXECUTE IMMEDIATE q'[
+        CREATE TABLE HL7_HANDLER_PENDING (
+            handler_name  VARCHAR2(50 CHAR)  NOT NULL,
+            message_id    NUMBER(19)         NOT NULL,
+            attempts      NUMBER(10)         NOT NULL,
+            last_error    VARCHAR2(255 CHAR),
+            pending_since TIMESTAMP(6)       NOT NULL,
+            CONSTRAINT PK_HL7_HANDLER_PENDING PRIMARY KEY (handler_name, message_id)
+        )]';
+EXCEPTION
+    WHEN already_exists THEN NULL;
+END;
+/
+
+-- Paginación por clave de HL7MessageQueryRepository (id_internal < :after ORDER BY id_internal DESC) con filtro por
+-- emisor o por estado: el índice se recorre en orden y la página se corta sin ordenar todo lo filtrado.
+DECLARE
+    already_exists EXCEPTION;
+    PRAGMA EXCEPTION_INIT(already_exists, -955);
+BEGIN
+    EXECUTE IMMEDIATE 'CREATE INDEX IDX_HL7_MESSAGE_SENDER_ID ON HL7_MESSAGE (his_sender, id_internal) LOCAL';
+EXCEPTION
+    WHEN already_exists THEN NULL;
+END;
+/
+
+DECLARE
+    already_exists EXCEPTION;
+    PRAGMA EXCEPTION_INIT(already_exists, -955);
+BEGIN
+    EXECUTE IMMEDIATE 'CREATE INDEX IDX_HL7_MESSAGE_STATUS_ID ON HL7_MESSAGE (ack_status, id_internal) LOCAL';
+EXCEPTION
+    WHEN already_exists THEN NULL;
+END;
+/
@@ -0,0 +1,54 @@
+package com.myobservation.listener.ack;
+
+import com.myobservation.listener.utils.MSHHeader;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HL7AckGeneratorTest {
+
+    private final HL7AckGenerator ackGenerator = new HL7AckGenerator();
+
+    @Test
+    void writesFramedUtf8AckIntoBuffer() {
+        MSHHeader msh = MSHHeader.scan("MSH|^~\\&|LABÖ|FAC|HIS|HOSP|20240101120000||ORU^R01|CTRL1|P|2.5\rOBX|1\r");
+        HL7AckBuffer buffer = new HL7AckBuffer(16); // Obliga a crecer
+
+        ackGenerator.writeAck(msh, "AE", "Campo inválido 😀", buffer);
+
+        byte[] frame = Arrays.copyOf(buffer.array(), buffer.length());
+        assertEquals(0x0B, frame[0]);
+        assertEquals(0x1C, frame[frame.length - 2]);
+        assertEquals(0x0D, frame[frame.length - 1]);
+        String ack = buffer.message();
+        assertArrayEquals(ack.getBytes(StandardCharsets.UTF_8), Arrays.copyOfRange(frame, 1, frame.length - 2));
+        assertTrue(ack.startsWith("MSH|^~\\&|HIS|HOSP|LABÖ|FAC|"));
+        assertTrue(ack.endsWith("||ACK^R01|CTRL1|P|2.5\rMSA|AE|CTRL1|Campo inválido 😀\r"));
+    }
+
+    @Test
+    void reusesBufferAndHonoursDeclaredSeparators() {
+        HL7AckBuffer buffer = new HL7AckBuffer();
+        ackGenerator.writeAck(MSHHeader.scan("MSH|^~\\&|A|B|C|D|20240101||ADT^A01|X1|P|2.5\r"), "AA", "", buffer);
+
+        ackGenerator.writeAck(MSHHeader.scan("MSH#$~\\&#LAB#FAC#HIS#HOSP#20240101##ADT$A08#ID9#P#2.5\r"), "AA", null, buffer);
+
+        String[] segments = buffer.message().split("\r");
+        assertTrue(segments[0].startsWith("MSH#$~\\&#HIS#HOSP#LAB#FAC#"));
+        assertTrue(segments[0].endsWith("##ACK$A08#ID9#P#2.5"));
+        assertEquals("MSA#AA#ID9", segments[1]);
+    }
+
+    @Test
+    void unrecognisedMessageGetsRejectAck() {
+        HL7AckBuffer buffer = new HL7AckBuffer();
+
+        ackGenerator.writeAck(null, "AA", "", buffer);
+
+        assertTrue(buffer.message().startsWith("MSH|^~\\&|ACK_SERVER|||"));
+        assertTrue(buffer.message().endsWith("MSA|AR||Mensaje recibido no es un HL7 MSH valido\r"));
+    }
+}
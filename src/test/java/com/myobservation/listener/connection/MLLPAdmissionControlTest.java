@@ -0,0 +1,48 @@
+package com.myobservation.listener.connection;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MLLPAdmissionControlTest {
+
+    private static final InetAddress LAB = InetAddress.getLoopbackAddress();
+
+    @Test
+    void limitsConnectionsPerRemoteAndReleasesOnClose() throws Exception {
+        MLLPAdmissionControl control = new MLLPAdmissionControl(10, 2, MLLPAdmissionControl.OverloadPolicy.BUSY);
+        InetAddress ris = InetAddress.getByAddress(new byte[]{10, 0, 0, 7});
+
+        MLLPAdmissionControl.Admission first = control.admit(control.tryAcquireSlot(), LAB);
+        MLLPAdmissionControl.Admission second = control.admit(control.tryAcquireSlot(), LAB);
+        MLLPAdmissionControl.Admission third = control.admit(control.tryAcquireSlot(), LAB);
+
+        assertTrue(first.admitted());
+        assertTrue(second.admitted());
+        assertEquals(MLLPAdmissionControl.Rejection.REMOTE_LIMIT, third.rejection());
+        assertTrue(control.admit(control.tryAcquireSlot(), ris).admitted()); // Otros emisores no se ven afectados
+        assertEquals(7, control.availableSlots()); // El rechazo devuelve su hueco
+
+        first.close();
+        first.close(); // Idempotente
+        assertTrue(control.admit(control.tryAcquireSlot(), LAB).admitted());
+        assertEquals(7, control.availableSlots());
+    }
+
+    @Test
+    void rejectsAsOverloadedWhenNoSlotIsFree() {
+        MLLPAdmissionControl control = new MLLPAdmissionControl(1, 0, MLLPAdmissionControl.OverloadPolicy.BUSY);
+
+        MLLPAdmissionControl.Admission admitted = control.admit(control.tryAcquireSlot(), LAB);
+        MLLPAdmissionControl.Admission rejected = control.admit(control.tryAcquireSlot(), LAB);
+
+        assertTrue(admitted.admitted());
+        assertEquals(MLLPAdmissionControl.Rejection.OVERLOADED, rejected.rejection());
+        rejected.close();
+        assertEquals(0, control.availableSlots());
+        admitted.close();
+        assertEquals(1, control.availableSlots());
+    }
+}
@@ -0,0 +1,70 @@
+package com.myobservation.listener.connection;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MLLPFrameCodecTest {
+
+    private static final String MSH = "MSH|^~\\&|LAB|FAC|HIS|FAC|20240101120000||ADT^A01|CTRL1|P|2.5\r";
+
+    private static byte[] frame(String message) {
+        return MLLPFrameCodec.encode(message);
+    }
+
+    @Test
+    void readsPipelinedFramesFromStream() throws Exception {
+        byte[] first = frame(MSH + "PID|1\r");
+        byte[] second = frame(MSH.replace("CTRL1", "CTRL2"));
+        byte[] both = new byte[first.length + second.length];
+        System.arraycopy(first, 0, both, 0, first.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+
+        MLLPFrameCodec codec = new MLLPFrameCodec();
+        ByteArrayInputStream input = new ByteArrayInputStream(both);
+
+        assertEquals(MSH + "PID|1\r", codec.readFrame(input).message());
+        assertEquals(MSH.replace("CTRL1", "CTRL2"), codec.readFrame(input).message());
+        assertNull(codec.readFrame(input));
+        assertFalse(codec.isInFrame());
+    }
+
+    @Test
+    void decodesFrameSplitAcrossBuffers() {
+        String message = MSH + "OBX|1|TX|||Résultat\r";
+        byte[] bytes = frame(message);
+        MLLPFrameCodec codec = new MLLPFrameCodec();
+        List<MLLPFrame> frames = new ArrayList<>();
+
+        for (int i = 0; i < bytes.length; i += 5) {
+            codec.decode(ByteBuffer.wrap(bytes, i, Math.min(5, bytes.length - i)), frames::add);
+        }
+
+        assertEquals(1, frames.size());
+        assertEquals(message, frames.get(0).message());
+        assertEquals(message.getBytes(StandardCharsets.UTF_8).length, frames.get(0).length());
+    }
+
+    @Test
+    void rejectsOversizedFrameKeepingHeader() throws Exception {
+        String message = MSH + "OBX|1|TX|||" + "X".repeat(5000) + "\r";
+        MLLPFrameCodec codec = new MLLPFrameCodec(2048);
+
+        MLLPFrame oversized = codec.readFrame(new ByteArrayInputStream(frame(message)));
+
+        assertTrue(oversized.oversized());
+        assertTrue(oversized.message().startsWith(MSH));
+        assertTrue(oversized.message().length() <= 2048);
+
+        // El codec sigue siendo utilizable tras descartar la trama
+        MLLPFrame next = codec.readFrame(new ByteArrayInputStream(frame(MSH)));
+        assertFalse(next.oversized());
+        assertEquals(MSH, next.message());
+    }
+}
@@ -0,0 +1,55 @@
+package com.myobservation.listener.connection;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MLLPListenerPropertiesTest {
+
+    private static final MLLPListenerSettings DEFAULTS = new MLLPListenerSettings(MLLPListenerSettings.DEFAULT_NAME, 6661,
+            "blocking", "fixed", 10, 10, MLLPSessionSettings.singleMessage(1_048_576, 10_000), 100, 20, "delay", "sync", 10, false);
+
+    private static MLLPListenerProperties bind(Map<String, String> properties) {
+        return new Binder(new MapConfigurationPropertySource(properties))
+                .bindOrCreate("mllp", MLLPListenerProperties.class);
+    }
+
+    @Test
+    void listenersOverrideOnlyWhatTheyDefine() {
+        MLLPListenerProperties properties = bind(Map.of(
+                "mllp.listeners.lab.port", "6662",
+                "mllp.listeners.lab.executor-threads", "40",
+                "mllp.listeners.lab.persistence-mode", "batch",
+                "mllp.listeners.lab.session-persistent", "true",
+                "mllp.listeners.adt.port", "6663",
+                "mllp.listeners.adt.ordering", "true",
+                "mllp.server.port", "6661"));
+
+        MLLPListenerSettings lab = properties.listeners().get("lab").resolve("lab", DEFAULTS);
+        MLLPListenerSettings adt = properties.listeners().get("adt").resolve("adt", DEFAULTS);
+
+        assertEquals(6662, lab.port());
+        assertEquals(40, lab.executorThreads());
+        assertEquals("batch", lab.persistenceMode());
+        assertTrue(lab.session().persistent());
+        assertEquals(1_048_576, lab.session().maxFrameBytes());
+        assertEquals("mllp-lab-", lab.threadPrefix());
+        assertEquals("mllp.server.lab", lab.executorMetricName());
+        assertEquals(10, adt.executorThreads());
+        assertEquals("sync", adt.persistenceMode());
+        assertEquals(DEFAULTS.session(), adt.session());
+        assertTrue(adt.ordering());
+        assertFalse(lab.ordering());
+    }
+
+    @Test
+    void noListenersAndMissingPort() {
+        assertTrue(bind(Map.of("mllp.server.port", "6661")).listeners().isEmpty());
+        MLLPListenerProperties properties = bind(Map.of("mllp.listeners.lab.executor-threads", "4"));
+        assertThrows(IllegalStateException.class, () -> properties.listeners().get("lab").resolve("lab", DEFAULTS));
+    }
+}
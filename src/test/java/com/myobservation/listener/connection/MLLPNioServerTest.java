@@ -0,0 +1,177 @@
+package com.myobservation.listener.connection;
+
+import com.myobservation.metrics.HL7Metrics;
+import com.myobservation.storage.repository.HL7MessageRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Servidor NIO contra el procesador real: tramas partidas entre lecturas, tramas encadenadas, contrapresión y
+ * parada ordenada.
+ */
+@SpringBootTest
+class MLLPNioServerTest {
+
+    @Autowired
+    private MLLPMessageProcessor messageProcessor;
+    @Autowired
+    private HL7MessageRepository repository;
+
+    private final ExecutorService workers = Executors.newFixedThreadPool(4);
+    private MLLPNioServer server;
+
+    private int start() throws IOException {
+        server = new MLLPNioServer(0, messageProcessor, new MLLPSessionSettings(true, 30_000, 0, 1 << 20, 10_000),
+                workers, HL7Metrics.disabled());
+        server.open();
+        new Thread(server, "mllp-nio-test").start();
+        return server.localPort();
+    }
+
+    @AfterEach
+    void stop() {
+        if (server != null) {
+            server.stop();
+        }
+        workers.shutdownNow();
+        repository.deleteAll();
+    }
+
+    private static byte[] frame(String controlId) {
+        return MLLPFrameCodec.encode("MSH|^~\\&|NIO|FAC|HIS|HOSP|20240101120000||ADT^A01|" + controlId + "|P|2.5\r"
+                + "EVN|A01\rPID|1||123^^^HOSP\r");
+    }
+
+    private static String readAck(InputStream in) throws IOException {
+        ByteArrayOutputStream ack = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != 0x1c) {
+            ack.write(b);
+        }
+        in.read(); // CR final de la trama
+        return ack.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void frameSplitAcrossReadsIsReassembled() throws Exception {
+        int port = start();
+        byte[] frame = frame("NIO-SPLIT-1");
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(10_000);
+            OutputStream out = socket.getOutputStream();
+            // Cada trozo llega en una lectura distinta del selector: el codec conserva el estado entre lecturas
+            int[] cuts = {1, 20, frame.length - 1, frame.length};
+            int from = 0;
+            for (int cut : cuts) {
+                out.write(Arrays.copyOfRange(frame, from, cut));
+                out.flush();
+                from = cut;
+                Thread.sleep(100);
+            }
+            assertTrue(readAck(socket.getInputStream()).contains("MSA|AA|NIO-SPLIT-1"));
+        }
+    }
+
+    @Test
+    void pipelinedFramesAreAnsweredInOrder() throws Exception {
+        int port = start();
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(10_000);
+            byte[] first = frame("NIO-PIPE-1");
+            byte[] second = frame("NIO-PIPE-2");
+            byte[] third = frame("NIO-PIPE-3");
+            ByteArrayOutputStream all = new ByteArrayOutputStream();
+            all.write(first);
+            all.write(second);
+            all.write(third);
+            socket.getOutputStream().write(all.toByteArray()); // Las tres tramas en una sola escritura
+
+            InputStream in = socket.getInputStream();
+            assertTrue(readAck(in).contains("MSA|AA|NIO-PIPE-1"));
+            assertTrue(readAck(in).contains("MSA|AA|NIO-PIPE-2"));
+            assertTrue(readAck(in).contains("MSA|AA|NIO-PIPE-3"));
+        }
+    }
+
+    @Test
+    void drainClosesIdleSessionsAndStopsAccepting() throws Exception {
+        int port = start();
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(10_000);
+            socket.getOutputStream().write(frame("NIO-DRAIN-1"));
+            assertTrue(readAck(socket.getInputStream()).contains("MSA|AA|NIO-DRAIN-1"));
+
+            server.drain();
+
+            assertEquals(-1, socket.getInputStream().read()); // Sesión persistente sin trama en curso: se cierra
+        }
+        for (int i = 0; i < 100 && !server.isTerminated(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(server.isTerminated());
+        assertThrows(ConnectException.class, () -> new Socket("localhost", port).close());
+    }
+
+    @Test
+    void clientThatNeverReadsAcksIsThrottledByTcp() throws Exception {
+        int port = start();
+        // Unos 96 MB de tramas de 1 KB, por encima de lo que caben en los buffers TCP de ambos extremos (hasta 32 MB)
+        byte[] frame = MLLPFrameCodec.encode("MSH|^~\\&|NIO|FAC|HIS|HOSP|20240101120000||ADT^A01|NIO-FLOOD|P|2.5\r"
+                + "EVN|A01\rPID|1||123^^^HOSP\rNTE|1||" + "X".repeat(1000) + "\r");
+        int frames = 96_000;
+        AtomicLong sent = new AtomicLong();
+        AtomicBoolean finished = new AtomicBoolean();
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(1024); // Los ACK llenan enseguida el buffer de un cliente que no lee
+            socket.setSendBufferSize(8192);
+            socket.connect(new InetSocketAddress("localhost", port));
+            Thread flooder = new Thread(() -> {
+                try {
+                    OutputStream out = socket.getOutputStream();
+                    for (int i = 0; i < frames; i++) {
+                        out.write(frame);
+                        sent.incrementAndGet();
+                    }
+                    finished.set(true);
+                } catch (IOException e) {
+                    // Socket cerrado al terminar la prueba
+                }
+            }, "mllp-nio-flooder");
+            flooder.setDaemon(true);
+            flooder.start();
+
+            // Se espera a que el emisor quede bloqueado en write: un segundo entero sin avanzar
+            long last = -1;
+            for (int i = 0; i < 30 && !finished.get() && sent.get() != last; i++) {
+                last = sent.get();
+                Thread.sleep(1000);
+            }
+            assertFalse(finished.get(), "el servidor leyó las " + frames + " tramas sin escribir sus ACK");
+        }
+
+        // El selector sigue atendiendo a otros clientes
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(10_000);
+            socket.getOutputStream().write(frame("NIO-AFTER-FLOOD"));
+            assertTrue(readAck(socket.getInputStream()).contains("MSA|AA|NIO-AFTER-FLOOD"));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.myobservation.listener.connection;
+
+import com.myobservation.storage.repository.HL7MessageRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sesiones persistentes del listener blocking: varios mensajes por conexión, max-messages e inactividad.
+ */
+@SpringBootTest
+class MLLPPersistentSessionTest {
+
+    @Autowired
+    private MLLPMessageProcessor messageProcessor;
+    @Autowired
+    private HL7MessageRepository repository;
+
+    private ServerSocket serverSocket;
+
+    @AfterEach
+    void cleanUp() throws IOException {
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        repository.deleteAll();
+    }
+
+    // Atiende una sola conexión con la sesión indicada, como haría MLLPListener
+    private Socket connect(MLLPSessionSettings session) throws IOException {
+        serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                new MLLPConnectionHandler(serverSocket.accept(), messageProcessor, session).run();
+            } catch (IOException e) {
+                // Servidor de prueba cerrado
+            }
+        }, "mllp-session-test");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        Socket socket = new Socket("localhost", serverSocket.getLocalPort());
+        socket.setSoTimeout(10_000);
+        return socket;
+    }
+
+    private static String sendAndReadAck(Socket socket, String controlId) throws IOException {
+        socket.getOutputStream().write(MLLPFrameCodec.encode("MSH|^~\\&|SESSION|FAC|HIS|HOSP|20240101120000||ADT^A01|"
+                + controlId + "|P|2.5\rEVN|A01\rPID|1||123^^^HOSP\r"));
+        InputStream in = socket.getInputStream();
+        ByteArrayOutputStream ack = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != 0x1c) {
+            ack.write(b);
+        }
+        in.read(); // CR final de la trama
+        return ack.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void sessionIsClosedAfterMaxMessages() throws Exception {
+        try (Socket socket = connect(new MLLPSessionSettings(true, 30_000, 3, 1 << 20))) {
+            for (int i = 1; i <= 3; i++) {
+                assertTrue(sendAndReadAck(socket, "SESSION-MAX-" + i).contains("MSA|AA|SESSION-MAX-" + i));
+            }
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    void idleSessionIsClosedAfterTheTimeout() throws Exception {
+        try (Socket socket = connect(new MLLPSessionSettings(true, 500, 0, 1 << 20))) {
+            assertTrue(sendAndReadAck(socket, "SESSION-IDLE-1").contains("MSA|AA|SESSION-IDLE-1"));
+            Thread.sleep(200); // Dentro del plazo de inactividad la sesión sigue abierta
+            assertTrue(sendAndReadAck(socket, "SESSION-IDLE-2").contains("MSA|AA|SESSION-IDLE-2"));
+
+            long idleSince = System.nanoTime();
+            assertEquals(-1, socket.getInputStream().read());
+            long idleMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - idleSince);
+            assertTrue(idleMs >= 400 && idleMs < 5_000, "cerrada tras " + idleMs + " ms");
+        }
+    }
+}
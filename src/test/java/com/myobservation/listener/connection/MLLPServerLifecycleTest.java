@@ -0,0 +1,83 @@
+package com.myobservation.listener.connection;
+
+import com.myobservation.ProcesarApplication;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@DirtiesContext // Para el servidor: el contexto no se puede reutilizar
+class MLLPServerLifecycleTest {
+
+    @Autowired
+    private MLLPServer server;
+
+    private static String sendAndReadAck(Socket socket, String controlId) throws IOException {
+        String message = "MSH|^~\\&|LAB|FAC|HIS|HOSP|20240101120000||ORU^R01|" + controlId + "|P|2.5\r"
+                + "PID|1||123||PRUEBA^PACIENTE\rOBX|1|NM|GLU||5.5|mmol/L|||||F\r";
+        socket.getOutputStream().write(("\u000b" + message + "\u001c\r").getBytes(StandardCharsets.UTF_8));
+        InputStream in = socket.getInputStream();
+        ByteArrayOutputStream ack = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != 0x1c) {
+            ack.write(b);
+        }
+        return ack.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void opensPortAfterStartAndDrainsOnStop() throws Exception {
+        assertTrue(server.isRunning());
+        int port = server.localPorts().get(MLLPListenerSettings.DEFAULT_NAME);
+        assertTrue(port > 0);
+
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(10_000);
+            assertTrue(sendAndReadAck(socket, "LIFECYCLE-1").contains("MSA|AA|LIFECYCLE-1"));
+        }
+
+        try (Socket idle = new Socket("localhost", port)) {
+            idle.setSoTimeout(10_000);
+            Thread.sleep(200); // La conexión ya está en el pool esperando trama
+            server.stop();
+
+            assertFalse(server.isRunning());
+            assertEquals(-1, idle.getInputStream().read()); // Cerrada por el drenaje, no por el timeout
+        }
+        assertThrows(ConnectException.class, () -> new Socket("localhost", port).close());
+    }
+
+    @Test
+    void listenersAlreadyOpenAreClosedWhenAnotherPortFails() throws Exception {
+        int freePort;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            freePort = probe.getLocalPort();
+        }
+        try (ServerSocket occupied = new ServerSocket(0)) {
+            SpringApplicationBuilder application = new SpringApplicationBuilder(ProcesarApplication.class)
+                    .web(WebApplicationType.NONE);
+            // ddl-auto=none: al cerrarse, el contexto fallido no debe borrar el esquema de la BBDD H2 compartida
+            assertThrows(RuntimeException.class, () -> application.run(
+                    "--mllp.listeners.lab.port=" + freePort,
+                    "--mllp.listeners.adt.port=" + occupied.getLocalPort(),
+                    "--spring.jpa.hibernate.ddl-auto=none"));
+        }
+
+        assertThrows(ConnectException.class, () -> new Socket("localhost", freePort).close());
+        assertTrue(Thread.getAllStackTraces().keySet().stream()
+                .noneMatch(thread -> thread.getName().startsWith("mllp-lab-")));
+    }
+}
@@ -0,0 +1,52 @@
+package com.myobservation.listener.utils;
+
+import com.myobservation.listener.ack.HL7AckGenerator;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MSHHeaderTest {
+
+    private static final String ADT = "MSH|^~\\&|LAB^1.2.3^ISO|FAC|HIS|HOSP|20240101120000||ADT^A01^ADT_A01|CTRL1|P|2.5\r"
+            + "PID|1||123||DOE^JOHN\r";
+
+    @Test
+    void extractsHeaderFieldsByPosition() {
+        MSHHeader msh = MSHHeader.scan(ADT);
+
+        assertNotNull(msh);
+        assertEquals(12, msh.fieldCount());
+        assertEquals("^~\\&", msh.encodingCharacters());
+        assertEquals("LAB", msh.sendingApplication());
+        assertEquals("LAB^1.2.3^ISO", msh.field(3));
+        assertEquals("HIS", msh.receivingApplication());
+        assertEquals("ADT^A01", msh.messageType());
+        assertEquals("CTRL1", msh.messageControlId());
+        assertEquals("2.5", msh.versionId());
+        assertEquals("", msh.field(13));
+    }
+
+    @Test
+    void honoursDeclaredSeparators() {
+        MSHHeader msh = MSHHeader.scan("MSH#$~\\&#LAB#FAC#HIS#HOSP#20240101##ORU$R01#CTRL9#P#2.5\rOBX#1");
+
+        assertEquals("ORU^R01", msh.messageType());
+        assertEquals("CTRL9", msh.messageControlId());
+    }
+
+    @Test
+    void rejectsMessagesWithoutMsh() {
+        assertNull(MSHHeader.scan("PID|1||123"));
+        assertNull(MSHHeader.scan(null));
+    }
+
+    @Test
+    void ackSwapsSenderAndReceiverAndEchoesControlId() {
+        String ack = new HL7AckGenerator().buildAckMessage(ADT, "AA", "");
+        String[] segments = ack.split("\r");
+
+        assertTrue(segments[0].startsWith("MSH|^~\\&|HIS|HOSP|LAB^1.2.3^ISO|FAC|"));
+        assertTrue(segments[0].endsWith("||ACK^A01|CTRL1|P|2.5"));
+        assertEquals("MSA|AA|CTRL1", segments[1]);
+    }
+}
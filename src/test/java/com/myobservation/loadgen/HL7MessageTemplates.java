@@ -0,0 +1,132 @@
+package com.myobservation.loadgen;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mensajes a enviar por el generador de carga.
+ * Cada mensaje se divide una sola vez alrededor de MSH-10, de modo que en cada envío solo se inserta un
+ * ID de control nuevo (único en la ejecución) sin volver a recorrer el mensaje. Así el ACK se puede
+ * validar contra el ID enviado y la detección de duplicados del servidor no afecta a la prueba.
+ */
+public final class HL7MessageTemplates {
+
+    private final List<Template> templates;
+
+    private HL7MessageTemplates(List<Template> templates) {
+        if (templates.isEmpty()) {
+            throw new IllegalArgumentException("No hay mensajes HL7 que enviar");
+        }
+        this.templates = templates;
+    }
+
+    /**
+     * Lee un fichero con uno o varios mensajes HL7. Cada línea que empieza por MSH abre un mensaje nuevo;
+     * se aceptan finales de línea \r, \n o \r\n y se ignoran las líneas vacías.
+     */
+    public static HL7MessageTemplates fromFile(Path file) throws IOException {
+        String content = Files.readString(file, StandardCharsets.UTF_8);
+        List<Template> templates = new ArrayList<>();
+        StringBuilder current = null;
+        for (String line : content.split("\r\n|\r|\n")) {
+            if (line.isBlank()) {
+                continue;
+            }
+            if (line.startsWith("MSH")) {
+                if (current != null) {
+                    templates.add(Template.of(current.toString()));
+                }
+                current = new StringBuilder();
+            } else if (current == null) {
+                throw new IllegalArgumentException("El fichero " + file + " no empieza por un segmento MSH");
+            }
+            current.append(line).append('\r');
+        }
+        if (current != null) {
+            templates.add(Template.of(current.toString()));
+        }
+        return new HL7MessageTemplates(templates);
+    }
+
+    /**
+     * Plantillas sintéticas (ADT^A01 y/o ORU^R01) parecidas a las que envía el HIS.
+     */
+    public static HL7MessageTemplates synthetic(List<String> types, int observations) {
+        List<Template> templates = new ArrayList<>();
+        for (String type : types) {
+            switch (type) {
+                case "ADT^A01" -> templates.add(Template.of(adtA01()));
+                case "ORU^R01" -> templates.add(Template.of(oruR01(observations)));
+                default -> throw new IllegalArgumentException("Plantilla no soportada: " + type + " (ADT^A01, ORU^R01)");
+            }
+        }
+        return new HL7MessageTemplates(templates);
+    }
+
+    public int size() {
+        return templates.size();
+    }
+
+    /**
+     * Mensaje número {@code index} (rotando sobre las plantillas) con el ID de control indicado en MSH-10.
+     */
+    public String message(long index, String controlId) {
+        Template template = templates.get((int) (index % templates.size()));
+        return template.beforeControlId + controlId + template.afterControlId;
+    }
+
+    private static String adtA01() {
+        return "MSH|^~\\&|HIS|HOSPITAL_CENTRAL|HL7ACK|LAB_CENTRAL|20240315083000||ADT^A01^ADT_A01|CONTROLID|P|2.5|||AL|NE|ESP\r"
+                + "EVN|A01|20240315083000|||USR123^GARCIA^ANA\r"
+                + "PID|1||12345678^^^HOSPITAL_CENTRAL^MR~87654321X^^^SNS^NI||FERNANDEZ^LOPEZ^MARIA^^^^L||19750412|F|||"
+                + "CALLE MAYOR 10^^MADRID^^28013^ESP^H||^PRN^PH^^34^91^5551234|||M\r"
+                + "PV1|1|I|MED^301^1^HOSPITAL_CENTRAL||||12345^RODRIGUEZ^LUIS^^^DR|||MED||||7|||12345^RODRIGUEZ^LUIS^^^DR|IN\r"
+                + "DG1|1||J18.9^NEUMONIA NO ESPECIFICADA^I10||20240315|A\r";
+    }
+
+    private static String oruR01(int observations) {
+        StringBuilder sb = new StringBuilder(256 + observations * 110);
+        sb.append("MSH|^~\\&|LIS|LAB_CENTRAL|HL7ACK|HOSPITAL_CENTRAL|20240315101500||ORU^R01^ORU_R01|CONTROLID|P|2.5|||AL|NE|ESP\r");
+        sb.append("PID|1||12345678^^^HOSPITAL_CENTRAL^MR||FERNANDEZ^LOPEZ^MARIA^^^^L||19750412|F\r");
+        sb.append("OBR|1|PED123456|LAB987654|24323-8^PANEL METABOLICO COMPLETO^LN|||20240315090000\r");
+        for (int i = 1; i <= observations; i++) {
+            sb.append("OBX|").append(i).append("|NM|").append(2000 + i).append('-').append(i % 10)
+                    .append("^ANALITO ").append(i).append("^LN||").append(10 + (i * 7) % 90).append('.').append(i % 10)
+                    .append("|mg/dL^mg/dL^UCUM|10-100|N|||F\r");
+        }
+        return sb.toString();
+    }
+
+    // Mensaje partido en lo anterior y lo posterior al valor de MSH-10
+    private record Template(String beforeControlId, String afterControlId) {
+
+        static Template of(String message) {
+            if (!message.startsWith("MSH") || message.length() < 8) {
+                throw new IllegalArgumentException("El mensaje no empieza por un segmento MSH");
+            }
+            char fieldSeparator = message.charAt(3);
+            int segmentEnd = message.indexOf('\r');
+            if (segmentEnd < 0) {
+                segmentEnd = message.length();
+            }
+            // El separador en la posición 3 es MSH-1; MSH-10 empieza tras el noveno separador
+            int start = 3;
+            for (int separators = 1; separators < 9; separators++) {
+                start = message.indexOf(fieldSeparator, start + 1);
+                if (start < 0 || start >= segmentEnd) {
+                    throw new IllegalArgumentException("El MSH no llega hasta MSH-10: " + message.substring(0, segmentEnd));
+                }
+            }
+            start++;
+            int end = message.indexOf(fieldSeparator, start);
+            if (end < 0 || end > segmentEnd) {
+                end = segmentEnd;
+            }
+            return new Template(message.substring(0, start), message.substring(end));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.myobservation.loadgen;
+
+import com.myobservation.listener.utils.MSHHeader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HL7MessageTemplatesTest {
+
+    @Test
+    void stampsControlIdIntoMsh10() {
+        HL7MessageTemplates templates = HL7MessageTemplates.synthetic(List.of("ADT^A01", "ORU^R01"), 3);
+
+        MSHHeader adt = MSHHeader.scan(templates.message(0, "LG1"));
+        MSHHeader oru = MSHHeader.scan(templates.message(1, "LG2"));
+
+        assertEquals("ADT^A01", adt.messageType());
+        assertEquals("LG1", adt.messageControlId());
+        assertEquals("ORU^R01", oru.messageType());
+        assertEquals("LG2", oru.messageControlId());
+        assertEquals("P", oru.processingId());
+    }
+
+    @Test
+    void readsMessagesFromFileWithAnyLineEnding(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("mensajes.hl7");
+        Files.writeString(file, "MSH|^~\\&|HIS|FAC|LAB|FAC|20240101||ADT^A01|OLD1|P|2.5\nPID|1||123\n\n"
+                + "MSH|^~\\&|HIS|FAC|LAB|FAC|20240101||ADT^A04|OLD2\r\nPID|1||456\r\n");
+
+        HL7MessageTemplates templates = HL7MessageTemplates.fromFile(file);
+
+        assertEquals(2, templates.size());
+        assertEquals("MSH|^~\\&|HIS|FAC|LAB|FAC|20240101||ADT^A01|NEW|P|2.5\rPID|1||123\r", templates.message(0, "NEW"));
+        assertEquals("MSH|^~\\&|HIS|FAC|LAB|FAC|20240101||ADT^A04|NEW\rPID|1||456\r", templates.message(1, "NEW"));
+    }
+
+    @Test
+    void latencyPercentilesStayWithinOnePercent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 100_000; micros++) {
+            histogram.record(micros);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100_000, snapshot.count());
+        assertEquals(50_000, snapshot.percentile(50), 500);
+        assertEquals(99_000, snapshot.percentile(99), 990);
+        assertEquals(99_900, snapshot.percentile(99.9), 999);
+    }
+}
@@ -0,0 +1,95 @@
+package com.myobservation.loadgen;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Opciones del generador de carga, leídas de argumentos --clave=valor.
+ *
+ * @param host                   host del listener MLLP
+ * @param port                   puerto del listener MLLP
+ * @param connections            conexiones MLLP concurrentes
+ * @param rate                   mensajes por segundo en total (0 = tan rápido como responda el servidor)
+ * @param durationSeconds        duración máxima de la prueba en segundos (0 = sin límite, usar totalMessages)
+ * @param totalMessages          número total de mensajes a enviar (0 = sin límite, usar durationSeconds)
+ * @param messagesFile           fichero con mensajes HL7 a reproducir (null = plantillas sintéticas)
+ * @param templates              plantillas sintéticas a usar (ADT^A01, ORU^R01)
+ * @param observations           número de OBX de la plantilla ORU^R01
+ * @param messagesPerConnection  mensajes por conexión antes de reconectar (0 = sesión persistente; 1 = modo original)
+ * @param ackTimeoutMillis       tiempo máximo de espera del ACK
+ * @param reportIntervalSeconds  intervalo de los informes parciales (0 = solo informe final)
+ * @param embedded               arranca la aplicación en el mismo proceso con el perfil loadtest (BBDD H2 en memoria)
+ */
+public record LoadGeneratorOptions(String host, int port, int connections, int rate, int durationSeconds,
+                                   long totalMessages, String messagesFile, List<String> templates, int observations,
+                                   int messagesPerConnection, int ackTimeoutMillis, int reportIntervalSeconds,
+                                   boolean embedded) {
+
+    public static LoadGeneratorOptions parse(String[] args) {
+        String host = "localhost";
+        int port = 6661;
+        int connections = 10;
+        int rate = 0;
+        int durationSeconds = 60;
+        long totalMessages = 0;
+        String messagesFile = null;
+        List<String> templates = List.of("ADT^A01", "ORU^R01");
+        int observations = 20;
+        int messagesPerConnection = 0;
+        int ackTimeoutMillis = 10_000;
+        int reportIntervalSeconds = 10;
+        boolean embedded = false;
+
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Argumento no válido: " + arg + " (formato --clave=valor)");
+            }
+            int equals = arg.indexOf('=');
+            String key = equals < 0 ? arg.substring(2) : arg.substring(2, equals);
+            String value = equals < 0 ? "true" : arg.substring(equals + 1);
+            switch (key) {
+                case "host" -> host = value;
+                case "port" -> port = Integer.parseInt(value);
+                case "connections" -> connections = Integer.parseInt(value);
+                case "rate" -> rate = Integer.parseInt(value);
+                case "duration" -> durationSeconds = Integer.parseInt(value);
+                case "messages" -> totalMessages = Long.parseLong(value);
+                case "messages-file" -> messagesFile = value;
+                case "templates" -> templates = Arrays.stream(value.split(",")).map(String::trim).toList();
+                case "obx" -> observations = Integer.parseInt(value);
+                case "messages-per-connection" -> messagesPerConnection = Integer.parseInt(value);
+                case "ack-timeout-ms" -> ackTimeoutMillis = Integer.parseInt(value);
+                case "report-interval" -> reportIntervalSeconds = Integer.parseInt(value);
+                case "embedded" -> embedded = Boolean.parseBoolean(value);
+                default -> throw new IllegalArgumentException("Opción desconocida: --" + key);
+            }
+        }
+        if (connections <= 0) {
+            throw new IllegalArgumentException("--connections debe ser mayor que 0");
+        }
+        if (durationSeconds <= 0 && totalMessages <= 0) {
+            throw new IllegalArgumentException("Indica --duration o --messages para que la prueba termine");
+        }
+        return new LoadGeneratorOptions(host, port, connections, rate, durationSeconds, totalMessages, messagesFile,
+                templates, observations, messagesPerConnection, ackTimeoutMillis, reportIntervalSeconds, embedded);
+    }
+
+    public static String usage() {
+        return """
+                Uso: MLLPLoadGenerator [opciones]
+                  --host=localhost              host del listener MLLP
+                  --port=6661                   puerto del listener MLLP
+                  --connections=10              conexiones concurrentes
+                  --rate=0                      mensajes/s en total (0 = sin límite)
+                  --duration=60                 duración en segundos (0 = sin límite)
+                  --messages=0                  total de mensajes (0 = sin límite)
+                  --messages-file=ruta          reproduce los mensajes del fichero (uno o varios MSH)
+                  --templates=ADT^A01,ORU^R01   plantillas sintéticas si no hay fichero
+                  --obx=20                      OBX de la plantilla ORU^R01
+                  --messages-per-connection=0   reconecta tras N mensajes (0 = sesión persistente)
+                  --ack-timeout-ms=10000        espera máxima del ACK
+                  --report-interval=10          segundos entre informes parciales (0 = solo final)
+                  --embedded                    arranca la aplicación en este proceso (perfil loadtest, H2)
+                """;
+    }
+}
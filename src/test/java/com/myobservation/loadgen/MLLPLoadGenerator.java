@@ -0,0 +1,302 @@
+package com.myobservation.loadgen;
+
+import com.myobservation.ProcesarApplication;
+import com.myobservation.listener.connection.MLLPFrame;
+import com.myobservation.listener.connection.MLLPFrameCodec;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generador de carga MLLP para dimensionar el listener y hacer pruebas de larga duración.
+ * Abre N conexiones concurrentes (un hilo virtual por conexión), envía mensajes de un fichero o de plantillas
+ * sintéticas a un ritmo objetivo y valida cada ACK: código MSA-1 y que MSA-2 coincide con el MSH-10 enviado.
+ * Al terminar muestra el throughput, las percentiles de latencia (p50/p99/p999) y los errores.
+ *
+ * Con un ritmo fijado la latencia se mide desde el instante en que el mensaje debía enviarse y no desde que
+ * se envió: si el servidor se retrasa, la espera acumulada cuenta como latencia (sin "omisión coordinada").
+ *
+ * Ejemplo, todo en local con la BBDD H2 en memoria del perfil loadtest:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.myobservation.loadgen.MLLPLoadGenerator \
+ *     -Dexec.args="--embedded --connections=20 --rate=500 --duration=60"
+ * </pre>
+ * El proceso termina con código 1 si algún mensaje no recibió un ACK AA válido.
+ */
+public class MLLPLoadGenerator {
+
+    private final LoadGeneratorOptions options;
+    private final HL7MessageTemplates templates;
+    private final String runId = Long.toString(System.currentTimeMillis() % 2_176_782_336L, 36); // 6 caracteres base 36
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final LatencyHistogram totalLatency = new LatencyHistogram();
+    private final LatencyHistogram intervalLatency = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder accepted = new LongAdder();      // AA
+    private final LongAdder applicationErrors = new LongAdder(); // AE
+    private final LongAdder rejected = new LongAdder();      // AR
+    private final LongAdder otherCodes = new LongAdder();
+    private final LongAdder controlIdMismatches = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder ioErrors = new LongAdder();
+    private final LongAdder connects = new LongAdder();
+
+    private volatile boolean running = true;
+
+    public MLLPLoadGenerator(LoadGeneratorOptions options, HL7MessageTemplates templates) {
+        this.options = options;
+        this.templates = templates;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadGeneratorOptions options;
+        try {
+            options = LoadGeneratorOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("[LOADGEN] " + e.getMessage());
+            System.err.println(LoadGeneratorOptions.usage());
+            System.exit(2);
+            return;
+        }
+        HL7MessageTemplates templates = options.messagesFile() != null
+                ? HL7MessageTemplates.fromFile(Path.of(options.messagesFile()))
+                : HL7MessageTemplates.synthetic(options.templates(), options.observations());
+
+        ConfigurableApplicationContext embeddedApplication = null;
+        if (options.embedded()) {
+            embeddedApplication = SpringApplication.run(ProcesarApplication.class,
+                    "--spring.profiles.active=loadtest", "--mllp.server.port=" + options.port());
+        }
+        boolean ok;
+        try {
+            ok = new MLLPLoadGenerator(options, templates).run();
+        } finally {
+            if (embeddedApplication != null) {
+                embeddedApplication.close();
+            }
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Ejecuta la prueba y muestra el informe final.
+     * @return true si todos los mensajes recibieron un ACK AA con el ID de control correcto
+     */
+    public boolean run() throws InterruptedException {
+        awaitListener();
+        System.out.printf("[LOADGEN] %s:%d, %d conexiones, ritmo %s, %d plantilla(s), id de ejecución %s%n",
+                options.host(), options.port(), options.connections(),
+                options.rate() > 0 ? options.rate() + " msg/s" : "máximo", templates.size(), runId);
+
+        long start = System.nanoTime();
+        long deadline = options.durationSeconds() > 0 ? start + TimeUnit.SECONDS.toNanos(options.durationSeconds()) : Long.MAX_VALUE;
+        // Separación entre envíos de una misma conexión para alcanzar el ritmo total
+        long intervalNanos = options.rate() > 0 ? options.connections() * 1_000_000_000L / options.rate() : 0;
+
+        List<Future<?>> workers = new ArrayList<>(options.connections());
+        try (ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("loadgen-", 0).factory())) {
+            for (int i = 0; i < options.connections(); i++) {
+                long firstSend = start + intervalNanos * i / options.connections(); // Envíos escalonados
+                workers.add(executor.submit(() -> runConnection(firstSend, intervalNanos, deadline)));
+            }
+            reportWhileRunning(start, deadline, workers);
+            running = false;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        printSummary(seconds);
+        return sent.sum() > 0 && accepted.sum() == sent.sum() && controlIdMismatches.sum() == 0;
+    }
+
+    private void runConnection(long firstSend, long intervalNanos, long deadline) {
+        MLLPFrameCodec codec = new MLLPFrameCodec();
+        Socket socket = null;
+        int sentOnConnection = 0;
+        long nextSend = firstSend;
+
+        while (running) {
+            long intended;
+            if (intervalNanos > 0) {
+                long wait = nextSend - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                intended = nextSend;
+                nextSend += intervalNanos;
+            } else {
+                intended = System.nanoTime();
+            }
+            if (intended >= deadline || !running) {
+                break;
+            }
+            long index = sequence.getAndIncrement();
+            if (options.totalMessages() > 0 && index >= options.totalMessages()) {
+                break;
+            }
+            String controlId = "LG" + runId + Long.toString(index, 36);
+
+            try {
+                if (socket == null) {
+                    socket = connect();
+                    codec = new MLLPFrameCodec();
+                    sentOnConnection = 0;
+                }
+                OutputStream out = socket.getOutputStream();
+                InputStream in = socket.getInputStream();
+                MLLPFrameCodec.writeFrame(out, templates.message(index, controlId));
+                sent.increment();
+                MLLPFrame ack = codec.readFrame(in);
+                if (ack == null) {
+                    throw new IOException("el servidor cerró la conexión sin enviar ACK");
+                }
+                long latencyMicros = (System.nanoTime() - intended) / 1_000;
+                totalLatency.record(latencyMicros);
+                intervalLatency.record(latencyMicros);
+                validateAck(ack.message(), controlId);
+
+                sentOnConnection++;
+                if (options.messagesPerConnection() > 0 && sentOnConnection >= options.messagesPerConnection()) {
+                    socket = close(socket);
+                }
+            } catch (SocketTimeoutException e) {
+                timeouts.increment();
+                socket = close(socket);
+            } catch (IOException e) {
+                ioErrors.increment();
+                socket = close(socket);
+            }
+        }
+        close(socket);
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(options.host(), options.port()), options.ackTimeoutMillis());
+        socket.setSoTimeout(options.ackTimeoutMillis());
+        connects.increment();
+        return socket;
+    }
+
+    private Socket close(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // La conexión ya no se usa
+            }
+        }
+        return null;
+    }
+
+    // Comprueba MSA-1 (código de ACK) y MSA-2 (ID de control del mensaje confirmado)
+    private void validateAck(String ack, String controlId) {
+        int msa = ack.indexOf("\rMSA") + 1; // El ACK siempre empieza por MSH
+        if (msa == 0) {
+            otherCodes.increment();
+            return;
+        }
+        char fieldSeparator = ack.charAt(msa + 3);
+        int codeEnd = ack.indexOf(fieldSeparator, msa + 4);
+        if (codeEnd < 0) {
+            otherCodes.increment();
+            return;
+        }
+        String code = ack.substring(msa + 4, codeEnd);
+        int idEnd = codeEnd + 1;
+        while (idEnd < ack.length() && ack.charAt(idEnd) != fieldSeparator && ack.charAt(idEnd) != '\r') {
+            idEnd++;
+        }
+        if (!controlId.equals(ack.substring(codeEnd + 1, idEnd))) {
+            controlIdMismatches.increment();
+        }
+        switch (code) {
+            case "AA", "CA" -> accepted.increment();
+            case "AE", "CE" -> applicationErrors.increment();
+            case "AR", "CR" -> rejected.increment();
+            default -> otherCodes.increment();
+        }
+    }
+
+    private void reportWhileRunning(long start, long deadline, List<Future<?>> workers) throws InterruptedException {
+        long reportNanos = TimeUnit.SECONDS.toNanos(Math.max(1, options.reportIntervalSeconds()));
+        long nextReport = start + reportNanos;
+        long lastSent = 0;
+        while (!allDone(workers)) {
+            long now = System.nanoTime();
+            if (now >= deadline) {
+                return;
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+            if (options.reportIntervalSeconds() > 0 && System.nanoTime() >= nextReport) {
+                long currentSent = sent.sum();
+                LatencyHistogram.Snapshot interval = intervalLatency.drain();
+                System.out.printf(Locale.ROOT, "[LOADGEN] t=%4ds  %7.0f msg/s  p50=%7.2f ms  p99=%7.2f ms  errores=%d%n",
+                        TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start),
+                        (currentSent - lastSent) * 1e9 / reportNanos,
+                        interval.percentile(50) / 1000.0, interval.percentile(99) / 1000.0, errorCount());
+                lastSent = currentSent;
+                nextReport += reportNanos;
+            }
+        }
+    }
+
+    private boolean allDone(List<Future<?>> workers) {
+        for (Future<?> worker : workers) {
+            if (!worker.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long errorCount() {
+        return applicationErrors.sum() + rejected.sum() + otherCodes.sum() + controlIdMismatches.sum()
+                + timeouts.sum() + ioErrors.sum();
+    }
+
+    private void printSummary(double seconds) {
+        LatencyHistogram.Snapshot latency = totalLatency.snapshot();
+        System.out.printf(Locale.ROOT, "[LOADGEN] Duración %.1f s, %d conexiones abiertas%n", seconds, connects.sum());
+        System.out.printf(Locale.ROOT, "[LOADGEN] Enviados=%d  ACK=%d  AA=%d  AE=%d  AR=%d  otros=%d  controlId erróneo=%d  timeouts=%d  errores E/S=%d%n",
+                sent.sum(), latency.count(), accepted.sum(), applicationErrors.sum(), rejected.sum(), otherCodes.sum(),
+                controlIdMismatches.sum(), timeouts.sum(), ioErrors.sum());
+        System.out.printf(Locale.ROOT, "[LOADGEN] Throughput %.1f msg/s%n", latency.count() / seconds);
+        System.out.printf(Locale.ROOT, "[LOADGEN] Latencia (ms): p50=%.2f  p90=%.2f  p99=%.2f  p999=%.2f  máx=%.2f%n",
+                latency.percentile(50) / 1000.0, latency.percentile(90) / 1000.0, latency.percentile(99) / 1000.0,
+                latency.percentile(99.9) / 1000.0, latency.max() / 1000.0);
+    }
+
+    // Espera a que el listener acepte conexiones (p. ej. mientras arranca la aplicación embebida)
+    private void awaitListener() throws InterruptedException {
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (true) {
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress(options.host(), options.port()), 1000);
+                return;
+            } catch (IOException e) {
+                if (System.nanoTime() > until) {
+                    throw new IllegalStateException("El listener MLLP no responde en " + options.host() + ":" + options.port());
+                }
+                TimeUnit.MILLISECONDS.sleep(200);
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.myobservation.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HL7MessageLogTest {
+
+    @Test
+    void redactionKeepsHeaderAndStructureOnly() {
+        String message = "MSH|^~\\&|LAB|HOSP|HIS|HOSP|20240101||ADT^A01|42|P|2.5\r"
+                + "EVN|A01|20240101\r"
+                + "PID|1||12345^^^HOSP^MR||MUÑOZ^JOSÉ||19800101|M\r";
+
+        String redacted = HL7MessageLog.redact(message, 1000);
+
+        assertEquals("MSH|^~\\&|LAB|HOSP|HIS|HOSP|20240101||ADT^A01|42|P|2.5\n"
+                + "EVN|A01|20240101\n"
+                + "PID|*||*^^^*^*||*^*||*|*\n", redacted);
+    }
+
+    @Test
+    void redactionCostIsBoundedByMaxChars() {
+        String message = "MSH|^~\\&|LAB|HOSP|HIS|HOSP|20240101||ORU^R01|42|P|2.5\r" + "OBX|1|TX|||secreto\r".repeat(10_000);
+
+        String redacted = HL7MessageLog.redact(message, 100);
+
+        assertTrue(redacted.length() <= 103 && redacted.endsWith("..."));
+        assertFalse(redacted.contains("secreto"));
+    }
+}
@@ -0,0 +1,115 @@
+package com.myobservation.storage.handler;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.util.Terser;
+import com.myobservation.storage.model.entity.HL7HandlerPending;
+import com.myobservation.storage.repository.HL7HandlerPendingRepository;
+import com.myobservation.storage.repository.HL7MessageRepository;
+import com.myobservation.storage.service.HL7ParserService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Mensajes con los que un manejador falla: no arrastran al resto del lote y quedan pendientes hasta que se tratan.
+ */
+@SpringBootTest(properties = {"hl7.handlers.flaky-orders.enabled=true", "hl7.handlers.flaky-orders.linger-ms=500",
+        "hl7.handler.replay-interval-ms=3600000"})
+class HL7HandlerReplayTest {
+
+    private static final List<String> handled = new CopyOnWriteArrayList<>();
+    private static volatile boolean rejectFailing = true;
+
+    @Autowired
+    private HL7ParserService parserService;
+    @Autowired
+    private HL7HandlerReplay replay;
+    @Autowired
+    private HL7HandlerPendingRepository pendingRepository;
+    @Autowired
+    private HL7MessageRepository messageRepository;
+
+    @AfterEach
+    void cleanUp() {
+        pendingRepository.findReplayable("flaky-orders", Integer.MAX_VALUE, 100)
+                .forEach(pending -> pendingRepository.claim("flaky-orders", pending.getKey().getMessageId()));
+        messageRepository.deleteAll();
+    }
+
+    /**
+     * Manejador de prueba para los ORM: falla con los ID de control FAIL-* mientras rejectFailing esté activo.
+     */
+    @TestConfiguration
+    static class FlakyHandler {
+        @Bean
+        HL7MessageHandler flakyOrders() {
+            return new HL7MessageHandler() {
+                @Override
+                public String name() {
+                    return "flaky-orders";
+                }
+
+                @Override
+                public Set<String> messageTypes() {
+                    return Set.of("ORM^*");
+                }
+
+                @Override
+                public void handle(List<HL7HandlerMessage> batch) throws HL7Exception {
+                    List<String> controlIds = new ArrayList<>();
+                    for (HL7HandlerMessage message : batch) {
+                        String controlId = new Terser(message.message()).get("/MSH-10");
+                        if (rejectFailing && controlId.startsWith("FAIL")) {
+                            throw new IllegalStateException("Pedido rechazado: " + controlId);
+                        }
+                        controlIds.add(controlId);
+                    }
+                    handled.addAll(controlIds);
+                }
+            };
+        }
+    }
+
+    private static String order(String controlId) {
+        return "MSH|^~\\&|CPOE|FAC|HIS|HOSP|20240101120000||ORM^O01|" + controlId + "|P|2.5\r"
+                + "PID|1||12345^^^HOSP||DOE^JOHN\rORC|NW|" + controlId + "\r";
+    }
+
+    private List<HL7HandlerPending> pending() {
+        return pendingRepository.findReplayable("flaky-orders", Integer.MAX_VALUE, 100);
+    }
+
+    @Test
+    void failedMessageIsIsolatedFromItsBatchAndReplayedLater() throws InterruptedException {
+        parserService.save(parserService.parseToEntity(order("OK-1")));
+        parserService.save(parserService.parseToEntity(order("FAIL-1")));
+        parserService.save(parserService.parseToEntity(order("OK-2")));
+
+        for (int i = 0; i < 100 && (handled.size() < 2 || pending().isEmpty()); i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(List.of("OK-1", "OK-2"), handled);
+        List<HL7HandlerPending> failed = pending();
+        assertEquals(1, failed.size());
+        assertEquals(1, failed.get(0).getAttempts());
+        assertEquals("Pedido rechazado: FAIL-1", failed.get(0).getLastError());
+
+        rejectFailing = false;
+        replay.replay();
+        for (int i = 0; i < 100 && handled.size() < 3; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(List.of("OK-1", "OK-2", "FAIL-1"), handled);
+        assertTrue(pending().isEmpty());
+    }
+}
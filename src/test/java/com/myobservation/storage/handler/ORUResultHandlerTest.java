@@ -0,0 +1,132 @@
+package com.myobservation.storage.handler;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.util.Terser;
+import com.myobservation.listener.utils.MSHHeader;
+import com.myobservation.storage.model.entity.HL7Message;
+import com.myobservation.storage.model.entity.HL7Observation;
+import com.myobservation.storage.repository.HL7MessageRepository;
+import com.myobservation.storage.repository.HL7ObservationRepository;
+import com.myobservation.storage.service.HL7ParserService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Etapas de un mensaje con manejadores: validación en el camino del ACK y extracción de OBX tras el commit.
+ */
+@SpringBootTest(properties = {"hl7.handlers.oru-results.enabled=true", "hl7.handlers.oru-results.linger-ms=0",
+        "hl7.handlers.adt-patient-required.enabled=true", "hl7.parser.full-parse-types=ORU^R01"})
+class ORUResultHandlerTest {
+
+    private static final String ORU = "MSH|^~\\&|LAB|FAC|HIS|HOSP|20240101120000||ORU^R01|ORU-OBX-1|P|2.5\r"
+            + "PID|1||12345^^^HOSP||DOE^JOHN\r"
+            + "OBR|1||ORD1|GLU^Glucosa\r"
+            + "OBX|1|NM|GLU^Glucosa||95|mg/dL|70-110|N|||F|||20240101115500\r"
+            + "OBX|2|ST|COM^Comentario||Muestra hemolizada||||||F\r";
+
+    @Autowired
+    private HL7ParserService parserService;
+    @Autowired
+    private HL7ObservationRepository observationRepository;
+    @Autowired
+    private HL7MessageRepository messageRepository;
+
+    // La BBDD H2 en memoria es compartida por todos los contextos de prueba
+    @AfterEach
+    void cleanUp() {
+        observationRepository.deleteAll();
+        messageRepository.deleteAll();
+    }
+
+    /**
+     * Manejador de prueba para todos los ADT: exige PID-3.
+     */
+    @TestConfiguration
+    static class AdtValidation {
+        @Bean
+        HL7MessageHandler adtPatientRequired() {
+            return new HL7MessageHandler() {
+                @Override
+                public String name() {
+                    return "adt-patient-required";
+                }
+
+                @Override
+                public Set<String> messageTypes() {
+                    return Set.of("ADT^*");
+                }
+
+                @Override
+                public String validate(Message message) {
+                    try {
+                        return new Terser(message).get("/PID-3-1") == null ? "PID-3 (ID de paciente) está vacío." : null;
+                    } catch (HL7Exception e) {
+                        return "PID no encontrado: " + e.getMessage();
+                    }
+                }
+
+                @Override
+                public void handle(List<HL7HandlerMessage> batch) {
+                }
+            };
+        }
+    }
+
+    @Test
+    void observationsAreExtractedAfterCommit() throws InterruptedException {
+        HL7Message saved = parserService.save(parserService.parseToEntity(ORU));
+        assertEquals("AA", saved.getAckStatus());
+
+        List<HL7Observation> observations = List.of();
+        for (int i = 0; i < 100 && observations.size() < 2; i++) {
+            Thread.sleep(50);
+            observations = observationRepository.findByMessageIdOrderById(saved.getId());
+        }
+
+        assertEquals(2, observations.size());
+        HL7Observation glucose = observations.get(0);
+        assertEquals("12345", glucose.getPatientId());
+        assertEquals("GLU", glucose.getObservationId());
+        assertEquals("Glucosa", glucose.getObservationText());
+        assertEquals("95", glucose.getObservationValue());
+        assertEquals("mg/dL", glucose.getUnits());
+        assertEquals("N", glucose.getAbnormalFlag());
+        assertEquals("F", glucose.getResultStatus());
+        assertEquals("20240101115500", glucose.getObservationTime());
+        assertEquals("Muestra hemolizada", observations.get(1).getObservationValue());
+    }
+
+    @Test
+    void handlerValidationIsReturnedInTheAck() {
+        HL7Message rejected = parserService.parseToEntity(
+                "MSH|^~\\&|ADM|FAC|HIS|HOSP|20240101120000||ADT^A08|ADT-NOPID-1|P|2.5\rEVN|A08\rPID|1||\r");
+        assertEquals("AE", rejected.getAckStatus());
+        assertEquals("PID-3 (ID de paciente) está vacío.", rejected.getAckError());
+
+        HL7Message accepted = parserService.parseToEntity(
+                "MSH|^~\\&|ADM|FAC|HIS|HOSP|20240101120000||ADT^A01|ADT-PID-1|P|2.5\rEVN|A01\rPID|1||999^^^HOSP\r");
+        assertEquals("AA", accepted.getAckStatus());
+    }
+
+    @Test
+    void handlerValidationRunsOutsideFullParseTypesAndBeforeTheWriteAheadLog() {
+        // ADT^* no está en full-parse-types, pero su manejador valida: se parsea con HAPI igualmente
+        assertTrue(parserService.requiresFullParse("ADT^A08"));
+        assertFalse(parserService.requiresFullParse("SIU^S12"));
+
+        String noPatient = "MSH|^~\\&|ADM|FAC|HIS|HOSP|20240101120000||ADT^A08|ADT-NOPID-2|P|2.5\rEVN|A08\rPID|1||\r";
+        assertEquals("PID-3 (ID de paciente) está vacío.", parserService.validateBeforeLog(MSHHeader.scan(noPatient), noPatient));
+        String withPatient = "MSH|^~\\&|ADM|FAC|HIS|HOSP|20240101120000||ADT^A01|ADT-PID-2|P|2.5\rEVN|A01\rPID|1||999^^^HOSP\r";
+        assertNull(parserService.validateBeforeLog(MSHHeader.scan(withPatient), withPatient));
+    }
+}
@@ -0,0 +1,52 @@
+package com.myobservation.storage.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HL7BatchFileReaderTest {
+
+    @Test
+    void splitsMessagesAndSkipsBatchEnvelope() throws IOException {
+        String file = "FHS|^~\\&|LEGACY|HOSP|||20240101\r\n"
+                + "BHS|^~\\&|LEGACY|HOSP|||20240101\r\n"
+                + "MSH|^~\\&|LEGACY|HOSP|HIS|HOSP|20240101||ADT^A01|1|P|2.5\r\n"
+                + "PID|1||123\r\n"
+                + "\r\n"
+                + "MSH|^~\\&|LEGACY|HOSP|HIS|HOSP|20240101||ADT^A08|2|P|2.5\n"
+                + "PID|1||456\n"
+                + "BTS|2\r"
+                + "FTS|1\r";
+
+        try (HL7BatchFileReader reader = new HL7BatchFileReader(new StringReader(file), 1000)) {
+            HL7BatchFileReader.BatchMessage first = reader.next();
+            assertEquals(1, first.index());
+            assertEquals("MSH|^~\\&|LEGACY|HOSP|HIS|HOSP|20240101||ADT^A01|1|P|2.5\rPID|1||123\r", first.message());
+            HL7BatchFileReader.BatchMessage second = reader.next();
+            assertEquals(2, second.index());
+            assertEquals("MSH|^~\\&|LEGACY|HOSP|HIS|HOSP|20240101||ADT^A08|2|P|2.5\rPID|1||456\r", second.message());
+            assertNull(reader.next());
+            assertEquals(0, reader.skippedSegments());
+        }
+    }
+
+    @Test
+    void flagsOversizedMessagesAndKeepsGoing() throws IOException {
+        String file = "NTE|fuera de mensaje\r"
+                + "MSH|^~\\&|A|B|C|D|20240101||ORU^R01|1|P|2.5\r"
+                + "OBX|1|TX|||" + "x".repeat(200) + "\r"
+                + "MSH|^~\\&|A|B|C|D|20240101||ORU^R01|2|P|2.5\r";
+
+        try (HL7BatchFileReader reader = new HL7BatchFileReader(new StringReader(file), 100)) {
+            HL7BatchFileReader.BatchMessage oversized = reader.next();
+            assertTrue(oversized.oversized());
+            assertTrue(oversized.message().startsWith("MSH|"));
+            assertFalse(reader.next().oversized());
+            assertNull(reader.next());
+            assertEquals(1, reader.skippedSegments());
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.myobservation.storage.ingest;
+
+import com.myobservation.storage.model.dto.HL7BatchIngestionSummary;
+import com.myobservation.storage.model.dto.HL7BatchMessageResult;
+import com.myobservation.storage.repository.HL7MessageRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ingesta de un fichero batch con un mensaje que la BBDD no puede guardar.
+ */
+@SpringBootTest
+class HL7BatchIngestionServiceTest {
+
+    @Autowired
+    private HL7BatchIngestionService ingestionService;
+    @Autowired
+    private HL7MessageRepository repository;
+
+    @AfterEach
+    void cleanUp() {
+        repository.deleteAll();
+    }
+
+    private static String message(String sender, String controlId) {
+        return "MSH|^~\\&|" + sender + "|FAC|HIS|HOSP|20240101120000||ADT^A01|" + controlId + "|P|2.5\r"
+                + "EVN|A01\rPID|1||123^^^HOSP\r";
+    }
+
+    @Test
+    void onlyTheMessageThatCannotBeSavedIsMarkedAsError() throws IOException {
+        String file = message("INGEST", "INGEST-1") + message("X".repeat(120), "INGEST-2") + message("INGEST", "INGEST-3");
+        List<HL7BatchMessageResult> results = new ArrayList<>();
+
+        HL7BatchIngestionSummary summary = ingestionService.ingest(new StringReader(file), results::add);
+
+        assertEquals(3, summary.messages());
+        assertEquals(2, summary.accepted());
+        assertEquals(1, summary.errors());
+        assertEquals(List.of("AA", "AE", "AA"), results.stream().map(HL7BatchMessageResult::ackStatus).toList());
+        for (String controlId : List.of("INGEST-1", "INGEST-3")) {
+            assertEquals(1, repository.findByMessageControlIdAndSenderOrderByCreatedAtDesc(controlId, "INGEST").size(),
+                    controlId);
+        }
+        assertEquals(2, repository.count());
+    }
+}
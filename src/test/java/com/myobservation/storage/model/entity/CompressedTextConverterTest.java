@@ -0,0 +1,34 @@
+package com.myobservation.storage.model.entity;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressedTextConverterTest {
+
+    private final CompressedTextConverter converter = new CompressedTextConverter();
+
+    @Test
+    void roundTripKeepsTextAndShrinksIt() {
+        StringBuilder message = new StringBuilder("MSH|^~\\&|LIS|HOSP|HIS|HOSP|20240101120000||ORU^R01|1|P|2.5\r"
+                + "PID|1||12345^^^HOSP^MR||MUÑOZ^JOSÉ\r");
+        for (int i = 1; i <= 300; i++) {
+            message.append("OBX|").append(i).append("|NM|GLU^Glucosa||").append(90 + i % 10).append("|mg/dL|70-110|N|||F\r");
+        }
+        String raw = message.toString();
+
+        byte[] stored = converter.convertToDatabaseColumn(raw);
+
+        assertTrue(stored.length < raw.getBytes(StandardCharsets.UTF_8).length / 4);
+        assertEquals(raw, converter.convertToEntityAttribute(stored));
+    }
+
+    @Test
+    void nullStaysNullAndCorruptPayloadFails() {
+        assertNull(converter.convertToDatabaseColumn(null));
+        assertNull(converter.convertToEntityAttribute(null));
+        assertThrows(IllegalStateException.class, () -> converter.convertToEntityAttribute(new byte[]{1, 2, 3}));
+    }
+}
@@ -0,0 +1,78 @@
+package com.myobservation.storage.service;
+
+import com.myobservation.config.HL7NodeId;
+import com.myobservation.listener.utils.MSHHeader;
+import com.myobservation.metrics.HL7Metrics;
+import com.myobservation.storage.model.dto.HL7AckOutcome;
+import com.myobservation.storage.repository.HL7MessageRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class HL7DuplicateDetectorTest {
+
+    private final HL7MessageRepository repository = mock(HL7MessageRepository.class);
+
+    private static MSHHeader header(String sender, String controlId) {
+        return MSHHeader.scan("MSH|^~\\&|" + sender + "|FAC|HIS|HOSP|20240101120000||ADT^A01|" + controlId + "|P|2.5\r");
+    }
+
+    private HL7DuplicateDetector detector(int maxEntries) {
+        when(repository.findFirstByMessageControlIdAndSenderAndCreatedAtGreaterThanEqualOrderByCreatedAtDesc(anyString(), anyString(), any()))
+                .thenReturn(Optional.empty());
+        return new HL7DuplicateDetector(repository, HL7Metrics.disabled(), true, maxEntries, 3600, true, 7, 1000,
+                null, new HL7NodeId("test"), false);
+    }
+
+    @Test
+    void retransmissionGetsOriginalAck() {
+        HL7DuplicateDetector detector = detector(100);
+
+        HL7DuplicateDetector.Receipt first = detector.register(header("LAB", "CTRL1"));
+        assertFalse(first.isDuplicate());
+        first.complete("AE", "MSH-9 vacío");
+
+        HL7DuplicateDetector.Receipt retransmission = detector.register(header("LAB", "CTRL1"));
+        assertTrue(retransmission.isDuplicate());
+        assertEquals(new HL7AckOutcome("AE", "MSH-9 vacío"), retransmission.original());
+        // Mismo MSH-10 de otro emisor: no es un duplicado
+        assertFalse(detector.register(header("RIS", "CTRL1")).isDuplicate());
+        verify(repository, times(2)).findFirstByMessageControlIdAndSenderAndCreatedAtGreaterThanEqualOrderByCreatedAtDesc(anyString(), anyString(), any());
+    }
+
+    @Test
+    void failedOriginalIsProcessedAgain() {
+        HL7DuplicateDetector detector = detector(100);
+
+        detector.register(header("LAB", "CTRL1")).abandon();
+
+        assertFalse(detector.register(header("LAB", "CTRL1")).isDuplicate());
+    }
+
+    @Test
+    void cacheMissFallsBackToDatabase() {
+        HL7DuplicateDetector detector = detector(100);
+        when(repository.findFirstByMessageControlIdAndSenderAndCreatedAtGreaterThanEqualOrderByCreatedAtDesc(eq("CTRL9"), eq("LAB"), any()))
+                .thenReturn(Optional.of(new HL7AckOutcome("AA", "")));
+
+        HL7DuplicateDetector.Receipt receipt = detector.register(header("LAB", "CTRL9"));
+
+        assertTrue(receipt.isDuplicate());
+        assertEquals("AA", receipt.original().ackStatus());
+    }
+
+    @Test
+    void evictsOldestBeyondMaxEntries() {
+        HL7DuplicateDetector detector = detector(2);
+        for (String controlId : new String[]{"C1", "C2", "C3"}) {
+            detector.register(header("LAB", controlId)).complete("AA", "");
+        }
+        detector.register(header("LAB", "C4")).complete("AA", "");
+
+        assertTrue(detector.register(header("LAB", "C4")).isDuplicate());
+        assertFalse(detector.register(header("LAB", "C1")).isDuplicate());
+    }
+}
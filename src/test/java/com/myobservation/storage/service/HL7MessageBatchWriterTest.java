@@ -0,0 +1,103 @@
+package com.myobservation.storage.service;
+
+import com.myobservation.metrics.HL7Metrics;
+import com.myobservation.storage.model.entity.HL7Message;
+import com.myobservation.storage.repository.HL7MessageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Commit agrupado del escritor por lotes, reintento uno a uno y parada.
+ */
+@SpringBootTest
+class HL7MessageBatchWriterTest {
+
+    @Autowired
+    private HL7ParserService parserService;
+    @Autowired
+    private HL7MessageRepository repository;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private HL7MessageBatchWriter writer;
+
+    private HL7MessageBatchWriter start(long lingerMs) {
+        writer = new HL7MessageBatchWriter(repository, transactionTemplate, new HL7Metrics(registry), 10, lingerMs, 100);
+        writer.start();
+        return writer;
+    }
+
+    @AfterEach
+    void cleanUp() throws InterruptedException {
+        if (writer != null) {
+            writer.stop();
+        }
+        repository.deleteAll();
+    }
+
+    private HL7Message entity(String sender, String controlId) {
+        return parserService.parseToEntity("MSH|^~\\&|" + sender + "|FAC|HIS|HOSP|20240101120000||ADT^A01|" + controlId
+                + "|P|2.5\rEVN|A01\rPID|1||123^^^HOSP\r");
+    }
+
+    private long batchCommits() {
+        return registry.timer("hl7.db.save", "mode", "batch").count();
+    }
+
+    @Test
+    void queuedMessagesShareOneCommit() throws Exception {
+        HL7MessageBatchWriter writer = start(500);
+        List<CompletableFuture<HL7Message>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            results.add(writer.submit(entity("BATCHW", "GROUP-" + i)));
+        }
+        for (CompletableFuture<HL7Message> result : results) {
+            assertTrue(result.get(5, TimeUnit.SECONDS).getId() > 0);
+        }
+        assertEquals(1, batchCommits());
+        assertEquals(5, repository.count());
+    }
+
+    @Test
+    void invalidMessageFailsAloneWhenTheBatchIsRetriedOneByOne() throws Exception {
+        HL7MessageBatchWriter writer = start(500);
+        CompletableFuture<HL7Message> first = writer.submit(entity("BATCHW", "RETRY-1"));
+        CompletableFuture<HL7Message> invalid = writer.submit(entity("X".repeat(120), "RETRY-2")); // MSH-3 mayor que his_sender
+        CompletableFuture<HL7Message> last = writer.submit(entity("BATCHW", "RETRY-3"));
+
+        assertEquals("RETRY-1", first.get(5, TimeUnit.SECONDS).getMessageControlId());
+        assertEquals("RETRY-3", last.get(5, TimeUnit.SECONDS).getMessageControlId());
+        assertThrows(ExecutionException.class, () -> invalid.get(5, TimeUnit.SECONDS));
+        assertEquals(2, repository.count());
+    }
+
+    @Test
+    void stopSavesWhatIsQueuedAndRejectsLaterMessages() throws Exception {
+        HL7MessageBatchWriter writer = start(200);
+        List<CompletableFuture<HL7Message>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(writer.submit(entity("BATCHW", "STOP-" + i)));
+        }
+        writer.stop();
+
+        for (CompletableFuture<HL7Message> result : results) {
+            assertTrue(result.isDone());
+            assertTrue(result.get().getId() > 0);
+        }
+        assertThrows(IllegalStateException.class, () -> writer.submit(entity("BATCHW", "STOP-LATE")));
+        assertEquals(3, repository.count());
+    }
+}
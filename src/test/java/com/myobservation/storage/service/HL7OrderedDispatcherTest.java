@@ -0,0 +1,104 @@
+package com.myobservation.storage.service;
+
+import com.myobservation.listener.utils.MSHHeader;
+import com.myobservation.listener.utils.PatientIdScanner;
+import com.myobservation.metrics.HL7Metrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HL7OrderedDispatcherTest {
+
+    private HL7OrderedDispatcher dispatcher;
+
+    private static MSHHeader header(String sender, String patientId) {
+        return MSHHeader.scan("MSH|^~\\&|" + sender + "|FAC|HIS|HOSP|20240101120000||ADT^A08|1|P|2.5\r"
+                + "EVN|A08|20240101120000\r"
+                + "PID|1||" + patientId + "^^^HOSP^MR~OTRO^^^SS||GARCIA^ANA\r");
+    }
+
+    private HL7OrderedDispatcher start(int lanes, String key) {
+        dispatcher = new HL7OrderedDispatcher(HL7Metrics.disabled(), true, lanes, key, 100, Set.of("*"));
+        return dispatcher;
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        if (dispatcher != null) {
+            dispatcher.stop();
+        }
+    }
+
+    @Test
+    void sameSenderKeepsArrivalOrder() throws Exception {
+        HL7OrderedDispatcher dispatcher = start(4, "sender");
+        List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int sequence = i;
+            results.add(dispatcher.submit("default", header("ADT_FEED", "P" + (i % 7)), () -> {
+                processed.add(sequence);
+                return sequence;
+            }));
+        }
+        for (Future<Integer> result : results) {
+            result.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(IntStream.range(0, 200).boxed().toList(), processed);
+    }
+
+    @Test
+    void blockedSenderDoesNotStallOthers() throws Exception {
+        HL7OrderedDispatcher dispatcher = start(8, "sender");
+        String blocked = "LAB";
+        String other = IntStream.range(0, 100).mapToObj(i -> "RIS" + i)
+                .filter(s -> Math.floorMod(s.hashCode(), 8) != Math.floorMod(blocked.hashCode(), 8))
+                .findFirst().orElseThrow();
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Boolean> stalled = dispatcher.submit("default", header(blocked, "1"), () -> release.await(5, TimeUnit.SECONDS));
+
+        assertEquals(other, dispatcher.submit("default", header(other, "1"), () -> other).get(2, TimeUnit.SECONDS));
+        assertFalse(stalled.isDone());
+        release.countDown();
+        assertTrue(stalled.get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void patientKeyUsesFirstPid3Identifier() {
+        HL7OrderedDispatcher dispatcher = start(1, "sender-patient");
+        assertEquals("12345", PatientIdScanner.patientId(header("ADT_FEED", "12345")));
+        assertEquals("ADT_FEED|12345", dispatcher.partitionKey(header("ADT_FEED", "12345")));
+        assertEquals("", PatientIdScanner.patientId(MSHHeader.scan("MSH|^~\\&|A|B|C|D|1||ADT^A01|1|P|2.5\r")));
+    }
+
+    @Test
+    void onlyConfiguredMessageTypesAreOrdered() {
+        dispatcher = new HL7OrderedDispatcher(HL7Metrics.disabled(), true, 1, "sender", 100, Set.of("ADT^*", "ORM^O01"));
+        assertTrue(dispatcher.appliesTo(header("ADT_FEED", "1")));
+        assertTrue(dispatcher.appliesTo(MSHHeader.scan("MSH|^~\\&|A|B|C|D|1||ORM^O01|1|P|2.5\r")));
+        assertFalse(dispatcher.appliesTo(MSHHeader.scan("MSH|^~\\&|A|B|C|D|1||ORU^R01|1|P|2.5\r")));
+        assertFalse(dispatcher.appliesTo(MSHHeader.scan("MSH|^~\\&|A|B|C|D|1||ORM^O02|1|P|2.5\r")));
+    }
+
+    @Test
+    void eachListenerHasItsOwnLanes() throws Exception {
+        HL7OrderedDispatcher dispatcher = start(1, "sender");
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Boolean> stalled = dispatcher.submit("lab", header("LAB", "1"), () -> release.await(5, TimeUnit.SECONDS));
+
+        assertEquals("adt", dispatcher.submit("adt", header("LAB", "1"), () -> "adt").get(2, TimeUnit.SECONDS));
+        assertFalse(stalled.isDone());
+        release.countDown();
+        assertTrue(stalled.get(2, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,79 @@
+package com.myobservation.storage.service;
+
+import com.myobservation.storage.model.entity.HL7Message;
+import com.myobservation.storage.repository.HL7MessagePartitionRepository;
+import com.myobservation.storage.repository.HL7MessageRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+class HL7RetentionServiceTest {
+
+    @Autowired
+    private HL7MessageRepository repository;
+    @Autowired
+    private HL7MessagePartitionRepository partitionRepository;
+    @Autowired
+    private HL7MessageQueryService queryService;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @TempDir
+    Path archiveDirectory;
+
+    @AfterEach
+    void cleanUp() {
+        repository.deleteAll();
+    }
+
+    private HL7Message message(String controlId, LocalDateTime createdAt) {
+        HL7Message message = new HL7Message();
+        message.setMessageRaw("MSH|^~\\&|LAB|HOSP|HIS|HOSP|20200101||ADT^A01|" + controlId + "|P|2.5\r");
+        message.setSender("LAB");
+        message.setMessageType("ADT^A01");
+        message.setMessageControlId(controlId);
+        message.setAckStatus("AA");
+        message.setCreatedAt(createdAt);
+        return message;
+    }
+
+    @Test
+    void archivesAndDeletesMonthsOutsideRetention() throws IOException {
+        LocalDateTime now = LocalDateTime.of(2026, 5, 20, 10, 0);
+        repository.saveAll(List.of(
+                message("OLD1", LocalDateTime.of(2026, 1, 3, 8, 0)),
+                message("OLD2", LocalDateTime.of(2026, 1, 31, 23, 59)),
+                message("KEEP1", LocalDateTime.of(2026, 2, 1, 0, 0)),
+                message("KEEP2", now)));
+        HL7RetentionService retention = new HL7RetentionService(repository, partitionRepository, queryService,
+                transactionTemplate, 3, "delete", true, archiveDirectory.toString());
+
+        assertEquals(1, retention.applyRetention(now)); // Se conservan mayo y los 3 meses anteriores
+
+        assertEquals(List.of("KEEP1", "KEEP2"), repository.findAll().stream()
+                .map(HL7Message::getMessageControlId).sorted().toList());
+        Path archived = archiveDirectory.resolve("HL7_MESSAGE_2026-01.ndjson.gz");
+        String ndjson;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(archived))) {
+            ndjson = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertEquals(2, ndjson.lines().count());
+        assertTrue(ndjson.contains("\"messageControlId\":\"OLD1\"") && ndjson.contains("\"messageRaw\":\"MSH|"));
+        assertEquals(0, retention.applyRetention(now));
+    }
+}
@@ -0,0 +1,78 @@
+package com.myobservation.storage.service;
+
+import com.myobservation.config.HL7NodeId;
+import com.myobservation.listener.utils.MSHHeader;
+import com.myobservation.metrics.HL7Metrics;
+import com.myobservation.storage.model.dto.HL7AckOutcome;
+import com.myobservation.storage.repository.HL7MessageReceiptRepository;
+import com.myobservation.storage.repository.HL7MessageRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Dos nodos (dos detectores con su propia caché) sobre la misma BBDD de recibos.
+ */
+@SpringBootTest
+class HL7SharedReceiptsTest {
+
+    @Autowired
+    private HL7MessageRepository repository;
+    @Autowired
+    private HL7MessageReceiptRepository receiptRepository;
+
+    @AfterEach
+    void cleanUp() {
+        receiptRepository.purgeReceivedBefore(LocalDateTime.now().plusDays(1));
+    }
+
+    private HL7DuplicateDetector node(String nodeId) {
+        return new HL7DuplicateDetector(repository, HL7Metrics.disabled(), true, 100, 3600, true, 7, 300,
+                receiptRepository, new HL7NodeId(nodeId), true);
+    }
+
+    private static MSHHeader header(String controlId) {
+        return MSHHeader.scan("MSH|^~\\&|LAB|FAC|HIS|HOSP|20240101120000||ORU^R01|" + controlId + "|P|2.5\r");
+    }
+
+    @Test
+    void retransmissionToAnotherNodeGetsOriginalAck() {
+        HL7DuplicateDetector nodeA = node("node-a");
+        HL7DuplicateDetector nodeB = node("node-b");
+
+        HL7DuplicateDetector.Receipt original = nodeA.register(header("CTRL1"));
+        assertFalse(original.isDuplicate());
+        original.complete("AE", "OBX-5 vacío");
+
+        HL7DuplicateDetector.Receipt retransmission = nodeB.register(header("CTRL1"));
+        assertTrue(retransmission.isDuplicate());
+        assertEquals(new HL7AckOutcome("AE", "OBX-5 vacío"), retransmission.original());
+
+        // Si el original falla, el recibo se libera y el otro nodo lo procesa
+        nodeA.register(header("CTRL2")).abandon();
+        assertFalse(nodeB.register(header("CTRL2")).isDuplicate());
+        assertEquals("node-b", receiptRepository.find("LAB", "CTRL2").orElseThrow().getNodeId());
+    }
+
+    @Test
+    void unfinishedClaimIsTakenOverAfterInFlightWait() {
+        HL7DuplicateDetector nodeA = node("node-a");
+        HL7DuplicateDetector nodeB = node("node-b");
+
+        HL7DuplicateDetector.Receipt stuck = nodeA.register(header("CTRL3")); // Nodo A se cae sin responder
+        assertFalse(stuck.isDuplicate());
+
+        HL7DuplicateDetector.Receipt retransmission = nodeB.register(header("CTRL3"));
+        assertFalse(retransmission.isDuplicate());
+        retransmission.complete("AA", "");
+        stuck.complete("AE", "tarde"); // El recibo ya es del nodo B: no se sobrescribe
+
+        assertEquals("node-b", receiptRepository.find("LAB", "CTRL3").orElseThrow().getNodeId());
+        assertEquals("AA", receiptRepository.find("LAB", "CTRL3").orElseThrow().getAckStatus());
+    }
+}
@@ -0,0 +1,90 @@
+package com.myobservation.storage.wal;
+
+import com.myobservation.listener.utils.MSHHeader;
+import com.myobservation.metrics.HL7Metrics;
+import com.myobservation.storage.ingest.HL7BatchFileReader;
+import com.myobservation.storage.model.entity.HL7Message;
+import com.myobservation.storage.repository.HL7MessageRepository;
+import com.myobservation.storage.service.HL7ParserService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Volcado del write-ahead log con mensajes que la BBDD no puede guardar.
+ */
+@SpringBootTest
+class HL7WalDrainerTest {
+
+    @Autowired
+    private HL7ParserService parserService;
+    @Autowired
+    private HL7MessageRepository repository;
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void cleanUp() {
+        repository.deleteAll();
+    }
+
+    private static String message(String sender, String type, String controlId) {
+        return "MSH|^~\\&|" + sender + "|FAC|HIS|HOSP|20240101120000||" + type + "|" + controlId + "|P|2.5\r"
+                + "EVN|A01\rPID|1||123^^^HOSP\r";
+    }
+
+    @Test
+    void poisonMessagesAreQuarantinedAndTheRestIsSaved() throws IOException {
+        HL7WriteAheadLog wal = new HL7WriteAheadLog(directory.toString(), 1024 * 1024);
+        HL7WalDrainer drainer = new HL7WalDrainer(wal, parserService, HL7Metrics.disabled(), 500);
+        wal.append(message("WALTEST", "ADT^A01", "WAL-OK-1"));
+        wal.append(message("", "ADT^A01", "WAL-POISON-1"));    // MSH-3 vacío: HL7_MESSAGE.his_sender es NOT NULL
+        wal.append(message("X".repeat(120), "ADT^A01", "WAL-POISON-2")); // MSH-3 mayor que his_sender
+        wal.append(message("WALTEST", "ADT^A01", "WAL-OK-2"));
+
+        drainer.drain();
+
+        assertEquals(0, wal.pendingBytes());
+        assertEquals(2, wal.quarantinedRecords());
+        for (String controlId : List.of("WAL-OK-1", "WAL-OK-2")) {
+            List<HL7Message> saved = repository.findByMessageControlIdAndSenderOrderByCreatedAtDesc(controlId, "WALTEST");
+            assertEquals(1, saved.size(), controlId);
+        }
+        // El fichero de mensajes apartados se puede reinyectar como batch HL7
+        List<String> quarantined = new ArrayList<>();
+        try (HL7BatchFileReader reader = new HL7BatchFileReader(Files.newBufferedReader(wal.deadLetterFile()), 1 << 20)) {
+            HL7BatchFileReader.BatchMessage next;
+            while ((next = reader.next()) != null) {
+                quarantined.add(next.message());
+            }
+        }
+        assertEquals(2, quarantined.size());
+        assertTrue(quarantined.get(0).contains("WAL-POISON-1"));
+        assertTrue(quarantined.get(1).contains("WAL-POISON-2"));
+        wal.close();
+    }
+
+    private String validateBeforeLog(String message) {
+        return parserService.validateBeforeLog(MSHHeader.scan(message), message);
+    }
+
+    @Test
+    void unsaveableHeadersAreRejectedBeforeTheAck() {
+        assertNull(validateBeforeLog(message("WALTEST", "ADT^A01", "C1")));
+        assertNotNull(validateBeforeLog(message("", "ADT^A01", "C1")));
+        assertNotNull(validateBeforeLog(message("X".repeat(120), "ADT^A01", "C1")));
+        assertNotNull(validateBeforeLog(message("WALTEST", "", "C1")));
+        assertNotNull(validateBeforeLog(message("WALTEST", "ZZZZZ^ZZZZ", "C1")));
+    }
+}
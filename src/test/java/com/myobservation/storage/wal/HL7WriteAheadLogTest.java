@@ -0,0 +1,126 @@
+package com.myobservation.storage.wal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HL7WriteAheadLogTest {
+
+    @TempDir
+    Path directory;
+
+    private HL7WriteAheadLog open() throws IOException {
+        return new HL7WriteAheadLog(directory.toString(), 1024 * 1024);
+    }
+
+    private static String message(String controlId) {
+        return "MSH|^~\\&|LAB|FAC|HIS|HOSP|20240101120000||ADT^A01|" + controlId + "|P|2.5\rPID|1||123\r";
+    }
+
+    private static List<String> messages(List<HL7WriteAheadLog.WalRecord> records) {
+        return records.stream().map(HL7WriteAheadLog.WalRecord::message).toList();
+    }
+
+    @Test
+    void appendedMessagesAreReadInOrderUntilCommitted() throws IOException {
+        HL7WriteAheadLog wal = open();
+        wal.append(message("1"));
+        wal.append(message("2"));
+        wal.append(message("3"));
+        assertTrue(wal.pendingBytes() > 0); // append retorna con el registro ya sincronizado (legible por el drenado)
+
+        List<HL7WriteAheadLog.WalRecord> firstTwo = wal.readPending(2);
+        assertEquals(List.of(message("1"), message("2")), messages(firstTwo));
+        wal.commit(firstTwo.get(1).nextPosition());
+
+        List<HL7WriteAheadLog.WalRecord> rest = wal.readPending(10);
+        assertEquals(List.of(message("3")), messages(rest));
+        wal.commit(rest.get(0).nextPosition());
+        assertEquals(0, wal.pendingBytes());
+        assertTrue(wal.readPending(10).isEmpty());
+        wal.close();
+    }
+
+    @Test
+    void concurrentAppendsAreAllDurable() throws Exception {
+        HL7WriteAheadLog wal = open();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> appends = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            String controlId = Integer.toString(i);
+            appends.add(executor.submit(() -> {
+                wal.append(message(controlId));
+                return null;
+            }));
+        }
+        for (Future<?> append : appends) {
+            append.get();
+        }
+        executor.shutdown();
+
+        assertEquals(400, wal.readPending(1000).stream().distinct().count());
+        wal.close();
+    }
+
+    @Test
+    void pendingRecordsSurviveRestartAndTornTailIsDiscarded() throws IOException {
+        HL7WriteAheadLog wal = open();
+        wal.append(message("1"));
+        wal.append(message("2"));
+        wal.append(message("3"));
+        wal.commit(wal.readPending(1).get(0).nextPosition());
+        wal.close();
+
+        // Caída a mitad de escritura: cabecera de un registro sin el contenido completo
+        Path logFile = directory.resolve("hl7-messages.wal");
+        long validSize = Files.size(logFile);
+        Files.write(logFile, new byte[]{0, 0, 0, 100, 1, 2, 3, 4, 'M', 'S'}, StandardOpenOption.APPEND);
+
+        HL7WriteAheadLog reopened = open();
+        assertEquals(List.of(message("2"), message("3")), messages(reopened.readPending(10)));
+        assertEquals(validSize, Files.size(logFile));
+        reopened.close();
+    }
+
+    @Test
+    void damagedRecordIsQuarantinedWithoutLosingTheFollowingOnes() throws IOException {
+        HL7WriteAheadLog wal = open();
+        wal.append(message("1"));
+        wal.append(message("2"));
+        wal.append(message("3"));
+        wal.close();
+
+        // Se daña un byte del contenido del segundo registro
+        int firstRecord = 8 + message("1").getBytes(StandardCharsets.UTF_8).length;
+        try (FileChannel channel = FileChannel.open(directory.resolve("hl7-messages.wal"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), firstRecord + 8 + 4);
+        }
+
+        HL7WriteAheadLog reopened = open();
+        List<HL7WriteAheadLog.WalRecord> records = reopened.readPending(10);
+        assertEquals(2, records.size());
+        assertEquals(message("1"), records.get(0).message());
+        assertTrue(records.get(1).corrupt());
+
+        reopened.quarantine(records.get(1), "prueba");
+        reopened.commit(records.get(1).nextPosition());
+        assertEquals(List.of(message("3")), messages(reopened.readPending(10)));
+        assertEquals(1, reopened.quarantinedRecords());
+        assertTrue(Files.readString(reopened.deadLetterFile()).startsWith("MSH|X"));
+        reopened.close();
+    }
+}